@@ -4,8 +4,8 @@ source config.sh
 
 rm -f tables
 
-after_grep=$(( $m + 2 ))
-catch_tail=$(( $m + 4 ))
+after_grep=$(( $m + 3 ))
+catch_tail=$(( $m + 5 ))
 
 echo "tables for:"
 
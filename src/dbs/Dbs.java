@@ -3,11 +3,9 @@ package dbs;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -15,20 +13,27 @@ import java.rmi.server.UnicastRemoteObject;
 import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLServerSocketFactory;
-import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 
 import dbs.chord.Chord;
@@ -36,23 +41,53 @@ import dbs.chord.ChordDispatcher;
 import dbs.chord.ChordLogger;
 import dbs.chord.Node;
 import dbs.chord.NodeInfo;
-import dbs.chord.RestoreReturn;
+import dbs.chord.TaskPools;
+import dbs.chord.messages.protocol.BackupChunkMessage;
 import dbs.chord.messages.protocol.BackupMessage;
+import dbs.chord.messages.protocol.ChunkMessage;
+import dbs.chord.messages.protocol.ChunkQueryMessage;
+import dbs.chord.messages.protocol.ChunkRequestMessage;
 import dbs.chord.messages.protocol.DeleteMessage;
 import dbs.chord.messages.protocol.RestoreMessage;
-import dbs.chord.messages.protocol.TransferMessage;
+import dbs.chord.messages.protocol.TransferBatchMessage;
 import dbs.chord.observers.protocols.BackupResponseObserver;
+import dbs.chord.observers.protocols.ChunkDataObserver;
+import dbs.chord.observers.protocols.ChunkQueryResponseObserver;
+import dbs.chord.observers.protocols.ChunkResponseObserver;
+import dbs.chord.observers.protocols.TransferAckObserver;
 import dbs.chord.observers.protocols.DeleteResponseObserver;
+import dbs.chord.observers.protocols.RestoreChunkObserver;
 import dbs.chord.observers.protocols.RestoreResponseObserver;
+import dbs.filesystem.BackupIndex;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.ChunkManifest;
+import dbs.filesystem.Configuration;
+import dbs.filesystem.ContentChunker;
+import dbs.filesystem.ErasureLayout;
 import dbs.filesystem.FileManager;
+import dbs.filesystem.FileRecord;
+import dbs.filesystem.ReedSolomon;
+import dbs.filesystem.messages.WriteRequest;
+import dbs.filesystem.threads.ChunkConsumer;
 import dbs.filesystem.threads.ResultCode;
 import dbs.network.SocketManager;
 
 public class Dbs implements RemoteInterface {
 
+    // Chunks read from a file before their copies are stored, in a deduplicated backup.
+    private static final int DEDUP_BATCH = 32;
+    // Chunks fetched at the same time, in a deduplicated restore.
+    private static final int DEDUP_CHUNKS_IN_FLIGHT = 16;
+
+    // Times a batch is sent again when its acknowledgement times out.
+    private static final int TRANSFER_RETRIES = 2;
+    // Wait before resuming an interrupted transfer, in milliseconds.
+    private static final int TRANSFER_RESUME_DELAY = 5000;
+
     private static Dbs instance;
 
-    private final ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(Chord.DBS_TASKS_POOL_SIZE);
+    private final ExecutorService pool = TaskPools.newTaskPool("dbs", Chord.DBS_TASKS_POOL_SIZE);
+    private final AtomicReference<RangeTransfer> activeTransfer = new AtomicReference<>();
 
     public static Dbs get() {
         return instance;
@@ -143,12 +178,9 @@ public class Dbs implements RemoteInterface {
         int port = Integer.parseInt(args[2]);
         InetSocketAddress serverAddress = new InetSocketAddress(address, port);
 
-        final SSLSocketFactory socketFactory = clientContext.getSocketFactory();
-        final SSLServerSocketFactory serverFactory = serverContext.getServerSocketFactory();
-
-        SocketManager.create(serverAddress, serverFactory, socketFactory);
+        SocketManager.create(serverAddress, serverContext, clientContext);
         Node.create(serverAddress);
-        BigInteger remoteId = new BigInteger(args[3]);
+        long remoteId = Long.parseLong(args[3]);
         InetAddress remoteAddress = InetAddress.getByName(args[4]);
         int remotePort = Integer.parseInt(args[5]);
         InetSocketAddress remoteServerAddress = new InetSocketAddress(remoteAddress, remotePort);
@@ -162,14 +194,11 @@ public class Dbs implements RemoteInterface {
 
         setupRMI(args[2]);
 
-        final SSLSocketFactory socketFactory = clientContext.getSocketFactory();
-        final SSLServerSocketFactory serverFactory = serverContext.getServerSocketFactory();
-
         InetAddress address = InetAddress.getByName(args[1]);
         int port = Integer.parseInt(args[2]);
         InetSocketAddress serverAddress = new InetSocketAddress(address, port);
 
-        SocketManager.create(serverAddress, serverFactory, socketFactory);
+        SocketManager.create(serverAddress, serverContext, clientContext);
         Node.create(serverAddress);
         Node.get().join();
     }
@@ -182,7 +211,7 @@ public class Dbs implements RemoteInterface {
 
         for (int i = 2; i < args.length; ++i) {
             int port = Integer.parseInt(args[i]);
-            BigInteger id = Chord.consistentHash(address, port);
+            long id = Chord.consistentHash(address, port);
             // String percentage = Chord.percentStr(id);
             System.out.println(id);
         }
@@ -199,40 +228,19 @@ public class Dbs implements RemoteInterface {
     }
 
     /**
-     * Launch a lookup request for each of the given chord ids.
+     * Launch a lookup request for all of the given chord ids, as one batch.
      */
-    private ArrayList<CompletableFuture<NodeInfo>> lookupAll(BigInteger[] ids) {
-        ArrayList<CompletableFuture<NodeInfo>> futures = new ArrayList<>();
-
-        for (int i = 0; i < ids.length; i++) {
-            futures.add(Node.get().lookup(ids[i]));
-        }
-
-        return futures;
+    private ArrayList<CompletableFuture<NodeInfo>> lookupAll(long[] ids) {
+        return new ArrayList<>(Node.get().lookupAll(ids));
     }
 
     /**
      * Launch a lookup request for each of the offset base ids...
      */
-    private ArrayList<CompletableFuture<NodeInfo>> lookupAll(BigInteger baseId, int R) {
+    private ArrayList<CompletableFuture<NodeInfo>> lookupAll(long baseId, int R) {
         return lookupAll(Chord.offsets(baseId, R));
     }
 
-    /**
-     * Wait on one lookup future.
-     */
-    private NodeInfo waitLookup(CompletableFuture<NodeInfo> lookupFuture) {
-        assert lookupFuture != null;
-        try {
-            NodeInfo remoteNode = lookupFuture.get();
-            return remoteNode;
-        } catch (InterruptedException | ExecutionException e) {
-            System.err.println(e.getMessage());
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
-    }
-
     /**
      * Wait on several lookup futures.
      */
@@ -283,7 +291,42 @@ public class Dbs implements RemoteInterface {
         }
     }
 
-    private String iR(BigInteger id, int i, int R) {
+    /**
+     * Wait on one result code.
+     */
+    private ResultCode waitCode(CompletableFuture<ResultCode> codeFuture) {
+        assert codeFuture != null;
+        try {
+            return codeFuture.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println(e.getMessage());
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wait on a restore stream for as long as its chunks keep arriving.
+     *
+     * @return The result code of the stream, or null if it stalled.
+     */
+    private ResultCode waitRestoreStream(CompletableFuture<ResultCode> streamFuture, RestoreChunkObserver observer) {
+        int wait = RestoreChunkObserver.RESTORECHUNK_WAIT;
+        while (true) {
+            try {
+                return streamFuture.get(wait, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (System.currentTimeMillis() - observer.getLastActivity() >= wait)
+                    return null;
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println(e.getMessage());
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private String iR(long id, int i, int R) {
         return String.format("{%s %d/%d}", Chord.percentStr(id), i + 1, R);
     }
 
@@ -291,13 +334,43 @@ public class Dbs implements RemoteInterface {
     public void backup(String fileName, int R) {
         assert fileName != null && R > 0;
 
-        BigInteger fileId = Chord.encodeSHA256((new File(fileName)).getName());
+        long fileId = Chord.encodeSHA256((new File(fileName)).getName());
         ChordLogger.logBackup("Filename: " + fileName + " | file id: " + Chord.percentStr(fileId));
 
+        long fileSize;
+        try {
+            fileSize = Files.size(Paths.get(fileName));
+        } catch (IOException e) {
+            ChordLogger.logSevere("Could not access file " + fileName + ": " + e.getMessage());
+            return;
+        }
+
         // collect offsets and lookup futures.
-        BigInteger[] offsetIds = Chord.offsets(fileId, R);
+        long[] offsetIds = Chord.offsets(fileId, R);
         ArrayList<CompletableFuture<NodeInfo>> lookupFutures = lookupAll(fileId, R);
 
+        // Files larger than a chunk are streamed, so they are never held in memory as a whole.
+        if (fileSize > Configuration.CHUNK_SIZE) {
+            NodeInfo[] remoteNodes = waitAllLookups(lookupFutures);
+
+            // add file to our repository.
+            Node.get().addFile(fileId, R);
+
+            BackupStream stream = new BackupStream(fileName, offsetIds, remoteNodes);
+            CompletableFuture<Integer> streamFuture = FileManager.getInstance().launchBackupStreamer(fileName, stream);
+
+            try {
+                int numChunks = streamFuture.get();
+                ChordLogger.logBackup(fileName, "streamed " + numChunks + " chunks");
+            } catch (InterruptedException | ExecutionException e) {
+                ChordLogger.logSevere("Could not read file " + fileName + ": " + e.getMessage());
+                stream.abort();
+            }
+
+            waitAllCodes(stream.getCodeFutures());
+            return;
+        }
+
         // prepare reader and launch it in a different thread.
         CompletableFuture<byte[]> fileFuture = FileManager.getInstance().launchBackupReader(fileName);
 
@@ -308,11 +381,21 @@ public class Dbs implements RemoteInterface {
         // add file to our repository.
         Node.get().addFile(fileId, R);
 
+        storeCopies(fileName, file, offsetIds, remoteNodes);
+    }
+
+    /**
+     * Send a whole file to each of its backup nodes at once.
+     *
+     * @return The result code of each instance, null for those which could not be stored.
+     */
+    private ResultCode[] storeCopies(String fileName, byte[] file, long[] offsetIds, NodeInfo[] remoteNodes) {
+        int R = offsetIds.length;
         ArrayList<CompletableFuture<ResultCode>> codeFutures = new ArrayList<>();
 
         for (int i = 0; i < R; i++) {
             NodeInfo remoteNode = remoteNodes[i];
-            BigInteger offsetFileId = offsetIds[i];
+            long offsetFileId = offsetIds[i];
             String ir = "instance " + iR(offsetFileId, i, R);
 
             // No backup
@@ -323,8 +406,8 @@ public class Dbs implements RemoteInterface {
             // Self backup
             else if (remoteNode.equals(Node.get().getSelf())) {
                 ChordLogger.logBackup(fileName, ir + " stored in this node");
-                codeFutures.add(CompletableFuture.completedFuture(ResultCode.OK));
-                FileManager.getInstance().launchBackupWriter(offsetFileId, file);
+                codeFutures.add(FileManager.getInstance().launchBackupWriter(offsetFileId, file)
+                        .handle((v, error) -> error == null ? ResultCode.OK : ResultCode.INTERNAL_ERROR));
             }
             // Remote backup
             else {
@@ -333,9 +416,9 @@ public class Dbs implements RemoteInterface {
                 CompletableFuture<ResultCode> codeFuture = new CompletableFuture<>();
                 codeFutures.add(codeFuture);
 
-                // create observer and message
-                BackupResponseObserver observer = new BackupResponseObserver(offsetFileId, codeFuture);
+                // create message and its observer
                 BackupMessage message = new BackupMessage(offsetFileId, file);
+                BackupResponseObserver observer = new BackupResponseObserver(message, codeFuture);
 
                 // add observer, and only then send the message
                 ChordDispatcher.get().addObserver(observer);
@@ -343,97 +426,626 @@ public class Dbs implements RemoteInterface {
             }
         }
 
-        ResultCode[] codes = waitAllCodes(codeFutures);
+        return waitAllCodes(codeFutures);
+    }
+
+    @Override
+    public void backupErasure(String fileName, int dataFragments, int parityFragments) {
+        assert fileName != null;
+
+        long fileId = Chord.encodeSHA256((new File(fileName)).getName());
+        ChordLogger.logBackup("Filename: " + fileName + " | file id: " + Chord.percentStr(fileId) + " | erasure code "
+                + dataFragments + "+" + parityFragments);
+
+        ReedSolomon coder;
+        try {
+            coder = new ReedSolomon(dataFragments, parityFragments);
+        } catch (IllegalArgumentException e) {
+            ChordLogger.logSevere(e.getMessage());
+            return;
+        }
+
+        long fileSize;
+        try {
+            fileSize = Files.size(Paths.get(fileName));
+        } catch (IOException e) {
+            ChordLogger.logSevere("Could not access file " + fileName + ": " + e.getMessage());
+            return;
+        }
+
+        int n = coder.getTotalFragments();
+        long[] offsetIds = Chord.offsets(fileId, n);
+        NodeInfo[] remoteNodes = waitAllLookups(lookupAll(offsetIds));
+
+        // add file to our repository.
+        Node.get().addErasureFile(fileId, new ErasureLayout(dataFragments, parityFragments, fileSize));
+
+        // The fragments are streamed like the instances of a full backup, only
+        // each instance gets its own fragment instead of the whole file.
+        BackupStream stream = new BackupStream(fileName, offsetIds, remoteNodes);
+        ErasureStream encoder = new ErasureStream(coder, stream);
+        CompletableFuture<Integer> streamFuture = FileManager.getInstance().launchBackupStreamer(fileName, encoder);
+
+        try {
+            int numChunks = streamFuture.get();
+            ChordLogger.logBackup(fileName, "encoded " + numChunks + " chunks into " + n + " fragments");
+        } catch (InterruptedException | ExecutionException e) {
+            ChordLogger.logSevere("Could not read file " + fileName + ": " + e.getMessage());
+            stream.abort();
+        }
+
+        ResultCode[] codes = waitAllCodes(stream.getCodeFutures());
+
+        int stored = 0;
+        for (ResultCode code : codes) {
+            if (code == ResultCode.OK)
+                stored++;
+        }
+        if (stored < dataFragments)
+            ChordLogger.logSevere("Only " + stored + " of " + n + " fragments of " + fileName + " stored, "
+                    + dataFragments + " are needed to restore it");
+        else
+            ChordLogger.logBackup(fileName, stored + " of " + n + " fragments stored");
+    }
+
+    @Override
+    public void backupDedup(String fileName, int R) {
+        assert fileName != null && R > 0;
+
+        long fileId = Chord.encodeSHA256((new File(fileName)).getName());
+        ChordLogger.logBackup("Filename: " + fileName + " | file id: " + Chord.percentStr(fileId) + " | deduplicated");
+
+        // Split the file and store its chunks, a batch at a time.
+        ChunkManifest manifest = new ChunkManifest();
+        DedupStats stats = new DedupStats();
+        boolean complete = true;
+
+        try (ContentChunker chunker = ContentChunker.open(fileName)) {
+            ArrayList<byte[]> batch = new ArrayList<>();
+            byte[] chunk;
+            while ((chunk = chunker.next()) != null) {
+                batch.add(chunk);
+                if (batch.size() == DEDUP_BATCH) {
+                    complete &= storeChunks(batch, R, manifest, stats);
+                    batch.clear();
+                }
+            }
+            complete &= storeChunks(batch, R, manifest, stats);
+        } catch (IOException e) {
+            ChordLogger.logSevere("Could not read file " + fileName + ": " + e.getMessage());
+            return;
+        }
+
+        if (!complete)
+            ChordLogger.logSevere("Some chunks of " + fileName + " could not be stored in all their " + R + " copies");
+
+        // The manifest is small, and backed up like a file of its own.
+        long[] offsetIds = Chord.offsets(fileId, R);
+        NodeInfo[] remoteNodes = waitAllLookups(lookupAll(offsetIds));
+
+        // add file to our repository.
+        Node.get().addDedupFile(fileId, R);
+
+        storeCopies(fileName, manifest.encode(), offsetIds, remoteNodes);
+        ChordLogger.logBackup(fileName, manifest.size() + " chunks, " + stats);
+    }
+
+    /**
+     * Store the copies of these chunks that are not known to be stored yet. The
+     * nodes responsible for them are first asked which they already have, so
+     * only the chunks they miss are sent.
+     *
+     * @return true if every copy is now stored.
+     */
+    private boolean storeChunks(List<byte[]> chunks, int R, ChunkManifest manifest, DedupStats stats) {
+        LinkedHashMap<ChunkKey, byte[]> pending = new LinkedHashMap<>();
+
+        for (byte[] chunk : chunks) {
+            byte[] hash = ContentChunker.hash(chunk);
+            manifest.add(hash, chunk.length);
 
-        for (int i = 0; i < codes.length; ++i) {
-            // ...
+            for (int i = 0; i < R; i++) {
+                ChunkKey key = ChunkKey.of(hash, i, R);
+                if (Node.get().getKnownChunks().contains(key))
+                    stats.known.incrementAndGet();
+                else
+                    pending.put(key, chunk);
+            }
+        }
+
+        if (pending.isEmpty())
+            return true;
+
+        ArrayList<ChunkKey> keys = new ArrayList<>(pending.keySet());
+        long[] placementIds = new long[keys.size()];
+        for (int j = 0; j < placementIds.length; j++)
+            placementIds[j] = keys.get(j).getPlacementId();
+        NodeInfo[] nodes = waitAllLookups(lookupAll(placementIds));
+
+        boolean complete = true;
+        HashMap<NodeInfo, ArrayList<ChunkKey>> byNode = new HashMap<>();
+        for (int j = 0; j < nodes.length; j++) {
+            if (nodes[j] == null)
+                complete = false;
+            else
+                byNode.computeIfAbsent(nodes[j], node -> new ArrayList<>()).add(keys.get(j));
         }
+
+        ArrayList<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (HashMap.Entry<NodeInfo, ArrayList<ChunkKey>> entry : byNode.entrySet())
+            results.add(storeChunksAt(entry.getKey(), entry.getValue(), pending, stats));
+
+        for (CompletableFuture<Boolean> result : results)
+            complete &= result.join();
+        return complete;
+    }
+
+    /**
+     * Store copies of chunks in one node's chunk store.
+     *
+     * @return A future for whether all of them are now stored there.
+     */
+    private CompletableFuture<Boolean> storeChunksAt(NodeInfo node, List<ChunkKey> keys, Map<ChunkKey, byte[]> chunks,
+            DedupStats stats) {
+        // Self store
+        if (node.equals(Node.get().getSelf())) {
+            for (ChunkKey key : keys) {
+                if (FileManager.getInstance().hasChunk(key)) {
+                    stats.shared.incrementAndGet();
+                } else {
+                    try {
+                        FileManager.getInstance().storeChunk(key, chunks.get(key));
+                    } catch (IOException e) {
+                        ChordLogger.ioError(e);
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    stats.stored(chunks.get(key));
+                }
+                Node.get().getKnownChunks().add(key);
+            }
+            return CompletableFuture.completedFuture(true);
+        }
+
+        // Remote store: ask which chunks are missing, then send them
+        ChunkQueryMessage query = new ChunkQueryMessage(keys);
+        CompletableFuture<boolean[]> queryFuture = new CompletableFuture<>();
+        ChunkQueryResponseObserver queryObserver = new ChunkQueryResponseObserver(query, queryFuture);
+
+        // add observer, and only then send the message
+        ChordDispatcher.get().addObserver(queryObserver);
+        if (!SocketManager.get().sendMessage(node, query)) {
+            ChordDispatcher.get().removeObserver(queryObserver);
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return queryFuture.thenComposeAsync(stored -> {
+            if (stored == null || stored.length != keys.size())
+                return CompletableFuture.completedFuture(false);
+
+            ArrayList<CompletableFuture<ResultCode>> codeFutures = new ArrayList<>();
+            for (int i = 0; i < stored.length; i++) {
+                ChunkKey key = keys.get(i);
+                if (stored[i]) {
+                    stats.shared.incrementAndGet();
+                    Node.get().getKnownChunks().add(key);
+                    continue;
+                }
+
+                CompletableFuture<ResultCode> codeFuture = new CompletableFuture<>();
+                ChunkMessage message = new ChunkMessage(key, chunks.get(key));
+                ChunkResponseObserver observer = new ChunkResponseObserver(message, codeFuture);
+                ChordDispatcher.get().addObserver(observer);
+                if (!SocketManager.get().sendMessage(node, message)) {
+                    ChordDispatcher.get().removeObserver(observer);
+                    codeFuture.complete(null);
+                }
+                stats.stored(chunks.get(key));
+                codeFutures.add(codeFuture.thenApply(code -> {
+                    if (code == ResultCode.OK)
+                        Node.get().getKnownChunks().add(key);
+                    return code;
+                }));
+            }
+
+            return CompletableFuture.allOf(codeFutures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+                for (CompletableFuture<ResultCode> codeFuture : codeFutures) {
+                    if (codeFuture.join() != ResultCode.OK)
+                        return false;
+                }
+                return true;
+            });
+        }, pool);
     }
 
     @Override
     public void restore(String fileName) {
         assert fileName != null;
 
-        BigInteger fileId = Chord.encodeSHA256(fileName);
+        long fileId = Chord.encodeSHA256(fileName);
         ChordLogger.logRestore("Filename: " + fileName + " | file id: " + Chord.percentStr(fileId));
 
-        Integer Rp = Node.get().getReplicationMap().get(fileId);
+        FileRecord record = Node.get().getFile(fileId);
 
-        if (Rp == null) {
+        if (record == null) {
             ChordLogger.logSevere("File id " + Chord.percentStr(fileId) + " not found in this node");
             return;
         }
 
-        int R = Rp;
+        ErasureLayout layout = record.getErasureLayout();
+        if (layout != null) {
+            restoreErasure(fileName, fileId, layout);
+            return;
+        }
+
+        int R = record.getReplicationDegree();
 
-        // Iterate through the offsets, trying to restore the node.
-        for (int i = 0; i < R; ++i) {
-            BigInteger offsetFileId = Chord.offset(fileId, i, R);
-            String ir = "run " + iR(offsetFileId, i, R);
+        if (record.isDedup()) {
+            restoreDedup(fileName, fileId, R);
+            return;
+        }
 
-            CompletableFuture<NodeInfo> future = Node.get().lookup(offsetFileId);
-            NodeInfo responsible = waitLookup(future);
+        if (!restoreCopies(fileName, Chord.offsets(fileId, R), Long.toString(fileId)))
+            ChordLogger.logRestore(fileName, "could not be restored from any of its " + R + " replicas");
+    }
 
-            // No resolve
-            if (responsible == null) {
-                ChordLogger.logRestore(fileName, ir + " failed to resolve");
-                continue;
+    /**
+     * Restore one of the full copies of a file into the restore folder as
+     * restoreName, from whichever backup node answers first.
+     *
+     * @return true if a copy was restored.
+     */
+    private boolean restoreCopies(String fileName, long[] offsetIds, String restoreName) {
+        int R = offsetIds.length;
+        NodeInfo self = Node.get().getSelf();
+
+        // The replicas are tried in the order they answer, so a dead or slow
+        // replica only delays the restore if no other one could answer before it
+        // times out.
+        NodeInfo[] responsibles = new NodeInfo[R];
+        ConcurrentLinkedQueue<RestoreResponseObserver> probes = new ConcurrentLinkedQueue<>();
+        LinkedBlockingQueue<Integer> settled = probeAll(offsetIds, responsibles, probes);
+
+        boolean restored = false;
+
+        for (int n = 0; n < R && !restored; ++n) {
+            Integer index = waitSettled(settled);
+            if (index == null) {
+                ChordLogger.logRestore(fileName, "no replica answered");
+                break;
             }
+            if (index < 0)
+                continue;
+
+            NodeInfo responsible = responsibles[index];
+            long offsetFileId = offsetIds[index];
+            String ir = "run " + iR(offsetFileId, index, R);
+
             // Self resolve
-            else if (responsible.equals(Node.get().getSelf())) {
+            if (responsible.equals(self)) {
                 ChordLogger.logRestore(fileName, ir + " resolved to this node");
-                FileManager.getInstance().restoreFromBackup(offsetFileId.toString());
-                // copy backup/filename -> restore/filename
-                break;
+                // copy backup/offsetFileId -> restore/restoreName
+                restored = FileManager.getInstance().restoreFromBackup(Long.toString(offsetFileId), restoreName);
             }
             // Remote resolve
             else {
-                ChordLogger.logRestore(fileName, ir + " resolved to remote " + responsible.shortStr());
+                ChordLogger.logRestore(fileName, ir + " answered by remote " + responsible.shortStr());
+                restored = restoreRemote(restoreName, offsetFileId, responsible);
 
-                CompletableFuture<RestoreReturn> restoreFuture = new CompletableFuture<>();
+                if (restored)
+                    ChordLogger.logRestore(fileName, ir + " restored from " + responsible.shortStr());
+                else
+                    ChordLogger.logRestore(fileName, ir + " could not restore from " + responsible.shortStr());
+            }
+        }
 
-                // create observer and message
-                RestoreResponseObserver observer = new RestoreResponseObserver(offsetFileId, restoreFuture);
-                RestoreMessage message = new RestoreMessage(offsetFileId);
+        // Whatever replica has not answered yet is no longer of interest.
+        for (RestoreResponseObserver probe : probes)
+            ChordDispatcher.get().removeObserver(probe);
 
-                // add observer, and only then send the message
-                ChordDispatcher.get().addObserver(observer);
-                SocketManager.get().sendMessage(responsible, message);
-
-                RestoreReturn restoreReturn;
-                try {
-                    restoreReturn = restoreFuture.get();
-                } catch (InterruptedException | ExecutionException e) {
-                    System.err.println(e.getMessage());
-                    e.printStackTrace();
-                    throw new RuntimeException(e);
+        return restored;
+    }
+
+    /**
+     * Resolve every offset at once, and probe each one as soon as it resolves.
+     *
+     * @param responsibles Filled in with the node responsible for each offset.
+     * @param probes       Collects the observers of the probes sent, so they can
+     *                     be dropped once they are no longer of interest.
+     * @return A queue in which every offset settles exactly once: with its index
+     *         if its node holds the backup, or with -1 if it failed to resolve or
+     *         to answer. The offsets settle in the order their nodes answered.
+     */
+    private LinkedBlockingQueue<Integer> probeAll(long[] offsetIds, NodeInfo[] responsibles,
+            Collection<RestoreResponseObserver> probes) {
+        ArrayList<CompletableFuture<NodeInfo>> lookupFutures = lookupAll(offsetIds);
+        LinkedBlockingQueue<Integer> settled = new LinkedBlockingQueue<>();
+
+        for (int i = 0; i < offsetIds.length; ++i) {
+            final int index = i;
+            lookupFutures.get(i).thenComposeAsync(responsible -> {
+                responsibles[index] = responsible;
+                return probeRestore(offsetIds[index], responsible, probes);
+            }, pool).whenComplete((code, error) -> settled.add(code == ResultCode.OK ? index : -1));
+        }
+
+        return settled;
+    }
+
+    /**
+     * Restore an erasure coded file: fetch dataFragments fragments from the first
+     * nodes to answer, all at once, and rebuild the file from them. A fragment that
+     * fails to arrive is replaced by the next one to answer.
+     */
+    private void restoreErasure(String fileName, long fileId, ErasureLayout layout) {
+        int n = layout.getTotalFragments();
+        int k = layout.getDataFragments();
+        long[] offsetIds = Chord.offsets(fileId, n);
+        NodeInfo self = Node.get().getSelf();
+        ChordLogger.logRestore(fileName, "erasure coded " + layout + ", rebuilding from " + k + " fragments");
+
+        NodeInfo[] responsibles = new NodeInfo[n];
+        ConcurrentLinkedQueue<RestoreResponseObserver> probes = new ConcurrentLinkedQueue<>();
+        LinkedBlockingQueue<Integer> settled = probeAll(offsetIds, responsibles, probes);
+
+        String[] fragmentPaths = new String[n];
+        ArrayList<String> fetchedNames = new ArrayList<>();
+        int fetched = 0;
+        int unsettled = n;
+
+        while (fetched < k && unsettled > 0) {
+            ArrayList<Integer> indexes = new ArrayList<>();
+            ArrayList<CompletableFuture<Boolean>> fetches = new ArrayList<>();
+
+            while (fetched + indexes.size() < k && unsettled > 0) {
+                Integer index = waitSettled(settled);
+                if (index == null) {
+                    unsettled = 0;
+                    break;
+                }
+                --unsettled;
+                if (index < 0)
+                    continue;
+
+                NodeInfo responsible = responsibles[index];
+                long offsetFileId = offsetIds[index];
+                indexes.add(index);
+
+                if (responsible.equals(self)) {
+                    fragmentPaths[index] = FileManager.BACKUP_FOLDER + offsetFileId;
+                    fetches.add(CompletableFuture.completedFuture(true));
+                } else {
+                    String fragmentName = fileId + ".fragment" + index;
+                    fetchedNames.add(fragmentName);
+                    fragmentPaths[index] = FileManager.RESTORE_FOLDER + fragmentName;
+                    fetches.add(CompletableFuture.supplyAsync(
+                            () -> restoreRemote(fragmentName, offsetFileId, responsible), pool));
                 }
+            }
 
-                FileManager.getInstance().launchRestoreWriter(fileId.toString(), restoreReturn.getFileContent());
+            for (int f = 0; f < fetches.size(); f++) {
+                int index = indexes.get(f);
+                String ir = "fragment " + iR(offsetIds[index], index, n);
 
-                break;
+                if (fetches.get(f).join()) {
+                    ChordLogger.logRestore(fileName, ir + " fetched from " + responsibles[index].shortStr());
+                    fetched++;
+                } else {
+                    ChordLogger.logRestore(fileName, ir + " could not be fetched from " + responsibles[index].shortStr());
+                    fragmentPaths[index] = null;
+                }
+            }
+        }
+
+        // Whatever fragment has not answered yet is no longer of interest.
+        for (RestoreResponseObserver probe : probes)
+            ChordDispatcher.get().removeObserver(probe);
+
+        if (fetched < k) {
+            ChordLogger.logRestore(fileName, "only " + fetched + " of the " + k + " fragments needed could be fetched");
+        } else {
+            String restoreName = Long.toString(fileId);
+            FileManager.getInstance().deleteRestored(restoreName);
+            try {
+                FileManager.getInstance().launchFragmentDecoder(restoreName, fragmentPaths, layout).get();
+                ChordLogger.logRestore(fileName, "rebuilt from " + k + " fragments");
+            } catch (InterruptedException | ExecutionException e) {
+                ChordLogger.logRestore(fileName, "could not be rebuilt: " + e.getMessage());
+            }
+        }
+
+        for (String fragmentName : fetchedNames)
+            FileManager.getInstance().deleteRestored(fragmentName);
+    }
+
+    /**
+     * Restore a deduplicated file: restore its manifest like a file, then fetch
+     * its chunks from the chunk store, up to DEDUP_CHUNKS_IN_FLIGHT at a time,
+     * writing each in place as it arrives.
+     */
+    private void restoreDedup(String fileName, long fileId, int R) {
+        String manifestName = fileId + ".manifest";
+        if (!restoreCopies(fileName, Chord.offsets(fileId, R), manifestName)) {
+            ChordLogger.logRestore(fileName, "could not restore the manifest from any of its " + R + " replicas");
+            return;
+        }
+
+        ChunkManifest manifest;
+        try {
+            manifest = ChunkManifest.decode(FileManager.getInstance().readRestored(manifestName));
+        } catch (IOException e) {
+            ChordLogger.logRestore(fileName, "could not read the manifest: " + e.getMessage());
+            return;
+        } finally {
+            FileManager.getInstance().deleteRestored(manifestName);
+        }
+
+        String restoreName = Long.toString(fileId);
+        String filePath = FileManager.RESTORE_FOLDER + restoreName;
+        FileManager.getInstance().deleteRestored(restoreName);
+
+        ArrayDeque<CompletableFuture<Integer>> inFlight = new ArrayDeque<>();
+        inFlight.add(FileManager.getInstance().submit(new WriteRequest(filePath, 0L, new byte[0])));
+        long position = 0;
+
+        try {
+            for (int i = 0; i < manifest.size(); i++) {
+                final int chunkNum = i;
+                final long chunkPosition = position;
+                int length = manifest.getLength(i);
+                position += length;
+
+                if (inFlight.size() == DEDUP_CHUNKS_IN_FLIGHT)
+                    inFlight.poll().get();
+
+                inFlight.add(fetchChunk(manifest.getHash(i), R, 0).thenCompose(chunk -> {
+                    if (chunk == null || chunk.length != length) {
+                        CompletableFuture<Integer> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(new IOException("chunk " + chunkNum + " not found"));
+                        return failed;
+                    }
+                    return FileManager.getInstance().submit(new WriteRequest(filePath, chunkPosition, chunk));
+                }));
             }
+            while (!inFlight.isEmpty())
+                inFlight.poll().get();
+        } catch (InterruptedException | ExecutionException e) {
+            ChordLogger.logRestore(fileName, "could not be restored: " + e.getMessage());
+            return;
         }
+
+        ChordLogger.logRestore(fileName, "restored from " + manifest.size() + " chunks");
+    }
+
+    /**
+     * Fetch a chunk from its i-th copy, or from the next ones if that fails.
+     *
+     * @return A future for the chunk, completed with null if no copy is found.
+     */
+    private CompletableFuture<byte[]> fetchChunk(byte[] hash, int R, int i) {
+        if (i == R)
+            return CompletableFuture.completedFuture(null);
+
+        ChunkKey key = ChunkKey.of(hash, i, R);
+        return Node.get().lookup(key.getPlacementId())
+                .thenComposeAsync(node -> fetchChunkFrom(key, node), pool)
+                .thenCompose(chunk -> chunk != null ? CompletableFuture.completedFuture(chunk) : fetchChunk(hash, R, i + 1));
+    }
+
+    private CompletableFuture<byte[]> fetchChunkFrom(ChunkKey key, NodeInfo node) {
+        if (node == null)
+            return CompletableFuture.completedFuture(null);
+        if (node.equals(Node.get().getSelf()))
+            return CompletableFuture.completedFuture(FileManager.getInstance().readChunk(key));
+
+        CompletableFuture<byte[]> chunkFuture = new CompletableFuture<>();
+        ChunkRequestMessage message = new ChunkRequestMessage(key);
+        ChunkDataObserver observer = new ChunkDataObserver(message, chunkFuture);
+
+        // add observer, and only then send the message
+        ChordDispatcher.get().addObserver(observer);
+        if (!SocketManager.get().sendMessage(node, message)) {
+            ChordDispatcher.get().removeObserver(observer);
+            chunkFuture.complete(null);
+        }
+        return chunkFuture;
+    }
+
+    /**
+     * Ask the responsible node whether it holds the backup offsetFileId, without
+     * having it streamed back.
+     *
+     * @return A future for the node's answer, completed with null if the node did
+     *         not resolve or did not answer in time.
+     */
+    private CompletableFuture<ResultCode> probeRestore(long offsetFileId, NodeInfo responsible,
+            Collection<RestoreResponseObserver> probes) {
+        if (responsible == null)
+            return CompletableFuture.completedFuture(null);
+
+        if (responsible.equals(Node.get().getSelf())) {
+            boolean stored = FileManager.getInstance().hasBackup(offsetFileId);
+            return CompletableFuture.completedFuture(stored ? ResultCode.OK : ResultCode.NOT_FOUND);
+        }
+
+        CompletableFuture<ResultCode> codeFuture = new CompletableFuture<>();
+        RestoreMessage message = new RestoreMessage(offsetFileId, true);
+        RestoreResponseObserver observer = new RestoreResponseObserver(message, codeFuture);
+        probes.add(observer);
+
+        // add observer, and only then send the message
+        ChordDispatcher.get().addObserver(observer);
+        if (!SocketManager.get().sendMessage(responsible, message)) {
+            ChordDispatcher.get().removeObserver(observer);
+            codeFuture.complete(null);
+        }
+        return codeFuture;
+    }
+
+    /**
+     * Wait for the next replica to settle in a hedged restore. Every replica
+     * settles within a lookup, a connection and a probe response, so waiting any
+     * longer means something went wrong.
+     *
+     * @return The settled replica, or null if none settled in time.
+     */
+    private Integer waitSettled(LinkedBlockingQueue<Integer> settled) {
+        int wait = Chord.LOOKUP_WAIT + Chord.CONNECT_WAIT + RestoreResponseObserver.RESTORERESPONSE_WAIT;
+        try {
+            return settled.poll(wait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Ask the responsible node to stream back the backup offsetFileId, and store it
+     * in the restore folder as restoreName.
+     *
+     * @return true if the whole file was restored.
+     */
+    private boolean restoreRemote(String restoreName, long offsetFileId, NodeInfo responsible) {
+        CompletableFuture<ResultCode> codeFuture = new CompletableFuture<>();
+        CompletableFuture<ResultCode> streamFuture = new CompletableFuture<>();
+
+        // create message and its observers
+        RestoreMessage message = new RestoreMessage(offsetFileId);
+        RestoreResponseObserver observer = new RestoreResponseObserver(message, codeFuture);
+        RestoreChunkObserver chunkObserver = new RestoreChunkObserver(message, restoreName, streamFuture);
+
+        FileManager.getInstance().deleteRestored(restoreName);
+
+        // add observers, and only then send the message
+        ChordDispatcher.get().addObserver(chunkObserver);
+        ChordDispatcher.get().addObserver(observer);
+        SocketManager.get().sendMessage(responsible, message);
+
+        ResultCode code = waitCode(codeFuture);
+        if (code == ResultCode.OK)
+            code = waitRestoreStream(streamFuture, chunkObserver);
+
+        ChordDispatcher.get().removeObserver(chunkObserver);
+        return code == ResultCode.OK;
     }
 
     @Override
     public void delete(String fileName) {
         assert fileName != null;
 
-        BigInteger fileId = Chord.encodeSHA256(fileName);
+        long fileId = Chord.encodeSHA256(fileName);
         ChordLogger.logDelete("Filename: " + fileName + " | file id: " + Chord.percentStr(fileId));
 
-        Integer Rp = Node.get().getReplicationMap().get(fileId);
+        FileRecord record = Node.get().getFile(fileId);
 
-        if (Rp == null) {
+        if (record == null) {
             ChordLogger.logSevere("File id " + Chord.percentStr(fileId) + " not found in this node");
             return;
         }
 
-        int R = Rp;
+        int R = record.getReplicationDegree();
 
         // collect offsets and lookup futures.
-        BigInteger[] offsetIds = Chord.offsets(fileId, R);
+        long[] offsetIds = Chord.offsets(fileId, R);
         ArrayList<CompletableFuture<NodeInfo>> lookupFutures = lookupAll(fileId, R);
 
         // espera que todos os lookups retornem
@@ -454,7 +1066,7 @@ public class Dbs implements RemoteInterface {
 
         for (int i = 0; i < R; i++) {
             NodeInfo remoteNode = remoteNodes[i];
-            BigInteger offsetFileId = offsetIds[i];
+            long offsetFileId = offsetIds[i];
             String ir = "delete " + iR(offsetFileId, i, R);
 
             // No Delete
@@ -475,9 +1087,9 @@ public class Dbs implements RemoteInterface {
                 CompletableFuture<ResultCode> codeFuture = new CompletableFuture<>();
                 codeFutures.add(codeFuture);
     
-                // create observer and message
-                DeleteResponseObserver observer = new DeleteResponseObserver(offsetFileId, codeFuture);
+                // create message and its observer
                 DeleteMessage message = new DeleteMessage(offsetFileId);
+                DeleteResponseObserver observer = new DeleteResponseObserver(message, codeFuture);
     
                 // add observer, and only then send the message
                 ChordDispatcher.get().addObserver(observer);
@@ -497,47 +1109,25 @@ public class Dbs implements RemoteInterface {
             }
         }
 
-        Node.get().getReplicationMap().remove(fileId);
+        Node.get().removeFile(fileId);
     }
 
     @Override
-    public int reclaim(int maxSize){
-
-        int currSize = 0;
+    public int reclaim(int maxSize) {
+        BackupIndex index = FileManager.getInstance().getBackupIndex();
 
-        List <Path> result;
-        try (Stream<Path> walk = Files.walk(Paths.get(FileManager.BACKUP_FOLDER))) {
-          result = walk.filter(Files::isRegularFile).collect(Collectors.toList());
-        } catch (IOException e) {
-          e.printStackTrace();
-          return -1;
-        }
-    
-        // Get current size
-        for (Path path : result) {
-          File f = path.toFile();
-          currSize += f.length();
-        }
-
-        // Sort by largest first
-        Collections.sort(result, new Comparator<Path>() {
-            public int compare(Path a, Path b){
-                File f1 = a.toFile();
-                File f2 = b.toFile();
-                return (int) (f2.length() - f1.length());
-            }
-        });
-
-        // Remove files until the condition is met
-        while(currSize > maxSize){
-            for (Path path : result) {
-                File f = path.toFile();
-                currSize -= f.length();
-                f.delete();
+        // Erase the largest backups first, until the rest fits
+        for (long fileId : index.largestFirst()) {
+            if (index.getTotalSize() <= maxSize)
+                break;
+            try {
+                FileManager.getInstance().launchEraser(fileId).get();
+            } catch (InterruptedException | ExecutionException e) {
+                ChordLogger.logSevere("Could not erase backup " + Chord.percentStr(fileId) + ": " + e.getMessage());
             }
         }
 
-        return currSize;
+        return (int) Math.min(index.getTotalSize(), Integer.MAX_VALUE);
     }
 
     @Override
@@ -552,46 +1142,493 @@ public class Dbs implements RemoteInterface {
         out += tab + "Address: " + Node.get().getSelf().getIp() + '\n';
         out += tab + "Port: " + Node.get().getSelf().getPort() + '\n';
         out += "Files Backed Up: \n";
-        for (HashMap.Entry<BigInteger, Integer> entry : Node.get().getReplicationMap().entrySet()) {
-            out += tab + "FileId: " + entry.getKey() + "  =>  RepDegree: " + entry.getValue() + '\n';
+        for (Map.Entry<Long, FileRecord> entry : Node.get().getFiles().entrySet()) {
+            out += tab + "FileId: " + entry.getKey() + "  =>  " + entry.getValue() + '\n';
         }
         out += lineBreak;
 
         return out;
     }
 
+    /**
+     * Hand the backups which now belong to a new predecessor over to it. A
+     * transfer to a previous predecessor stops at its next batch.
+     */
     public void transfer(NodeInfo predecessorNode) {
-        ArrayList<BigInteger> ids = FileManager.getInstance().getFilesToTransfer(predecessorNode);
-        int numIds = ids.size();
-        ChordLogger.logTransfer("Transferring " + numIds + " backups to " + predecessorNode.shortStr());
+        RangeTransfer transfer = new RangeTransfer(predecessorNode);
+        RangeTransfer previous = activeTransfer.getAndSet(transfer);
+        if (previous != null)
+            previous.cancel();
+        pool.submit(transfer);
+
+        ArrayList<ChunkKey> chunks = FileManager.getInstance().getChunksToTransfer(predecessorNode);
+        if (!chunks.isEmpty()) {
+            ChordLogger.logTransfer("Transferring " + chunks.size() + " chunks to " + predecessorNode.shortStr());
+            pool.submit(new ChunkTransferer(chunks, predecessorNode));
+        }
+    }
+
+    /**
+     * Pipelines the chunks of a file to all of its backup nodes as they are read
+     * from disk, so that at most one chunk of the file is held in memory.
+     *
+     * Each instance's result code future completes when the backup node has
+     * acknowledged the whole file, or with null if the node was unreachable. The
+     * response observer is only registered with the last chunk, so its timeout
+     * does not depend on the size of the file. All chunks sent to one instance
+     * carry the same request id, which the backup node's answer carries back.
+     */
+    private class BackupStream implements ChunkConsumer {
+
+        private final String fileName;
+        private final long[] offsetIds;
+        private final NodeInfo[] remoteNodes;
+        private final long[] requestIds;
+        private final AtomicInteger[] selfWrites;
+        private final ArrayList<CompletableFuture<ResultCode>> codeFutures = new ArrayList<>();
+
+        BackupStream(String fileName, long[] offsetIds, NodeInfo[] remoteNodes) {
+            assert offsetIds.length == remoteNodes.length;
+            this.fileName = fileName;
+            this.offsetIds = offsetIds;
+            this.remoteNodes = remoteNodes;
+            this.requestIds = new long[remoteNodes.length];
+            this.selfWrites = new AtomicInteger[remoteNodes.length];
+
+            for (int i = 0; i < remoteNodes.length; i++) {
+                requestIds[i] = ChordDispatcher.get().newRequestId();
+                selfWrites[i] = new AtomicInteger(1);
+                String ir = "instance " + iR(offsetIds[i], i, remoteNodes.length);
+
+                if (remoteNodes[i] == null) {
+                    ChordLogger.logBackup(fileName, ir + " is null, skipped");
+                    codeFutures.add(CompletableFuture.completedFuture(null));
+                } else if (remoteNodes[i].equals(Node.get().getSelf())) {
+                    ChordLogger.logBackup(fileName, ir + " stored in this node");
+                    codeFutures.add(new CompletableFuture<>());
+                } else {
+                    ChordLogger.logBackup(fileName, ir + " stored in remote node, streaming chunks..");
+                    codeFutures.add(new CompletableFuture<>());
+                }
+            }
+        }
+
+        ArrayList<CompletableFuture<ResultCode>> getCodeFutures() {
+            return codeFutures;
+        }
+
+        @Override
+        public boolean accept(int chunkNum, int numChunks, byte[] chunk) {
+            for (int i = 0; i < remoteNodes.length; i++)
+                send(i, chunkNum, numChunks, chunk);
+
+            // Stop reading the file once no instance is left to send it to.
+            return pending();
+        }
+
+        /**
+         * Store one chunk of instance i, unless the instance was already given up on.
+         */
+        void send(int i, int chunkNum, int numChunks, byte[] chunk) {
+            boolean last = chunkNum == numChunks - 1;
+            NodeInfo remoteNode = remoteNodes[i];
+            long offsetFileId = offsetIds[i];
+            CompletableFuture<ResultCode> codeFuture = codeFutures.get(i);
+
+            if (codeFuture.isDone())
+                return;
+
+            // Self backup
+            if (remoteNode.equals(Node.get().getSelf())) {
+                selfWrites[i].incrementAndGet();
+                FileManager.getInstance().launchChunkWriter(offsetFileId, chunkNum, chunk).whenComplete((v, error) -> {
+                    if (error != null)
+                        codeFuture.complete(ResultCode.INTERNAL_ERROR);
+                    selfWritten(i);
+                });
+                if (last)
+                    selfWritten(i);
+                return;
+            }
+
+            // Remote backup: add observer with the last chunk, and only then send it
+            BackupChunkMessage message = new BackupChunkMessage(requestIds[i], offsetFileId, chunkNum, numChunks, chunk);
+            BackupResponseObserver observer = null;
+            if (last) {
+                observer = new BackupResponseObserver(message, codeFuture);
+                ChordDispatcher.get().addObserver(observer);
+            }
+
+            if (!SocketManager.get().sendMessage(remoteNode, message)) {
+                String ir = "instance " + iR(offsetFileId, i, remoteNodes.length);
+                ChordLogger.logBackup(fileName, ir + " lost connection at chunk " + chunkNum + ", skipped");
+                if (observer != null)
+                    ChordDispatcher.get().removeObserver(observer);
+                codeFuture.complete(null);
+            }
+        }
+
+        /**
+         * Count down a write of instance i, or the instance's last chunk being
+         * sent. After both, every chunk of the instance is on disk.
+         */
+        private void selfWritten(int i) {
+            if (selfWrites[i].decrementAndGet() == 0)
+                codeFutures.get(i).complete(ResultCode.OK);
+        }
+
+        /**
+         * @return true if some instance has not been completed or given up on yet.
+         */
+        boolean pending() {
+            for (CompletableFuture<ResultCode> codeFuture : codeFutures) {
+                if (!codeFuture.isDone())
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Give up on all instances that have not been completed yet.
+         */
+        void abort() {
+            for (CompletableFuture<ResultCode> codeFuture : codeFutures) {
+                codeFuture.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Erasure codes a file as it is read from disk: every dataFragments chunks
+     * make a stripe, which is extended with its parity chunks, and chunk i of each
+     * stripe goes to fragment i. See ErasureLayout.
+     */
+    private class ErasureStream implements ChunkConsumer {
+
+        private final ReedSolomon coder;
+        private final BackupStream fragments;
+        private byte[][] stripe;
+        private int stripeChunks = 0;
+
+        ErasureStream(ReedSolomon coder, BackupStream fragments) {
+            this.coder = coder;
+            this.fragments = fragments;
+            this.stripe = new byte[coder.getTotalFragments()][];
+        }
+
+        @Override
+        public boolean accept(int chunkNum, int numChunks, byte[] chunk) {
+            int k = coder.getDataFragments();
+            stripe[stripeChunks++] = chunk;
+            if (stripeChunks < k && chunkNum < numChunks - 1)
+                return true;
+
+            // Only the last chunk of the file is short, and it pads the last stripe.
+            int length = stripe[0].length;
+            for (int j = 0; j < k; j++) {
+                if (stripe[j] == null || stripe[j].length < length)
+                    stripe[j] = Arrays.copyOf(stripe[j] == null ? new byte[0] : stripe[j], length);
+            }
+            for (int i = k; i < stripe.length; i++)
+                stripe[i] = new byte[length];
+            coder.encode(stripe, length);
+
+            int stripeNum = chunkNum / k;
+            int numStripes = (numChunks + k - 1) / k;
+            for (int i = 0; i < stripe.length; i++)
+                fragments.send(i, stripeNum, numStripes, stripe[i]);
+
+            // the chunks sent are still referenced by their messages and writers
+            stripe = new byte[stripe.length][];
+            stripeChunks = 0;
+            return fragments.pending();
+        }
+    }
+
+    /**
+     * Hands chunk copies over to a new predecessor. Each copy is only erased
+     * once the predecessor has acknowledged storing it.
+     */
+    private class ChunkTransferer implements Runnable {
+
+        private final List<ChunkKey> keys;
+        private final NodeInfo predecessorNode;
+
+        ChunkTransferer(List<ChunkKey> keys, NodeInfo predecessorNode) {
+            this.keys = keys;
+            this.predecessorNode = predecessorNode;
+        }
+
+        @Override
+        public void run() {
+            int transferred = 0;
+
+            for (ChunkKey key : keys) {
+                byte[] chunk = FileManager.getInstance().readChunk(key);
+                if (chunk == null)
+                    continue;
+
+                CompletableFuture<ResultCode> codeFuture = new CompletableFuture<>();
+                ChunkMessage message = new ChunkMessage(key, chunk);
+                ChunkResponseObserver observer = new ChunkResponseObserver(message, codeFuture);
+                ChordDispatcher.get().addObserver(observer);
+                if (!SocketManager.get().sendMessage(predecessorNode, message)) {
+                    ChordDispatcher.get().removeObserver(observer);
+                    break;
+                }
+
+                if (waitCode(codeFuture) == ResultCode.OK) {
+                    FileManager.getInstance().deleteChunk(key);
+                    transferred++;
+                }
+            }
+
+            ChordLogger.logTransfer("Transferred " + transferred + " chunks to " + predecessorNode.shortStr());
+        }
+    }
+
+    /**
+     * What a deduplicated backup had to send.
+     */
+    private static class DedupStats {
+
+        // copies this node knew were stored, and copies the nodes already had
+        final AtomicInteger known = new AtomicInteger();
+        final AtomicInteger shared = new AtomicInteger();
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicLong sentBytes = new AtomicLong();
+
+        void stored(byte[] chunk) {
+            sent.incrementAndGet();
+            sentBytes.addAndGet(chunk.length);
+        }
 
-        for (BigInteger id : ids) {
-            pool.submit(new Transferer(id, predecessorNode));
+        @Override
+        public String toString() {
+            return String.format("chunk copies: %d known, %d already stored, %d sent (%d bytes)", known.get(),
+                    shared.get(), sent.get(), sentBytes.get());
         }
     }
 
-    private class Transferer implements Runnable {
+    /**
+     * Streams the backups in the range of the ring which now belongs to the
+     * predecessor, (self, predecessor], in batches of up to TRANSFER_BATCH_FILES
+     * backups or about TRANSFER_BATCH_BYTES bytes, with up to TRANSFER_WINDOW
+     * batches awaiting their acknowledgement (see Chord). Backups larger than a chunk are never read
+     * whole: they are streamed afterwards one at a time, chunk by chunk, as
+     * BACKUPCHUNK messages, each acknowledged on its own. A backup is only erased
+     * here once the predecessor acknowledges storing it.
+     *
+     * If a batch is not acknowledged after TRANSFER_RETRIES retries, or cannot
+     * be sent, the transfer stops and resumes after TRANSFER_RESUME_DELAY, as
+     * long as the predecessor stays the same. The backups already handed over
+     * are gone from the index by then, so it goes on where it stopped.
+     */
+    private class RangeTransfer implements Runnable {
 
-        private final BigInteger fileId;
         private final NodeInfo predecessorNode;
+        private volatile boolean cancelled = false;
 
-        Transferer(BigInteger fileId, NodeInfo predecessorNode) {
-            assert fileId != null && predecessorNode != null;
-            this.fileId = fileId;
+        RangeTransfer(NodeInfo predecessorNode) {
+            assert predecessorNode != null;
             this.predecessorNode = predecessorNode;
         }
 
+        void cancel() {
+            cancelled = true;
+        }
+
+        private boolean isCurrent() {
+            return !cancelled && predecessorNode.equals(Node.get().getPredecessor());
+        }
+
         @Override
         public void run() {
-            // cancelar se o predecessor mudou
+            ArrayList<Long> ids = FileManager.getInstance().getFilesToTransfer(predecessorNode);
+            String predStr = predecessorNode.shortStr();
+            ChordLogger.logTransfer("Transferring " + ids.size() + " backups to " + predStr);
+
+            // only small backups go in batches, the large ones are streamed
+            ArrayList<Long> large = new ArrayList<>();
+            ids.removeIf(fileId -> {
+                if (FileManager.getInstance().getBackupIndex().getSize(fileId) <= Configuration.CHUNK_SIZE)
+                    return false;
+                large.add(fileId);
+                return true;
+            });
+
+            ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+            int next = 0, transferred = 0;
+            boolean interrupted = false;
+
+            while (isCurrent()) {
+                while (inFlight.size() < Chord.TRANSFER_WINDOW && next < ids.size()) {
+                    Batch batch = new Batch();
+                    next = batch.fill(ids, next);
+                    if (batch.isEmpty())
+                        continue;
+                    if (!batch.send()) {
+                        interrupted = true;
+                        break;
+                    }
+                    inFlight.add(batch);
+                }
+                if (interrupted || inFlight.isEmpty())
+                    break;
+
+                Batch batch = inFlight.poll();
+                boolean[] stored = batch.awaitAck();
+                if (stored == null) {
+                    interrupted = true;
+                    break;
+                }
+                transferred += batch.erase(stored);
+            }
 
-            byte[] file = waitFile(FileManager.getInstance().launchRestoreReader(fileId));
-            FileManager.getInstance().launchEraser(fileId);
-            TransferMessage message = new TransferMessage(fileId, file);
-            SocketManager.get().sendMessage(predecessorNode, message);
+            // the batches still in flight may be stored all the same
+            for (Batch batch : inFlight) {
+                boolean[] stored = batch.ackFuture.join();
+                if (stored != null && stored.length == batch.fileIds.size())
+                    transferred += batch.erase(stored);
+            }
+
+            for (int i = 0; i < large.size() && !interrupted && isCurrent(); i++) {
+                ResultCode code = stream(large.get(i));
+                if (code == ResultCode.OK)
+                    transferred++;
+                else if (code != ResultCode.NOT_FOUND)
+                    interrupted = true;
+            }
 
-            String fileStr = Chord.percentStr(fileId), predStr = predecessorNode.shortStr();
-            ChordLogger.logTransfer("Transferred file " + fileStr + " to " + predStr);
+            int total = ids.size() + large.size();
+            ChordLogger.logTransfer("Transferred " + transferred + " of " + total + " backups to " + predStr);
+            if (interrupted && isCurrent()) {
+                ChordLogger.logTransfer("Transfer to " + predStr + " interrupted, resuming later");
+                Executor delayed = CompletableFuture.delayedExecutor(TRANSFER_RESUME_DELAY, TimeUnit.MILLISECONDS, pool);
+                delayed.execute(() -> {
+                    if (activeTransfer.get() == this && isCurrent())
+                        transfer(predecessorNode);
+                });
+            }
+        }
+
+        /**
+         * Stream one backup to the predecessor, chunk by chunk, and erase it once
+         * the predecessor has stored it.
+         *
+         * @return OK if the backup was handed over, NOT_FOUND if it could not be
+         *         read, as if erased in the meantime, or else the predecessor's
+         *         answer, null if there was none.
+         */
+        private ResultCode stream(long fileId) {
+            long requestId = ChordDispatcher.get().newRequestId();
+            CompletableFuture<ResultCode> codeFuture = new CompletableFuture<>();
+
+            CompletableFuture<Integer> streamFuture = FileManager.getInstance().launchRestoreStreamer(fileId,
+                    (chunkNum, numChunks, chunk) -> {
+                        BackupChunkMessage message = new BackupChunkMessage(requestId, fileId, chunkNum, numChunks, chunk);
+
+                        // add observer with the last chunk, and only then send it
+                        BackupResponseObserver observer = null;
+                        if (chunkNum == numChunks - 1) {
+                            observer = new BackupResponseObserver(message, codeFuture);
+                            ChordDispatcher.get().addObserver(observer);
+                        }
+                        if (!isCurrent() || !SocketManager.get().sendMessage(predecessorNode, message)) {
+                            if (observer != null)
+                                ChordDispatcher.get().removeObserver(observer);
+                            codeFuture.complete(null);
+                        }
+
+                        // stop reading once the predecessor has given up on it
+                        return !codeFuture.isDone();
+                    });
+
+            try {
+                streamFuture.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // erased in the meantime; the last chunk was never sent
+                return ResultCode.NOT_FOUND;
+            }
+
+            ResultCode code = codeFuture.join();
+            if (code == ResultCode.OK)
+                FileManager.getInstance().launchEraser(fileId);
+            return code;
+        }
+
+        private class Batch {
+
+            private final ArrayList<Long> fileIds = new ArrayList<>();
+            private final ArrayList<byte[]> files = new ArrayList<>();
+            private CompletableFuture<boolean[]> ackFuture;
+
+            /**
+             * Read backups from ids, starting at next, until the batch is full.
+             *
+             * @return The index of the first backup left out.
+             */
+            int fill(List<Long> ids, int next) {
+                long bytes = 0;
+                while (next < ids.size() && fileIds.size() < Chord.TRANSFER_BATCH_FILES && bytes < Chord.TRANSFER_BATCH_BYTES) {
+                    long fileId = ids.get(next++);
+                    try {
+                        byte[] file = FileManager.getInstance().launchRestoreReader(fileId).get();
+                        fileIds.add(fileId);
+                        files.add(file);
+                        bytes += file.length;
+                    } catch (InterruptedException | ExecutionException e) {
+                        // erased in the meantime
+                    }
+                }
+                return next;
+            }
+
+            boolean isEmpty() {
+                return fileIds.isEmpty();
+            }
+
+            boolean send() {
+                TransferBatchMessage message = new TransferBatchMessage(fileIds, files);
+                ackFuture = new CompletableFuture<>();
+                TransferAckObserver observer = new TransferAckObserver(message, ackFuture);
+
+                // add observer, and only then send the message
+                ChordDispatcher.get().addObserver(observer);
+                if (!SocketManager.get().sendMessage(predecessorNode, message)) {
+                    ChordDispatcher.get().removeObserver(observer);
+                    return false;
+                }
+                return true;
+            }
+
+            /**
+             * @return Which backups were stored, or null if the predecessor did not
+             *         acknowledge the batch, even when sent again.
+             */
+            boolean[] awaitAck() {
+                for (int attempt = 0; ; attempt++) {
+                    boolean[] stored = ackFuture.join();
+                    if (stored != null && stored.length == fileIds.size())
+                        return stored;
+                    if (attempt == TRANSFER_RETRIES || !isCurrent() || !send())
+                        return null;
+                }
+            }
+
+            /**
+             * @return The number of backups stored by the predecessor, now erased.
+             */
+            int erase(boolean[] stored) {
+                int erased = 0;
+                for (int i = 0; i < stored.length; i++) {
+                    if (stored[i]) {
+                        FileManager.getInstance().launchEraser(fileIds.get(i));
+                        erased++;
+                    }
+                }
+                return erased;
+            }
         }
     }
 }
@@ -5,6 +5,8 @@ import java.rmi.RemoteException;
 
 public interface RemoteInterface extends Remote {
     void backup(String filepath, int replicationDeg) throws RemoteException;
+    void backupDedup(String filepath, int replicationDeg) throws RemoteException;
+    void backupErasure(String filepath, int dataFragments, int parityFragments) throws RemoteException;
     void restore(String filepath) throws RemoteException;
     void delete(String pathname) throws RemoteException;
     int reclaim(int maxSize) throws RemoteException;
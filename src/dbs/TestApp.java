@@ -8,7 +8,7 @@ public class TestApp {
     }
 
     public enum ProtocolList {
-        BACKUP, RESTORE, DELETE, RECLAIM, STATE
+        BACKUP, BACKUPDEDUP, BACKUPEC, RESTORE, DELETE, RECLAIM, STATE
     }
 
     public static boolean containsProtocol(String test) {
@@ -32,9 +32,9 @@ public class TestApp {
 
     public static void main(String args[]) {
 
-        if (args.length < 2 || args.length > 4) {
+        if (args.length < 2 || args.length > 5) {
             System.out.println(
-                    "ERROR: Usage should be 'java TestApp <remote_object_name> <sub_protocol> [<oper_1> <oper_2>]'");
+                    "ERROR: Usage should be 'java TestApp <remote_object_name> <sub_protocol> [<oper_1> <oper_2> <oper_3>]'");
             return;
         }
 
@@ -67,6 +67,43 @@ public class TestApp {
                     System.out.println("BACKUP!");
                     break;
                 }
+                case "BACKUPDEDUP": {
+                    if (args.length != 4) {
+                        System.out.println("ERROR: Incorrect number of arguments in BACKUPDEDUP");
+                        return;
+                    }
+                    String filePath = args[2];
+                    int repDeg;
+                    if(isNumber(args[3])){
+                        repDeg = Integer.parseInt(args[3]); // replication degree
+                    }
+                    else{
+                        System.out.println("ERROR: Expected a number as <oper_2> of BACKUPDEDUP");
+                        return;
+                    }
+                    stub.backupDedup(filePath, repDeg);
+                    System.out.println("BACKUPDEDUP!");
+                    break;
+                }
+                case "BACKUPEC": {
+                    if (args.length != 5) {
+                        System.out.println("ERROR: Incorrect number of arguments in BACKUPEC");
+                        return;
+                    }
+                    String filePath = args[2];
+                    int dataFragments, parityFragments;
+                    if(isNumber(args[3]) && isNumber(args[4])){
+                        dataFragments = Integer.parseInt(args[3]);
+                        parityFragments = Integer.parseInt(args[4]);
+                    }
+                    else{
+                        System.out.println("ERROR: Expected numbers as <oper_2> and <oper_3> of BACKUPEC");
+                        return;
+                    }
+                    stub.backupErasure(filePath, dataFragments, parityFragments);
+                    System.out.println("BACKUPEC!");
+                    break;
+                }
                 case "RESTORE": {
                     if (args.length != 3) {
                         System.out.println("ERROR: Incorrect number of arguments in RESTORE");
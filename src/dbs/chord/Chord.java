@@ -1,6 +1,5 @@
 package dbs.chord;
 
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
@@ -10,20 +9,50 @@ import java.security.NoSuchAlgorithmException;
 public class Chord {
 
     // Chord protocol config: These must be the same for all nodes (should go without saying)
+    // Chord ids are longs in [0, 2^m), so m must stay below 63.
     public static final int m = 32;
-    public static final BigInteger modulus = BigInteger.ONE.shiftLeft(m);
+    public static final long modulus = 1L << m;
+    public static final long mask = modulus - 1;
 
     // Reasonable small numbers here...
     public static final int MAX_JOIN_ATTEMPTS = 5;
     public static final int NODE_TASKS_POOL_SIZE = 2;
     public static final int DISPATCHER_TASKS_POOL_SIZE = 4;
     public static final int DBS_TASKS_POOL_SIZE = 6;
+    public static final int NETWORK_LOOPS = 2;
+
+    // Successors each node keeps track of: the ring survives one less of them failing at once.
+    public static final int SUCCESSOR_LIST_SIZE = 4;
+
+    // Lookups go hop by hop through the ring (recursive), or the source asks each hop where to go
+    // next (iterative), up to ITERATIVE_ALPHA hops at once. Set with -Ddbs.lookup=iterative.
+    public static final boolean ITERATIVE_LOOKUP = "iterative".equals(System.getProperty("dbs.lookup"));
+    public static final int ITERATIVE_ALPHA = 3;
+
+    // Hops a forwarded lookup takes at most: up to m through fingers, the rest for detours
+    // around failed nodes. Past that it is dropped, as it is most likely going in circles.
+    public static final int MAX_HOPS = 2 * m;
+
+    // Ring ranges whose responsible node a node remembers, for lookups that need no messages.
+    public static final int LOOKUP_CACHE_SIZE = 1024;
+
+    // Bytes queued for a single peer before senders of larger messages wait for them to be written.
+    public static final int SEND_QUEUE_LIMIT = 1 << 20;
+    // Messages up to this size (in bytes, encoded), and Chord maintenance ones, never wait for a peer's send queue.
+    public static final int SMALL_MESSAGE = 1024;
+
+    // Backups handed over to a new predecessor in one batch, at most (files, then bytes, passed by the last
+    // file), and batches not acknowledged yet. A full window must fit in the predecessor's send queue.
+    public static final int TRANSFER_BATCH_FILES = 64;
+    public static final int TRANSFER_BATCH_BYTES = 256 << 10;
+    public static final int TRANSFER_WINDOW = 2;
 
     // All durations / delays / periods below are in milliseconds.
     public static final int STABILIZE_PERIOD = 1000;
     public static final int FIXFINGERS_PERIOD = 4000 / m; // full loop every 15s
     public static final int CHECK_PREDECESSOR_PERIOD = 2000;
     public static final int NODE_DUMP_PERIOD = 15500;
+    public static final int LOOKUP_CACHE_TTL = 5 * STABILIZE_PERIOD;
 
     // There is no strong guarantee that the delays will enforce the order in which the subprotocols are started.
     public static final int STABILIZE_DELAY = 0;
@@ -34,12 +63,23 @@ public class Chord {
     // How long the TimeoutObservers wait before running timeout().
     public static final int CHECK_PREDECESSOR_WAIT = 1200; // AliveObserver
     public static final int LOOKUP_WAIT = 2000; // ResponsibleObserver
+    public static final int HOP_WAIT = 500; // NextHopsObserver
     public static final int JOIN_WAIT = 3000; // JoinObserver
 
+    // Timeouts run up to a tick late, off a wheel of TIMEOUT_WHEEL_SIZE ticks (about 5s).
+    public static final int TIMEOUT_TICK = 10;
+    public static final int TIMEOUT_WHEEL_SIZE = 512;
+
     // How long after a failed join should the peer try again.
     public static final int MIN_JOIN_WAIT = 0;
     public static final int MAX_JOIN_WAIT = 1500;
 
+    // How long to wait for a new connection to another node, TLS handshake included.
+    public static final int CONNECT_WAIT = 3000;
+
+    // How long a sender waits for room in a peer's send queue before giving up on that peer.
+    public static final int SEND_WAIT = 5000;
+
     // Printing config
     private static final int percentPrecision = 2;
 
@@ -51,7 +91,7 @@ public class Chord {
      * @param port The network port of the node.
      * @return The Chord Id of the node.
      */
-    public static BigInteger consistentHash(InetAddress ip, int port) {
+    public static long consistentHash(InetAddress ip, int port) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
 
@@ -62,17 +102,17 @@ public class Chord {
             System.arraycopy(ipBytes, 0, bytes, 0, ipBytes.length);
             System.arraycopy(portBytes, 0, bytes, ipBytes.length, portBytes.length);
 
-            return normalize(new BigInteger(md.digest(bytes)));
+            return fromDigest(md.digest(bytes));
         } catch (NoSuchAlgorithmException e) {
             throw new InternalError(e);
         }
     }
 
-    public static BigInteger consistentHash(InetSocketAddress socketAddress) {
+    public static long consistentHash(InetSocketAddress socketAddress) {
         return consistentHash(socketAddress.getAddress(), socketAddress.getPort());
     }
 
-    public static BigInteger encodeSHA256(String toEncode) {
+    public static long encodeSHA256(String toEncode) {
         byte[] encodedString = {};
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -80,7 +120,19 @@ public class Chord {
         } catch (NoSuchAlgorithmException e) {
             throw new InternalError(e);
         }
-        return normalize(new BigInteger(encodedString));
+        return fromDigest(encodedString);
+    }
+
+    /**
+     * The chord id of a digest is its value modulo 2^m, i.e. its last m bits.
+     * The digest is read as a two's complement number, as BigInteger reads it,
+     * so a short digest with its sign bit set is sign extended.
+     */
+    public static long fromDigest(byte[] digest) {
+        long value = digest.length > 0 && digest[0] < 0 ? -1 : 0;
+        for (int i = Math.max(0, digest.length - 8); i < digest.length; ++i)
+            value = (value << 8) | (digest[i] & 0xff);
+        return normalize(value);
     }
 
     // Function from: https://www.baeldung.com/sha-256-hashing-java
@@ -106,19 +158,16 @@ public class Chord {
      * @return b - a modulo 2^m, so that it is always nonnegative. This means that:
      *         relative(a, b) < relative(a, c) implies a -> b -> c --> a.
      */
-    public static BigInteger relative(BigInteger a, BigInteger b) {
-        BigInteger rel = b.subtract(a).mod(modulus);
-        while (rel.signum() < 0)
-            rel = rel.add(modulus);
-        return rel;
+    public static long relative(long a, long b) {
+        return (b - a) & mask;
     }
 
     /**
-     * @param i Any BigInteger, possibly out of bounds.
-     * @return The chord id designated by this BigInteger.
+     * @param i Any long, possibly out of bounds.
+     * @return The chord id designated by this long.
      */
-    public static BigInteger normalize(BigInteger i) {
-        return relative(BigInteger.ZERO, i);
+    public static long normalize(long i) {
+        return i & mask;
     }
 
     /**
@@ -127,9 +176,8 @@ public class Chord {
      * @param a,b,c chord ids.
      * @return -1 if a --> b --> c --> a; 0 if b == c; 1 if a --> c --> b --> a.
      */
-    public static int compare(BigInteger a, BigInteger b, BigInteger c) {
-        BigInteger ab = relative(a, b), ac = relative(a, c);
-        return ab.compareTo(ac);
+    public static int compare(long a, long b, long c) {
+        return Long.compare(relative(a, b), relative(a, c));
     }
 
     /**
@@ -137,7 +185,7 @@ public class Chord {
      * @return true if a --> b --> c in a non-strict way, i.e. they need not be
      *         distinct.
      */
-    public static boolean ordered(BigInteger a, BigInteger b, BigInteger c) {
+    public static boolean ordered(long a, long b, long c) {
         return compare(a, b, c) <= 0;
     }
 
@@ -145,18 +193,18 @@ public class Chord {
      * @param a,b,c chord ids.
      * @return true if a --> b --> c and a != b, a != c, but possibly b == c.
      */
-    public static boolean afterOrdered(BigInteger a, BigInteger b, BigInteger c) {
-        BigInteger ab = relative(a, b), ac = relative(a, c);
-        return ab.signum() > 0 && ac.signum() > 0 && ab.compareTo(ac) <= 0;
+    public static boolean afterOrdered(long a, long b, long c) {
+        long ab = relative(a, b), ac = relative(a, c);
+        return ab > 0 && ac > 0 && ab <= ac;
     }
 
     /**
      * @param a,b,c chord ids.
      * @return true if a --> b --> c in a strict way, i.e. all three are distinct.
      */
-    public static boolean strictOrdered(BigInteger a, BigInteger b, BigInteger c) {
-        BigInteger ab = relative(a, b), ac = relative(a, c);
-        return ab.signum() > 0 && ac.signum() > 0 && ab.compareTo(ac) < 0;
+    public static boolean strictOrdered(long a, long b, long c) {
+        long ab = relative(a, b), ac = relative(a, c);
+        return ab > 0 && ac > 0 && ab < ac;
     }
 
     /**
@@ -167,12 +215,9 @@ public class Chord {
      * @param i      The finger index (starts at 1, ends at m).
      * @return The chord id of the finger.
      */
-    public static BigInteger ithFinger(BigInteger nodeId, int i) {
-        assert i > 0;
-        BigInteger finger = nodeId.add(BigInteger.ONE.shiftLeft(i - 1)).mod(modulus);
-        while (finger.signum() < 0)
-            finger = finger.add(modulus);
-        return finger;
+    public static long ithFinger(long nodeId, int i) {
+        assert i > 0 && i <= m;
+        return normalize(nodeId + (1L << (i - 1)));
     }
 
     /**
@@ -182,8 +227,8 @@ public class Chord {
      * @param id A chord id.
      * @return chordId / 2^m as double in range [0, 1).
      */
-    public static double percent(BigInteger id) {
-        return id.doubleValue() / modulus.doubleValue();
+    public static double percent(long id) {
+        return (double) id / (double) modulus;
     }
 
     /**
@@ -193,7 +238,7 @@ public class Chord {
      * @param a,b chord ids.
      * @return (b - a) / 2^m as double in range [0, 1).
      */
-    public static double percent(BigInteger a, BigInteger b) {
+    public static double percent(long a, long b) {
         return percent(relative(a, b));
     }
 
@@ -203,7 +248,7 @@ public class Chord {
      * @param id a chord id.
      * @return percent(chordId) as a String %.
      */
-    public static String percentStr(BigInteger id) {
+    public static String percentStr(long id) {
         return String.format(percentFormat, percent(id) * 100.0);
     }
 
@@ -211,7 +256,7 @@ public class Chord {
      * @param a,b chord ids.
      * @return percent(a,b) as a String %.
      */
-    public static String percentStr(BigInteger a, BigInteger b) {
+    public static String percentStr(long a, long b) {
         return String.format(percentFormat, percent(a, b) * 100.0);
     }
 
@@ -237,16 +282,13 @@ public class Chord {
      * @param R Replication degree.
      * @return The chord id given by the formula above.
      */
-    public static BigInteger offset(BigInteger baseId, int i, int R) {
+    public static long offset(long baseId, int i, int R) {
         assert i >= 0 && R > 0 && i < R;
 
-        BigInteger bigI = BigInteger.valueOf(i);
-        BigInteger bigR = BigInteger.valueOf(R);
-
-        if (modulus.compareTo(bigR) <= 0)
+        if (modulus <= R)
             throw new IllegalArgumentException("Replication degree too large");
 
-        return normalize(baseId.add(modulus.multiply(bigI).divide(bigR)));
+        return normalize(baseId + spacing(i, R));
     }
 
     /**
@@ -256,21 +298,24 @@ public class Chord {
      * @param R Replication degree.
      * @return The chord ids array given by the formula above, for each i in range.
      */
-    public static BigInteger[] offsets(BigInteger baseId, int R) {
+    public static long[] offsets(long baseId, int R) {
         assert R > 0;
 
-        BigInteger bigR = BigInteger.valueOf(R);
-
-        if (modulus.compareTo(bigR) <= 0) //TODO: Rever isto, impedia de escolher rep degree
+        if (modulus <= R)
             throw new IllegalArgumentException("Replication degree too large");
 
-        BigInteger[] ids = new BigInteger[R];
+        long[] ids = new long[R];
 
-        for (int i = 0; i < R; ++i) {
-            BigInteger bigI = BigInteger.valueOf(i);
-            ids[i] = normalize(baseId.add(modulus.multiply(bigI).divide(bigR)));
-        }
+        for (int i = 0; i < R; ++i)
+            ids[i] = normalize(baseId + spacing(i, R));
 
         return ids;
     }
+
+    /**
+     * floor(i * 2^m / R), computed without overflowing i * 2^m.
+     */
+    static long spacing(int i, int R) {
+        return i * (modulus / R) + i * (modulus % R) / R;
+    }
 }
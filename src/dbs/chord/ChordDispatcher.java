@@ -1,11 +1,16 @@
 package dbs.chord;
 
 import static dbs.chord.Chord.DISPATCHER_TASKS_POOL_SIZE;
+import static dbs.chord.Chord.TIMEOUT_TICK;
+import static dbs.chord.Chord.TIMEOUT_WHEEL_SIZE;
+import java.security.SecureRandom;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 import dbs.chord.messages.ChordMessage;
 import dbs.chord.messages.ChordMessageKey;
 import dbs.chord.observers.ChordObserver;
+import dbs.chord.observers.TimeoutObserver;
 
 /**
  * The ChordDispatcher singleton is our implementation of the subscriber (or
@@ -32,11 +37,25 @@ import dbs.chord.observers.ChordObserver;
  * * Timeout subscribers: these subscribers are removed after being notified once,
  * * but they may also timeout and be removed automatically after a certain delay
  * * if their subscribed message does not arrive.
+ *
+ * Answers to requests (ResponseMessages) are keyed by the request's id, so the
+ * observers waiting on them make up the table of this node's pending requests,
+ * where each answer finds its own request's observer.
+ *
+ * Observers are kept in a ChordObserverList per key, and neither subscribing,
+ * unsubscribing nor dispatching takes a lock shared by all keys.
+ *
+ * Observers are notified on the dispatcher's task executor, which also runs
+ * the timeouts off a TimingWheel, except for the inline ones (see
+ * ChordObserver.isInline), which are notified on the dispatching thread. A
+ * timeout is cancelled as soon as its observer is notified or removed.
  */
 public final class ChordDispatcher {
 
     private final ConcurrentHashMap<ChordMessageKey, ChordObserverList> observerMap;
-    private final ScheduledThreadPoolExecutor pool;
+    private final ExecutorService tasks;
+    private final TimingWheel timeouts;
+    private final AtomicLong nextRequestId;
 
     private static final ChordDispatcher instance = new ChordDispatcher();
 
@@ -46,26 +65,100 @@ public final class ChordDispatcher {
 
     private ChordDispatcher() {
         this.observerMap = new ConcurrentHashMap<>();
-        this.pool = new ScheduledThreadPoolExecutor(DISPATCHER_TASKS_POOL_SIZE);
+        this.tasks = TaskPools.newTaskPool("dispatcher", DISPATCHER_TASKS_POOL_SIZE);
+        this.timeouts = new TimingWheel(TIMEOUT_TICK, TIMEOUT_WHEEL_SIZE, tasks);
+        // Random, so that late answers to a previous run on the same address match nothing.
+        this.nextRequestId = new AtomicLong(new SecureRandom().nextLong());
+    }
+
+    /**
+     * @return The executor which notifies the observers.
+     */
+    ExecutorService getTasks() {
+        return tasks;
     }
 
-    ScheduledThreadPoolExecutor getPool() {
-        return pool;
+    /**
+     * @return A new id for a request of this node, to subscribe on its answer.
+     */
+    public long newRequestId() {
+        return nextRequestId.getAndIncrement();
     }
 
     public void addObserver(ChordObserver observer) {
         ChordMessageKey key = observer.getSubscribedKey();
-        observerMap.computeIfAbsent(key, ChordObserverList::new).add(observer);
+
+        // The timeout is subscribed along with its observer, so that a dispatch
+        // can cancel it at once, and only then started.
+        TimingWheel.Timeout timeout = null;
+        if (observer instanceof TimeoutObserver)
+            timeout = new TimingWheel.Timeout(new ChordObserverList.TimeoutAction((TimeoutObserver) observer));
+        TimingWheel.Timeout observerTimeout = timeout;
+
+        observerMap.compute(key, (k, list) -> {
+            if (list == null)
+                list = new ChordObserverList(k);
+            list.add(observer, observerTimeout);
+            return list;
+        });
+
+        if (timeout != null)
+            timeouts.schedule(timeout, ((TimeoutObserver) observer).getDelay());
+    }
+
+    /**
+     * Run the task on the observers' executor once the delay is over, unless the
+     * returned timeout is cancelled first. For timeouts which are not some
+     * TimeoutObserver's.
+     */
+    TimingWheel.Timeout schedule(Runnable task, long delayMillis) {
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(task);
+        timeouts.schedule(timeout, delayMillis);
+        return timeout;
     }
 
+    /**
+     * @return Whether the observer was still subscribed, and so was not and
+     *         will not be notified.
+     */
     public boolean removeObserver(ChordObserver observer) {
         ChordMessageKey key = observer.getSubscribedKey();
         ChordObserverList list = observerMap.get(key);
-        return list == null || list.remove(observer);
+        if (list == null || !list.remove(observer))
+            return false;
+
+        forgetIfEmpty(list);
+        return true;
     }
 
     public void dispatch(ChordMessage message) {
         ChordMessageKey key = message.getKey();
-        observerMap.computeIfAbsent(key, ChordObserverList::new).dispatch(message);
+        ChordObserverList list = observerMap.get(key);
+        if (list == null || !list.dispatch(message)) {
+            ChordLogger.internal("Unexpected: no observers waiting on messages " + key);
+            return;
+        }
+
+        forgetIfEmpty(list);
+    }
+
+    /**
+     * Keys of one-shot observers are mostly used once, so their lists are
+     * dropped once empty. An observer added meanwhile keeps its list.
+     */
+    private void forgetIfEmpty(ChordObserverList list) {
+        if (list.isEmpty())
+            observerMap.computeIfPresent(list.getSubscribedKey(), (k, l) -> l.isEmpty() ? null : l);
+    }
+
+    int numKeys() {
+        return observerMap.size();
+    }
+
+    /**
+     * @return The number of observer timeouts still to run.
+     */
+    int numTimeouts() {
+        return timeouts.pending();
     }
 }
@@ -1,9 +1,10 @@
 package dbs.chord;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.util.HashSet;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.BatchLookupMessage;
+import dbs.chord.messages.BatchResponsibleMessage;
 import dbs.chord.messages.LookupMessage;
 import dbs.chord.messages.ResponsibleMessage;
 import dbs.chord.messages.protocol.*;
@@ -44,25 +45,31 @@ public final class ChordLogger {
     static {
         inSet.add(LookupMessage.class.getName());
         inSet.add(ResponsibleMessage.class.getName());
+        inSet.add(BatchLookupMessage.class.getName());
+        inSet.add(BatchResponsibleMessage.class.getName());
         inSet.add(BackupMessage.class.getName());
         inSet.add(BackupResponseMessage.class.getName());
         inSet.add(DeleteMessage.class.getName());
         inSet.add(DeleteResponseMessage.class.getName());
         inSet.add(RestoreMessage.class.getName());
         inSet.add(RestoreResponseMessage.class.getName());
-        inSet.add(TransferMessage.class.getName());
+        inSet.add(TransferBatchMessage.class.getName());
+        inSet.add(TransferAckMessage.class.getName());
         //inSet.add(StabilizeMessage.class.getName());
         //inSet.add(PredecessorMessage.class.getName());
 
         outSet.add(LookupMessage.class.getName());
         outSet.add(ResponsibleMessage.class.getName());
+        outSet.add(BatchLookupMessage.class.getName());
+        outSet.add(BatchResponsibleMessage.class.getName());
         outSet.add(BackupMessage.class.getName());
         outSet.add(BackupResponseMessage.class.getName());
         outSet.add(DeleteMessage.class.getName());
         outSet.add(DeleteResponseMessage.class.getName());
         outSet.add(RestoreMessage.class.getName());
         outSet.add(RestoreResponseMessage.class.getName());
-        outSet.add(TransferMessage.class.getName());
+        outSet.add(TransferBatchMessage.class.getName());
+        outSet.add(TransferAckMessage.class.getName());
         //outSet.add(StabilizeMessage.class.getName());
         //outSet.add(PredecessorMessage.class.getName());
     }
@@ -100,7 +107,7 @@ public final class ChordLogger {
     }
 
     // Lookup API requests
-    public static void logLookup(BigInteger chordId, String message) {
+    public static void logLookup(long chordId, String message) {
         if (PRINT_LOOKUPS) {
             format(LOOKUP, "lookup(" + Chord.percentStr(chordId) + "): " + message);
         }
@@ -179,7 +186,7 @@ public final class ChordLogger {
     // FixFingers subprotocol messages
     public static void logFixFingers(int i, String msg) {
         if (PRINT_NODE_FIX_FINGERS) {
-            BigInteger fingerMin = Chord.ithFinger(Node.get().getSelf().getChordId(), i);
+            long fingerMin = Chord.ithFinger(Node.get().getSelf().getChordId(), i);
             String text = String.format("finger[%d %s]: %s", i, Chord.percentStr(fingerMin), msg);
             format(FIXFINGERS, text, true);
         }
@@ -1,54 +1,88 @@
 package dbs.chord;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import dbs.chord.messages.ChordMessage;
 import dbs.chord.messages.ChordMessageKey;
 import dbs.chord.observers.ChordObserver;
 import dbs.chord.observers.OnceObserver;
 import dbs.chord.observers.TimeoutObserver;
 
+/**
+ * The observers subscribed on one key. Nothing here takes a lock: permanent
+ * observers are read far more often than they change, so each change copies
+ * them, and the others are kept in a concurrent set, where adding or removing
+ * one takes constant time. A dispatch and a timeout (or removeObserver) may
+ * race to remove the same observer, and only the one which does gets to
+ * notify it. Each TimeoutObserver is kept with its timeout on the dispatcher's
+ * TimingWheel, which is cancelled when the observer leaves the list.
+ */
 public final class ChordObserverList {
 
     private final ChordMessageKey key;
-    private final LinkedList<ChordObserver> observers;
+    private final CopyOnWriteArrayList<ChordObserver> permanent;
+    private final ConcurrentHashMap<ChordObserver, TimingWheel.Timeout> once;
+
+    // Stands for the timeout of a OnceObserver, which has none.
+    private static final TimingWheel.Timeout NO_TIMEOUT = new TimingWheel.Timeout(() -> {});
 
     ChordObserverList(ChordMessageKey key) {
         this.key = key;
-        this.observers = new LinkedList<>();
+        this.permanent = new CopyOnWriteArrayList<>();
+        this.once = new ConcurrentHashMap<>();
     }
 
-    synchronized void add(ChordObserver observer) {
-        this.observers.add(observer);
+    void add(ChordObserver observer, TimingWheel.Timeout timeout) {
+        if (isOnce(observer))
+            once.put(observer, timeout == null ? NO_TIMEOUT : timeout);
+        else
+            permanent.add(observer);
+    }
 
-        if (observer instanceof TimeoutObserver) {
-            TimeoutObserver timeoutObserver = (TimeoutObserver) observer;
-            int delay = timeoutObserver.getDelay();
-            TimeoutAction task = new TimeoutAction(timeoutObserver);
-            ChordDispatcher.get().getPool().schedule(task, delay, TimeoutObserver.unit);
-        }
+    boolean remove(ChordObserver observer) {
+        if (isOnce(observer))
+            return leave(observer);
+        else
+            return permanent.remove(observer);
     }
 
-    synchronized boolean remove(ChordObserver observer) {
-        return this.observers.remove(observer);
+    boolean isEmpty() {
+        return once.isEmpty() && permanent.isEmpty();
     }
 
-    synchronized void dispatch(ChordMessage message) {
-        Iterator<ChordObserver> iterator = observers.iterator();
+    /**
+     * @return Whether any observer was left to notify of message.
+     */
+    boolean dispatch(ChordMessage message) {
+        boolean notified = false;
 
-        if (!iterator.hasNext()) {
-            ChordLogger.internal("Unexpected: no observers waiting on messages " + key);
-            return;
+        for (ChordObserver observer : permanent) {
+            notify(observer, message);
+            notified = true;
         }
 
-        while (iterator.hasNext()) {
-            ChordObserver observer = iterator.next();
+        for (ChordObserver observer : once.keySet()) {
+            if (leave(observer)) {
+                notify(observer, message);
+                notified = true;
+            }
+        }
+
+        return notified;
+    }
 
-            if (observer instanceof OnceObserver || observer instanceof TimeoutObserver)
-                iterator.remove();
+    private static void notify(ChordObserver observer, ChordMessage message) {
+        if (!observer.isInline()) {
+            ChordDispatcher.get().getTasks().execute(new InvokeNotify(observer, message));
+            return;
+        }
 
-            InvokeNotify task = new InvokeNotify(observer, message);
-            ChordDispatcher.get().getPool().submit(task);
+        // Inline observers run on the connection's loop, in the middle of reading
+        // its frames, so whatever one throws must stop here.
+        try {
+            observer.notify(message);
+        } catch (RuntimeException e) {
+            ChordLogger.logSevere("Observer " + observer + " failed on " + message + ": " + e);
         }
     }
 
@@ -58,12 +92,32 @@ public final class ChordObserverList {
 
     void dump() {
         System.out.println("Listeners on " + key);
-        for (ChordObserver observer : observers) {
+        for (ChordObserver observer : permanent) {
+            System.out.println(observer);
+        }
+        for (ChordObserver observer : once.keySet()) {
             System.out.println(observer);
         }
     }
 
-    class InvokeNotify implements Runnable {
+    /**
+     * Remove a OnceObserver or TimeoutObserver, and cancel its timeout.
+     *
+     * @return Whether it was still in the list.
+     */
+    private boolean leave(ChordObserver observer) {
+        TimingWheel.Timeout timeout = once.remove(observer);
+        if (timeout == null)
+            return false;
+        timeout.cancel();
+        return true;
+    }
+
+    private static boolean isOnce(ChordObserver observer) {
+        return observer instanceof OnceObserver || observer instanceof TimeoutObserver;
+    }
+
+    static class InvokeNotify implements Runnable {
 
         private final ChordObserver observer;
         private final ChordMessage message;
@@ -79,17 +133,17 @@ public final class ChordObserverList {
         }
     }
 
-    class TimeoutAction implements Runnable {
+    static class TimeoutAction implements Runnable {
 
         private final TimeoutObserver observer;
 
-        private TimeoutAction(TimeoutObserver observer) {
+        TimeoutAction(TimeoutObserver observer) {
             this.observer = observer;
         }
 
         @Override
         public void run() {
-            if (remove(observer))
+            if (ChordDispatcher.get().removeObserver(observer))
                 observer.timeout();
         }
     }
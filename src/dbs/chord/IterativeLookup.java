@@ -0,0 +1,149 @@
+package dbs.chord;
+
+import static dbs.chord.Chord.ITERATIVE_ALPHA;
+import static dbs.chord.Chord.LOOKUP_WAIT;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import dbs.chord.messages.FindNextMessage;
+import dbs.chord.messages.NextHopsMessage;
+import dbs.chord.observers.NextHopsObserver;
+import dbs.network.SocketManager;
+
+/**
+ * A lookup driven by its source: rather than forwarding a LOOKUP through the
+ * ring and waiting for the answer, the source asks each hop with a FINDNEXT for
+ * the nodes closer to the key it knows of, and asks those next. Up to
+ * ITERATIVE_ALPHA hops are asked at once, closest to the key first, so a dead
+ * or slow hop only costs the wait for that one answer (HOP_WAIT), while the
+ * others carry on.
+ *
+ * The lookup resolves to the first node said to be responsible for the key, or
+ * to null once there is no one left to ask, or after LOOKUP_WAIT.
+ */
+final class IterativeLookup {
+
+    private final Node node;
+    private final long chordId;
+    private final CompletableFuture<NodeInfo> promise = new CompletableFuture<>();
+
+    // The nodes still to ask, by distance to the key.
+    private final TreeMap<Long, NodeInfo> next = new TreeMap<>();
+    private final Set<Long> seen = new HashSet<>();
+    private int asking = 0;
+    // Set once the answer is known, before the promise is completed with it.
+    private boolean finished = false;
+
+    IterativeLookup(Node node, long chordId) {
+        this.node = node;
+        this.chordId = chordId;
+        this.seen.add(node.getSelf().getChordId());
+    }
+
+    /**
+     * Start asking firstHops, this node's own candidates for the next hop.
+     */
+    CompletableFuture<NodeInfo> start(List<NodeInfo> firstHops) {
+        synchronized (this) {
+            for (NodeInfo hopNode : firstHops)
+                add(hopNode);
+        }
+
+        promise.completeOnTimeout(null, LOOKUP_WAIT, TimeUnit.MILLISECONDS);
+        proceed();
+        return promise;
+    }
+
+    private void add(NodeInfo hopNode) {
+        if (hopNode != null && seen.add(hopNode.getChordId()))
+            next.put(Chord.relative(hopNode.getChordId(), chordId), hopNode);
+    }
+
+    /**
+     * Ask the closest nodes not asked yet, up to ITERATIVE_ALPHA at a time.
+     */
+    private void proceed() {
+        List<NodeInfo> hops = new ArrayList<>();
+        boolean failed;
+        synchronized (this) {
+            while (!finished && asking < ITERATIVE_ALPHA && !next.isEmpty()) {
+                hops.add(next.pollFirstEntry().getValue());
+                asking++;
+            }
+            failed = asking == 0 && !finished;
+            finished |= failed;
+        }
+
+        if (failed) {
+            ChordLogger.logLookup(chordId, "failed iterative lookup, no one left to ask");
+            promise.complete(null);
+            return;
+        }
+        for (NodeInfo hopNode : hops)
+            ask(hopNode);
+    }
+
+    private void ask(NodeInfo hopNode) {
+        // Connect first, so that the handshake does not count against HOP_WAIT.
+        if (!SocketManager.get().tryOpen(hopNode)) {
+            answered(hopNode, null);
+            return;
+        }
+
+        FindNextMessage query = new FindNextMessage(chordId);
+        CompletableFuture<NextHopsMessage> reply = new CompletableFuture<>();
+        NextHopsObserver observer = new NextHopsObserver(query, reply);
+
+        // add observer, and only then send the message
+        long sentTime = System.nanoTime();
+        ChordDispatcher.get().addObserver(observer);
+        if (!SocketManager.get().sendMessage(hopNode, query)) {
+            ChordDispatcher.get().removeObserver(observer);
+            answered(hopNode, null);
+            return;
+        }
+
+        reply.thenAccept(response -> {
+            if (response != null)
+                node.getLatency().sample(hopNode, System.nanoTime() - sentTime);
+            answered(hopNode, response);
+        });
+    }
+
+    /**
+     * A hop answered, or failed to (response is null): take the responsible
+     * node it knows, or else ask the nodes it suggests along with the others.
+     */
+    private void answered(NodeInfo hopNode, NextHopsMessage response) {
+        NodeInfo responsibleNode = null;
+        synchronized (this) {
+            asking--;
+            if (finished || promise.isDone())
+                return;
+
+            if (response == null) {
+                ChordLogger.logLookup(chordId, "iterative hop " + hopNode.shortStr() + " did not answer");
+            } else if (response.isResponsible() && response.getNodes()[0] != null) {
+                NodeInfo[] nodes = response.getNodes();
+                responsibleNode = nodes[0];
+                finished = true;
+                node.getLookupCache().learn(chordId, responsibleNode, Arrays.copyOfRange(nodes, 1, nodes.length));
+            } else {
+                for (NodeInfo nextNode : response.getNodes())
+                    add(nextNode);
+            }
+        }
+
+        if (responsibleNode != null) {
+            ChordLogger.logLookup(chordId, "resolved iteratively to " + responsibleNode.shortStr());
+            promise.complete(responsibleNode);
+        } else {
+            proceed();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package dbs.chord;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The nodes responsible for recently looked up ranges of the ring, so that a
+ * lookup for an id in one of them resolves without going through the ring.
+ *
+ * A node responsible for chordId is responsible for [chordId, node] too, and
+ * its successor list covers the ranges right after it, one per successor: a
+ * RESPONSIBLE answer teaches a range for the sender and each of its successors.
+ * Each range is kept for the node at its end, and is cut short whenever a node
+ * inside it is heard of. Ranges of nodes found dead are dropped, and all of
+ * them expire after a few stabilize periods: joins far away from this node go
+ * unnoticed, and must not misdirect backups for long.
+ */
+public final class LookupCache {
+
+    private static final class Range {
+        final long start; // exclusive
+        final NodeInfo node;
+        final long expires;
+
+        Range(long start, NodeInfo node, long expires) {
+            this.start = start;
+            this.node = node;
+            this.expires = expires;
+        }
+    }
+
+    private final int capacity;
+    private final long ttlNanos;
+
+    // Ranges (start, nodeId] by nodeId.
+    private final TreeMap<Long, Range> ranges = new TreeMap<>();
+
+    public LookupCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * @return The node responsible for chordId, if it is in a known range which
+     *         has not expired, or else null.
+     */
+    public synchronized NodeInfo get(long chordId) {
+        Map.Entry<Long, Range> entry = ranges.ceilingEntry(chordId);
+        if (entry == null)
+            entry = ranges.firstEntry();
+        if (entry == null)
+            return null;
+
+        Range range = entry.getValue();
+        if (System.nanoTime() - range.expires > 0) {
+            ranges.remove(entry.getKey());
+            return null;
+        }
+        return Chord.afterOrdered(range.start, chordId, entry.getKey()) ? range.node : null;
+    }
+
+    /**
+     * Learn from a RESPONSIBLE answer: responsibleNode is responsible for
+     * chordId, and each of its successors for the ids after the previous one.
+     */
+    public void learn(long chordId, NodeInfo responsibleNode, NodeInfo[] successors) {
+        put(Chord.normalize(chordId - 1), responsibleNode);
+        learnSuccessors(responsibleNode.getChordId(), successors);
+    }
+
+    /**
+     * Learn from a successor list, in order, of the node at startId: each
+     * successor is responsible for the ids after the one before it.
+     */
+    public void learnSuccessors(long startId, NodeInfo[] successors) {
+        long lastId = startId;
+        for (NodeInfo successorNode : successors) {
+            if (successorNode.getChordId() == lastId)
+                break;
+            put(lastId, successorNode);
+            lastId = successorNode.getChordId();
+        }
+    }
+
+    /**
+     * Learn that node is responsible for (start, node]. Any other node in there
+     * is stale and dropped, and the range node falls in, if any, now starts at it.
+     */
+    public synchronized void put(long start, NodeInfo node) {
+        long nodeId = node.getChordId();
+        cut(nodeId);
+
+        Iterator<Long> keys = ranges.keySet().iterator();
+        while (keys.hasNext()) {
+            if (Chord.strictOrdered(start, keys.next(), nodeId))
+                keys.remove();
+        }
+
+        // Keep the widest range known for the node, until its older part expires.
+        long now = System.nanoTime(), expires = now + ttlNanos;
+        Range known = ranges.get(nodeId);
+        if (known != null && known.node.equals(node) && known.expires - now > 0
+                && Chord.relative(known.start, nodeId) > Chord.relative(start, nodeId)) {
+            start = known.start;
+            expires = known.expires;
+        }
+
+        ranges.put(nodeId, new Range(start, node, expires));
+        if (ranges.size() > capacity)
+            evictOldest();
+    }
+
+    /**
+     * A node was found at node's id: the range it falls in, if any, belongs to
+     * it up to its id, so it is cut short to start there.
+     */
+    public synchronized void cut(NodeInfo node) {
+        cut(node.getChordId());
+    }
+
+    /**
+     * Forget the range of a node which left or failed.
+     */
+    public synchronized void remove(NodeInfo node) {
+        Range range = ranges.get(node.getChordId());
+        if (range != null && range.node.equals(node))
+            ranges.remove(node.getChordId());
+    }
+
+    public synchronized int size() {
+        return ranges.size();
+    }
+
+    private void cut(long nodeId) {
+        Map.Entry<Long, Range> entry = ranges.ceilingEntry(nodeId);
+        if (entry == null)
+            entry = ranges.firstEntry();
+        if (entry == null || entry.getKey() == nodeId)
+            return;
+
+        Range range = entry.getValue();
+        if (Chord.strictOrdered(range.start, nodeId, entry.getKey()))
+            ranges.put(entry.getKey(), new Range(nodeId, range.node, range.expires));
+    }
+
+    private void evictOldest() {
+        Map.Entry<Long, Range> oldest = null;
+        for (Map.Entry<Long, Range> entry : ranges.entrySet()) {
+            if (oldest == null || entry.getValue().expires - oldest.getValue().expires < 0)
+                oldest = entry;
+        }
+        ranges.remove(oldest.getKey());
+    }
+}
@@ -4,6 +4,10 @@ import static dbs.chord.Chord.CHECK_PREDECESSOR_DELAY;
 import static dbs.chord.Chord.CHECK_PREDECESSOR_PERIOD;
 import static dbs.chord.Chord.FIXFINGERS_DELAY;
 import static dbs.chord.Chord.FIXFINGERS_PERIOD;
+import static dbs.chord.Chord.ITERATIVE_LOOKUP;
+import static dbs.chord.Chord.LOOKUP_CACHE_SIZE;
+import static dbs.chord.Chord.LOOKUP_CACHE_TTL;
+import static dbs.chord.Chord.LOOKUP_WAIT;
 import static dbs.chord.Chord.MAX_JOIN_ATTEMPTS;
 import static dbs.chord.Chord.MAX_JOIN_WAIT;
 import static dbs.chord.Chord.MIN_JOIN_WAIT;
@@ -12,25 +16,43 @@ import static dbs.chord.Chord.NODE_DUMP_PERIOD;
 import static dbs.chord.Chord.NODE_TASKS_POOL_SIZE;
 import static dbs.chord.Chord.STABILIZE_DELAY;
 import static dbs.chord.Chord.STABILIZE_PERIOD;
-import java.math.BigInteger;
+import static dbs.chord.Chord.SUCCESSOR_LIST_SIZE;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 import dbs.Dbs;
 import dbs.chord.messages.AliveMessage;
+import dbs.chord.messages.BatchLookupMessage;
+import dbs.chord.messages.BatchResponsibleMessage;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.FindNextMessage;
 import dbs.chord.messages.GetPredecessorMessage;
 import dbs.chord.messages.KeepAliveMessage;
 import dbs.chord.messages.LookupMessage;
+import dbs.chord.messages.NextHopsMessage;
 import dbs.chord.messages.NotifyMessage;
 import dbs.chord.messages.PredecessorMessage;
 import dbs.chord.messages.ResponsibleMessage;
 import dbs.chord.observers.AliveObserver;
+import dbs.chord.observers.BatchLookupObserver;
+import dbs.chord.observers.BatchResponsibleObserver;
+import dbs.chord.observers.FindNextObserver;
 import dbs.chord.observers.FixFingerObserver;
 import dbs.chord.observers.GetPredecessorObserver;
 import dbs.chord.observers.JoinObserver;
@@ -39,10 +61,19 @@ import dbs.chord.observers.LookupObserver;
 import dbs.chord.observers.NotifyObserver;
 import dbs.chord.observers.PredecessorObserver;
 import dbs.chord.observers.ResponsibleObserver;
+import dbs.chord.observers.protocols.BackupChunkObserver;
 import dbs.chord.observers.protocols.BackupObserver;
+import dbs.chord.observers.protocols.ChunkObserver;
+import dbs.chord.observers.protocols.ChunkQueryObserver;
+import dbs.chord.observers.protocols.ChunkRequestObserver;
 import dbs.chord.observers.protocols.DeleteObserver;
 import dbs.chord.observers.protocols.RestoreObserver;
-import dbs.chord.observers.protocols.TransferObserver;
+import dbs.chord.observers.protocols.TransferBatchObserver;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.Configuration;
+import dbs.filesystem.ErasureLayout;
+import dbs.filesystem.FileRecord;
+import dbs.filesystem.MetadataStore;
 import dbs.network.SocketManager;
 
 public class Node {
@@ -50,13 +81,22 @@ public class Node {
     private final NodeInfo self;
     private final AtomicReference<NodeInfo> predecessor;
     private final AtomicReferenceArray<NodeInfo> finger;
+    // The successor, then the nodes after it, as last heard from the successor.
+    private final AtomicReference<NodeInfo[]> successors;
+    private final PeerLatency latency;
+    private final LookupCache lookupCache;
+    // This node's batch lookups still waiting for answers: by batch id, the promise of each key.
+    private final ConcurrentHashMap<Long, Map<Long, CompletableFuture<NodeInfo>>> batches;
+    // When the last GETPREDECESSOR was sent to the successor, in nanoseconds.
+    private volatile long stabilizeTime;
 
     private final ScheduledThreadPoolExecutor pool;
 
     private static Node instance;
     private static Join joinRunner;
 
-    private static HashMap<BigInteger, Integer> replicationMap;
+    private final MetadataStore files;
+    private final Set<ChunkKey> knownChunks;
 
     public static Node get() {
         return instance;
@@ -72,16 +112,26 @@ public class Node {
     private Node(InetSocketAddress serverAddress) {
         assert instance == null;
 
-        BigInteger nodeId = Chord.consistentHash(serverAddress);
+        long nodeId = Chord.consistentHash(serverAddress);
 
         this.self = new NodeInfo(nodeId, serverAddress);
         this.predecessor = new AtomicReference<>();
         this.finger = new AtomicReferenceArray<>(Chord.m + 1);
+        this.successors = new AtomicReference<>(new NodeInfo[0]);
+        this.latency = new PeerLatency();
+        this.lookupCache = new LookupCache(LOOKUP_CACHE_SIZE, LOOKUP_CACHE_TTL);
+        this.batches = new ConcurrentHashMap<>();
         this.pool = new ScheduledThreadPoolExecutor(NODE_TASKS_POOL_SIZE);
+        this.knownChunks = ConcurrentHashMap.newKeySet();
+
+        try {
+            this.files = MetadataStore.open(Configuration.PEER_FOLDER + "/" + nodeId + "/metadata/");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the backed up files", e);
+        }
         instance = this;
-        replicationMap = new HashMap<>();
 
-        ChordLogger.logNodeImportant("Created " + self);
+        ChordLogger.logNodeImportant("Created " + self + " with " + files.size() + " backed up files");
 
         setupPermanentObservers();
         Runtime.getRuntime().addShutdownHook(new NodeShutdown());
@@ -94,8 +144,26 @@ public class Node {
         return self;
     }
 
-    public HashMap<BigInteger, Integer> getReplicationMap() {
-        return replicationMap;
+    /**
+     * @return How this node backed up the file, or null if it did not.
+     */
+    public FileRecord getFile(long fileKey) {
+        return files.get(fileKey);
+    }
+
+    /**
+     * @return The files backed up from this node, by file id.
+     */
+    public Map<Long, FileRecord> getFiles() {
+        return files.getAll();
+    }
+
+    /**
+     * The chunk copies this node has seen stored, by its own backups, so they
+     * need not be queried or sent again.
+     */
+    public Set<ChunkKey> getKnownChunks() {
+        return knownChunks;
     }
 
     /**
@@ -109,7 +177,32 @@ public class Node {
      * @return The NodeInfo data for this node's successor.
      */
     public NodeInfo getSuccessor() {
-        return predecessor.get();
+        return finger.get(1);
+    }
+
+    /**
+     * @return This node's successor list: its successor, then up to
+     *         SUCCESSOR_LIST_SIZE - 1 nodes after it, nearest first.
+     */
+    public NodeInfo[] getSuccessors() {
+        NodeInfo successorNode = finger.get(1);
+        if (successorNode == null)
+            return successors.get();
+        return successorList(successorNode, successors.get());
+    }
+
+    /**
+     * @return The round trip times to the nodes this node talks to.
+     */
+    public PeerLatency getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return The nodes responsible for the ranges this node recently looked up.
+     */
+    public LookupCache getLookupCache() {
+        return lookupCache;
     }
 
     /**
@@ -126,12 +219,123 @@ public class Node {
      * It may resolve to this node immediately if this node is the sought successor,
      * and may resolve to null (leaking) if the successor could not be found or contacted.
      *
+     * The lookup is recursive, or iterative if the node runs with -Ddbs.lookup=iterative.
+     *
      * @param chordId A file or node id whose successor (responsible) is to be found.
      * @return A promise that either resolves immediately to this node, or will resolve
      *         to the successor of chordId. If the network is unstable this lookup
      *         could fail, and resolve to null either immediately or after a timeout.
      */
-    public CompletableFuture<NodeInfo> lookup(BigInteger chordId) {
+    public CompletableFuture<NodeInfo> lookup(long chordId) {
+        // Are we responsible for this key?
+        if (isResponsible(chordId)) {
+            ChordLogger.logLookup(chordId, "resolved to self");
+            return CompletableFuture.completedFuture(self);
+        }
+
+        NodeInfo cachedNode = lookupCached(chordId);
+        if (cachedNode != null)
+            return CompletableFuture.completedFuture(cachedNode);
+
+        return ITERATIVE_LOOKUP ? lookupIterative(chordId) : lookupRecursive(chordId);
+    }
+
+    /**
+     * Lookup many keys at once, such as the offsets of a file's copies: those
+     * this node cannot resolve by itself (or iteratively, if so configured) go
+     * in one batch. See lookupBatch.
+     *
+     * @return A promise for each key, in order, as lookup() would return.
+     */
+    public List<CompletableFuture<NodeInfo>> lookupAll(long[] chordIds) {
+        Map<Long, CompletableFuture<NodeInfo>> promises = new HashMap<>();
+        List<Long> unknown = new ArrayList<>();
+
+        for (long chordId : chordIds) {
+            if (promises.containsKey(chordId))
+                continue;
+
+            NodeInfo knownNode = isResponsible(chordId) ? self : lookupCached(chordId);
+            if (knownNode != null) {
+                promises.put(chordId, CompletableFuture.completedFuture(knownNode));
+            } else if (ITERATIVE_LOOKUP) {
+                promises.put(chordId, lookupIterative(chordId));
+            } else {
+                promises.put(chordId, null);
+                unknown.add(chordId);
+            }
+        }
+        if (!unknown.isEmpty())
+            promises.putAll(lookupBatch(unknown.stream().mapToLong(Long::longValue).toArray()));
+
+        List<CompletableFuture<NodeInfo>> ordered = new ArrayList<>(chordIds.length);
+        for (long chordId : chordIds)
+            ordered.add(promises.get(chordId));
+        return ordered;
+    }
+
+    /**
+     * Recursive lookup of many keys in a single BATCHLOOKUP, which is split along
+     * the way only where the keys' routes part, rather than in a LOOKUP each.
+     * Each responsible node answers for all of its keys at once.
+     *
+     * @return The promise for each distinct key.
+     */
+    public Map<Long, CompletableFuture<NodeInfo>> lookupBatch(long[] chordIds) {
+        Map<Long, CompletableFuture<NodeInfo>> pending = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+
+        for (long chordId : chordIds) {
+            if (pending.containsKey(chordId))
+                continue;
+
+            CompletableFuture<NodeInfo> promise = new CompletableFuture<>();
+            pending.put(chordId, promise);
+            if (isResponsible(chordId))
+                promise.complete(self);
+            else
+                keys.add(chordId);
+        }
+        if (keys.isEmpty())
+            return pending;
+
+        long batchId = ChordDispatcher.get().newRequestId();
+        batches.put(batchId, pending);
+        TimingWheel.Timeout timeout = ChordDispatcher.get().schedule(() -> {
+            for (CompletableFuture<NodeInfo> promise : pending.values())
+                promise.complete(null);
+        }, LOOKUP_WAIT);
+        CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).whenComplete((nothing, e) -> {
+            batches.remove(batchId);
+            timeout.cancel();
+        });
+
+        List<Long> dropped = forwardBatch(keys, batchKeys -> new BatchLookupMessage(batchId, batchKeys, self));
+        for (long chordId : dropped)
+            pending.get(chordId).complete(null);
+        ChordLogger.logNode("Batch lookup of " + keys.size() + " keys, " + dropped.size() + " with no one to forward to");
+
+        return pending;
+    }
+
+    /**
+     * @return The node responsible for this key, if we looked up a key near this
+     *         one recently and are still connected to it, or else null.
+     */
+    private NodeInfo lookupCached(long chordId) {
+        NodeInfo cachedNode = lookupCache.get(chordId);
+        if (cachedNode != null && SocketManager.get().isOpen(cachedNode)) {
+            ChordLogger.logLookup(chordId, "resolved from cache to " + cachedNode.shortStr());
+            return cachedNode;
+        }
+        return null;
+    }
+
+    /**
+     * Lookup by forwarding a LOOKUP message through the ring, hop by hop, until
+     * it reaches the responsible node, which answers the source directly.
+     */
+    public CompletableFuture<NodeInfo> lookupRecursive(long chordId) {
         CompletableFuture<NodeInfo> promise = new CompletableFuture<>();
 
         // Are we responsible for this key?
@@ -143,16 +347,17 @@ public class Node {
 
         // We aren't, so we want to forward the message.
         LookupMessage message = new LookupMessage(chordId, self);
-        ResponsibleObserver observer = new ResponsibleObserver(chordId, promise);
+        ResponsibleObserver observer = new ResponsibleObserver(message, promise);
         NodeInfo successorNode = finger.get(1);
 
         ChordDispatcher.get().addObserver(observer);
 
         // Forward the message to our successor if possible.
         if (successorNode != null && Chord.afterOrdered(self.getChordId(), chordId, successorNode.getChordId())) {
-            assertSend(successorNode, message);
-            ChordLogger.logLookup(chordId, "resolved to successor");
-            return promise;
+            if (sendToSuccessor(message) != null) {
+                ChordLogger.logLookup(chordId, "resolved to successor");
+                return promise;
+            }
         }
 
         // Else forward to closest preceding node.
@@ -168,11 +373,30 @@ public class Node {
         return promise;
     }
 
+    /**
+     * Lookup by asking each hop on the way to the key where to go next, from
+     * this node. See IterativeLookup.
+     */
+    public CompletableFuture<NodeInfo> lookupIterative(long chordId) {
+        if (isResponsible(chordId)) {
+            ChordLogger.logLookup(chordId, "resolved to self");
+            return CompletableFuture.completedFuture(self);
+        }
+
+        // Between us and the key, or else the key is our successor's.
+        List<NodeInfo> firstHops = precedingNodes(chordId);
+        if (firstHops.isEmpty())
+            firstHops = Arrays.asList(getSuccessors());
+
+        ChordLogger.logLookup(chordId, "iterative lookup, " + firstHops.size() + " first hops");
+        return new IterativeLookup(this, chordId).start(firstHops);
+    }
+
     /**
      * * HANDLER: Handle any LOOKUP message from the GetSuccessor subprotocol.
      */
     public void handleLookup(LookupMessage lookup) {
-        BigInteger chordId = lookup.getChordId();
+        long chordId = lookup.getChordId();
         NodeInfo sourceNode = lookup.getSourceNode();
 
         // Are we this lookup's source?
@@ -189,21 +413,27 @@ public class Node {
 
         // Are we responsible for this key?
         if (isResponsible(chordId)) {
-            ResponsibleMessage responsible = new ResponsibleMessage(chordId);
+            ResponsibleMessage responsible = new ResponsibleMessage(lookup, getSuccessors());
             SocketManager.get().sendMessage(sourceNode, responsible);
             return;
         }
 
-        // We aren't, so we want to forward the message.
+        // We aren't, so we want to forward the message, unless it has been around too long.
+        if (!lookup.hasHopsLeft()) {
+            ChordLogger.dropped(lookup, "out of hops");
+            return;
+        }
         LookupMessage newLookup = new LookupMessage(lookup);
 
         NodeInfo successorNode = finger.get(1);
 
         // Forward the message to our successor if possible.
         if (successorNode != null && Chord.afterOrdered(self.getChordId(), chordId, successorNode.getChordId())) {
-            assertSend(successorNode, newLookup);
-            ChordLogger.logNode("Forwarded " + lookup + " to successor " + successorNode.shortStr());
-            return;
+            successorNode = sendToSuccessor(newLookup);
+            if (successorNode != null) {
+                ChordLogger.logNode("Forwarded " + lookup + " to successor " + successorNode.shortStr());
+                return;
+            }
         }
 
         // Otherwise forward to the closest preceding finger.
@@ -215,6 +445,104 @@ public class Node {
         }
     }
 
+    /**
+     * * HANDLER: Handle BATCHLOOKUP message: answer the keys we are responsible
+     * * for, and forward the others.
+     */
+    public void handleBatchLookup(BatchLookupMessage message) {
+        NodeInfo sourceNode = message.getSourceNode();
+
+        if (sourceNode.equals(self)) {
+            ChordLogger.dropped(message, "loopback");
+            return;
+        }
+        if (message.visited(self)) {
+            ChordLogger.dropped(message, "already visited");
+            return;
+        }
+
+        List<Long> mine = new ArrayList<>(), others = new ArrayList<>();
+        for (long chordId : message.getChordIds()) {
+            if (isResponsible(chordId))
+                mine.add(chordId);
+            else
+                others.add(chordId);
+        }
+
+        if (!mine.isEmpty()) {
+            long[] chordIds = mine.stream().mapToLong(Long::longValue).toArray();
+            BatchResponsibleMessage response = new BatchResponsibleMessage(message.getBatchId(), chordIds, getSuccessors());
+            SocketManager.get().sendMessage(sourceNode, response);
+        }
+        if (!others.isEmpty() && !message.hasHopsLeft()) {
+            ChordLogger.dropped(message, others.size() + " keys out of hops");
+        } else if (!others.isEmpty()) {
+            List<Long> dropped = forwardBatch(others, keys -> new BatchLookupMessage(message, keys));
+            if (!dropped.isEmpty())
+                ChordLogger.dropped(message, dropped.size() + " keys with no one to forward to");
+        }
+    }
+
+    /**
+     * * HANDLER: Handle BATCHRESPONSIBLE message, the answer for some of the keys
+     * * of one of our batch lookups.
+     */
+    public void handleBatchResponsible(BatchResponsibleMessage response) {
+        Map<Long, CompletableFuture<NodeInfo>> batch = batches.get(response.getBatchId());
+        if (batch == null) {
+            ChordLogger.dropped(response, "batch done or timed out");
+            return;
+        }
+
+        NodeInfo responsibleNode = response.getSender();
+        long responsibleId = responsibleNode.getChordId();
+        long farthestId = responsibleId;
+        for (long chordId : response.getChordIds()) {
+            CompletableFuture<NodeInfo> promise = batch.get(chordId);
+            if (promise != null)
+                promise.complete(responsibleNode);
+            if (Chord.relative(chordId, responsibleId) > Chord.relative(farthestId, responsibleId))
+                farthestId = chordId;
+        }
+
+        // The node is responsible for every id from the farthest key up to it.
+        lookupCache.learn(farthestId, responsibleNode, response.getSuccessors());
+    }
+
+    /**
+     * * HANDLER: Handle FINDNEXT message, a step of another node's iterative lookup.
+     */
+    public void handleFindNext(FindNextMessage message) {
+        long chordId = message.getChordId();
+        NodeInfo successorNode = finger.get(1);
+        NextHopsMessage response;
+
+        if (isResponsible(chordId)) {
+            NodeInfo[] successorList = getSuccessors();
+            NodeInfo[] nodes = new NodeInfo[successorList.length + 1];
+            nodes[0] = self;
+            System.arraycopy(successorList, 0, nodes, 1, successorList.length);
+            response = new NextHopsMessage(message.getRequestId(), true, nodes);
+        } else if (successorNode != null && Chord.afterOrdered(self.getChordId(), chordId, successorNode.getChordId())) {
+            response = new NextHopsMessage(message.getRequestId(), true, getSuccessors());
+        } else {
+            // The nodes we would have forwarded a LOOKUP to, closest to the key first.
+            List<NodeInfo> hops = precedingNodes(chordId);
+            hops.sort(Comparator.comparingLong(node -> Chord.relative(node.getChordId(), chordId)));
+            hops = hops.subList(0, Math.min(hops.size(), NextHopsMessage.MAX_NODES));
+            response = new NextHopsMessage(message.getRequestId(), false, hops.toArray(new NodeInfo[hops.size()]));
+        }
+
+        SocketManager.get().sendMessage(message.getSender(), response);
+    }
+
+    /**
+     * * HANDLER: Handle RESPONSIBLE message for a lookup of this node.
+     */
+    public void handleResponsible(ResponsibleMessage response) {
+        lookupCache.learn(response.getChordId(), response.getSender(), response.getSuccessors());
+    }
+
     /**
      * * HANDLER: Handle GETPREDECESSOR message from the Stabilize subprotocol.
      */
@@ -225,10 +553,11 @@ public class Node {
         if (predecessorNode == null) {
             ChordLogger.logNodeImportant("New predecessor: " + senderNode.shortStr());
             predecessorNode = senderNode;
+            lookupCache.cut(predecessorNode);
             Dbs.get().transfer(predecessorNode);
         }
 
-        PredecessorMessage response = new PredecessorMessage(predecessorNode);
+        PredecessorMessage response = new PredecessorMessage(predecessorNode, getSuccessors());
         SocketManager.get().sendMessage(senderNode, response);
     }
 
@@ -244,21 +573,37 @@ public class Node {
             ChordLogger.logNode("Received PREDECESSOR, but not from the successor: " + senderNode.shortStr());
             return;
         }
+        latency.sample(successorNode, System.nanoTime() - stabilizeTime);
 
         NodeInfo candidateNode = response.getPredecessorNode();
-        BigInteger candidateId = candidateNode.getChordId();
-        BigInteger selfId = self.getChordId();
-        BigInteger successorId = successorNode.getChordId();
+        long candidateId = candidateNode.getChordId();
+        long selfId = self.getChordId();
+        long successorId = successorNode.getChordId();
+
+        // The successor's own list follows it in ours.
+        NodeInfo[] successorList = successorList(successorNode, response.getSuccessors());
 
         if (Chord.strictOrdered(selfId, candidateId, successorId)) {
             if (SocketManager.get().tryOpen(candidateNode)) {
                 if (finger.compareAndSet(1, successorNode, candidateNode)) {
                     ChordLogger.logNodeImportant("New successor: " + candidateId);
+                    successorList = successorList(candidateNode, successorList);
                 }
             } else {
                 ChordLogger.progress("Could not connect to chosen, valid candidate successor " + candidateId);
             }
         }
+        successors.set(successorList);
+
+        // Our successor covers the ids up to it if we are its predecessor, and
+        // each node in its list the ids after the one before.
+        lookupCache.cut(candidateNode);
+        if (candidateNode.equals(self)) {
+            lookupCache.learnSuccessors(selfId, successorList);
+        } else {
+            long firstId = successorList[0].getChordId();
+            lookupCache.learnSuccessors(firstId, Arrays.copyOfRange(successorList, 1, successorList.length));
+        }
 
         NotifyMessage message = new NotifyMessage();
         assertSend(finger.get(1), message);
@@ -274,16 +619,24 @@ public class Node {
         if (predecessorNode == null) {
             ChordLogger.logNodeImportant("New predecessor: " + senderNode.shortStr());
             predecessorNode = senderNode;
+            lookupCache.cut(predecessorNode);
             Dbs.get().transfer(predecessorNode);
         } else {
-            BigInteger predecessorId = predecessorNode.getChordId();
-            BigInteger senderId = senderNode.getChordId();
-            BigInteger selfId = self.getChordId();
+            long predecessorId = predecessorNode.getChordId();
+            long senderId = senderNode.getChordId();
+            long selfId = self.getChordId();
+
+            // A node behind our predecessor replaces it if it is gone: it has
+            // just promoted us from its successor list.
+            boolean closer = Chord.strictOrdered(predecessorId, senderId, selfId);
+            boolean replaces = !closer && !senderNode.equals(predecessorNode)
+                    && !SocketManager.get().tryOpen(predecessorNode);
 
-            if (Chord.strictOrdered(predecessorId, senderId, selfId)) {
+            if (closer || replaces) {
                 if (predecessor.compareAndSet(predecessorNode, senderNode)) {
                     ChordLogger.logNodeImportant("New predecessor: " + senderNode.shortStr());
                     predecessorNode = senderNode;
+                    lookupCache.cut(predecessorNode);
                     Dbs.get().transfer(predecessorNode);
                 }
             }
@@ -295,13 +648,23 @@ public class Node {
      */
     public void handleFixFingerResponse(ResponsibleMessage response, int i) {
         NodeInfo responsibleNode = response.getSender();
-        BigInteger responsibleId = responsibleNode.getChordId();
-
-        if (SocketManager.get().tryOpen(responsibleNode)) {
-            finger.set(i, responsibleNode);
-            ChordLogger.logFixFingers(i, "resolved: " + responsibleNode.shortStr());
+        lookupCache.learn(response.getChordId(), responsibleNode, response.getSuccessors());
+        long startId = Chord.ithFinger(self.getChordId(), i);
+        long endId = i == Chord.m ? self.getChordId() : Chord.ithFinger(self.getChordId(), i + 1);
+
+        // Of the nodes which may serve as this finger take the fastest, and time
+        // the round trips to all of them again for the next time.
+        List<NodeInfo> candidates = PeerLatency.fingerCandidates(responsibleNode, response.getSuccessors(), startId, endId);
+        NodeInfo fingerNode = latency.fastest(candidates);
+        for (NodeInfo candidateNode : candidates)
+            ping(candidateNode);
+        long fingerId = fingerNode.getChordId();
+
+        if (SocketManager.get().tryOpen(fingerNode)) {
+            finger.set(i, fingerNode);
+            ChordLogger.logFixFingers(i, "resolved: " + fingerNode.shortStr());
         } else {
-            ChordLogger.progress("Could not connect to chosen, valid responsible " + responsibleId + " of finger " + i);
+            ChordLogger.progress("Could not connect to chosen, valid responsible " + fingerId + " of finger " + i);
         }
     }
 
@@ -324,15 +687,15 @@ public class Node {
      */
     public void handleKeepAlive(KeepAliveMessage message) {
         NodeInfo sender = message.getSender();
-        AliveMessage response = new AliveMessage();
+        AliveMessage response = new AliveMessage(message.getRequestId());
         SocketManager.get().sendMessage(sender, response);
     }
 
     /**
      * * HANDLER: Handle ISALIVE message response for a KEEPALIVE message.
      */
-    public void handleIsAlive(AliveMessage response) {
-        // ok... lol
+    public void handleIsAlive(AliveMessage response, long rttNanos) {
+        latency.sample(response.getSender(), rttNanos);
     }
 
     /**
@@ -343,6 +706,7 @@ public class Node {
         if (waitedNode.equals(predecessor.get())) {
             ChordLogger.logNodeImportant("Lost connection to predecessor: did not respond KEEPALIVE request");
             predecessor.set(null);
+            lookupCache.remove(waitedNode);
         } else {
             ChordLogger.logNode("IsAlive timeout discarded: predecessor changed (not " + waitedNode.shortStr() + ")");
         }
@@ -388,28 +752,110 @@ public class Node {
      * @param message A lookup message to send to the closest finger found.
      * @param self The finger the message was sent to, or null if no such finger was found.
      */
-    private NodeInfo lookupClosestPreceding(BigInteger chordId, LookupMessage message) {
-        BigInteger selfId = self.getChordId();
+    private NodeInfo lookupClosestPreceding(long chordId, LookupMessage message) {
+        long selfId = self.getChordId();
+        List<NodeInfo> candidates = precedingNodes(chordId);
+
+        // Of the fingers closer to the key, the one expected to answer soonest.
+        double ringSize = PeerLatency.estimateRingSize(selfId, successors.get());
+        for (NodeInfo candidateNode : latency.byExpectedLatency(chordId, candidates, ringSize)) {
+            boolean sent = assertSend(candidateNode, message);
+
+            if (sent)
+                return candidateNode;
+        }
+
+        ChordLogger.logNode("No closest preceding finger for " + chordId);
+        return null;
+    }
+
+    /**
+     * Forward the keys of a batch lookup each the way its own LOOKUP would go,
+     * in one message per next hop. The keys of a next hop found dead are routed
+     * again, without it.
+     *
+     * @param chordIds The keys to forward, none of which this node is responsible for.
+     * @param forward  Makes the message which carries the given keys to a next hop.
+     * @return The keys which could not be forwarded, for want of anyone to forward them to.
+     */
+    private List<Long> forwardBatch(List<Long> chordIds, Function<long[], BatchLookupMessage> forward) {
+        long selfId = self.getChordId();
+        List<Long> dropped = new ArrayList<>();
+
+        for (int attempt = 0; attempt <= SUCCESSOR_LIST_SIZE && !chordIds.isEmpty(); ++attempt) {
+            double ringSize = PeerLatency.estimateRingSize(selfId, successors.get());
+            NodeInfo successorNode = finger.get(1);
+            LinkedHashMap<NodeInfo, List<Long>> hops = new LinkedHashMap<>();
+
+            for (long chordId : chordIds) {
+                NodeInfo hopNode = null;
+                if (successorNode != null && Chord.afterOrdered(selfId, chordId, successorNode.getChordId())) {
+                    hopNode = successorNode;
+                } else {
+                    List<NodeInfo> candidates = latency.byExpectedLatency(chordId, precedingNodes(chordId), ringSize);
+                    if (!candidates.isEmpty())
+                        hopNode = candidates.get(0);
+                }
+
+                if (hopNode == null)
+                    dropped.add(chordId);
+                else
+                    hops.computeIfAbsent(hopNode, node -> new ArrayList<>()).add(chordId);
+            }
+
+            chordIds = new ArrayList<>();
+            for (Map.Entry<NodeInfo, List<Long>> hop : hops.entrySet()) {
+                long[] keys = hop.getValue().stream().mapToLong(Long::longValue).toArray();
+                if (assertSend(hop.getKey(), forward.apply(keys)))
+                    ChordLogger.logNode("Forwarded " + keys.length + " keys of a batch lookup to " + hop.getKey().shortStr());
+                else
+                    chordIds.addAll(hop.getValue());
+            }
+        }
+
+        dropped.addAll(chordIds);
+        return dropped;
+    }
+
+    /**
+     * @return The distinct fingers and successors between this node and the
+     *         given chord id, which a lookup for it may be forwarded to.
+     */
+    private List<NodeInfo> precedingNodes(long chordId) {
+        long selfId = self.getChordId();
+        ArrayList<NodeInfo> candidates = new ArrayList<>();
 
         for (int i = Chord.m; i > 0; --i) {
             NodeInfo fingerNode = finger.get(i);
-            if (fingerNode == null)
+            if (fingerNode == null || candidates.contains(fingerNode))
                 continue;
 
-            BigInteger fingerId = fingerNode.getChordId();
-            if (selfId.equals(fingerId))
+            long fingerId = fingerNode.getChordId();
+            if (selfId == fingerId)
                 continue;
 
-            if (Chord.afterOrdered(selfId, fingerId, chordId)) {
-                boolean sent = assertSend(fingerNode, message);
-
-                if (sent)
-                    return fingerNode;
-            }
+            if (Chord.afterOrdered(selfId, fingerId, chordId))
+                candidates.add(fingerNode);
+        }
+        for (NodeInfo successorNode : successors.get()) {
+            if (!candidates.contains(successorNode) && Chord.afterOrdered(selfId, successorNode.getChordId(), chordId))
+                candidates.add(successorNode);
         }
+        return candidates;
+    }
 
-        ChordLogger.logNode("No closest preceding finger for " + chordId);
-        return null;
+    /**
+     * Send a KEEPALIVE to this node, to check it is alive and time the round trip.
+     * If it does not answer and is still the predecessor, it is dropped.
+     */
+    private void ping(NodeInfo remoteNode) {
+        // Connect first, so that the handshake is not timed.
+        SocketManager.get().tryOpen(remoteNode);
+
+        KeepAliveMessage message = new KeepAliveMessage();
+        AliveObserver observer = new AliveObserver(remoteNode, message);
+        ChordDispatcher.get().addObserver(observer);
+        SocketManager.get().sendMessage(remoteNode, message);
     }
 
     /**
@@ -420,16 +866,19 @@ public class Node {
         ChordDispatcher.get().addObserver(new PredecessorObserver());
         ChordDispatcher.get().addObserver(new KeepAliveObserver());
         ChordDispatcher.get().addObserver(new LookupObserver());
+        ChordDispatcher.get().addObserver(new FindNextObserver());
+        ChordDispatcher.get().addObserver(new BatchLookupObserver());
+        ChordDispatcher.get().addObserver(new BatchResponsibleObserver());
         ChordDispatcher.get().addObserver(new NotifyObserver());
         ChordDispatcher.get().addObserver(new BackupObserver());
+        ChordDispatcher.get().addObserver(new BackupChunkObserver());
         ChordDispatcher.get().addObserver(new RestoreObserver());
         ChordDispatcher.get().addObserver(new DeleteObserver());
-        ChordDispatcher.get().addObserver(new TransferObserver());
+        ChordDispatcher.get().addObserver(new TransferBatchObserver());
+        ChordDispatcher.get().addObserver(new ChunkQueryObserver());
+        ChordDispatcher.get().addObserver(new ChunkObserver());
+        ChordDispatcher.get().addObserver(new ChunkRequestObserver());
         
-        BigInteger selfId = self.getChordId();
-        for (int i = 1; i <= Chord.m; ++i)
-            ChordDispatcher.get().addObserver(new FixFingerObserver(Chord.ithFinger(selfId, i), i));
-
         ChordLogger.logNodeImportant("Setup permanent observers");
     }
 
@@ -449,7 +898,7 @@ public class Node {
     /**
      * @return true if this Node is responsible for the given chord id.
      */
-    private boolean isResponsible(BigInteger chordId) {
+    private boolean isResponsible(long chordId) {
         NodeInfo predecessorNode = predecessor.get();
         if (predecessorNode == null) {
             return self.equals(finger.get(1));
@@ -457,8 +906,8 @@ public class Node {
 
         // The node should keep better track of which keys it is responsible for,
         // so this method will improve.
-        BigInteger predecessorId = predecessorNode.getChordId();
-        BigInteger selfId = self.getChordId();
+        long predecessorId = predecessorNode.getChordId();
+        long selfId = self.getChordId();
 
         return Chord.afterOrdered(predecessorId, chordId, selfId);
     }
@@ -477,6 +926,7 @@ public class Node {
         builder.append("\nTable of " + self + " (id " + self.getChordId() + ")");
         builder.append("\npredecessor: " + predecessorStr);
         builder.append("\nsuccessor:   " + successorStr);
+        builder.append("\nsuccessors:  " + Arrays.toString(getSuccessors()));
         for (int i = 2; i <= Chord.m; ++i) {
             String fingerStr = Chord.print(finger.get(i));
             String minId = Chord.percentStr(Chord.ithFinger(self.getChordId(), i));
@@ -495,21 +945,91 @@ public class Node {
         boolean sent = SocketManager.get().sendMessage(remoteNode, message);
         if (!sent) {
             ChordLogger.logNode("Purging " + remoteNode + ": disconnected");
+            lookupCache.remove(remoteNode);
 
             NodeInfo predecessorNode = predecessor.get();
             if (remoteNode.equals(predecessorNode)) {
                 predecessor.compareAndSet(predecessorNode, null);
             }
 
+            boolean lostSuccessor = false;
             for (int i = 1; i <= Chord.m; ++i) {
                 if (remoteNode.equals(finger.get(i))) {
-                    finger.compareAndSet(i, remoteNode, null);
+                    if (finger.compareAndSet(i, remoteNode, null) && i == 1)
+                        lostSuccessor = true;
                 }
             }
+
+            if (lostSuccessor)
+                promoteSuccessor(remoteNode);
         }
         return sent;
     }
 
+    /**
+     * Send a message to the successor. If it is found dead it is replaced from
+     * the successor list, and the message goes to the new successor instead.
+     *
+     * @return The successor the message was sent to, or null if none could be reached.
+     */
+    private NodeInfo sendToSuccessor(ChordMessage message) {
+        for (int attempt = 0; attempt <= SUCCESSOR_LIST_SIZE; ++attempt) {
+            NodeInfo successorNode = finger.get(1);
+            if (successorNode == null)
+                return null;
+            if (assertSend(successorNode, message))
+                return successorNode;
+        }
+        return null;
+    }
+
+    /**
+     * Replace a dead successor with the first live node in the successor list,
+     * and notify it right away, rather than wait for Stabilize and FixFingers to
+     * find a new successor.
+     */
+    private void promoteSuccessor(NodeInfo deadNode) {
+        NodeInfo[] successorList = successors.get();
+
+        for (int i = 0; i < successorList.length; ++i) {
+            NodeInfo candidateNode = successorList[i];
+            if (candidateNode.equals(deadNode) || candidateNode.equals(self))
+                continue;
+            if (!SocketManager.get().tryOpen(candidateNode))
+                continue;
+
+            if (finger.compareAndSet(1, null, candidateNode)) {
+                successors.set(Arrays.copyOfRange(successorList, i, successorList.length));
+                ChordLogger.logNodeImportant("New successor: promoted " + candidateNode.shortStr() + " from successor list");
+                assertSend(candidateNode, new NotifyMessage());
+            }
+            return;
+        }
+
+        ChordLogger.logNodeImportant("Lost successor: no live node in successor list");
+    }
+
+    /**
+     * @return The successor list starting at first, then the nodes in next which
+     *         come after it, in order and before this node, up to SUCCESSOR_LIST_SIZE.
+     */
+    private NodeInfo[] successorList(NodeInfo first, NodeInfo[] next) {
+        long selfId = self.getChordId();
+        long lastId = first.getChordId();
+
+        ArrayList<NodeInfo> list = new ArrayList<>(SUCCESSOR_LIST_SIZE);
+        list.add(first);
+        for (NodeInfo node : next) {
+            if (list.size() == SUCCESSOR_LIST_SIZE)
+                break;
+            if (node != null && Chord.strictOrdered(lastId, node.getChordId(), selfId)) {
+                list.add(node);
+                lastId = node.getChordId();
+            }
+        }
+        return list.toArray(new NodeInfo[list.size()]);
+    }
+
     /**
      * Prepare an orderly shutdown of this node's subprotocols.
      */
@@ -521,16 +1041,43 @@ public class Node {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+
+        try {
+            files.close();
+        } catch (IOException e) {
+            ChordLogger.ioError(e);
+        }
     }
 
-    public void addFile(BigInteger fileKey, int replicationDegree) {
-        if (replicationMap.containsKey(fileKey)) {
-            int currentRepDegree = replicationMap.get(fileKey);
-            if (replicationDegree > currentRepDegree) {
-                replicationMap.put(fileKey, replicationDegree);
-            }
-        } else {
-            replicationMap.put(fileKey, replicationDegree);
+    public void addFile(long fileKey, int replicationDegree) {
+        // a full backup replaces an erasure coded or deduplicated one
+        FileRecord current = files.get(fileKey);
+        if (current != null && current.isFull() && current.getReplicationDegree() >= replicationDegree)
+            return;
+        putFile(fileKey, FileRecord.full(replicationDegree));
+    }
+
+    public void addErasureFile(long fileKey, ErasureLayout layout) {
+        putFile(fileKey, FileRecord.erasure(layout));
+    }
+
+    public void addDedupFile(long fileKey, int replicationDegree) {
+        putFile(fileKey, FileRecord.dedup(replicationDegree));
+    }
+
+    public void removeFile(long fileKey) {
+        try {
+            files.remove(fileKey);
+        } catch (IOException e) {
+            ChordLogger.ioError(e);
+        }
+    }
+
+    private void putFile(long fileKey, FileRecord record) {
+        try {
+            files.put(fileKey, record);
+        } catch (IOException e) {
+            ChordLogger.ioError(e);
         }
     }
 
@@ -554,8 +1101,9 @@ public class Node {
             NodeInfo successor = finger.get(1), next = successor;
             if (next == null) {
                 ChordLogger.logStabilize("bad: no successor");
+                promoteSuccessor(null);
                 return;
-            } else if (self.getChordId().equals(next.getChordId())) {
+            } else if (self.getChordId() == next.getChordId()) {
                 next = predecessor.get();
                 if (next != null) {
                     if (finger.compareAndSet(1, successor, next)) {
@@ -567,6 +1115,7 @@ public class Node {
             } else {
                 ChordLogger.logStabilize("challenge");
                 GetPredecessorMessage message = new GetPredecessorMessage();
+                stabilizeTime = System.nanoTime();
                 assertSend(next, message);
             }
         }
@@ -581,8 +1130,13 @@ public class Node {
             if (++i > Chord.m)
                 i = 1;
 
-            BigInteger selfId = self.getChordId();
-            BigInteger fingerId = Chord.ithFinger(self.getChordId(), i);
+            long selfId = self.getChordId();
+            long fingerId = Chord.ithFinger(self.getChordId(), i);
+
+            // Time the round trip to each distinct finger once per loop.
+            NodeInfo fingerNode = finger.get(i);
+            if (fingerNode != null && !fingerNode.equals(self) && !fingerNode.equals(finger.get(i - 1)))
+                ping(fingerNode);
 
             if (isResponsible(fingerId)) {
                 ChordLogger.logFixFingers(i, "responsible");
@@ -592,7 +1146,7 @@ public class Node {
 
             NodeInfo successorNode = finger.get(1);
             if (successorNode != null) {
-                BigInteger successorId = successorNode.getChordId();
+                long successorId = successorNode.getChordId();
 
                 if (Chord.afterOrdered(selfId, fingerId, successorId)) {
                     finger.set(i, successorNode);
@@ -602,9 +1156,12 @@ public class Node {
             }
 
             LookupMessage message = new LookupMessage(fingerId, self);
+            FixFingerObserver observer = new FixFingerObserver(message, i);
+            ChordDispatcher.get().addObserver(observer);
             NodeInfo destination = lookupClosestPreceding(fingerId, message);
 
             if (destination == null) {
+                ChordDispatcher.get().removeObserver(observer);
                 ChordLogger.logFixFingers(i, "self, no lookup");
                 finger.set(i, self);
             } else {
@@ -620,10 +1177,7 @@ public class Node {
             NodeInfo predecessorNode = predecessor.get();
             if (predecessorNode != null) {
                 ChordLogger.logCheckPredecessor("keep alive");
-                AliveObserver observer = new AliveObserver(predecessorNode);
-                KeepAliveMessage message = new KeepAliveMessage();
-                ChordDispatcher.get().addObserver(observer);
-                SocketManager.get().sendMessage(predecessorNode, message);
+                ping(predecessorNode);
             } else {
                 ChordLogger.logCheckPredecessor("no predecessor");
             }
@@ -654,10 +1208,10 @@ public class Node {
                 ChordLogger.logJoin("Attempt " + count + " joining Chord on remote " + remoteNode);
             }
 
-            JoinObserver joiner = new JoinObserver();
+            LookupMessage lookup = new LookupMessage(self.getChordId(), self);
+            JoinObserver joiner = new JoinObserver(lookup);
             ChordDispatcher.get().addObserver(joiner);
 
-            LookupMessage lookup = new LookupMessage(self.getChordId(), self);
             SocketManager.get().sendMessage(remoteNode, lookup);
         }
     }
@@ -1,13 +1,12 @@
 package dbs.chord;
 
 import java.io.Serializable;
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Objects;
 
 /**
- * The basic identifier of a Chord node: contains a chord id (BigInteger) for a
+ * The basic identifier of a Chord node: contains a chord id (long) for a
  * node and the node's server socket address (ip + port). This data structure is
  * fit for network communications, and serves to inform other Chord nodes where
  * to connect to this node.
@@ -18,15 +17,15 @@ import java.util.Objects;
  */
 public final class NodeInfo implements Serializable {
 
-    public final BigInteger chordId;
+    public final long chordId;
     public final InetSocketAddress serverAddress;
 
-    public NodeInfo(BigInteger chordId, InetSocketAddress serverAddress) {
+    public NodeInfo(long chordId, InetSocketAddress serverAddress) {
         this.chordId = chordId;
         this.serverAddress = serverAddress;
     }
 
-    public BigInteger getChordId() {
+    public long getChordId() {
         return chordId;
     }
 
@@ -65,6 +64,6 @@ public final class NodeInfo implements Serializable {
         if (!(obj instanceof NodeInfo))
             return false;
         NodeInfo other = (NodeInfo) obj;
-        return Objects.equals(chordId, other.chordId) && Objects.equals(serverAddress, other.serverAddress);
+        return chordId == other.chordId && Objects.equals(serverAddress, other.serverAddress);
     }
 }
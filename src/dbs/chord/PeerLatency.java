@@ -0,0 +1,134 @@
+package dbs.chord;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Round trip times from this node to the others, learned from the replies to
+ * its KEEPALIVEs (to the predecessor, the fingers and their candidates) and
+ * GETPREDECESSORs (to the successor), and smoothed like TCP's (RFC 6298) so one
+ * slow reply does not throw an estimate off.
+ *
+ * They are used twice. Each finger is the fastest of the first few nodes in its
+ * interval, rather than the first one. Then each lookup hop goes to the finger
+ * expected to answer soonest: the closest preceding one saves the most hops,
+ * but on a network where links differ a lot, a nearby finger a little further
+ * from the key is often quicker overall.
+ */
+public final class PeerLatency {
+
+    // Weight of a new sample in the smoothed round trip time.
+    private static final double ALPHA = 0.125;
+
+    private final ConcurrentHashMap<Long, Double> rtts = new ConcurrentHashMap<>();
+
+    /**
+     * Add a round trip time sample for this node.
+     */
+    public void sample(NodeInfo node, long rttNanos) {
+        double rtt = rttNanos / 1e6;
+        rtts.merge(node.getChordId(), rtt, (current, sample) -> current + ALPHA * (sample - current));
+    }
+
+    /**
+     * @return The smoothed round trip time to this node in milliseconds, or NaN
+     *         if there is no sample for it yet.
+     */
+    public double get(NodeInfo node) {
+        Double rtt = rtts.get(node.getChordId());
+        return rtt == null ? Double.NaN : rtt;
+    }
+
+    /**
+     * @return The average round trip time to the known nodes in milliseconds,
+     *         or 0 if there are none.
+     */
+    public double getMean() {
+        double sum = 0;
+        int count = 0;
+        for (double rtt : rtts.values()) {
+            sum += rtt;
+            count++;
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Any node in [start, end) of a finger's interval makes a correct finger:
+     * the node responsible for its start, the one Chord picks, is only the
+     * closest to it.
+     *
+     * @return The nodes which may serve as the finger for [start, end): the node
+     *         responsible for start, then those of its successors in [start, end).
+     */
+    public static List<NodeInfo> fingerCandidates(NodeInfo responsibleNode, NodeInfo[] successors, long start,
+            long end) {
+        ArrayList<NodeInfo> candidates = new ArrayList<>();
+        candidates.add(responsibleNode);
+        for (NodeInfo successorNode : successors) {
+            long successorId = successorNode.getChordId();
+            if (Chord.relative(start, successorId) < Chord.relative(start, end) && !candidates.contains(successorNode))
+                candidates.add(successorNode);
+        }
+        return candidates;
+    }
+
+    /**
+     * @return The candidate with the lowest round trip time, or the first one if
+     *         there is no sample for any of them.
+     */
+    public NodeInfo fastest(List<NodeInfo> candidates) {
+        NodeInfo fastestNode = candidates.get(0);
+        double fastestRtt = Double.POSITIVE_INFINITY;
+        for (NodeInfo candidateNode : candidates) {
+            double rtt = get(candidateNode);
+            if (rtt < fastestRtt) {
+                fastestNode = candidateNode;
+                fastestRtt = rtt;
+            }
+        }
+        return fastestNode;
+    }
+
+    /**
+     * Order the nodes a lookup for chordId could be forwarded to, all of them
+     * between this node and chordId, by expected latency: the round trip to the
+     * node, plus the hops still left from it, at the mean round trip each. In a
+     * ring of n nodes a lookup takes about (1/2) log2 n hops, so from a node d
+     * ids away from the key, about (1/2) log2(1 + n d / 2^m).
+     *
+     * Nodes with no sample yet are taken to be at the mean round trip, and with
+     * no samples at all this is the usual closest preceding finger first.
+     *
+     * @param ringSize An estimate of the number of nodes in the ring.
+     */
+    public List<NodeInfo> byExpectedLatency(long chordId, List<NodeInfo> candidates, double ringSize) {
+        double meanRtt = getMean();
+
+        ArrayList<NodeInfo> sorted = new ArrayList<>(candidates);
+        Comparator<NodeInfo> byCost = Comparator.comparingDouble(node -> {
+            double rtt = get(node);
+            double distance = Chord.relative(node.getChordId(), chordId);
+            double hops = 0.5 * Math.log1p(ringSize * distance / Chord.modulus) / Math.log(2);
+            return (Double.isNaN(rtt) ? meanRtt : rtt) + meanRtt * hops;
+        });
+        sorted.sort(byCost.thenComparingLong(node -> Chord.relative(node.getChordId(), chordId)));
+        return sorted;
+    }
+
+    /**
+     * @return An estimate of the number of nodes in the ring, from how close
+     *         together a node's successors are.
+     */
+    public static double estimateRingSize(long selfId, NodeInfo[] successors) {
+        if (successors.length == 0)
+            return 1;
+
+        long span = Chord.relative(selfId, successors[successors.length - 1].getChordId());
+        if (span == 0)
+            return 1;
+        return (double) successors.length * Chord.modulus / span;
+    }
+}
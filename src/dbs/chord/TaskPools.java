@@ -0,0 +1,120 @@
+package dbs.chord;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that run the protocol tasks which may block: observer
+ * notifications in the ChordDispatcher, Dbs tasks such as transfers, and the
+ * FileManager's readers, writers and streamers.
+ *
+ * The execution mode is chosen when the node is launched, with the system
+ * property dbs.threads:
+ *
+ * * fixed (default): small fixed pools of platform threads, sized in Chord and
+ * * Configuration. A task blocked on a future, the disk or a slow peer holds
+ * * one of these few threads, and all other tasks queue behind it.
+ *
+ * * virtual: every task runs on its own virtual thread, so blocked tasks cost
+ * * next to nothing and never starve the others. Requires Java 21; on older
+ * * runtimes this falls back to elastic.
+ *
+ * * elastic: pools of platform threads which grow with demand, and shrink back
+ * * to their fixed size once idle.
+ */
+public final class TaskPools {
+
+    public enum Mode {
+        FIXED, VIRTUAL, ELASTIC
+    }
+
+    public static final Mode MODE = chooseMode(System.getProperty("dbs.threads", "fixed"));
+
+    // How long elastic pools keep extra threads idle before letting them go.
+    private static final int ELASTIC_KEEPALIVE = 30000;
+
+    private TaskPools() {}
+
+    /**
+     * @return true if the tasks run on fixed pools, i.e. no execution mode was chosen.
+     */
+    public static boolean isFixed() {
+        return MODE == Mode.FIXED;
+    }
+
+    /**
+     * Create an executor for blocking tasks.
+     *
+     * @param name The name prefix of the pool's threads.
+     * @param size The number of threads of the pool in fixed mode.
+     */
+    public static ExecutorService newTaskPool(String name, int size) {
+        switch (MODE) {
+        case VIRTUAL:
+            return newVirtualPool();
+        case ELASTIC:
+            return new ThreadPoolExecutor(size, Integer.MAX_VALUE, ELASTIC_KEEPALIVE, TimeUnit.MILLISECONDS,
+                    new SynchronousQueue<>(), new NamedFactory(name));
+        default:
+            return Executors.newFixedThreadPool(size, new NamedFactory(name));
+        }
+    }
+
+    private static Mode chooseMode(String property) {
+        switch (property.toLowerCase()) {
+        case "virtual":
+            if (virtualFactory() != null)
+                return Mode.VIRTUAL;
+            System.err.println("Virtual threads need Java 21, using elastic thread pools instead");
+            return Mode.ELASTIC;
+        case "elastic":
+            return Mode.ELASTIC;
+        case "fixed":
+            return Mode.FIXED;
+        default:
+            System.err.println("Unknown dbs.threads mode " + property + ", using fixed thread pools");
+            return Mode.FIXED;
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), looked up at runtime as we
+     * still compile for runtimes without it.
+     */
+    private static Method virtualFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newVirtualPool() {
+        try {
+            return (ExecutorService) virtualFactory().invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new InternalError(e);
+        }
+    }
+
+    private static final class NamedFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        NamedFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, name + "-" + count.incrementAndGet());
+        }
+    }
+}
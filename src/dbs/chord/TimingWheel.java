@@ -0,0 +1,195 @@
+package dbs.chord;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timing wheel for the TimeoutObservers' timeouts: a ring of buckets,
+ * one per tick, which a single thread walks once per tick, running the
+ * timeouts due in the bucket it reaches. A timeout longer than the wheel goes
+ * around as many times as needed.
+ *
+ * Scheduling and cancelling only queue the timeout for the wheel's thread, so
+ * both take constant time, and a cancelled timeout leaves its bucket at the
+ * next tick, instead of staying queued until it was due, as it did on the
+ * ScheduledThreadPoolExecutor. Timeouts run up to a tick late, on the given
+ * executor.
+ */
+final class TimingWheel {
+
+    private static final int INIT = 0, PENDING = 1, CANCELLED = 2, EXPIRED = 3;
+
+    static final class Timeout {
+
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(INIT);
+        private TimingWheel wheel;
+        private long deadline; // in ticks
+
+        // Only ever touched by the wheel's thread.
+        private Timeout prev, next;
+        private Bucket bucket;
+
+        Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * @return Whether the timeout was cancelled before it ran.
+         */
+        boolean cancel() {
+            if (state.compareAndSet(INIT, CANCELLED))
+                return true;
+            if (!state.compareAndSet(PENDING, CANCELLED))
+                return false;
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+    private static final class Bucket {
+        Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null)
+                head = timeout;
+            else
+                tail.next = timeout;
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null)
+                head = timeout.next;
+            else
+                timeout.prev.next = timeout.next;
+            if (timeout.next == null)
+                tail = timeout.prev;
+            else
+                timeout.next.prev = timeout.prev;
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final Executor executor;
+    private final long startTime;
+
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private long tick = 0; // only used by the wheel's thread
+
+    /**
+     * @param tickMillis The length of a tick, in milliseconds.
+     * @param size       The number of buckets, a power of two.
+     * @param executor   The executor which runs the timeouts.
+     */
+    TimingWheel(int tickMillis, int size, Executor executor) {
+        assert tickMillis > 0 && Integer.bitCount(size) == 1;
+        this.tickNanos = tickMillis * 1_000_000L;
+        this.buckets = new Bucket[size];
+        this.mask = size - 1;
+        this.executor = executor;
+        for (int i = 0; i < size; i++)
+            buckets[i] = new Bucket();
+
+        this.startTime = System.nanoTime();
+        Thread thread = new Thread(this::run, "timing-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run the timeout's task after delay milliseconds, unless it is cancelled
+     * first. A timeout is scheduled at most once.
+     */
+    void schedule(Timeout timeout, long delayMillis) {
+        // Cancelled, or scheduled already: its deadline must not change.
+        if (timeout.state.get() != INIT)
+            return;
+
+        long elapsed = System.nanoTime() - startTime + delayMillis * 1_000_000L;
+        timeout.deadline = (elapsed + tickNanos - 1) / tickNanos;
+        timeout.wheel = this;
+
+        // Cancelled before it was even scheduled.
+        if (!timeout.state.compareAndSet(INIT, PENDING))
+            return;
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+    }
+
+    /**
+     * @return The number of timeouts scheduled, and neither run nor cancelled yet.
+     */
+    int pending() {
+        return pending.get();
+    }
+
+    private void run() {
+        while (true) {
+            long sleepNanos = startTime + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+
+            removeCancelled();
+            addScheduled();
+            expire(buckets[(int) (tick & mask)]);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    private void addScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.isCancelled()) {
+                pending.decrementAndGet();
+                continue;
+            }
+            // Already due: run it with this tick.
+            long deadline = Math.max(timeout.deadline, tick);
+            buckets[(int) (deadline & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            // Cancelled timeouts are left for removeCancelled().
+            if (timeout.deadline <= tick && timeout.state.compareAndSet(PENDING, EXPIRED)) {
+                bucket.remove(timeout);
+                pending.decrementAndGet();
+                executor.execute(timeout.task);
+            }
+            timeout = next;
+        }
+    }
+}
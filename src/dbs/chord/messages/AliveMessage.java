@@ -1,9 +1,17 @@
 package dbs.chord.messages;
 
-public class AliveMessage extends ChordMessage {
+import java.io.DataInputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
 
-    public AliveMessage() {
-        super("ISALIVE");
+public class AliveMessage extends ResponseMessage {
+
+    public AliveMessage(long requestId) {
+        super("ISALIVE", requestId);
+    }
+
+    public AliveMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("ISALIVE", sender, in);
     }
 
     @Override
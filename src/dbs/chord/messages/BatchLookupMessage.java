@@ -0,0 +1,72 @@
+package dbs.chord.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+
+/**
+ * A lookup for many keys at once, such as the offsets of one file's copies.
+ * Each node on the way answers the keys it is responsible for, and splits the
+ * others by the node it forwards them to, so that keys going the same way share
+ * their hops. Every responsible node answers the source directly, with one
+ * BatchResponsibleMessage for all of its keys.
+ *
+ * BatchLookupMessage may originate in Node.lookupAll(chordIds) or be received
+ * and forwarded in Node.handleBatchLookup(BatchLookupMessage).
+ */
+public final class BatchLookupMessage extends ForwardingMessage {
+
+    private final NodeInfo sourceNode;
+    private final long batchId;
+    private final long[] chordIds;
+
+    public BatchLookupMessage(long batchId, long[] chordIds, NodeInfo source) {
+        super("BATCHLOOKUP");
+        this.sourceNode = source;
+        this.batchId = batchId;
+        this.chordIds = chordIds;
+    }
+
+    /**
+     * Forward some of the keys of a received batch.
+     */
+    public BatchLookupMessage(BatchLookupMessage message, long[] chordIds) {
+        super(message);
+        this.sourceNode = message.sourceNode;
+        this.batchId = message.batchId;
+        this.chordIds = chordIds;
+    }
+
+    public BatchLookupMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("BATCHLOOKUP", sender, in);
+        this.sourceNode = MessageCodec.readNode(in);
+        this.batchId = in.readLong();
+        this.chordIds = MessageCodec.readChordIds(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeNode(out, sourceNode);
+        out.writeLong(batchId);
+        MessageCodec.writeChordIds(out, chordIds);
+    }
+
+    public NodeInfo getSourceNode() {
+        return sourceNode;
+    }
+
+    public long getBatchId() {
+        return batchId;
+    }
+
+    public long[] getChordIds() {
+        return chordIds;
+    }
+
+    @Override
+    public String toString() {
+        return "BATCHLOOKUP(" + chordIds.length + " keys, source " + sourceNode.shortStr() + ")";
+    }
+}
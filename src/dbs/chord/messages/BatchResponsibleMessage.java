@@ -0,0 +1,68 @@
+package dbs.chord.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.Chord;
+import dbs.chord.NodeInfo;
+
+/**
+ * Response to a BatchLookupMessage, from a node to the batch's source: the
+ * keys of the batch the sender is responsible for, and its successor list.
+ */
+public final class BatchResponsibleMessage extends ChordMessage {
+
+    private final long batchId;
+    private final long[] chordIds;
+    private final NodeInfo[] successors;
+
+    public BatchResponsibleMessage(long batchId, long[] chordIds, NodeInfo[] successors) {
+        super("BATCHRESPONSIBLE");
+        this.batchId = batchId;
+        this.chordIds = chordIds;
+        this.successors = successors;
+    }
+
+    public BatchResponsibleMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("BATCHRESPONSIBLE", sender);
+        this.batchId = in.readLong();
+        this.chordIds = MessageCodec.readChordIds(in);
+        int numSuccessors = in.readUnsignedByte();
+        if (numSuccessors > Chord.SUCCESSOR_LIST_SIZE)
+            throw new IOException("Invalid successor list length " + numSuccessors);
+        this.successors = new NodeInfo[numSuccessors];
+        for (int i = 0; i < numSuccessors; i++) {
+            successors[i] = MessageCodec.readNode(in);
+        }
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        out.writeLong(batchId);
+        MessageCodec.writeChordIds(out, chordIds);
+        out.writeByte(successors.length);
+        for (NodeInfo successor : successors) {
+            MessageCodec.writeNode(out, successor);
+        }
+    }
+
+    public long getBatchId() {
+        return batchId;
+    }
+
+    public long[] getChordIds() {
+        return chordIds;
+    }
+
+    /**
+     * @return The sender's successor list, nearest first.
+     */
+    public NodeInfo[] getSuccessors() {
+        return successors;
+    }
+
+    @Override
+    public String toString() {
+        return "BATCHRESPONSIBLE(" + chordIds.length + " keys)";
+    }
+}
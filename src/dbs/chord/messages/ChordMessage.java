@@ -1,5 +1,7 @@
 package dbs.chord.messages;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Objects;
 import dbs.chord.Node;
@@ -11,20 +13,38 @@ import dbs.chord.NodeInfo;
  * Messages have an underlying 'key' object, on which Observers may register in
  * ChordDispatcher. When a message arrives which matches the given 'key', the
  * Observer is notified of this message.
+ *
+ * On the wire, messages are encoded by the MessageCodec: every concrete message
+ * writes its own fields in writeBody(), and has a matching decoding constructor
+ * taking the sender and the stream to read those fields back from.
  */
 public abstract class ChordMessage implements Serializable {
 
     private final ChordMessageKey key;
-    private final NodeInfo sender = Node.get().getSelf();
+    private final NodeInfo sender;
 
     protected ChordMessage(ChordMessageKey key) {
+        this(key, Node.get().getSelf());
+    }
+
+    protected ChordMessage(String kind) {
+        this(new ChordMessageKey(kind), Node.get().getSelf());
+    }
+
+    /**
+     * Used when decoding a message received from the given sender.
+     */
+    protected ChordMessage(ChordMessageKey key, NodeInfo sender) {
         assert key != null && sender != null;
         this.key = key;
+        this.sender = sender;
     }
 
-    protected ChordMessage(String kind) {
-        assert kind != null && sender != null;
-        this.key = new ChordMessageKey(kind);
+    /**
+     * Used when decoding a message received from the given sender.
+     */
+    protected ChordMessage(String kind, NodeInfo sender) {
+        this(new ChordMessageKey(kind), sender);
     }
 
     public ChordMessageKey getKey() {
@@ -39,6 +59,12 @@ public abstract class ChordMessage implements Serializable {
         return sender;
     }
 
+    /**
+     * Write this message's own fields (everything but the kind and the sender) to
+     * the stream, in the order in which its decoding constructor reads them.
+     */
+    protected void writeBody(DataOutputStream out) throws IOException {}
+
     @Override
     public String toString() {
         return "MESSAGE(" + key + ", " + sender.shortStr() + ")";
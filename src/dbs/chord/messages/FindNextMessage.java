@@ -0,0 +1,43 @@
+package dbs.chord.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.Chord;
+import dbs.chord.NodeInfo;
+
+/**
+ * One step of an iterative lookup: asks a node for the successor of chordId if
+ * it knows it, or else for the nodes it would have forwarded the lookup to.
+ * Answered with a NextHopsMessage with the same request id, to the source only,
+ * which decides where to ask next.
+ */
+public final class FindNextMessage extends RequestMessage {
+
+    private final long chordId;
+
+    public FindNextMessage(long chordId) {
+        super("FINDNEXT");
+        this.chordId = chordId;
+    }
+
+    public FindNextMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("FINDNEXT", sender, in);
+        this.chordId = MessageCodec.readChordId(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, chordId);
+    }
+
+    public long getChordId() {
+        return chordId;
+    }
+
+    @Override
+    public String toString() {
+        return "FINDNEXT(" + Chord.percentStr(chordId) + ")";
+    }
+}
@@ -1,45 +1,105 @@
 package dbs.chord.messages;
 
-import java.util.LinkedList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.Chord;
 import dbs.chord.Node;
 import dbs.chord.NodeInfo;
 
+/**
+ * A message forwarded from node to node through the ring. It keeps count of
+ * the nodes it went through, and a bloom filter of their chord ids, so that it
+ * stays the same size however long its path gets.
+ *
+ * The filter may claim a node was visited when it was not, which drops the
+ * message at that node: with 3 bits per node out of 256, this happens about
+ * once in 5000 hops for a 5 hop path, and once in 30 for a 32 hop one.
+ */
 public abstract class ForwardingMessage extends ChordMessage {
 
-    private final LinkedList<NodeInfo> visitors;
+    private static final int FILTER_WORDS = 4; // 256 bits
+    private static final int FILTER_HASHES = 3;
+
+    private final long[] filter;
+    private int hops;
 
     protected ForwardingMessage(ForwardingMessage message) {
         super(message.getKey());
-        this.visitors = new LinkedList<>(message.visitors);
+        this.filter = message.filter.clone();
+        this.hops = message.hops;
         visit(Node.get().getSelf());
     }
 
     protected ForwardingMessage(ChordMessageKey key) {
         super(key);
-        this.visitors = new LinkedList<>();
+        this.filter = new long[FILTER_WORDS];
         visit(Node.get().getSelf());
     }
 
     protected ForwardingMessage(String kind) {
         super(kind);
-        this.visitors = new LinkedList<>();
+        this.filter = new long[FILTER_WORDS];
         visit(Node.get().getSelf());
     }
 
+    protected ForwardingMessage(String kind, NodeInfo sender, DataInputStream in) throws IOException {
+        super(kind, sender);
+        this.filter = new long[FILTER_WORDS];
+        this.hops = in.readUnsignedByte();
+        for (int i = 0; i < FILTER_WORDS; i++) {
+            filter[i] = in.readLong();
+        }
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        out.writeByte(hops);
+        for (long word : filter) {
+            out.writeLong(word);
+        }
+    }
+
     public final void visit(NodeInfo node) {
-        assert !visitors.contains(node);
-        visitors.add(node);
+        long hash = hash(node);
+        for (int i = 0; i < FILTER_HASHES; i++, hash >>>= 8) {
+            int bit = (int) hash & 0xff;
+            filter[bit >>> 6] |= 1L << bit;
+        }
+        hops = Math.min(hops + 1, 0xff);
     }
 
+    /**
+     * @return Whether this message went through node already. It may be wrong
+     *         when true, but never when false.
+     */
     public final boolean visited(NodeInfo node) {
-        return visitors.contains(node);
+        long hash = hash(node);
+        for (int i = 0; i < FILTER_HASHES; i++, hash >>>= 8) {
+            int bit = (int) hash & 0xff;
+            if ((filter[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
     }
 
-    public final LinkedList<NodeInfo> getVisitors() {
-        return new LinkedList<NodeInfo>(visitors);
+    /**
+     * @return Whether this message may still be forwarded, or has gone through
+     *         Chord.MAX_HOPS nodes already.
+     */
+    public final boolean hasHopsLeft() {
+        return hops < Chord.MAX_HOPS;
     }
 
     public final int getNumVisits() {
-        return visitors.size();
+        return hops;
+    }
+
+    // Chord ids are hashes already, but close ids must not share filter bits.
+    private static long hash(NodeInfo node) {
+        long hash = node.getChordId();
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
     }
 }
@@ -0,0 +1,100 @@
+package dbs.chord.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles the MessageCodec frames of one connection from its incoming
+ * bytes, in whatever pieces they arrive, and decodes them. Not thread safe:
+ * a connection reads from one thread at a time.
+ *
+ * A frame sent in pieces (see MessageCodec.PIECE) is put back together as
+ * its pieces come, while the whole frames sent between them are decoded
+ * right away.
+ */
+public final class FrameReader {
+
+    // The whole frame being read
+    private byte[] frame;
+    private int framePos;
+
+    // The frame being put back together from its pieces, and what is left of
+    // the current piece
+    private byte[] split;
+    private int splitPos;
+    private int pieceLeft;
+
+    /**
+     * Take bytes from the buffer, which is ready for reading, until a frame is
+     * complete or the buffer runs out. The bytes of a frame left incomplete are
+     * kept until the next call.
+     *
+     * @return The message of the frame completed, or null if more bytes are
+     *         needed.
+     * @throws IOException if the frame is malformed, too large or of an unknown
+     *                     type.
+     */
+    public ChordMessage next(ByteBuffer in) throws IOException {
+        while (true) {
+            if (pieceLeft > 0) {
+                int n = Math.min(in.remaining(), pieceLeft);
+                in.get(split, splitPos, n);
+                splitPos += n;
+                pieceLeft -= n;
+                if (pieceLeft > 0)
+                    return null;
+                if (splitPos == split.length) {
+                    byte[] complete = split;
+                    split = null;
+                    return MessageCodec.decode(complete);
+                }
+                continue;
+            }
+
+            if (frame != null) {
+                int n = Math.min(in.remaining(), frame.length - framePos);
+                in.get(frame, framePos, n);
+                framePos += n;
+                if (framePos < frame.length)
+                    return null;
+                byte[] complete = frame;
+                frame = null;
+                return MessageCodec.decode(complete);
+            }
+
+            if (in.remaining() < 4)
+                return null;
+            int header = in.getInt(in.position());
+            if ((header & MessageCodec.PIECE) == 0) {
+                in.getInt();
+                frame = new byte[checkLength(header)];
+                framePos = 0;
+                continue;
+            }
+
+            // The first piece starts with the length of the whole frame.
+            int pieceLength = header & ~MessageCodec.PIECE;
+            if (split == null) {
+                if (in.remaining() < 8)
+                    return null;
+                in.getInt();
+                if (pieceLength < 4)
+                    throw new IOException("Invalid frame piece length " + pieceLength);
+                split = new byte[checkLength(in.getInt())];
+                splitPos = 0;
+                pieceLength -= 4;
+            } else {
+                in.getInt();
+            }
+            if (pieceLength > split.length - splitPos)
+                throw new IOException("Frame piece of " + pieceLength + " bytes past the end of its frame");
+            pieceLeft = pieceLength;
+        }
+    }
+
+    private static int checkLength(int length) throws IOException {
+        if (length < 1 || length > MessageCodec.MAX_FRAME_SIZE)
+            throw new IOException("Invalid frame length " + length);
+        return length;
+    }
+}
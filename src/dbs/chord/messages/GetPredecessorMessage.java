@@ -1,11 +1,18 @@
 package dbs.chord.messages;
 
+import java.io.DataInputStream;
+import dbs.chord.NodeInfo;
+
 public final class GetPredecessorMessage extends ChordMessage {
 
     public GetPredecessorMessage() {
         super("GETPREDECESSOR");
     }
 
+    public GetPredecessorMessage(NodeInfo sender, DataInputStream in) {
+        super("GETPREDECESSOR", sender);
+    }
+
     @Override
     public String toString() {
         return "GETPREDECESSOR";
@@ -1,11 +1,24 @@
 package dbs.chord.messages;
 
-public class KeepAliveMessage extends ChordMessage {
+import java.io.DataInputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+
+/**
+ * A liveness check. The ISALIVE response carries back its request id, which
+ * tells the responses to concurrent checks apart, and the round trip time of
+ * each.
+ */
+public class KeepAliveMessage extends RequestMessage {
 
     public KeepAliveMessage() {
         super("KEEPALIVE");
     }
 
+    public KeepAliveMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("KEEPALIVE", sender, in);
+    }
+
     @Override
     public String toString() {
         return "KEEPALIVE";
@@ -1,7 +1,10 @@
 package dbs.chord.messages;
 
-import java.math.BigInteger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import dbs.chord.Chord;
+import dbs.chord.ChordDispatcher;
 import dbs.chord.NodeInfo;
 
 /**
@@ -15,32 +18,62 @@ import dbs.chord.NodeInfo;
  * because the response to this message is not (necessarily) sent by the node
  * that received it, again because our implementation is recursive and not
  * iterative.
+ *
+ * The source gives each lookup a request id of its own, so that concurrent
+ * lookups for the same key are each answered separately.
  */
 public final class LookupMessage extends ForwardingMessage {
 
     private final NodeInfo sourceNode;
-    private final BigInteger chordId;
+    private final long chordId;
+    private final long requestId;
 
-    public LookupMessage(BigInteger chordId, NodeInfo source) {
+    public LookupMessage(long chordId, NodeInfo source) {
         super("LOOKUP");
         this.sourceNode = source;
         this.chordId = chordId;
+        this.requestId = ChordDispatcher.get().newRequestId();
     }
 
     public LookupMessage(LookupMessage message) {
         super(message);
         this.sourceNode = message.sourceNode;
         this.chordId = message.chordId;
+        this.requestId = message.requestId;
+    }
+
+    public LookupMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("LOOKUP", sender, in);
+        this.sourceNode = MessageCodec.readNode(in);
+        this.chordId = MessageCodec.readChordId(in);
+        this.requestId = in.readLong();
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeNode(out, sourceNode);
+        MessageCodec.writeChordId(out, chordId);
+        out.writeLong(requestId);
     }
 
     public NodeInfo getSourceNode() {
         return sourceNode;
     }
 
-    public BigInteger getChordId() {
+    public long getChordId() {
         return chordId;
     }
 
+    /**
+     * @return The id the source gave this lookup, which the RESPONSIBLE answer
+     *         carries back. It is not a RequestMessage only because it is
+     *         forwarded.
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
     @Override
     public String toString() {
         return "LOOKUP(" + Chord.percentStr(chordId) + ", source " + sourceNode.shortStr() + ")";
@@ -0,0 +1,315 @@
+package dbs.chord.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import dbs.chord.Chord;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.protocol.BackupChunkMessage;
+import dbs.chord.messages.protocol.BackupMessage;
+import dbs.chord.messages.protocol.BackupResponseMessage;
+import dbs.chord.messages.protocol.ChunkDataMessage;
+import dbs.chord.messages.protocol.ChunkMessage;
+import dbs.chord.messages.protocol.ChunkQueryMessage;
+import dbs.chord.messages.protocol.ChunkQueryResponseMessage;
+import dbs.chord.messages.protocol.ChunkRequestMessage;
+import dbs.chord.messages.protocol.ChunkResponseMessage;
+import dbs.chord.messages.protocol.DeleteMessage;
+import dbs.chord.messages.protocol.DeleteResponseMessage;
+import dbs.chord.messages.protocol.RestoreChunkMessage;
+import dbs.chord.messages.protocol.RestoreMessage;
+import dbs.chord.messages.protocol.RestoreResponseMessage;
+import dbs.chord.messages.protocol.TransferAckMessage;
+import dbs.chord.messages.protocol.TransferBatchMessage;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.ChunkManifest;
+import dbs.filesystem.threads.ResultCode;
+
+/**
+ * Compact binary wire format for ChordMessages, replacing Java object
+ * serialization on the node sockets.
+ *
+ * Every message travels as one length-prefixed frame:
+ *
+ * [int length] [byte type] [sender node] [body]
+ *
+ * where length counts every byte after itself, type identifies the message
+ * class in the registry below, and body is whatever the message writes in its
+ * writeBody(). The receiving end looks the type up and calls the message's
+ * decoding constructor, which reads the body back in the same order.
+ *
+ * Type ids are part of the protocol: never reuse or renumber one, only append.
+ * Those below FIRST_PROTOCOL_TYPE are Chord maintenance messages, which
+ * connections send ahead of the protocols' (see isControl).
+ *
+ * A connection may also cut a large frame into pieces, so that it can send
+ * maintenance messages between them. Each piece travels as
+ *
+ * [int PIECE | piece length] [bytes of the frame, length prefix included]
+ *
+ * and the pieces of one frame are sent in order, one frame at a time.
+ */
+public final class MessageCodec {
+
+    /**
+     * Frames larger than this are neither sent nor read, so a corrupt or hostile
+     * length prefix cannot make us allocate more than the largest real message
+     * needs. Those are the manifests of deduplicated files, of 36 bytes per
+     * chunk of about 48 KB, which fit files of up to about 10 GB. Chunks,
+     * streamed backups and transfer batches (see Chord.TRANSFER_BATCH_BYTES)
+     * are far smaller.
+     */
+    public static final int MAX_FRAME_SIZE = 8 << 20;
+
+    /**
+     * Set in the length prefix of the pieces of a frame. Frame lengths are far
+     * below it (see MAX_FRAME_SIZE).
+     */
+    public static final int PIECE = 0x80000000;
+
+    private static final int FIRST_PROTOCOL_TYPE = 0x20;
+
+    @FunctionalInterface
+    private interface Decoder {
+        ChordMessage decode(NodeInfo sender, DataInputStream in) throws IOException;
+    }
+
+    private static final Decoder[] decoders = new Decoder[256];
+    private static final HashMap<Class<? extends ChordMessage>, Byte> types = new HashMap<>();
+
+    static {
+        // Chord maintenance
+        register(0x01, AliveMessage.class, AliveMessage::new);
+        register(0x02, GetPredecessorMessage.class, GetPredecessorMessage::new);
+        register(0x03, KeepAliveMessage.class, KeepAliveMessage::new);
+        register(0x04, LookupMessage.class, LookupMessage::new);
+        register(0x05, NotifyMessage.class, NotifyMessage::new);
+        register(0x06, PredecessorMessage.class, PredecessorMessage::new);
+        register(0x07, ResponsibleMessage.class, ResponsibleMessage::new);
+        register(0x08, FindNextMessage.class, FindNextMessage::new);
+        register(0x09, NextHopsMessage.class, NextHopsMessage::new);
+        register(0x0a, BatchLookupMessage.class, BatchLookupMessage::new);
+        register(0x0b, BatchResponsibleMessage.class, BatchResponsibleMessage::new);
+
+        // Backup protocol
+        register(0x20, BackupMessage.class, BackupMessage::new);
+        register(0x21, BackupChunkMessage.class, BackupChunkMessage::new);
+        register(0x22, BackupResponseMessage.class, BackupResponseMessage::new);
+        register(0x23, DeleteMessage.class, DeleteMessage::new);
+        register(0x24, DeleteResponseMessage.class, DeleteResponseMessage::new);
+        register(0x25, RestoreMessage.class, RestoreMessage::new);
+        register(0x26, RestoreChunkMessage.class, RestoreChunkMessage::new);
+        register(0x27, RestoreResponseMessage.class, RestoreResponseMessage::new);
+        register(0x28, TransferBatchMessage.class, TransferBatchMessage::new);
+        register(0x29, ChunkQueryMessage.class, ChunkQueryMessage::new);
+        register(0x2a, ChunkQueryResponseMessage.class, ChunkQueryResponseMessage::new);
+        register(0x2b, ChunkMessage.class, ChunkMessage::new);
+        register(0x2c, ChunkResponseMessage.class, ChunkResponseMessage::new);
+        register(0x2d, ChunkRequestMessage.class, ChunkRequestMessage::new);
+        register(0x2e, ChunkDataMessage.class, ChunkDataMessage::new);
+        register(0x2f, TransferAckMessage.class, TransferAckMessage::new);
+    }
+
+    private static void register(int type, Class<? extends ChordMessage> clazz, Decoder decoder) {
+        assert decoders[type] == null && !types.containsKey(clazz);
+        decoders[type] = decoder;
+        types.put(clazz, (byte) type);
+    }
+
+    private MessageCodec() {}
+
+    /**
+     * @param frame A frame from encode(), length prefix included.
+     * @return Whether the frame holds a Chord maintenance message, rather than
+     *         one of the protocols' requests, responses and file data.
+     */
+    public static boolean isControl(byte[] frame) {
+        return (frame[4] & 0xff) < FIRST_PROTOCOL_TYPE;
+    }
+
+    /**
+     * Encode a whole frame for this message, length prefix included.
+     */
+    public static byte[] encode(ChordMessage message) throws IOException {
+        Byte type = types.get(message.getClass());
+        if (type == null)
+            throw new IOException("No wire type registered for " + message.getClass().getSimpleName());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, patched below
+        out.writeByte(type);
+        writeNode(out, message.getSender());
+        message.writeBody(out);
+        out.flush();
+
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        if (length > MAX_FRAME_SIZE)
+            throw new IOException("Frame of " + length + " bytes too large for " + message);
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    /**
+     * Decode a frame without its length prefix.
+     */
+    public static ChordMessage decode(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        int type = in.readUnsignedByte();
+        Decoder decoder = decoders[type];
+        if (decoder == null)
+            throw new IOException("Unknown message type 0x" + Integer.toHexString(type));
+
+        NodeInfo sender = readNode(in);
+        if (sender == null)
+            throw new IOException("Message without sender");
+
+        ChordMessage message = decoder.decode(sender, in);
+        if (in.available() != 0)
+            throw new IOException("Trailing bytes after " + message);
+        return message;
+    }
+
+    public static void writeChordId(DataOutputStream out, long chordId) throws IOException {
+        out.writeLong(chordId);
+    }
+
+    public static long readChordId(DataInputStream in) throws IOException {
+        long chordId = in.readLong();
+        if (chordId != Chord.normalize(chordId))
+            throw new IOException("Invalid chord id " + chordId);
+        return chordId;
+    }
+
+    /**
+     * A list of chord ids is its length, then the ids.
+     */
+    public static void writeChordIds(DataOutputStream out, long[] chordIds) throws IOException {
+        out.writeInt(chordIds.length);
+        for (long chordId : chordIds)
+            writeChordId(out, chordId);
+    }
+
+    public static long[] readChordIds(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available() / 8)
+            throw new IOException("Invalid chord id list length " + count);
+        long[] chordIds = new long[count];
+        for (int i = 0; i < count; i++)
+            chordIds[i] = readChordId(in);
+        return chordIds;
+    }
+
+    /**
+     * Null is encoded as length -1.
+     */
+    public static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1)
+            return null;
+        if (length < 0 || length > in.available())
+            throw new IOException("Invalid byte array length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * A node is its chord id, its ip address (4 or 16 bytes) and its port. Null
+     * is encoded as an address of length 0.
+     */
+    public static void writeNode(DataOutputStream out, NodeInfo node) throws IOException {
+        if (node == null) {
+            out.writeByte(0);
+            return;
+        }
+        byte[] address = node.getIp().getAddress();
+        out.writeByte(address.length);
+        out.write(address);
+        out.writeShort(node.getPort());
+        writeChordId(out, node.getChordId());
+    }
+
+    public static NodeInfo readNode(DataInputStream in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length == 0)
+            return null;
+        if (length != 4 && length != 16)
+            throw new IOException("Invalid address length " + length);
+        byte[] address = new byte[length];
+        in.readFully(address);
+        int port = in.readUnsignedShort();
+        long chordId = readChordId(in);
+        return new NodeInfo(chordId, new InetSocketAddress(InetAddress.getByAddress(address), port));
+    }
+
+    /**
+     * A bitset is its length in bits, then the bits, eight to a byte.
+     */
+    public static void writeBits(DataOutputStream out, boolean[] bits) throws IOException {
+        byte[] bytes = new byte[(bits.length + 7) / 8];
+        for (int i = 0; i < bits.length; i++) {
+            if (bits[i])
+                bytes[i >> 3] |= 1 << (i & 7);
+        }
+        out.writeInt(bits.length);
+        out.write(bytes);
+    }
+
+    public static boolean[] readBits(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || (length + 7) / 8 > in.available())
+            throw new IOException("Invalid bitset length " + length);
+        byte[] bytes = new byte[(length + 7) / 8];
+        in.readFully(bytes);
+        boolean[] bits = new boolean[length];
+        for (int i = 0; i < length; i++)
+            bits[i] = (bytes[i >> 3] & (1 << (i & 7))) != 0;
+        return bits;
+    }
+
+    /**
+     * A chunk key is its placement chord id and its SHA-256.
+     */
+    public static void writeChunkKey(DataOutputStream out, ChunkKey key) throws IOException {
+        writeChordId(out, key.getPlacementId());
+        out.write(key.getHash());
+    }
+
+    public static ChunkKey readChunkKey(DataInputStream in) throws IOException {
+        long placementId = readChordId(in);
+        byte[] hash = new byte[ChunkManifest.HASH_SIZE];
+        in.readFully(hash);
+        return new ChunkKey(placementId, hash);
+    }
+
+    public static void writeResultCode(DataOutputStream out, ResultCode code) throws IOException {
+        out.writeByte(code.ordinal());
+    }
+
+    public static ResultCode readResultCode(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        ResultCode[] codes = ResultCode.values();
+        if (ordinal >= codes.length)
+            throw new IOException("Unknown result code " + ordinal);
+        return codes[ordinal];
+    }
+}
@@ -0,0 +1,65 @@
+package dbs.chord.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.Chord;
+import dbs.chord.NodeInfo;
+
+/**
+ * Response to a FINDNEXT message. Either the sender knows the node responsible
+ * for the key, which comes first followed by its successors, or it lists the
+ * nodes between itself and the key it knows of, closest to the key first.
+ */
+public final class NextHopsMessage extends ResponseMessage {
+
+    // The most nodes in a response: the responsible node and its successor list.
+    public static final int MAX_NODES = Chord.SUCCESSOR_LIST_SIZE + 1;
+
+    private final boolean responsible;
+    private final NodeInfo[] nodes;
+
+    public NextHopsMessage(long requestId, boolean responsible, NodeInfo[] nodes) {
+        super("NEXTHOPS", requestId);
+        this.responsible = responsible;
+        this.nodes = nodes;
+    }
+
+    public NextHopsMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("NEXTHOPS", sender, in);
+        this.responsible = in.readBoolean();
+        int numNodes = in.readUnsignedByte();
+        if (numNodes > MAX_NODES || (responsible && numNodes == 0))
+            throw new IOException("Invalid next hops length " + numNodes);
+        this.nodes = new NodeInfo[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            nodes[i] = MessageCodec.readNode(in);
+        }
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        out.writeBoolean(responsible);
+        out.writeByte(nodes.length);
+        for (NodeInfo node : nodes) {
+            MessageCodec.writeNode(out, node);
+        }
+    }
+
+    /**
+     * @return true if the first node is the one responsible for the key.
+     */
+    public boolean isResponsible() {
+        return responsible;
+    }
+
+    public NodeInfo[] getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public String toString() {
+        return "NEXTHOPS(" + (responsible ? "responsible, " : "") + nodes.length + " nodes)";
+    }
+}
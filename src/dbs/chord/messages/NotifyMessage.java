@@ -1,11 +1,18 @@
 package dbs.chord.messages;
 
+import java.io.DataInputStream;
+import dbs.chord.NodeInfo;
+
 public class NotifyMessage extends ChordMessage {
 
     public NotifyMessage() {
         super("NOTIFY");
     }
 
+    public NotifyMessage(NodeInfo sender, DataInputStream in) {
+        super("NOTIFY", sender);
+    }
+
     @Override
     public String toString() {
         return "NOTIFY";
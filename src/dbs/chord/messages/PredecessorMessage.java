@@ -1,22 +1,61 @@
 package dbs.chord.messages;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.Chord;
 import dbs.chord.NodeInfo;
 
+/**
+ * Response to a GETPREDECESSOR message: the sender's predecessor, and its
+ * successor list, which the receiver (its predecessor, if all goes well)
+ * builds its own successor list from.
+ */
 public final class PredecessorMessage extends ChordMessage {
 
     private final NodeInfo predecessorNode;
+    private final NodeInfo[] successors;
 
-    public PredecessorMessage(NodeInfo predecessor) {
+    public PredecessorMessage(NodeInfo predecessor, NodeInfo[] successors) {
         super("PREDECESSOR");
         this.predecessorNode = predecessor;
+        this.successors = successors;
+    }
+
+    public PredecessorMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("PREDECESSOR", sender);
+        this.predecessorNode = MessageCodec.readNode(in);
+        int numSuccessors = in.readUnsignedByte();
+        if (numSuccessors > Chord.SUCCESSOR_LIST_SIZE)
+            throw new IOException("Invalid successor list length " + numSuccessors);
+        this.successors = new NodeInfo[numSuccessors];
+        for (int i = 0; i < numSuccessors; i++) {
+            successors[i] = MessageCodec.readNode(in);
+        }
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        MessageCodec.writeNode(out, predecessorNode);
+        out.writeByte(successors.length);
+        for (NodeInfo successor : successors) {
+            MessageCodec.writeNode(out, successor);
+        }
     }
 
     public NodeInfo getPredecessorNode() {
         return predecessorNode;
     }
 
+    /**
+     * @return The sender's successor list, nearest first.
+     */
+    public NodeInfo[] getSuccessors() {
+        return successors;
+    }
+
     @Override
     public String toString() {
-        return "PREDECESSOR [" + predecessorNode.shortStr() + "]";
+        return "PREDECESSOR [" + predecessorNode.shortStr() + ", " + successors.length + " successors]";
     }
 }
@@ -0,0 +1,44 @@
+package dbs.chord.messages;
+
+/**
+ * The key of the response to one request: its kind, and the id the requesting
+ * node gave the request, which is unique to that node.
+ */
+public class RequestKey extends ChordMessageKey {
+
+    private final long requestId;
+
+    public RequestKey(String kind, long requestId) {
+        super(kind);
+        this.requestId = requestId;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + Long.hashCode(requestId);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (!(obj instanceof RequestKey))
+            return false;
+        RequestKey other = (RequestKey) obj;
+        return requestId == other.requestId;
+    }
+
+    @Override
+    public String toString() {
+        return "message(" + getKind() + ", request " + Long.toHexString(requestId) + ")";
+    }
+}
@@ -0,0 +1,44 @@
+package dbs.chord.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.ChordDispatcher;
+import dbs.chord.NodeInfo;
+
+/**
+ * A message answered with a ResponseMessage carrying back its request id, on
+ * which the requester's observer for the answer is subscribed. Concurrent
+ * requests of the same kind for the same file or key each get their own
+ * answer.
+ */
+public abstract class RequestMessage extends ChordMessage {
+
+    private final long requestId;
+
+    protected RequestMessage(String kind) {
+        this(kind, ChordDispatcher.get().newRequestId());
+    }
+
+    /**
+     * Used by the messages of a stream, which are all part of one request.
+     */
+    protected RequestMessage(String kind, long requestId) {
+        super(kind);
+        this.requestId = requestId;
+    }
+
+    protected RequestMessage(String kind, NodeInfo sender, DataInputStream in) throws IOException {
+        super(kind, sender);
+        this.requestId = in.readLong();
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        out.writeLong(requestId);
+    }
+
+    public final long getRequestId() {
+        return requestId;
+    }
+}
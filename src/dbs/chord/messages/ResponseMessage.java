@@ -0,0 +1,29 @@
+package dbs.chord.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+
+/**
+ * The answer to a request, keyed by the request's kind of answer and its id.
+ */
+public abstract class ResponseMessage extends ChordMessage {
+
+    protected ResponseMessage(String kind, long requestId) {
+        super(new RequestKey(kind, requestId));
+    }
+
+    protected ResponseMessage(String kind, NodeInfo sender, DataInputStream in) throws IOException {
+        super(new RequestKey(kind, in.readLong()), sender);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        out.writeLong(getRequestId());
+    }
+
+    public final long getRequestId() {
+        return ((RequestKey) getKey()).getRequestId();
+    }
+}
@@ -1,19 +1,61 @@
 package dbs.chord.messages;
 
-import java.math.BigInteger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import dbs.chord.Chord;
+import dbs.chord.NodeInfo;
 
 /**
  * A responsible (response) is sent in response to a received Lookup (request)
  * message, to inform the source node that this node is the one responsible for
- * the queried key chordId.
+ * the queried key chordId. It is keyed by the lookup's request id.
  *
  * ResponsibleMessage message may originate in Node.handleLookup(Lookup).
  */
-public final class ResponsibleMessage extends ChordIdMessage {
+public final class ResponsibleMessage extends ResponseMessage {
 
-    public ResponsibleMessage(BigInteger chordId) {
-        super("RESPONSIBLE", chordId);
+    private final long chordId;
+    private final NodeInfo[] successors;
+
+    public ResponsibleMessage(LookupMessage lookup, NodeInfo[] successors) {
+        super("RESPONSIBLE", lookup.getRequestId());
+        this.chordId = lookup.getChordId();
+        this.successors = successors;
+    }
+
+    public ResponsibleMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("RESPONSIBLE", sender, in);
+        this.chordId = MessageCodec.readChordId(in);
+        int numSuccessors = in.readUnsignedByte();
+        if (numSuccessors > Chord.SUCCESSOR_LIST_SIZE)
+            throw new IOException("Invalid successor list length " + numSuccessors);
+        this.successors = new NodeInfo[numSuccessors];
+        for (int i = 0; i < numSuccessors; i++) {
+            successors[i] = MessageCodec.readNode(in);
+        }
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, chordId);
+        out.writeByte(successors.length);
+        for (NodeInfo successor : successors) {
+            MessageCodec.writeNode(out, successor);
+        }
+    }
+
+    public long getChordId() {
+        return chordId;
+    }
+
+    /**
+     * @return The sender's successor list, nearest first, which may hold better
+     *         fingers than the sender itself.
+     */
+    public NodeInfo[] getSuccessors() {
+        return successors;
     }
 
     @Override
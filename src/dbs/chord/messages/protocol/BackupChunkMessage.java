@@ -0,0 +1,79 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.Chord;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.RequestMessage;
+
+/**
+ * One chunk of a file being streamed to a backup node. Files larger than a
+ * chunk are sent as a sequence of these instead of a single BackupMessage, so
+ * neither end ever holds more than a chunk of the file per transfer.
+ *
+ * The receiver answers with a BackupResponseMessage once all numChunks chunks
+ * of the file have been received.
+ */
+public final class BackupChunkMessage extends RequestMessage {
+
+    private final long fileId;
+    private final int chunkNum;
+    private final int numChunks;
+    private final byte[] chunk;
+
+    /**
+     * All chunks of one file share the request id of the stream, which its
+     * BACKUPRESPONSE carries back.
+     */
+    public BackupChunkMessage(long requestId, long fileId, int chunkNum, int numChunks, byte[] chunk) {
+        super("BACKUPCHUNK", requestId);
+        this.fileId = fileId;
+        this.chunkNum = chunkNum;
+        this.numChunks = numChunks;
+        this.chunk = chunk;
+    }
+
+    public BackupChunkMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("BACKUPCHUNK", sender, in);
+        this.fileId = MessageCodec.readChordId(in);
+        this.chunkNum = in.readInt();
+        this.numChunks = in.readInt();
+        this.chunk = MessageCodec.readBytes(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, fileId);
+        out.writeInt(chunkNum);
+        out.writeInt(numChunks);
+        MessageCodec.writeBytes(out, chunk);
+    }
+
+    public long getFileId() {
+        return fileId;
+    }
+
+    public int getChunkNum() {
+        return chunkNum;
+    }
+
+    public int getNumChunks() {
+        return numChunks;
+    }
+
+    public byte[] getChunkContent() {
+        return chunk;
+    }
+
+    public boolean isLast() {
+        return chunkNum == numChunks - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "BACKUPCHUNK(file " + Chord.percentStr(fileId) + ", chunk " + (chunkNum + 1) + "/" + numChunks + ")";
+    }
+}
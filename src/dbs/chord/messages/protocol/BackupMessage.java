@@ -1,30 +1,49 @@
 package dbs.chord.messages.protocol;
 
-import java.math.BigInteger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import dbs.chord.Chord;
-import dbs.chord.messages.ChordMessage;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.RequestMessage;
 
-public final class BackupMessage extends ChordMessage {
+public final class BackupMessage extends RequestMessage {
 
-    private final BigInteger fileId;
+    private final long fileId;
     private final byte[] file;
     private final boolean overwrite;
 
-    public BackupMessage(BigInteger fileId, byte[] file, boolean overwrite) {
+    public BackupMessage(long fileId, byte[] file, boolean overwrite) {
         super("BACKUP");
         this.fileId = fileId;
         this.file = file;
         this.overwrite = overwrite;
     }
 
-    public BackupMessage(BigInteger fileId, byte[] file) {
+    public BackupMessage(long fileId, byte[] file) {
         super("BACKUP");
         this.fileId = fileId;
         this.file = file;
         this.overwrite = false;
     }
 
-    public BigInteger getFileId() {
+    public BackupMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("BACKUP", sender, in);
+        this.fileId = MessageCodec.readChordId(in);
+        this.file = MessageCodec.readBytes(in);
+        this.overwrite = in.readBoolean();
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, fileId);
+        MessageCodec.writeBytes(out, file);
+        out.writeBoolean(overwrite);
+    }
+
+    public long getFileId() {
         return fileId;
     }
 
@@ -0,0 +1,57 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.ResponseMessage;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.ChunkManifest;
+
+/**
+ * The answer to a ChunkRequestMessage: the chunk, or null if the sender's chunk
+ * store does not have it.
+ */
+public final class ChunkDataMessage extends ResponseMessage {
+
+    private final long placementId;
+    private final byte[] hash;
+    private final byte[] chunk;
+
+    public ChunkDataMessage(long requestId, ChunkKey key, byte[] chunk) {
+        super("CHUNKDATA", requestId);
+        this.placementId = key.getPlacementId();
+        this.hash = key.getHash();
+        this.chunk = chunk;
+    }
+
+    public ChunkDataMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("CHUNKDATA", sender, in);
+        this.placementId = MessageCodec.readChordId(in);
+        this.hash = new byte[ChunkManifest.HASH_SIZE];
+        in.readFully(hash);
+        this.chunk = MessageCodec.readBytes(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, placementId);
+        out.write(hash);
+        MessageCodec.writeBytes(out, chunk);
+    }
+
+    public ChunkKey getChunkKey() {
+        return new ChunkKey(placementId, hash);
+    }
+
+    public byte[] getChunkContent() {
+        return chunk;
+    }
+
+    @Override
+    public String toString() {
+        return "CHUNKDATA(" + getChunkKey() + (chunk == null ? ") [NOT_FOUND]" : ", " + chunk.length + " bytes)");
+    }
+}
@@ -0,0 +1,51 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.RequestMessage;
+import dbs.filesystem.ChunkKey;
+
+/**
+ * Stores a copy of a chunk in the receiver's chunk store, answered with a
+ * ChunkResponseMessage. Also used to hand copies over when nodes join.
+ */
+public final class ChunkMessage extends RequestMessage {
+
+    private final ChunkKey key;
+    private final byte[] chunk;
+
+    public ChunkMessage(ChunkKey key, byte[] chunk) {
+        super("CHUNK");
+        this.key = key;
+        this.chunk = chunk;
+    }
+
+    public ChunkMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("CHUNK", sender, in);
+        this.key = MessageCodec.readChunkKey(in);
+        this.chunk = MessageCodec.readBytes(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChunkKey(out, key);
+        MessageCodec.writeBytes(out, chunk);
+    }
+
+    public ChunkKey getChunkKey() {
+        return key;
+    }
+
+    public byte[] getChunkContent() {
+        return chunk;
+    }
+
+    @Override
+    public String toString() {
+        return "CHUNK(" + getChunkKey() + ", " + chunk.length + " bytes)";
+    }
+}
@@ -0,0 +1,54 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.RequestMessage;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.ChunkManifest;
+
+/**
+ * Asks a node which of these chunk copies its chunk store already has, so that
+ * only the missing ones are sent. Answered with a ChunkQueryResponseMessage
+ * with the same request id.
+ */
+public final class ChunkQueryMessage extends RequestMessage {
+
+    private final List<ChunkKey> keys;
+
+    public ChunkQueryMessage(List<ChunkKey> keys) {
+        super("CHUNKQUERY");
+        this.keys = keys;
+    }
+
+    public ChunkQueryMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("CHUNKQUERY", sender, in);
+        int count = in.readInt();
+        if (count < 0 || count > in.available() / (8 + ChunkManifest.HASH_SIZE))
+            throw new IOException("Invalid chunk query length " + count);
+        this.keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            keys.add(MessageCodec.readChunkKey(in));
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        out.writeInt(keys.size());
+        for (ChunkKey key : keys)
+            MessageCodec.writeChunkKey(out, key);
+    }
+
+    public List<ChunkKey> getChunkKeys() {
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        return "CHUNKQUERY(" + keys.size() + " chunks)";
+    }
+}
@@ -0,0 +1,42 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.ResponseMessage;
+
+public final class ChunkQueryResponseMessage extends ResponseMessage {
+
+    // stored[i] tells whether the i-th chunk of the query is stored
+    private final boolean[] stored;
+
+    public ChunkQueryResponseMessage(long requestId, boolean[] stored) {
+        super("CHUNKQUERYRESPONSE", requestId);
+        this.stored = stored;
+    }
+
+    public ChunkQueryResponseMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("CHUNKQUERYRESPONSE", sender, in);
+        this.stored = MessageCodec.readBits(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeBits(out, stored);
+    }
+
+    public boolean[] getStored() {
+        return stored;
+    }
+
+    @Override
+    public String toString() {
+        int count = 0;
+        for (boolean s : stored)
+            count += s ? 1 : 0;
+        return "CHUNKQUERYRESPONSE ["  + count + "/" + stored.length + " stored]";
+    }
+}
@@ -0,0 +1,42 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.RequestMessage;
+import dbs.filesystem.ChunkKey;
+
+/**
+ * Asks for a copy of a chunk, answered with a ChunkDataMessage.
+ */
+public final class ChunkRequestMessage extends RequestMessage {
+
+    private final ChunkKey key;
+
+    public ChunkRequestMessage(ChunkKey key) {
+        super("CHUNKREQUEST");
+        this.key = key;
+    }
+
+    public ChunkRequestMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("CHUNKREQUEST", sender, in);
+        this.key = MessageCodec.readChunkKey(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChunkKey(out, key);
+    }
+
+    public ChunkKey getChunkKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return "CHUNKREQUEST(" + getChunkKey() + ")";
+    }
+}
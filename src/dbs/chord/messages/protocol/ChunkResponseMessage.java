@@ -0,0 +1,54 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.ResponseMessage;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.ChunkManifest;
+import dbs.filesystem.threads.ResultCode;
+
+public final class ChunkResponseMessage extends ResponseMessage {
+
+    private final long placementId;
+    private final byte[] hash;
+    private final ResultCode code;
+
+    public ChunkResponseMessage(long requestId, ChunkKey key, ResultCode code) {
+        super("CHUNKRESPONSE", requestId);
+        this.placementId = key.getPlacementId();
+        this.hash = key.getHash();
+        this.code = code;
+    }
+
+    public ChunkResponseMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("CHUNKRESPONSE", sender, in);
+        this.placementId = MessageCodec.readChordId(in);
+        this.hash = new byte[ChunkManifest.HASH_SIZE];
+        in.readFully(hash);
+        this.code = MessageCodec.readResultCode(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, placementId);
+        out.write(hash);
+        MessageCodec.writeResultCode(out, code);
+    }
+
+    public ChunkKey getChunkKey() {
+        return new ChunkKey(placementId, hash);
+    }
+
+    public ResultCode getResultCode() {
+        return code;
+    }
+
+    @Override
+    public String toString() {
+        return "CHUNKRESPONSE(" + getChunkKey() + ") [" + code + "]";
+    }
+}
@@ -1,19 +1,34 @@
 package dbs.chord.messages.protocol;
 
-import java.math.BigInteger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import dbs.chord.Chord;
-import dbs.chord.messages.ChordMessage;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.RequestMessage;
 
-public final class DeleteMessage extends ChordMessage {
+public final class DeleteMessage extends RequestMessage {
 
-    private final BigInteger fileId;
+    private final long fileId;
 
-    public DeleteMessage(BigInteger fileId) {
+    public DeleteMessage(long fileId) {
         super("DELETE");
         this.fileId = fileId;
     }
 
-    public BigInteger getFileId() {
+    public DeleteMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("DELETE", sender, in);
+        this.fileId = MessageCodec.readChordId(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, fileId);
+    }
+
+    public long getFileId() {
         return fileId;
     }
 
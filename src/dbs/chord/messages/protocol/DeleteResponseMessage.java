@@ -1,29 +1,48 @@
 package dbs.chord.messages.protocol;
 
-import java.math.BigInteger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import dbs.chord.Chord;
-import dbs.chord.messages.ChordIdMessage;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.ResponseMessage;
 import dbs.filesystem.threads.ResultCode;
 
-public final class DeleteResponseMessage extends ChordIdMessage {
+public final class DeleteResponseMessage extends ResponseMessage {
 
+    private final long fileId;
     private final ResultCode code;
 
-    public DeleteResponseMessage(BigInteger fileId, ResultCode code) {
-        super("DELETERESPONSE", fileId);
+    public DeleteResponseMessage(long requestId, long fileId, ResultCode code) {
+        super("DELETERESPONSE", requestId);
+        this.fileId = fileId;
         this.code = code;
     }
 
+    public DeleteResponseMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("DELETERESPONSE", sender, in);
+        this.fileId = MessageCodec.readChordId(in);
+        this.code = MessageCodec.readResultCode(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, fileId);
+        MessageCodec.writeResultCode(out, code);
+    }
+
     public ResultCode getResultCode() {
         return code;
     }
 
-    public BigInteger getFileId() {
-        return getChordId();
+    public long getFileId() {
+        return fileId;
     }
 
     @Override
     public String toString() {
-        return "DELETERESPONSE(" + Chord.percentStr(getChordId()) + ") [" + code + "]";
+        return "DELETERESPONSE(" + Chord.percentStr(fileId) + ") [" + code + "]";
     }
 }
@@ -0,0 +1,68 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.Chord;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.ResponseMessage;
+
+/**
+ * One chunk of a backup being streamed back to the node restoring it, sent
+ * after an OK RestoreResponseMessage. The serving node reads the backup chunk
+ * by chunk and never holds the whole file in memory.
+ */
+public final class RestoreChunkMessage extends ResponseMessage {
+
+    private final long fileId;
+    private final int chunkNum;
+    private final int numChunks;
+    private final byte[] chunk;
+
+    public RestoreChunkMessage(long requestId, long fileId, int chunkNum, int numChunks, byte[] chunk) {
+        super("RESTORECHUNK", requestId);
+        this.fileId = fileId;
+        this.chunkNum = chunkNum;
+        this.numChunks = numChunks;
+        this.chunk = chunk;
+    }
+
+    public RestoreChunkMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("RESTORECHUNK", sender, in);
+        this.fileId = MessageCodec.readChordId(in);
+        this.chunkNum = in.readInt();
+        this.numChunks = in.readInt();
+        this.chunk = MessageCodec.readBytes(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, fileId);
+        out.writeInt(chunkNum);
+        out.writeInt(numChunks);
+        MessageCodec.writeBytes(out, chunk);
+    }
+
+    public long getFileId() {
+        return fileId;
+    }
+
+    public int getChunkNum() {
+        return chunkNum;
+    }
+
+    public int getNumChunks() {
+        return numChunks;
+    }
+
+    public byte[] getChunkContent() {
+        return chunk;
+    }
+
+    @Override
+    public String toString() {
+        return "RESTORECHUNK(file " + Chord.percentStr(fileId) + ", chunk " + (chunkNum + 1) + "/" + numChunks + ")";
+    }
+}
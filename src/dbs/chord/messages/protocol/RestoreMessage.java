@@ -1,24 +1,55 @@
 package dbs.chord.messages.protocol;
 
-import java.math.BigInteger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import dbs.chord.Chord;
-import dbs.chord.messages.ChordMessage;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.RequestMessage;
 
-public final class RestoreMessage extends ChordMessage {
+/**
+ * Asks for a backup. A probe only asks whether the backup is stored there: it is
+ * answered with a RestoreResponseMessage, but the backup is not streamed back.
+ */
+public final class RestoreMessage extends RequestMessage {
 
-    private final BigInteger fileId;
+    private final long fileId;
+    private final boolean probe;
 
-    public RestoreMessage(BigInteger fileId) {
+    public RestoreMessage(long fileId) {
+        this(fileId, false);
+    }
+
+    public RestoreMessage(long fileId, boolean probe) {
         super("RESTORE");
         this.fileId = fileId;
+        this.probe = probe;
     }
 
-    public BigInteger getFileId() {
+    public RestoreMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("RESTORE", sender, in);
+        this.fileId = MessageCodec.readChordId(in);
+        this.probe = in.readBoolean();
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, fileId);
+        out.writeBoolean(probe);
+    }
+
+    public long getFileId() {
         return fileId;
     }
 
+    public boolean isProbe() {
+        return probe;
+    }
+
     @Override
     public String toString() {
-        return "RESTORE(file " + Chord.percentStr(fileId) + ")";
+        return (probe ? "RESTORE?(file " : "RESTORE(file ") + Chord.percentStr(fileId) + ")";
     }
 }
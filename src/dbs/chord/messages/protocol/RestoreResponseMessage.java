@@ -1,36 +1,52 @@
 package dbs.chord.messages.protocol;
 
-import java.math.BigInteger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import dbs.chord.Chord;
-import dbs.chord.messages.ChordIdMessage;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.ResponseMessage;
 import dbs.filesystem.threads.ResultCode;
 
-public final class RestoreResponseMessage extends ChordIdMessage {
+/**
+ * Answer to a RestoreMessage. If the code is OK, the backup's content follows
+ * in RestoreChunkMessages.
+ */
+public final class RestoreResponseMessage extends ResponseMessage {
 
-    private final byte[] file;
+    private final long fileId;
     private final ResultCode code;
 
-
-    public RestoreResponseMessage(BigInteger fileId, byte[] file, ResultCode code) {
-        super("RESTORERESPONSE", fileId);
-        this.file = file;
+    public RestoreResponseMessage(long requestId, long fileId, ResultCode code) {
+        super("RESTORERESPONSE", requestId);
+        this.fileId = fileId;
         this.code = code;
     }
 
-    public ResultCode getResultCode() {
-        return code;
+    public RestoreResponseMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("RESTORERESPONSE", sender, in);
+        this.fileId = MessageCodec.readChordId(in);
+        this.code = MessageCodec.readResultCode(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeChordId(out, fileId);
+        MessageCodec.writeResultCode(out, code);
     }
 
-    public BigInteger getFileId() {
-        return getChordId();
+    public ResultCode getResultCode() {
+        return code;
     }
 
-    public byte[] getFileContent() {
-        return file;
+    public long getFileId() {
+        return fileId;
     }
 
     @Override
     public String toString() {
-        return "RESTORERESPONSE(" + Chord.percentStr(getChordId()) + ") [" + code + "]";
+        return "RESTORERESPONSE(" + Chord.percentStr(fileId) + ") [" + code + "]";
     }
 }
@@ -0,0 +1,42 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.ResponseMessage;
+
+public final class TransferAckMessage extends ResponseMessage {
+
+    // stored[i] tells whether the i-th backup of the batch was stored
+    private final boolean[] stored;
+
+    public TransferAckMessage(long requestId, boolean[] stored) {
+        super("TRANSFERACK", requestId);
+        this.stored = stored;
+    }
+
+    public TransferAckMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("TRANSFERACK", sender, in);
+        this.stored = MessageCodec.readBits(in);
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        MessageCodec.writeBits(out, stored);
+    }
+
+    public boolean[] getStored() {
+        return stored;
+    }
+
+    @Override
+    public String toString() {
+        int count = 0;
+        for (boolean s : stored)
+            count += s ? 1 : 0;
+        return "TRANSFERACK [" + count + "/" + stored.length + " stored]";
+    }
+}
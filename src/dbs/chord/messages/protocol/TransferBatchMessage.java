@@ -0,0 +1,72 @@
+package dbs.chord.messages.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.MessageCodec;
+import dbs.chord.messages.RequestMessage;
+
+/**
+ * Hands a batch of backups over to a new predecessor, which now is responsible
+ * for them. Answered with a TransferAckMessage with the same request id; the
+ * sender only erases the backups the ack says were stored.
+ */
+public final class TransferBatchMessage extends RequestMessage {
+
+    private final long[] fileIds;
+    private final byte[][] files;
+
+    public TransferBatchMessage(List<Long> fileIds, List<byte[]> files) {
+        super("TRANSFERBATCH");
+        assert fileIds.size() == files.size();
+        this.fileIds = new long[fileIds.size()];
+        this.files = files.toArray(new byte[0][]);
+        for (int i = 0; i < this.fileIds.length; i++)
+            this.fileIds[i] = fileIds.get(i);
+    }
+
+    public TransferBatchMessage(NodeInfo sender, DataInputStream in) throws IOException {
+        super("TRANSFERBATCH", sender, in);
+        int count = in.readInt();
+        if (count < 0 || count > in.available() / 12)
+            throw new IOException("Invalid transfer batch length " + count);
+        this.fileIds = new long[count];
+        this.files = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            fileIds[i] = MessageCodec.readChordId(in);
+            files[i] = MessageCodec.readBytes(in);
+        }
+    }
+
+    @Override
+    protected void writeBody(DataOutputStream out) throws IOException {
+        super.writeBody(out);
+        out.writeInt(fileIds.length);
+        for (int i = 0; i < fileIds.length; i++) {
+            MessageCodec.writeChordId(out, fileIds[i]);
+            MessageCodec.writeBytes(out, files[i]);
+        }
+    }
+
+    public int size() {
+        return fileIds.length;
+    }
+
+    public long getFileId(int i) {
+        return fileIds[i];
+    }
+
+    public byte[] getFileContent(int i) {
+        return files[i];
+    }
+
+    @Override
+    public String toString() {
+        long bytes = 0;
+        for (byte[] file : files)
+            bytes += file.length;
+        return "TRANSFERBATCH(" + fileIds.length + " files, " + bytes + " bytes)";
+    }
+}
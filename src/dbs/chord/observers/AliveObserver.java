@@ -5,6 +5,8 @@ import dbs.chord.Node;
 import dbs.chord.NodeInfo;
 import dbs.chord.messages.AliveMessage;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.KeepAliveMessage;
+import dbs.chord.messages.RequestKey;
 
 /**
  * Bread-and-butter observer that receives is alive responses (liveness verifications).
@@ -12,9 +14,10 @@ import dbs.chord.messages.ChordMessage;
 public final class AliveObserver extends TimeoutObserver {
 
     private final NodeInfo waitedNode;
+    private final long sentTime = System.nanoTime();
 
-    public AliveObserver(NodeInfo waitedNode) {
-        super("ISALIVE", CHECK_PREDECESSOR_WAIT);
+    public AliveObserver(NodeInfo waitedNode, KeepAliveMessage ping) {
+        super(new RequestKey("ISALIVE", ping.getRequestId()), CHECK_PREDECESSOR_WAIT);
         this.waitedNode = waitedNode;
     }
 
@@ -25,7 +28,7 @@ public final class AliveObserver extends TimeoutObserver {
     @Override
     public void notify(ChordMessage message) {
         assert message instanceof AliveMessage;
-        Node.get().handleIsAlive((AliveMessage) message);
+        Node.get().handleIsAlive((AliveMessage) message, System.nanoTime() - sentTime);
     }
 
     @Override
@@ -33,8 +36,13 @@ public final class AliveObserver extends TimeoutObserver {
         Node.get().handleIsAliveTimeout(waitedNode);
     }
 
+    @Override
+    public boolean isInline() {
+        return true;
+    }
+
     @Override
     public String toString() {
-        return "AliveObserver";
+        return "AliveObserver " + waitedNode.shortStr();
     }
 }
@@ -0,0 +1,26 @@
+package dbs.chord.observers;
+
+import dbs.chord.Node;
+import dbs.chord.messages.BatchLookupMessage;
+import dbs.chord.messages.ChordMessage;
+
+/**
+ * Receives batch lookup requests, to answer or forward.
+ */
+public final class BatchLookupObserver extends PermanentObserver {
+
+    public BatchLookupObserver() {
+        super("BATCHLOOKUP");
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof BatchLookupMessage;
+        Node.get().handleBatchLookup((BatchLookupMessage) message);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchLookupObserver";
+    }
+}
@@ -0,0 +1,28 @@
+package dbs.chord.observers;
+
+import dbs.chord.Node;
+import dbs.chord.messages.BatchResponsibleMessage;
+import dbs.chord.messages.ChordMessage;
+
+/**
+ * Receives the answers to this node's batch lookups: one batch may be answered
+ * by many nodes, each for its own keys, so this observer is permanent and the
+ * batches are told apart by their id.
+ */
+public final class BatchResponsibleObserver extends PermanentObserver {
+
+    public BatchResponsibleObserver() {
+        super("BATCHRESPONSIBLE");
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof BatchResponsibleMessage;
+        Node.get().handleBatchResponsible((BatchResponsibleMessage) message);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResponsibleObserver";
+    }
+}
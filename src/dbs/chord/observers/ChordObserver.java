@@ -23,6 +23,16 @@ public abstract class ChordObserver {
      */
     public abstract void notify(ChordMessage message);
 
+    /**
+     * Whether notify() may run right on the network thread which received the
+     * message, sparing the hop to the dispatcher's pool. Only for observers
+     * which never block and return at once, such as those answering a message
+     * or completing a future: every other message on that thread waits for them.
+     */
+    public boolean isInline() {
+        return false;
+    }
+
     /**
      * @return the key this observer is subscribed on.
      */
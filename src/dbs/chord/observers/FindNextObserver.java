@@ -0,0 +1,26 @@
+package dbs.chord.observers;
+
+import dbs.chord.Node;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.FindNextMessage;
+
+/**
+ * Receives the steps of other nodes' iterative lookups.
+ */
+public final class FindNextObserver extends PermanentObserver {
+
+    public FindNextObserver() {
+        super("FINDNEXT");
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof FindNextMessage;
+        Node.get().handleFindNext((FindNextMessage) message);
+    }
+
+    @Override
+    public String toString() {
+        return "FindNextObserver";
+    }
+}
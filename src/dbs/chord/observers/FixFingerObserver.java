@@ -1,22 +1,23 @@
 package dbs.chord.observers;
 
-import java.math.BigInteger;
+import static dbs.chord.Chord.LOOKUP_WAIT;
 import dbs.chord.Node;
-import dbs.chord.messages.ChordIdKey;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.LookupMessage;
+import dbs.chord.messages.RequestKey;
 import dbs.chord.messages.ResponsibleMessage;
 
 /**
- * Used when the Node's FixFinger runnable calls fixFinger() on a given index.
- * These are actually subscribed permanently because the chord id and finger index
- * does not change for each finger over time.
+ * Used when the Node's FixFinger runnable calls fixFinger() on a given index,
+ * for the answer to that one lookup. A lookup which is not answered is simply
+ * tried again the next time around.
  */
-public class FixFingerObserver extends PermanentObserver {
+public class FixFingerObserver extends TimeoutObserver {
 
     private final int fingerIndex;
 
-    public FixFingerObserver(BigInteger chordId, int fingerIndex) {
-        super(new ChordIdKey("RESPONSIBLE", chordId));
+    public FixFingerObserver(LookupMessage lookup, int fingerIndex) {
+        super(new RequestKey("RESPONSIBLE", lookup.getRequestId()), LOOKUP_WAIT);
         this.fingerIndex = fingerIndex;
     }
 
@@ -26,6 +27,9 @@ public class FixFingerObserver extends PermanentObserver {
         Node.get().handleFixFingerResponse((ResponsibleMessage) message, fingerIndex);
     }
 
+    @Override
+    public void timeout() {}
+
     @Override
     public String toString() {
         return "FixFingerObserver " + fingerIndex;
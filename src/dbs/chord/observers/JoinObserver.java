@@ -2,8 +2,9 @@ package dbs.chord.observers;
 
 import static dbs.chord.Chord.JOIN_WAIT;
 import dbs.chord.Node;
-import dbs.chord.messages.ChordIdKey;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.LookupMessage;
+import dbs.chord.messages.RequestKey;
 import dbs.chord.messages.ResponsibleMessage;
 
 /**
@@ -13,8 +14,8 @@ import dbs.chord.messages.ResponsibleMessage;
  */
 public final class JoinObserver extends TimeoutObserver {
 
-    public JoinObserver() {
-        super(new ChordIdKey("RESPONSIBLE", Node.get().getSelf().getChordId()), JOIN_WAIT);
+    public JoinObserver(LookupMessage lookup) {
+        super(new RequestKey("RESPONSIBLE", lookup.getRequestId()), JOIN_WAIT);
     }
 
     @Override
@@ -30,6 +31,6 @@ public final class JoinObserver extends TimeoutObserver {
 
     @Override
     public String toString() {
-        return "JoinObserver " + ((ChordIdKey) getSubscribedKey()).getChordId();
+        return "JoinObserver";
     }
 }
@@ -21,6 +21,11 @@ public final class KeepAliveObserver extends PermanentObserver {
         Node.get().handleKeepAlive((KeepAliveMessage) message);
     }
 
+    @Override
+    public boolean isInline() {
+        return true;
+    }
+
     @Override
     public String toString() {
         return "KeepAliveObserver";
@@ -0,0 +1,39 @@
+package dbs.chord.observers;
+
+import static dbs.chord.Chord.HOP_WAIT;
+import java.util.concurrent.CompletableFuture;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.FindNextMessage;
+import dbs.chord.messages.NextHopsMessage;
+import dbs.chord.messages.RequestKey;
+
+/**
+ * Waits for the answer to one step of an iterative lookup, for a single hop's
+ * time rather than a whole lookup's, so the lookup moves on around a node that
+ * does not answer soon.
+ */
+public final class NextHopsObserver extends TimeoutObserver {
+
+    private final CompletableFuture<NextHopsMessage> future;
+
+    public NextHopsObserver(FindNextMessage query, CompletableFuture<NextHopsMessage> future) {
+        super(new RequestKey("NEXTHOPS", query.getRequestId()), HOP_WAIT);
+        this.future = future;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof NextHopsMessage;
+        future.complete((NextHopsMessage) message);
+    }
+
+    @Override
+    public void timeout() {
+        future.complete(null);
+    }
+
+    @Override
+    public String toString() {
+        return "NextHopsObserver " + ((RequestKey) getSubscribedKey()).getRequestId();
+    }
+}
@@ -1,25 +1,29 @@
 package dbs.chord.observers;
 
 import static dbs.chord.Chord.LOOKUP_WAIT;
-import java.math.BigInteger;
 import java.util.concurrent.CompletableFuture;
+import dbs.chord.Node;
 import dbs.chord.NodeInfo;
-import dbs.chord.messages.ChordIdKey;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.LookupMessage;
+import dbs.chord.messages.RequestKey;
 import dbs.chord.messages.ResponsibleMessage;
 
 public final class ResponsibleObserver extends TimeoutObserver {
 
+    private final long chordId;
     private final CompletableFuture<NodeInfo> future;
 
-    public ResponsibleObserver(BigInteger chordId, CompletableFuture<NodeInfo> future) {
-        super(new ChordIdKey("RESPONSIBLE", chordId), LOOKUP_WAIT);
+    public ResponsibleObserver(LookupMessage lookup, CompletableFuture<NodeInfo> future) {
+        super(new RequestKey("RESPONSIBLE", lookup.getRequestId()), LOOKUP_WAIT);
+        this.chordId = lookup.getChordId();
         this.future = future;
     }
 
     @Override
     public void notify(ChordMessage message) {
         assert message instanceof ResponsibleMessage;
+        Node.get().handleResponsible((ResponsibleMessage) message);
         future.complete(message.getSender());
     }
 
@@ -28,8 +32,13 @@ public final class ResponsibleObserver extends TimeoutObserver {
         future.complete(null);
     }
 
+    @Override
+    public boolean isInline() {
+        return true;
+    }
+
     @Override
     public String toString() {
-        return "ResponsibleObserver " + ((ChordIdKey) getSubscribedKey()).getChordId();
+        return "ResponsibleObserver " + chordId;
     }
 }
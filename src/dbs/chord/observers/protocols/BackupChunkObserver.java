@@ -0,0 +1,101 @@
+package dbs.chord.observers.protocols;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.protocol.BackupChunkMessage;
+import dbs.chord.messages.protocol.BackupResponseMessage;
+import dbs.chord.observers.PermanentObserver;
+import dbs.filesystem.FileManager;
+import dbs.filesystem.threads.ResultCode;
+import dbs.network.SocketManager;
+
+/**
+ * Permanent observer.
+ *
+ * Stores the chunks of streamed backups as they arrive. Chunks are written at
+ * their own position in the file, so they may be handled in any order; the
+ * backup is acknowledged once every chunk of the stream has been written.
+ *
+ * Streams are told apart by their request id, not by the file id, so two
+ * streams of the same file never share a count. Once a chunk of a stream fails
+ * to be written, the stream is answered with an error and its remaining chunks
+ * are dropped without being written.
+ */
+public class BackupChunkObserver extends PermanentObserver {
+
+    private static class Stream {
+        final AtomicInteger remaining;
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Stream(int numChunks) {
+            this.remaining = new AtomicInteger(numChunks);
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Stream> streams = new ConcurrentHashMap<>();
+
+    public BackupChunkObserver() {
+        super("BACKUPCHUNK");
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof BackupChunkMessage;
+        BackupChunkMessage chunkMessage = (BackupChunkMessage) message;
+
+        long fileId = chunkMessage.getFileId();
+        int chunkNum = chunkMessage.getChunkNum();
+        int numChunks = chunkMessage.getNumChunks();
+        byte[] chunk = chunkMessage.getChunkContent();
+
+        Stream stream = streams.computeIfAbsent(chunkMessage.getRequestId(), id -> new Stream(numChunks));
+
+        if (stream.failed.get()) {
+            chunkDone(stream, chunkMessage, null);
+            return;
+        }
+
+        FileManager.getInstance().launchChunkWriter(fileId, chunkNum, chunk).whenComplete((v, error) -> {
+            chunkDone(stream, chunkMessage, error);
+        });
+    }
+
+    /**
+     * Count the chunk as handled. The first failed chunk answers with an error,
+     * or else the last stored chunk acknowledges the backup.
+     */
+    private void chunkDone(Stream stream, BackupChunkMessage chunkMessage, Throwable error) {
+        long requestId = chunkMessage.getRequestId();
+        boolean last = chunkMessage.getChunkNum() == chunkMessage.getNumChunks() - 1;
+
+        if (error != null && stream.failed.compareAndSet(false, true))
+            answer(chunkMessage, ResultCode.INTERNAL_ERROR);
+
+        // A failed stream is dropped once its last chunk arrives, even if earlier
+        // chunks are still being written: they are counted on a stream no
+        // longer in the map, and can not start a new one.
+        if (stream.remaining.decrementAndGet() == 0) {
+            streams.remove(requestId, stream);
+            if (!stream.failed.get())
+                answer(chunkMessage, ResultCode.OK);
+        } else if (last && stream.failed.get()) {
+            streams.remove(requestId, stream);
+        }
+    }
+
+    private void answer(BackupChunkMessage chunkMessage, ResultCode code) {
+        NodeInfo remoteNode = chunkMessage.getSender();
+        long fileId = chunkMessage.getFileId();
+        BackupResponseMessage responseMessage = new BackupResponseMessage(chunkMessage.getRequestId(), fileId, code);
+        SocketManager.get().sendMessage(remoteNode, responseMessage);
+    }
+
+    @Override
+    public String toString() {
+        return "BackupChunkObserver";
+    }
+}
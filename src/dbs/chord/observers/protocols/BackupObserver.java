@@ -1,17 +1,13 @@
 package dbs.chord.observers.protocols;
 
-import java.io.IOException;
-import java.math.BigInteger;
 
 import dbs.chord.NodeInfo;
 import dbs.chord.messages.ChordMessage;
 import dbs.chord.messages.protocol.BackupMessage;
 import dbs.chord.messages.protocol.BackupResponseMessage;
 import dbs.chord.observers.PermanentObserver;
-import dbs.filesystem.Configuration;
 import dbs.filesystem.FileManager;
 import dbs.filesystem.threads.ResultCode;
-import dbs.filesystem.threads.Writer;
 import dbs.network.SocketManager;
 
 public class BackupObserver extends PermanentObserver {
@@ -27,24 +23,14 @@ public class BackupObserver extends PermanentObserver {
 
         NodeInfo remoteNode = message.getSender();
 
-        BigInteger aux = backupMessage.getFileId();
-        String fileKey = aux.toString();
-
-        Writer writer; 
-       
-        try {
-            writer = new Writer(fileKey, backupMessage.getFileContent(), Configuration.Operation.BACKUP);
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-            e.printStackTrace();
-            return;
-        }
-    
-        FileManager.getInstance().getThreadpool().submit(writer);
-
-        //TODO: Handle writer response
-        BackupResponseMessage responseMessage = new BackupResponseMessage(backupMessage.getFileId(), ResultCode.OK);
-        SocketManager.get().sendMessage(remoteNode, responseMessage);
+        long fileId = backupMessage.getFileId();
+
+        // Answer once the file is actually on disk.
+        FileManager.getInstance().launchBackupWriter(fileId, backupMessage.getFileContent()).whenComplete((v, error) -> {
+            ResultCode code = error == null ? ResultCode.OK : ResultCode.INTERNAL_ERROR;
+            BackupResponseMessage responseMessage = new BackupResponseMessage(backupMessage.getRequestId(), fileId, code);
+            SocketManager.get().sendMessage(remoteNode, responseMessage);
+        });
     }
 
     @Override
@@ -1,10 +1,10 @@
 package dbs.chord.observers.protocols;
 
-import java.math.BigInteger;
 import java.util.concurrent.CompletableFuture;
 
-import dbs.chord.messages.ChordIdKey;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.RequestMessage;
 import dbs.chord.messages.protocol.BackupResponseMessage;
 import dbs.chord.observers.TimeoutObserver;
 import dbs.filesystem.threads.ResultCode;
@@ -15,8 +15,8 @@ public final class BackupResponseObserver extends TimeoutObserver {
 
     private final CompletableFuture<ResultCode> future;
     
-    public BackupResponseObserver(BigInteger fileId, CompletableFuture<ResultCode> future) {
-        super(new ChordIdKey("BACKUPRESPONSE", fileId), BACKUPRESPONSE_WAIT);
+    public BackupResponseObserver(RequestMessage request, CompletableFuture<ResultCode> future) {
+        super(new RequestKey("BACKUPRESPONSE", request.getRequestId()), BACKUPRESPONSE_WAIT);
         this.future = future;
     }
 
@@ -34,6 +34,6 @@ public final class BackupResponseObserver extends TimeoutObserver {
 
     @Override
     public String toString() {
-        return "BackupResponseObserver " + ((ChordIdKey) getSubscribedKey()).getChordId();
+        return "BackupResponseObserver " + getSubscribedKey();
     }
 }
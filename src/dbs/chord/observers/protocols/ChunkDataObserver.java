@@ -0,0 +1,52 @@
+package dbs.chord.observers.protocols;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.protocol.ChunkDataMessage;
+import dbs.chord.messages.protocol.ChunkRequestMessage;
+import dbs.chord.observers.TimeoutObserver;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.ContentChunker;
+
+/**
+ * Waits for a requested chunk. The future completes with null if the chunk is
+ * not found, does not arrive in time, or does not match its id.
+ */
+public final class ChunkDataObserver extends TimeoutObserver {
+
+    public static final int CHUNKDATA_WAIT = 2000;
+
+    private final ChunkKey key;
+    private final CompletableFuture<byte[]> future;
+
+    public ChunkDataObserver(ChunkRequestMessage request, CompletableFuture<byte[]> future) {
+        super(new RequestKey("CHUNKDATA", request.getRequestId()), CHUNKDATA_WAIT);
+        this.key = request.getChunkKey();
+        this.future = future;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof ChunkDataMessage;
+        byte[] chunk = ((ChunkDataMessage) message).getChunkContent();
+
+        if (chunk == null || !Arrays.equals(key.getHash(), ContentChunker.hash(chunk))) {
+            future.complete(null);
+            return;
+        }
+        future.complete(chunk);
+    }
+
+    @Override
+    public void timeout() {
+        future.complete(null);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkDataObserver " + key;
+    }
+}
@@ -0,0 +1,57 @@
+package dbs.chord.observers.protocols;
+
+import java.io.IOException;
+import java.util.Arrays;
+import dbs.chord.ChordLogger;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.protocol.ChunkMessage;
+import dbs.chord.messages.protocol.ChunkResponseMessage;
+import dbs.chord.observers.PermanentObserver;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.ContentChunker;
+import dbs.filesystem.FileManager;
+import dbs.filesystem.threads.ResultCode;
+import dbs.network.SocketManager;
+
+/**
+ * Permanent observer.
+ *
+ * Stores the chunks sent to this node in its chunk store. A chunk whose
+ * content does not match its id is refused, as every file sharing it would
+ * be corrupted.
+ */
+public class ChunkObserver extends PermanentObserver {
+
+    public ChunkObserver() {
+        super("CHUNK");
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof ChunkMessage;
+        ChunkMessage chunkMessage = (ChunkMessage) message;
+
+        ChunkKey key = chunkMessage.getChunkKey();
+        byte[] chunk = chunkMessage.getChunkContent();
+        ResultCode code = ResultCode.OK;
+
+        if (chunk == null || !Arrays.equals(key.getHash(), ContentChunker.hash(chunk))) {
+            ChordLogger.internal("Refused chunk " + key + " from " + message.getSender().shortStr() + ": bad content");
+            code = ResultCode.INTERNAL_ERROR;
+        } else {
+            try {
+                FileManager.getInstance().storeChunk(key, chunk);
+            } catch (IOException e) {
+                ChordLogger.ioError(e);
+                code = ResultCode.INTERNAL_ERROR;
+            }
+        }
+
+        SocketManager.get().sendMessage(message.getSender(), new ChunkResponseMessage(chunkMessage.getRequestId(), key, code));
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkObserver";
+    }
+}
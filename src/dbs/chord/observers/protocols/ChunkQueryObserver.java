@@ -0,0 +1,42 @@
+package dbs.chord.observers.protocols;
+
+import java.util.List;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.protocol.ChunkQueryMessage;
+import dbs.chord.messages.protocol.ChunkQueryResponseMessage;
+import dbs.chord.observers.PermanentObserver;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.FileManager;
+import dbs.network.SocketManager;
+
+/**
+ * Permanent observer.
+ *
+ * Tells a backup owner which of the chunks it is about to send are already in
+ * this node's chunk store.
+ */
+public class ChunkQueryObserver extends PermanentObserver {
+
+    public ChunkQueryObserver() {
+        super("CHUNKQUERY");
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof ChunkQueryMessage;
+        ChunkQueryMessage query = (ChunkQueryMessage) message;
+
+        List<ChunkKey> keys = query.getChunkKeys();
+        boolean[] stored = new boolean[keys.size()];
+        for (int i = 0; i < stored.length; i++)
+            stored[i] = FileManager.getInstance().hasChunk(keys.get(i));
+
+        ChunkQueryResponseMessage response = new ChunkQueryResponseMessage(query.getRequestId(), stored);
+        SocketManager.get().sendMessage(message.getSender(), response);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkQueryObserver";
+    }
+}
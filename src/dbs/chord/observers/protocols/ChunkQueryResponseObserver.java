@@ -0,0 +1,38 @@
+package dbs.chord.observers.protocols;
+
+import java.util.concurrent.CompletableFuture;
+
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.protocol.ChunkQueryMessage;
+import dbs.chord.messages.protocol.ChunkQueryResponseMessage;
+import dbs.chord.observers.TimeoutObserver;
+
+public final class ChunkQueryResponseObserver extends TimeoutObserver {
+
+    public static final int CHUNKQUERYRESPONSE_WAIT = 2000;
+
+    private final CompletableFuture<boolean[]> future;
+
+    public ChunkQueryResponseObserver(ChunkQueryMessage query, CompletableFuture<boolean[]> future) {
+        super(new RequestKey("CHUNKQUERYRESPONSE", query.getRequestId()), CHUNKQUERYRESPONSE_WAIT);
+        this.future = future;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof ChunkQueryResponseMessage;
+        ChunkQueryResponseMessage response = (ChunkQueryResponseMessage) message;
+        future.complete(response.getStored());
+    }
+
+    @Override
+    public void timeout() {
+        future.complete(null);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkQueryResponseObserver " + ((RequestKey) getSubscribedKey()).getRequestId();
+    }
+}
@@ -0,0 +1,36 @@
+package dbs.chord.observers.protocols;
+
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.protocol.ChunkDataMessage;
+import dbs.chord.messages.protocol.ChunkRequestMessage;
+import dbs.chord.observers.PermanentObserver;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.FileManager;
+import dbs.network.SocketManager;
+
+/**
+ * Permanent observer.
+ *
+ * Serves chunks from this node's chunk store to the nodes restoring files.
+ */
+public class ChunkRequestObserver extends PermanentObserver {
+
+    public ChunkRequestObserver() {
+        super("CHUNKREQUEST");
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof ChunkRequestMessage;
+        ChunkRequestMessage request = (ChunkRequestMessage) message;
+        ChunkKey key = request.getChunkKey();
+
+        byte[] chunk = FileManager.getInstance().readChunk(key);
+        SocketManager.get().sendMessage(message.getSender(), new ChunkDataMessage(request.getRequestId(), key, chunk));
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkRequestObserver";
+    }
+}
@@ -0,0 +1,49 @@
+package dbs.chord.observers.protocols;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.protocol.ChunkMessage;
+import dbs.chord.messages.protocol.ChunkResponseMessage;
+import dbs.chord.observers.TimeoutObserver;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.threads.ResultCode;
+
+public final class ChunkResponseObserver extends TimeoutObserver {
+
+    public static final int CHUNKRESPONSE_WAIT = 2000;
+
+    private final ChunkKey key;
+    private final CompletableFuture<ResultCode> future;
+
+    public ChunkResponseObserver(ChunkMessage request, CompletableFuture<ResultCode> future) {
+        super(new RequestKey("CHUNKRESPONSE", request.getRequestId()), CHUNKRESPONSE_WAIT);
+        this.key = request.getChunkKey();
+        this.future = future;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof ChunkResponseMessage;
+        ChunkResponseMessage response = (ChunkResponseMessage) message;
+
+        // not the chunk asked for
+        if (!Arrays.equals(key.getHash(), response.getChunkKey().getHash())) {
+            future.complete(null);
+            return;
+        }
+        future.complete(response.getResultCode());
+    }
+
+    @Override
+    public void timeout() {
+        future.complete(null);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkResponseObserver " + key;
+    }
+}
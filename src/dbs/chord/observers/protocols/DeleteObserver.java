@@ -25,7 +25,7 @@ public class DeleteObserver extends PermanentObserver {
         DeleteMessage response = (DeleteMessage) message;
         FileManager.getInstance().launchEraser(response.getFileId());
 
-        DeleteResponseMessage responseMessage = new DeleteResponseMessage(response.getFileId(), ResultCode.OK);
+        DeleteResponseMessage responseMessage = new DeleteResponseMessage(response.getRequestId(), response.getFileId(), ResultCode.OK);
         SocketManager.get().sendMessage(remoteNode, responseMessage);
     }
 
@@ -1,10 +1,10 @@
 package dbs.chord.observers.protocols;
 
-import java.math.BigInteger;
 import java.util.concurrent.CompletableFuture;
 
-import dbs.chord.messages.ChordIdKey;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.RequestMessage;
 import dbs.chord.messages.protocol.DeleteResponseMessage;
 import dbs.chord.observers.TimeoutObserver;
 import dbs.filesystem.threads.ResultCode;
@@ -15,8 +15,8 @@ public final class DeleteResponseObserver extends TimeoutObserver {
 
     private final CompletableFuture<ResultCode> future;
     
-    public DeleteResponseObserver(BigInteger fileId, CompletableFuture<ResultCode> future) {
-        super(new ChordIdKey("DELETERESPONSE", fileId), DELETERESPONSE_WAIT);
+    public DeleteResponseObserver(RequestMessage request, CompletableFuture<ResultCode> future) {
+        super(new RequestKey("DELETERESPONSE", request.getRequestId()), DELETERESPONSE_WAIT);
         this.future = future;
     }
 
@@ -34,6 +34,6 @@ public final class DeleteResponseObserver extends TimeoutObserver {
 
     @Override
     public String toString() {
-        return "DeleteResponseObserver " + ((ChordIdKey) getSubscribedKey()).getChordId();
+        return "DeleteResponseObserver " + getSubscribedKey();
     }
 }
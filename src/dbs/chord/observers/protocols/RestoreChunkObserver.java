@@ -0,0 +1,68 @@
+package dbs.chord.observers.protocols;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.RequestMessage;
+import dbs.chord.messages.protocol.RestoreChunkMessage;
+import dbs.chord.observers.PermanentObserver;
+import dbs.filesystem.FileManager;
+import dbs.filesystem.threads.ResultCode;
+
+/**
+ * Stores the chunks of one backup being restored from a remote node, in the
+ * restore folder under the given file name. Subscribed for the duration of the
+ * restore and removed by whoever launched it.
+ *
+ * The future completes once every chunk of the file has been written. Since
+ * a large file may take arbitrarily long to arrive, the restore is only given
+ * up when no chunk arrives for RESTORECHUNK_WAIT (see getLastActivity()).
+ */
+public final class RestoreChunkObserver extends PermanentObserver {
+
+    public static final int RESTORECHUNK_WAIT = 2000;
+
+    private final String fileName;
+    private final CompletableFuture<ResultCode> future;
+    private final AtomicInteger writtenChunks = new AtomicInteger();
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    public RestoreChunkObserver(RequestMessage request, String fileName, CompletableFuture<ResultCode> future) {
+        super(new RequestKey("RESTORECHUNK", request.getRequestId()));
+        this.fileName = fileName;
+        this.future = future;
+    }
+
+    /**
+     * @return The time, in milliseconds, at which the last chunk arrived (or the
+     *         observer was created).
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof RestoreChunkMessage;
+        RestoreChunkMessage chunkMessage = (RestoreChunkMessage) message;
+        lastActivity = System.currentTimeMillis();
+
+        int chunkNum = chunkMessage.getChunkNum();
+        int numChunks = chunkMessage.getNumChunks();
+        byte[] chunk = chunkMessage.getChunkContent();
+
+        FileManager.getInstance().launchRestoreChunkWriter(fileName, chunkNum, chunk).whenComplete((v, error) -> {
+            if (error != null)
+                future.complete(ResultCode.INTERNAL_ERROR);
+            else if (writtenChunks.incrementAndGet() == numChunks)
+                future.complete(ResultCode.OK);
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "RestoreChunkObserver " + getSubscribedKey();
+    }
+}
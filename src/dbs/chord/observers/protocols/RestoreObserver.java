@@ -1,11 +1,10 @@
 package dbs.chord.observers.protocols;
 
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 
+import dbs.chord.ChordLogger;
 import dbs.chord.NodeInfo;
 import dbs.chord.messages.ChordMessage;
-import dbs.chord.messages.protocol.DeleteMessage;
+import dbs.chord.messages.protocol.RestoreChunkMessage;
 import dbs.chord.messages.protocol.RestoreMessage;
 import dbs.chord.messages.protocol.RestoreResponseMessage;
 import dbs.chord.observers.PermanentObserver;
@@ -13,6 +12,14 @@ import dbs.filesystem.FileManager;
 import dbs.filesystem.threads.ResultCode;
 import dbs.network.SocketManager;
 
+/**
+ * Permanent observer.
+ *
+ * Serves restore requests: answers with a RestoreResponseMessage and, if the
+ * backup is stored here, streams it back in RestoreChunkMessages as it is read
+ * from disk, so the backup is never held in memory as a whole. Probes only get
+ * the response.
+ */
 public class RestoreObserver extends PermanentObserver {
 
     public RestoreObserver() {
@@ -24,20 +31,26 @@ public class RestoreObserver extends PermanentObserver {
         assert message instanceof RestoreMessage;
         
         NodeInfo remoteNode = message.getSender();
-        RestoreMessage response = (RestoreMessage) message;
-        CompletableFuture<byte[]> future = FileManager.getInstance().launchRestoreReader(response.getFileId());
-
-        byte[] file;
-        try {
-            file = future.get();
-        } catch (InterruptedException | ExecutionException e) {
-            System.err.println(e.getMessage());
-            e.printStackTrace();
+        RestoreMessage request = (RestoreMessage) message;
+        long fileId = request.getFileId();
+
+        if (!FileManager.getInstance().hasBackup(fileId)) {
+            RestoreResponseMessage responseMessage = new RestoreResponseMessage(request.getRequestId(), fileId, ResultCode.NOT_FOUND);
+            SocketManager.get().sendMessage(remoteNode, responseMessage);
             return;
         }
 
-        RestoreResponseMessage responseMessage = new RestoreResponseMessage(response.getFileId(), file, ResultCode.OK);
-        SocketManager.get().sendMessage(remoteNode, responseMessage);
+        RestoreResponseMessage responseMessage = new RestoreResponseMessage(request.getRequestId(), fileId, ResultCode.OK);
+        if (!SocketManager.get().sendMessage(remoteNode, responseMessage) || request.isProbe())
+            return;
+
+        FileManager.getInstance().launchRestoreStreamer(fileId, (chunkNum, numChunks, chunk) -> {
+            RestoreChunkMessage chunkMessage = new RestoreChunkMessage(request.getRequestId(), fileId, chunkNum, numChunks, chunk);
+            return SocketManager.get().sendMessage(remoteNode, chunkMessage);
+        }).exceptionally(error -> {
+            ChordLogger.logRestore("Could not stream backup to " + remoteNode.shortStr() + ": " + error.getMessage());
+            return null;
+        });
     }
 
     @Override
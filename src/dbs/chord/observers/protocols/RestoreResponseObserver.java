@@ -1,24 +1,22 @@
 package dbs.chord.observers.protocols;
 
-import java.math.BigInteger;
 import java.util.concurrent.CompletableFuture;
 
-import dbs.chord.RestoreReturn;
-import dbs.chord.messages.ChordIdKey;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.RequestMessage;
 import dbs.chord.messages.protocol.RestoreResponseMessage;
 import dbs.chord.observers.TimeoutObserver;
-import dbs.filesystem.FileManager;
 import dbs.filesystem.threads.ResultCode;
 
 public final class RestoreResponseObserver extends TimeoutObserver {
 
     public static final int RESTORERESPONSE_WAIT = 2000;
 
-    private final CompletableFuture<RestoreReturn> future;
+    private final CompletableFuture<ResultCode> future;
     
-    public RestoreResponseObserver(BigInteger fileId, CompletableFuture<RestoreReturn> future) {
-        super(new ChordIdKey("RESTORERESPONSE", fileId), RESTORERESPONSE_WAIT);
+    public RestoreResponseObserver(RequestMessage request, CompletableFuture<ResultCode> future) {
+        super(new RequestKey("RESTORERESPONSE", request.getRequestId()), RESTORERESPONSE_WAIT);
         this.future = future;
     }
 
@@ -26,9 +24,7 @@ public final class RestoreResponseObserver extends TimeoutObserver {
     public void notify(ChordMessage message) {
         assert message instanceof RestoreResponseMessage;
         RestoreResponseMessage response = (RestoreResponseMessage) message;
-        RestoreReturn ret = new RestoreReturn(response.getResultCode(), response.getFileContent());
-        FileManager.getInstance().launchRestoreWriter(response.getFileId().toString(), response.getFileContent());
-        future.complete(ret);
+        future.complete(response.getResultCode());
     }
 
     @Override
@@ -38,6 +34,6 @@ public final class RestoreResponseObserver extends TimeoutObserver {
 
     @Override
     public String toString() {
-        return "RestoreResponseObserver " + ((ChordIdKey) getSubscribedKey()).getChordId();
+        return "RestoreResponseObserver " + getSubscribedKey();
     }
 }
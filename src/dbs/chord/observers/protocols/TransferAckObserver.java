@@ -0,0 +1,39 @@
+package dbs.chord.observers.protocols;
+
+import java.util.concurrent.CompletableFuture;
+
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.protocol.TransferAckMessage;
+import dbs.chord.messages.protocol.TransferBatchMessage;
+import dbs.chord.observers.TimeoutObserver;
+
+public final class TransferAckObserver extends TimeoutObserver {
+
+    // the predecessor writes the whole batch before it answers
+    public static final int TRANSFERACK_WAIT = 10000;
+
+    private final CompletableFuture<boolean[]> future;
+
+    public TransferAckObserver(TransferBatchMessage batch, CompletableFuture<boolean[]> future) {
+        super(new RequestKey("TRANSFERACK", batch.getRequestId()), TRANSFERACK_WAIT);
+        this.future = future;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof TransferAckMessage;
+        TransferAckMessage ack = (TransferAckMessage) message;
+        future.complete(ack.getStored());
+    }
+
+    @Override
+    public void timeout() {
+        future.complete(null);
+    }
+
+    @Override
+    public String toString() {
+        return "TransferAckObserver " + ((RequestKey) getSubscribedKey()).getRequestId();
+    }
+}
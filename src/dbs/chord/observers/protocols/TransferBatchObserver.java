@@ -0,0 +1,70 @@
+package dbs.chord.observers.protocols;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import dbs.chord.Chord;
+import dbs.chord.ChordLogger;
+import dbs.chord.Node;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.protocol.TransferAckMessage;
+import dbs.chord.messages.protocol.TransferBatchMessage;
+import dbs.chord.observers.PermanentObserver;
+import dbs.filesystem.FileManager;
+import dbs.network.SocketManager;
+
+/**
+ * Permanent observer.
+ *
+ * Stores the backups handed over by the successor, and acknowledges the ones
+ * written once they all are. The successor only hands over backups it found
+ * behind its new predecessor, so they are taken even if this node does not
+ * know its own predecessor yet, as is usual right after joining.
+ */
+public class TransferBatchObserver extends PermanentObserver {
+
+    public TransferBatchObserver() {
+        super("TRANSFERBATCH");
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+        assert message instanceof TransferBatchMessage;
+        TransferBatchMessage batch = (TransferBatchMessage) message;
+
+        NodeInfo predecessorNode = Node.get().getPredecessor();
+        NodeInfo selfNode = Node.get().getSelf();
+
+        CompletableFuture<?>[] writes = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            long fileId = batch.getFileId(i);
+            if (predecessorNode == null || Chord.afterOrdered(predecessorNode.getChordId(), fileId, selfNode.getChordId()))
+                writes[i] = FileManager.getInstance().launchBackupWriter(fileId, batch.getFileContent(i));
+        }
+
+        boolean[] stored = new boolean[batch.size()];
+        int count = 0;
+        for (int i = 0; i < writes.length; i++) {
+            if (writes[i] == null)
+                continue;
+            try {
+                writes[i].get();
+                stored[i] = true;
+                count++;
+            } catch (InterruptedException | ExecutionException e) {
+                ChordLogger.logSevere("Could not store transferred backup " + Chord.percentStr(batch.getFileId(i)));
+            }
+        }
+
+        TransferAckMessage ack = new TransferAckMessage(batch.getRequestId(), stored);
+        SocketManager.get().sendMessage(message.getSender(), ack);
+
+        String shortSender = message.getSender().shortStr();
+        ChordLogger.logTransfer("Received and stored " + count + " of " + batch.size() + " backups from " + shortSender);
+    }
+
+    @Override
+    public String toString() {
+        return "TransferBatchObserver";
+    }
+}
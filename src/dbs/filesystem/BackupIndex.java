@@ -0,0 +1,124 @@
+package dbs.filesystem;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The backups stored in this node's backup folder, sorted by their position in
+ * the ring, with their sizes. Writers and Erasers keep it up to date as they
+ * complete, and it is rebuilt from the folder when the node starts, so finding
+ * the backups in a range of the ring, or the space they take, never needs to
+ * walk the folder.
+ *
+ * Reads are lock free. Updates are serialized, so that the total size always
+ * matches the sum of the sizes.
+ */
+public final class BackupIndex {
+
+  private final ConcurrentSkipListMap<Long, Long> sizes = new ConcurrentSkipListMap<>();
+  private final AtomicLong totalSize = new AtomicLong();
+
+  /**
+   * Index the backups in this folder, whose names are their ids.
+   */
+  public static BackupIndex load(Path folder) throws IOException {
+    BackupIndex index = new BackupIndex();
+    try (DirectoryStream<Path> backups = Files.newDirectoryStream(folder)) {
+      for (Path path : backups) {
+        Long fileId = idOf(path.getFileName().toString());
+        if (fileId != null)
+          index.grow(fileId, Files.size(path));
+      }
+    }
+    return index;
+  }
+
+  /**
+   * @return The id of the backup stored under this file name, or null if it is
+   *         not a backup's.
+   */
+  public static Long idOf(String fileName) {
+    try {
+      return Long.parseLong(fileName);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Record that the backup with this id now spans at least up to end. Chunks
+   * may be written in any order, so a backup only ever grows while stored.
+   */
+  public synchronized void grow(long fileId, long end) {
+    Long size = sizes.get(fileId);
+    if (size != null && size >= end)
+      return;
+    sizes.put(fileId, end);
+    totalSize.addAndGet(end - (size == null ? 0 : size));
+  }
+
+  public synchronized void remove(long fileId) {
+    Long size = sizes.remove(fileId);
+    if (size != null)
+      totalSize.addAndGet(-size);
+  }
+
+  public boolean contains(long fileId) {
+    return sizes.containsKey(fileId);
+  }
+
+  /**
+   * @return The size of this backup, or -1 if it is not stored here.
+   */
+  public long getSize(long fileId) {
+    Long size = sizes.get(fileId);
+    return size == null ? -1 : size;
+  }
+
+  /**
+   * @return The space taken by all the backups, in bytes.
+   */
+  public long getTotalSize() {
+    return totalSize.get();
+  }
+
+  public int size() {
+    return sizes.size();
+  }
+
+  /**
+   * @return The ids of the backups in the ring interval (from, to], in ring
+   *         order. If from == to this is the whole ring.
+   */
+  public ArrayList<Long> inRange(long from, long to) {
+    ArrayList<Long> ids = new ArrayList<>();
+    if (from < to) {
+      ids.addAll(sizes.subMap(from, false, to, true).keySet());
+    } else {
+      ids.addAll(sizes.tailMap(from, false).keySet());
+      ids.addAll(sizes.headMap(to, true).keySet());
+    }
+    return ids;
+  }
+
+  /**
+   * @return The ids of all the backups, largest first.
+   */
+  public List<Long> largestFirst() {
+    List<Map.Entry<Long, Long>> entries = new ArrayList<>(sizes.entrySet());
+    entries.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+
+    List<Long> ids = new ArrayList<>(entries.size());
+    for (Map.Entry<Long, Long> entry : entries)
+      ids.add(entry.getKey());
+    return ids;
+  }
+}
@@ -0,0 +1,78 @@
+package dbs.filesystem;
+
+import java.util.Arrays;
+import dbs.chord.Chord;
+
+/**
+ * Identifies one copy of a chunk in the chunk store: the chunk's SHA-256, and
+ * the chord id the copy is placed at, one of the offsets of the hash's own chord
+ * id. The placement is what tells which node a copy belongs on once nodes join
+ * the ring. A chunk has the same placements in every file it appears in, which
+ * is what makes the copies shared.
+ */
+public final class ChunkKey {
+
+  private final long placementId;
+  private final byte[] hash;
+
+  public ChunkKey(long placementId, byte[] hash) {
+    assert hash.length == ChunkManifest.HASH_SIZE;
+    this.placementId = placementId;
+    this.hash = hash;
+  }
+
+  /**
+   * @return The key of copy i of R of the chunk with this hash.
+   */
+  public static ChunkKey of(byte[] hash, int i, int R) {
+    return new ChunkKey(Chord.offset(Chord.fromDigest(hash), i, R), hash);
+  }
+
+  /**
+   * @return The key stored in this file name, or null if it is not a chunk's.
+   */
+  static ChunkKey fromFileName(String fileName) {
+    int dash = fileName.indexOf('-');
+    if (dash < 0 || fileName.length() - dash - 1 != 2 * ChunkManifest.HASH_SIZE)
+      return null;
+    try {
+      long placementId = Long.parseLong(fileName.substring(0, dash));
+      byte[] hash = new byte[ChunkManifest.HASH_SIZE];
+      for (int i = 0; i < hash.length; i++)
+        hash[i] = (byte) Integer.parseInt(fileName.substring(dash + 1 + 2 * i, dash + 3 + 2 * i), 16);
+      return new ChunkKey(placementId, hash);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  String getFileName() {
+    return placementId + "-" + Chord.bytesToHex(hash);
+  }
+
+  public long getPlacementId() {
+    return placementId;
+  }
+
+  public byte[] getHash() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ChunkKey))
+      return false;
+    ChunkKey other = (ChunkKey) obj;
+    return placementId == other.placementId && Arrays.equals(hash, other.hash);
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(placementId) * 31 + Arrays.hashCode(hash);
+  }
+
+  @Override
+  public String toString() {
+    return Chord.bytesToHex(hash).substring(0, 12) + "@" + Chord.percentStr(placementId);
+  }
+}
@@ -0,0 +1,84 @@
+package dbs.filesystem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A deduplicated backup: the ids (SHA-256) and lengths of the chunks the file
+ * was split in, in order. The manifest is backed up like a regular file under
+ * the file's id, while the chunks live in the chunk store, shared by every file
+ * that contains them.
+ */
+public final class ChunkManifest {
+
+  public static final int HASH_SIZE = 32;
+  private static final int MAGIC = 0x44425331; // DBS1
+
+  private final List<byte[]> hashes = new ArrayList<>();
+  private final List<Integer> lengths = new ArrayList<>();
+  private long fileSize = 0;
+
+  public void add(byte[] hash, int length) {
+    assert hash.length == HASH_SIZE;
+    hashes.add(hash);
+    lengths.add(length);
+    fileSize += length;
+  }
+
+  public int size() {
+    return hashes.size();
+  }
+
+  public byte[] getHash(int i) {
+    return hashes.get(i);
+  }
+
+  public int getLength(int i) {
+    return lengths.get(i);
+  }
+
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  public byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + size() * (HASH_SIZE + 4));
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(size());
+      for (int i = 0; i < size(); i++) {
+        out.write(hashes.get(i));
+        out.writeInt(lengths.get(i));
+      }
+    } catch (IOException e) {
+      throw new InternalError(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static ChunkManifest decode(byte[] encoded) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+    if (encoded.length < 8 || in.readInt() != MAGIC)
+      throw new IOException("Not a chunk manifest");
+
+    int count = in.readInt();
+    if (count < 0 || count > in.available() / (HASH_SIZE + 4))
+      throw new IOException("Invalid chunk manifest length " + count);
+
+    ChunkManifest manifest = new ChunkManifest();
+    for (int i = 0; i < count; i++) {
+      byte[] hash = new byte[HASH_SIZE];
+      in.readFully(hash);
+      int length = in.readInt();
+      if (length < 0 || length > ContentChunker.MAX_CHUNK)
+        throw new IOException("Invalid chunk length " + length);
+      manifest.add(hash, length);
+    }
+    return manifest;
+  }
+}
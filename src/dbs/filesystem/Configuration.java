@@ -32,9 +32,13 @@ public class Configuration {
    */
   public static final String PEER_FOLDER = "/tmp/dbs";
   /**
-   * Time to wait for a filesystem request to arrive
+   * Number of threads running the file channels' completion handlers
    */
-  public static final int REQUEST_WAITING_TIME = 50;
+  public static final int IO_POOL_SIZE = 2;
+  /**
+   * Maximum number of chunk reads or writes a single operation keeps in flight
+   */
+  public static final int MAX_CHUNKS_IN_FLIGHT = 4;
   /**
    * Chunk size
    */
@@ -0,0 +1,132 @@
+package dbs.filesystem;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Splits a stream in content defined chunks, for the deduplicating chunk store.
+ *
+ * Chunk boundaries are chosen by a gear rolling hash over the last 64 bytes
+ * read, instead of at fixed offsets: a boundary falls wherever the top bits of
+ * the hash are all zero. Inserting or removing bytes in a file therefore only
+ * changes the chunks around the edit, and the following chunks keep the same
+ * content and the same ids.
+ *
+ * Chunks are between MIN_CHUNK and MAX_CHUNK bytes long, except for the last
+ * one which may be shorter, and average about MIN_CHUNK + 2^AVERAGE_BITS bytes.
+ */
+public final class ContentChunker implements Closeable {
+
+  public static final int MIN_CHUNK = 16 * 1024;
+  public static final int MAX_CHUNK = 128 * 1024;
+  private static final int AVERAGE_BITS = 15;
+
+  /**
+   * The gear table must be the same on every node and every version: it is
+   * part of the chunk ids. It is filled by splitmix64 from a fixed seed.
+   */
+  private static final long[] GEAR = new long[256];
+
+  static {
+    long seed = 0x6462735f63686e6bL;
+    for (int i = 0; i < GEAR.length; i++) {
+      long z = (seed += 0x9e3779b97f4a7c15L);
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      GEAR[i] = z ^ (z >>> 31);
+    }
+  }
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[2 * MAX_CHUNK];
+  private int start = 0;
+  private int end = 0;
+  private boolean eof = false;
+
+  public ContentChunker(InputStream in) {
+    this.in = in;
+  }
+
+  public static ContentChunker open(String filePath) throws IOException {
+    return new ContentChunker(new FileInputStream(filePath));
+  }
+
+  /**
+   * @return The next chunk, or null once the stream is over. An empty stream
+   *         has no chunks.
+   */
+  public byte[] next() throws IOException {
+    fill();
+    int available = end - start;
+    if (available == 0)
+      return null;
+
+    int length = boundary(buffer, start, Math.min(available, MAX_CHUNK));
+    byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+    start += length;
+    return chunk;
+  }
+
+  /**
+   * @return The length of the chunk starting at offset, given that length bytes
+   *         are available.
+   */
+  static int boundary(byte[] data, int offset, int length) {
+    if (length <= MIN_CHUNK)
+      return length;
+
+    // The hash only needs to roll over the window before the first candidate.
+    long hash = 0;
+    for (int i = MIN_CHUNK - 64; i < MIN_CHUNK; i++)
+      hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+
+    for (int i = MIN_CHUNK; i < length; i++) {
+      hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+      if ((hash >>> (64 - AVERAGE_BITS)) == 0)
+        return i + 1;
+    }
+    return length;
+  }
+
+  /**
+   * Make at least MAX_CHUNK bytes available from start, unless the stream ends.
+   */
+  private void fill() throws IOException {
+    if (eof || end - start >= MAX_CHUNK)
+      return;
+
+    System.arraycopy(buffer, start, buffer, 0, end - start);
+    end -= start;
+    start = 0;
+
+    while (end < buffer.length) {
+      int read = in.read(buffer, end, buffer.length - end);
+      if (read < 0) {
+        eof = true;
+        return;
+      }
+      end += read;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * @return The SHA-256 of the chunk, its id in the chunk store.
+   */
+  public static byte[] hash(byte[] chunk) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(chunk);
+    } catch (NoSuchAlgorithmException e) {
+      throw new InternalError(e);
+    }
+  }
+}
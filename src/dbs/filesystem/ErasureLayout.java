@@ -0,0 +1,48 @@
+package dbs.filesystem;
+
+/**
+ * How an erasure coded backup was split: the file is cut in stripes of
+ * dataFragments chunks, each extended with parityFragments parity chunks, and
+ * fragment i is the sequence of the i-th chunks of every stripe. The fragments
+ * are stored as regular backups at Chord.offsets(fileId, dataFragments + parityFragments).
+ *
+ * The chunks of the last stripe are padded to the length of its first chunk, so
+ * the original size is needed to trim the file back once restored.
+ */
+public final class ErasureLayout {
+
+  private final int dataFragments;
+  private final int parityFragments;
+  private final long fileSize;
+
+  public ErasureLayout(int dataFragments, int parityFragments, long fileSize) {
+    this.dataFragments = dataFragments;
+    this.parityFragments = parityFragments;
+    this.fileSize = fileSize;
+  }
+
+  public int getDataFragments() {
+    return dataFragments;
+  }
+
+  public int getParityFragments() {
+    return parityFragments;
+  }
+
+  public int getTotalFragments() {
+    return dataFragments + parityFragments;
+  }
+
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  public ReedSolomon newCoder() {
+    return new ReedSolomon(dataFragments, parityFragments);
+  }
+
+  @Override
+  public String toString() {
+    return dataFragments + "+" + parityFragments;
+  }
+}
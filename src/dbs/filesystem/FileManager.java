@@ -2,8 +2,6 @@ package dbs.filesystem;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PipedOutputStream;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.CompletionHandler;
@@ -13,52 +11,72 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import dbs.chord.Chord;
+import dbs.chord.ChordLogger;
 import dbs.chord.Node;
 import dbs.chord.NodeInfo;
+import dbs.chord.TaskPools;
 import dbs.filesystem.Configuration.Operation;
 import dbs.filesystem.messages.DeleteRequest;
 import dbs.filesystem.messages.ReadRequest;
 import dbs.filesystem.messages.Request;
 import dbs.filesystem.messages.WriteRequest;
+import dbs.filesystem.threads.ChunkConsumer;
 import dbs.filesystem.threads.Eraser;
+import dbs.filesystem.threads.FragmentDecoder;
 import dbs.filesystem.threads.Reader;
+import dbs.filesystem.threads.Streamer;
 import dbs.filesystem.threads.Writer;
 
 /**
  * The FileManager is used to manage access to the filesystem, providing read, write
- * and delete operations using the Java NIO API and a thread pool
+ * and delete operations using the Java NIO API and a thread pool (see TaskPools).
+ *
+ * Requests are started as soon as they are submitted, and each request's future is
+ * completed directly from the AsynchronousFileChannel's CompletionHandler, so any
+ * number of requests may be in flight at the same time.
  */
-public class FileManager implements Runnable {
+public class FileManager implements IOperations {
+
+  private static ExecutorService threadpool = TaskPools.newTaskPool("filemanager", Configuration.POOL_SIZE);
+  /**
+   * Runs the channels' completion handlers, which never block.
+   */
+  private static ExecutorService ioPool = Executors.newFixedThreadPool(Configuration.IO_POOL_SIZE);
+
+  private static final Set<StandardOpenOption> READ_OPTIONS = EnumSet.of(StandardOpenOption.READ);
+  private static final Set<StandardOpenOption> WRITE_OPTIONS = EnumSet.of(StandardOpenOption.WRITE,
+      StandardOpenOption.CREATE);
 
-  private static ThreadPoolExecutor threadpool = (ThreadPoolExecutor) Executors
-      .newFixedThreadPool(Configuration.POOL_SIZE);
   public static String BACKUP_FOLDER;
   public static String RESTORE_FOLDER;
+  public static String CHUNKS_FOLDER;
 
   private static FileManager instance;
-  private final LinkedBlockingDeque<Request> queue;
+
+  private final BackupIndex backupIndex;
 
   public FileManager() {
-    this.queue = new LinkedBlockingDeque<>();
     this.createFilesystem();
+    this.backupIndex = loadBackupIndex();
   }
 
   public void createFilesystem() {
-    String peerId = Node.get().getSelf().getChordId().toString();
+    String peerId = Long.toString(Node.get().getSelf().getChordId());
 
     BACKUP_FOLDER = Configuration.PEER_FOLDER + "/" + peerId + "/backup/";
     RESTORE_FOLDER = Configuration.PEER_FOLDER + "/" + peerId + "/restore/";
+    CHUNKS_FOLDER = Configuration.PEER_FOLDER + "/" + peerId + "/chunks/";
 
     File backupDir = new File(BACKUP_FOLDER);
     if (!backupDir.exists())
@@ -66,224 +84,345 @@ public class FileManager implements Runnable {
     File restoreDir = new File(RESTORE_FOLDER);
     if (!restoreDir.exists())
       restoreDir.mkdirs();
+    File chunksDir = new File(CHUNKS_FOLDER);
+    if (!chunksDir.exists())
+      chunksDir.mkdirs();
   }
 
-  public static FileManager getInstance() {
+  private static BackupIndex loadBackupIndex() {
+    try {
+      return BackupIndex.load(Paths.get(BACKUP_FOLDER));
+    } catch (IOException e) {
+      Logger.getGlobal().severe("Could not index the backup folder: " + e.getMessage());
+      return new BackupIndex();
+    }
+  }
+
+  public static synchronized FileManager getInstance() {
     if (instance == null) {
       instance = new FileManager();
-      Thread managerThread = new Thread(instance);
-      managerThread.start();
     }
     return instance;
   }
 
-  public ThreadPoolExecutor getThreadpool() {
+  public ExecutorService getThreadpool() {
     return threadpool;
   }
 
-  public void write(WriteRequest request) throws IOException {
-    PipedOutputStream outputStream = request.getPipe();
+  /**
+   * @return The index of the backups stored in this node.
+   */
+  public BackupIndex getBackupIndex() {
+    return backupIndex;
+  }
+
+  @Override
+  public void write(WriteRequest request) {
+    CompletableFuture<Integer> future = request.getFuture();
     Path path = Paths.get(request.getFilePath());
 
+    AsynchronousFileChannel fileChannel;
     try {
-      AsynchronousFileChannel fileChannel = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE,
-          StandardOpenOption.CREATE);
-      ByteBuffer buffer = ByteBuffer.wrap(request.getContent());
-
-      // Version chunk-a-chunk
-      long position = request.getChunkNum() * Configuration.CHUNK_SIZE;
-
-      fileChannel.write(buffer, position, buffer, new CompletionHandler<>() {
-        @Override
-        public void completed(Integer integer, ByteBuffer byteBuffer) {
-          buffer.clear();
-          try {
-            fileChannel.close();
-            outputStream.write(1);
-          } catch (IOException e) {
-            e.printStackTrace();
-          }
-          Logger.getGlobal().info("Successful chunk writing!");
-        }
-
-        @Override
-        public void failed(Throwable throwable, ByteBuffer byteBuffer) {
-          Logger.getGlobal().severe("Could not write chunk!");
-        }
-      });
+      fileChannel = AsynchronousFileChannel.open(path, WRITE_OPTIONS, ioPool);
     } catch (IOException e) {
-      Logger.getGlobal().severe("File manager could not open write on path  " + path);
-      outputStream.write(0);
+      Logger.getGlobal().severe("File manager could not open write on path " + path);
+      future.completeExceptionally(e);
       return;
     }
-  }
 
-  public void read(ReadRequest request) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(request.getContent());
+
+    long position = request.getPosition();
 
-    PipedOutputStream outputStream = request.getPipe();
+    fileChannel.write(buffer, position, position, new CompletionHandler<>() {
+      @Override
+      public void completed(Integer written, Long writePosition) {
+        if (buffer.hasRemaining()) {
+          long nextPosition = writePosition + written;
+          fileChannel.write(buffer, nextPosition, nextPosition, this);
+          return;
+        }
+        close(fileChannel);
+        future.complete(buffer.limit());
+      }
+
+      @Override
+      public void failed(Throwable throwable, Long writePosition) {
+        Logger.getGlobal().severe("Could not write chunk to path " + path);
+        close(fileChannel);
+        future.completeExceptionally(throwable);
+      }
+    });
+  }
 
+  @Override
+  public void read(ReadRequest request) {
+    CompletableFuture<byte[]> future = request.getFuture();
     Path path = Paths.get(request.getFilePath());
+
     AsynchronousFileChannel fileChannel;
     try {
-      fileChannel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+      fileChannel = AsynchronousFileChannel.open(path, READ_OPTIONS, ioPool);
     } catch (IOException e) {
-      Logger.getGlobal().severe("File manager could not open file on path  " + path);
-      outputStream.write(0);
+      Logger.getGlobal().severe("File manager could not open file on path " + path);
+      future.completeExceptionally(e);
       return;
     }
 
     ByteBuffer buffer = ByteBuffer.allocate(Configuration.CHUNK_SIZE);
     long position = request.getChunkNum() * Configuration.CHUNK_SIZE;
-    Future<Integer> operation = fileChannel.read(buffer, position);
 
-    try {
-      operation.get();
-    } catch (Exception e) {
-      Logger.getGlobal().severe("File manager could not read from path " + path);
-      outputStream.write(0);
-      return;
-    }
+    fileChannel.read(buffer, position, position, new CompletionHandler<>() {
+      @Override
+      public void completed(Integer read, Long readPosition) {
+        if (read >= 0 && buffer.hasRemaining()) {
+          long nextPosition = readPosition + read;
+          fileChannel.read(buffer, nextPosition, nextPosition, this);
+          return;
+        }
+        close(fileChannel);
+        future.complete(Arrays.copyOf(buffer.array(), buffer.position()));
+      }
 
-    int chunkSize = buffer.position();
-    outputStream.write(buffer.array(), 0, chunkSize);
+      @Override
+      public void failed(Throwable throwable, Long readPosition) {
+        Logger.getGlobal().severe("File manager could not read from path " + path);
+        close(fileChannel);
+        future.completeExceptionally(throwable);
+      }
+    });
   }
 
-  public void delete(DeleteRequest request) throws IOException {
-    PipedOutputStream outputStream = request.getPipe();
+  @Override
+  public void delete(DeleteRequest request) {
     Path path = Paths.get(request.getFilePath());
     try {
       Files.delete(path);
     } catch (IOException e) {
       Logger.getGlobal().severe("File manager could not delete from path " + path);
-      outputStream.write(0);
+      request.getFuture().completeExceptionally(e);
       return;
     }
+    request.getFuture().complete(null);
   }
 
-  private void processRequest(Request request) throws Exception {
+  private static void close(AsynchronousFileChannel fileChannel) {
+    try {
+      fileChannel.close();
+    } catch (IOException e) {
+      Logger.getGlobal().warning("Could not close file channel: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Start the given request right away.
+   *
+   * @return The request's future, completed when the operation finishes.
+   */
+  public <T> CompletableFuture<T> submit(Request<T> request) {
     if (request instanceof WriteRequest)
       this.write((WriteRequest) request);
     else if (request instanceof ReadRequest)
       this.read((ReadRequest) request);
     else if (request instanceof DeleteRequest)
       this.delete((DeleteRequest) request);
+    return request.getFuture();
   }
 
-  public void addRequest(Request request) {
-    this.queue.add(request);
-  }
-
-  public void restoreFromBackup(String fileId) {
-    Path src = Paths.get(FileManager.BACKUP_FOLDER + fileId);
-    Path dest = Paths.get(FileManager.RESTORE_FOLDER + fileId);
+  /**
+   * Copy a backup stored in this node to the restore folder.
+   *
+   * @return true if the backup was copied.
+   */
+  public boolean restoreFromBackup(String backupKey, String fileName) {
+    Path src = Paths.get(FileManager.BACKUP_FOLDER + backupKey);
+    Path dest = Paths.get(FileManager.RESTORE_FOLDER + fileName);
     try {
       Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+      return true;
     } catch (IOException e) {
-      e.printStackTrace();
-      return;
+      ChordLogger.logRestore(fileName, "could not copy backup " + backupKey + ": " + e.getMessage());
+      return false;
     }
   }
 
-  public CompletableFuture<byte[]> launchBackupReader(String fileName) {
-    try {
-      CompletableFuture<byte[]> fileFuture = new CompletableFuture<>();
-      Reader reader = new Reader(fileName, fileFuture, Operation.BACKUP);
-      threadpool.submit(reader);
-      return fileFuture;
-    } catch (IOException e) {
-      System.err.println(e.getMessage());
-      e.printStackTrace();
-      throw new RuntimeException(e);
-    }
+  /**
+   * @return true if this node stores a backup with the given id.
+   */
+  public boolean hasBackup(long fileId) {
+    return Files.isRegularFile(Paths.get(BACKUP_FOLDER + fileId));
   }
 
-  public CompletableFuture<byte[]> launchRestoreReader(BigInteger fileId) {
+  /**
+   * Remove a previously restored file, so that it can be restored again chunk by chunk.
+   */
+  public void deleteRestored(String fileName) {
     try {
-      String fileName = fileId.toString();
-      CompletableFuture<byte[]> fileFuture = new CompletableFuture<>();
-      Reader reader = new Reader(fileName, fileFuture, Operation.RESTORE);
-      threadpool.submit(reader);
-      return fileFuture;
+      Files.deleteIfExists(Paths.get(RESTORE_FOLDER + fileName));
     } catch (IOException e) {
-      System.err.println(e.getMessage());
-      e.printStackTrace();
-      throw new RuntimeException(e);
+      Logger.getGlobal().warning("Could not delete restored file " + fileName + ": " + e.getMessage());
     }
   }
 
-  public void launchBackupWriter(BigInteger fileId, byte[] file) {
+  /**
+   * Read a whole file from the restore folder.
+   */
+  public byte[] readRestored(String fileName) throws IOException {
+    return Files.readAllBytes(Paths.get(RESTORE_FOLDER + fileName));
+  }
+
+  /**
+   * @return true if the chunk store has this copy of a chunk.
+   */
+  public boolean hasChunk(ChunkKey key) {
+    return Files.isRegularFile(chunkPath(key));
+  }
+
+  /**
+   * Add a copy of a chunk to the chunk store, unless it is already there. The
+   * chunk is written aside and then moved in place, so a chunk in the store is
+   * always whole. Chunks are small, so this is done on the caller's thread.
+   */
+  public void storeChunk(ChunkKey key, byte[] chunk) throws IOException {
+    Path path = chunkPath(key);
+    if (Files.isRegularFile(path))
+      return;
+    Path partial = Files.createTempFile(Paths.get(CHUNKS_FOLDER), "partial", null);
     try {
-      String fileName = fileId.toString();
-      Writer writer = new Writer(fileName, file, Operation.BACKUP);
-      threadpool.submit(writer);
-    } catch (IOException e) {
-      System.err.println(e.getMessage());
-      e.printStackTrace();
-      throw new RuntimeException(e);
+      Files.write(partial, chunk);
+      Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(partial);
     }
   }
 
-  public void launchRestoreWriter(String fileName, byte[] file) {
+  /**
+   * @return The chunk, or null if the chunk store does not have this copy of it.
+   */
+  public byte[] readChunk(ChunkKey key) {
     try {
-      Writer writer = new Writer(fileName, file, Operation.RESTORE);
-      threadpool.submit(writer);
+      return Files.readAllBytes(chunkPath(key));
     } catch (IOException e) {
-      System.err.println(e.getMessage());
-      e.printStackTrace();
-      throw new RuntimeException(e);
+      return null;
     }
   }
 
-  public void launchEraser(BigInteger fileId) {
+  public void deleteChunk(ChunkKey key) {
     try {
-      String filename = fileId.toString();
-      Eraser eraser = new Eraser(filename);
-      threadpool.submit(eraser);
+      Files.deleteIfExists(chunkPath(key));
     } catch (IOException e) {
-      System.err.println(e.getMessage());
-      e.printStackTrace();
-      throw new RuntimeException(e);
+      Logger.getGlobal().warning("Could not delete chunk " + key + ": " + e.getMessage());
     }
   }
 
-  public ArrayList<BigInteger> getFilesToTransfer(NodeInfo predecessor) {
+  private static Path chunkPath(ChunkKey key) {
+    return Paths.get(CHUNKS_FOLDER + key.getFileName());
+  }
+
+  /**
+   * @return The copies in the chunk store which now belong to the predecessor,
+   *         like getFilesToTransfer().
+   */
+  public ArrayList<ChunkKey> getChunksToTransfer(NodeInfo predecessor) {
     NodeInfo self = Node.get().getSelf();
 
     List<Path> result;
-    try (Stream<Path> walk = Files.walk(Paths.get(BACKUP_FOLDER))) {
+    try (Stream<Path> walk = Files.list(Paths.get(CHUNKS_FOLDER))) {
       result = walk.filter(Files::isRegularFile).collect(Collectors.toList());
     } catch (IOException e) {
       e.printStackTrace();
-      return null;
+      return new ArrayList<>();
     }
 
-    ArrayList<BigInteger> filesToTranfer = new ArrayList<>();
+    ArrayList<ChunkKey> chunksToTransfer = new ArrayList<>();
     for (Path path : result) {
-      BigInteger fileKey = new BigInteger(path.getFileName().toString());
-      if (!Chord.afterOrdered(predecessor.getChordId(), fileKey, self.getChordId())) {
-        filesToTranfer.add(fileKey);
-      }
+      ChunkKey key = ChunkKey.fromFileName(path.getFileName().toString());
+      if (key != null && !Chord.afterOrdered(predecessor.getChordId(), key.getPlacementId(), self.getChordId()))
+        chunksToTransfer.add(key);
     }
-    return filesToTranfer;
+    return chunksToTransfer;
   }
 
-  @Override
-  public void run() {
-    Request request;
-
-    while (true) {
-      try {
-        request = queue.poll(Configuration.REQUEST_WAITING_TIME, TimeUnit.MILLISECONDS);
-      } catch (InterruptedException e) {
-        continue;
-      }
-      if (request == null)
-        continue;
-      try {
-        this.processRequest(request);
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
+  public CompletableFuture<byte[]> launchBackupReader(String fileName) {
+    CompletableFuture<byte[]> fileFuture = new CompletableFuture<>();
+    Reader reader = new Reader(fileName, fileFuture, Operation.BACKUP);
+    threadpool.submit(reader);
+    return fileFuture;
+  }
+
+  public CompletableFuture<byte[]> launchRestoreReader(long fileId) {
+    String fileName = Long.toString(fileId);
+    CompletableFuture<byte[]> fileFuture = new CompletableFuture<>();
+    Reader reader = new Reader(fileName, fileFuture, Operation.RESTORE);
+    threadpool.submit(reader);
+    return fileFuture;
+  }
+
+  public CompletableFuture<Integer> launchBackupStreamer(String fileName, ChunkConsumer consumer) {
+    CompletableFuture<Integer> streamFuture = new CompletableFuture<>();
+    Streamer streamer = new Streamer(fileName, consumer, streamFuture, Operation.BACKUP);
+    threadpool.submit(streamer);
+    return streamFuture;
+  }
+
+  public CompletableFuture<Integer> launchRestoreStreamer(long fileId, ChunkConsumer consumer) {
+    String fileName = Long.toString(fileId);
+    CompletableFuture<Integer> streamFuture = new CompletableFuture<>();
+    Streamer streamer = new Streamer(fileName, consumer, streamFuture, Operation.RESTORE);
+    threadpool.submit(streamer);
+    return streamFuture;
+  }
+
+  public CompletableFuture<Void> launchChunkWriter(long fileId, int chunkNum, byte[] chunk) {
+    String fileName = Long.toString(fileId);
+    Writer writer = new Writer(fileName, chunk, Operation.BACKUP, chunkNum);
+    threadpool.submit(writer);
+    return writer.getFuture();
+  }
+
+  public CompletableFuture<Void> launchBackupWriter(long fileId, byte[] file) {
+    String fileName = Long.toString(fileId);
+    Writer writer = new Writer(fileName, file, Operation.BACKUP);
+    threadpool.submit(writer);
+    return writer.getFuture();
+  }
+
+  public CompletableFuture<Void> launchRestoreWriter(String fileName, byte[] file) {
+    Writer writer = new Writer(fileName, file, Operation.RESTORE);
+    threadpool.submit(writer);
+    return writer.getFuture();
+  }
+
+  public CompletableFuture<Void> launchRestoreChunkWriter(String fileName, int chunkNum, byte[] chunk) {
+    Writer writer = new Writer(fileName, chunk, Operation.RESTORE, chunkNum);
+    threadpool.submit(writer);
+    return writer.getFuture();
+  }
+
+  /**
+   * Rebuild an erasure coded file into the restore folder.
+   *
+   * @param fragmentPaths The paths of the fragments at hand, null for the others.
+   */
+  public CompletableFuture<Void> launchFragmentDecoder(String fileName, String[] fragmentPaths, ErasureLayout layout) {
+    FragmentDecoder decoder = new FragmentDecoder(fileName, fragmentPaths, layout);
+    threadpool.submit(decoder);
+    return decoder.getFuture();
+  }
+
+  public CompletableFuture<Void> launchEraser(long fileId) {
+    String filename = Long.toString(fileId);
+    Eraser eraser = new Eraser(filename);
+    threadpool.submit(eraser);
+    return eraser.getFuture();
+  }
+
+  /**
+   * @return The backups which now belong to the predecessor, i.e. those in the
+   *         ring interval (self, predecessor].
+   */
+  public ArrayList<Long> getFilesToTransfer(NodeInfo predecessor) {
+    NodeInfo self = Node.get().getSelf();
+    return backupIndex.inRange(self.getChordId(), predecessor.getChordId());
   }
 }
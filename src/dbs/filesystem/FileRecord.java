@@ -0,0 +1,117 @@
+package dbs.filesystem;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * How a file owned by this node was backed up: as full copies, erasure coded
+ * fragments, or a manifest of deduplicated chunks. The replication degree is
+ * the number of offsets the file (or its fragments, or its manifest) is stored
+ * at, so Chord.offsets(fileId, replicationDegree) always finds its backups.
+ */
+public final class FileRecord {
+
+  private static final byte FULL = 0;
+  private static final byte ERASURE = 1;
+  private static final byte DEDUP = 2;
+
+  /**
+   * Full and deduplicated records are shared for the usual replication
+   * degrees, so that a large store holds one object per file less.
+   */
+  private static final FileRecord[] FULL_RECORDS = new FileRecord[16];
+  private static final FileRecord[] DEDUP_RECORDS = new FileRecord[16];
+
+  static {
+    for (int R = 0; R < FULL_RECORDS.length; R++) {
+      FULL_RECORDS[R] = new FileRecord(FULL, R, null);
+      DEDUP_RECORDS[R] = new FileRecord(DEDUP, R, null);
+    }
+  }
+
+  private final byte mode;
+  private final int replicationDegree;
+  private final ErasureLayout layout;
+
+  private FileRecord(byte mode, int replicationDegree, ErasureLayout layout) {
+    this.mode = mode;
+    this.replicationDegree = replicationDegree;
+    this.layout = layout;
+  }
+
+  public static FileRecord full(int replicationDegree) {
+    if (replicationDegree >= 0 && replicationDegree < FULL_RECORDS.length)
+      return FULL_RECORDS[replicationDegree];
+    return new FileRecord(FULL, replicationDegree, null);
+  }
+
+  public static FileRecord erasure(ErasureLayout layout) {
+    return new FileRecord(ERASURE, layout.getTotalFragments(), layout);
+  }
+
+  public static FileRecord dedup(int replicationDegree) {
+    if (replicationDegree >= 0 && replicationDegree < DEDUP_RECORDS.length)
+      return DEDUP_RECORDS[replicationDegree];
+    return new FileRecord(DEDUP, replicationDegree, null);
+  }
+
+  public int getReplicationDegree() {
+    return replicationDegree;
+  }
+
+  public boolean isFull() {
+    return mode == FULL;
+  }
+
+  /**
+   * @return The erasure layout, or null if the file is not erasure coded.
+   */
+  public ErasureLayout getErasureLayout() {
+    return layout;
+  }
+
+  public boolean isDedup() {
+    return mode == DEDUP;
+  }
+
+  void write(DataOutput out) throws IOException {
+    out.writeByte(mode);
+    if (mode == ERASURE) {
+      out.writeInt(layout.getDataFragments());
+      out.writeInt(layout.getParityFragments());
+      out.writeLong(layout.getFileSize());
+    } else {
+      out.writeInt(replicationDegree);
+    }
+  }
+
+  /**
+   * @throws java.nio.BufferUnderflowException if the record is cut short.
+   */
+  static FileRecord read(ByteBuffer in) throws IOException {
+    byte mode = in.get();
+    switch (mode) {
+    case FULL:
+      return full(in.getInt());
+    case ERASURE:
+      return erasure(new ErasureLayout(in.getInt(), in.getInt(), in.getLong()));
+    case DEDUP:
+      return dedup(in.getInt());
+    default:
+      throw new IOException("Unknown file record mode " + mode);
+    }
+  }
+
+  @Override
+  public String toString() {
+    switch (mode) {
+    case ERASURE:
+      return "erasure " + layout;
+    case DEDUP:
+      return "dedup R=" + replicationDegree;
+    default:
+      return "R=" + replicationDegree;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package dbs.filesystem;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The durable record of the files this node backed up, so that they can still
+ * be restored and deleted after the node restarts.
+ *
+ * The records live in a ConcurrentHashMap, read without locking. Every change
+ * is first appended to a log (files.log) and forced to disk, then applied to
+ * the map; changes are serialized so the log order is the map order. Once the
+ * log holds more than half as many records as the map, and COMPACT_MIN_RECORDS,
+ * the whole map is written to a new snapshot (files.snapshot) which atomically
+ * replaces the old one, and the log starts over. This bounds the replay on
+ * startup to half of the snapshot's size.
+ *
+ * Opening the store loads the snapshot, then replays the log on top of it. Each
+ * log record carries its own CRC32, so a record torn by a crash in the middle of
+ * an append is recognized, and the log is cut back to the last whole record.
+ * Replaying a log over the snapshot it was compacted into, if the node crashed
+ * between the two steps, leaves the same records.
+ */
+public final class MetadataStore {
+
+  private static final int SNAPSHOT_MAGIC = 0x44425346; // DBSF
+  private static final int COMPACT_MIN_RECORDS = 10_000;
+
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  private final Path snapshotPath;
+  private final Path logPath;
+  private final boolean durable;
+  private final ConcurrentHashMap<Long, FileRecord> records;
+
+  private FileChannel log;
+  private int logRecords = 0;
+
+  private MetadataStore(Path folder, boolean durable, ConcurrentHashMap<Long, FileRecord> records) {
+    this.snapshotPath = folder.resolve("files.snapshot");
+    this.logPath = folder.resolve("files.log");
+    this.durable = durable;
+    this.records = records;
+  }
+
+  /**
+   * Open the store in this folder, creating it if needed.
+   */
+  public static MetadataStore open(String folder) throws IOException {
+    return open(Paths.get(folder), true);
+  }
+
+  /**
+   * @param durable Whether appends are forced to disk before they are applied.
+   *                Only the benchmark turns this off, to fill a store quickly.
+   */
+  static MetadataStore open(Path folder, boolean durable) throws IOException {
+    Files.createDirectories(folder);
+
+    ConcurrentHashMap<Long, FileRecord> records = loadSnapshot(folder.resolve("files.snapshot"));
+    MetadataStore store = new MetadataStore(folder, durable, records);
+    store.replayLog();
+    return store;
+  }
+
+  /**
+   * @return The record of this file, or null if it was not backed up here.
+   */
+  public FileRecord get(long fileId) {
+    return records.get(fileId);
+  }
+
+  /**
+   * @return A read only, live view of all the records.
+   */
+  public Map<Long, FileRecord> getAll() {
+    return Collections.unmodifiableMap(records);
+  }
+
+  public int size() {
+    return records.size();
+  }
+
+  public synchronized void put(long fileId, FileRecord record) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(PUT);
+    out.writeLong(fileId);
+    record.write(out);
+    append(bytes.toByteArray());
+
+    records.put(fileId, record);
+    compactIfNeeded();
+  }
+
+  public synchronized void remove(long fileId) throws IOException {
+    if (!records.containsKey(fileId))
+      return;
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(REMOVE);
+    out.writeLong(fileId);
+    append(bytes.toByteArray());
+
+    records.remove(fileId);
+    compactIfNeeded();
+  }
+
+  /**
+   * Write the records to a new snapshot and empty the log.
+   */
+  public synchronized void compact() throws IOException {
+    Path partial = snapshotPath.resolveSibling("files.snapshot.partial");
+
+    try (FileOutputStream file = new FileOutputStream(partial.toFile())) {
+      CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(records.size());
+      for (Map.Entry<Long, FileRecord> entry : records.entrySet()) {
+        out.writeLong(entry.getKey());
+        entry.getValue().write(out);
+      }
+      out.writeInt((int) checked.getChecksum().getValue());
+      out.flush();
+      file.getFD().sync();
+    }
+    Files.move(partial, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+    log.truncate(0);
+    log.force(true);
+    logRecords = 0;
+  }
+
+  /**
+   * Compact the store, so the next start only reads the snapshot, and close it.
+   */
+  public synchronized void close() throws IOException {
+    if (logRecords > 0)
+      compact();
+    log.close();
+  }
+
+  private void append(byte[] record) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(record, 0, record.length);
+
+    ByteBuffer buffer = ByteBuffer.allocate(record.length + 4);
+    buffer.put(record).putInt((int) crc.getValue()).flip();
+    while (buffer.hasRemaining())
+      log.write(buffer);
+    if (durable)
+      log.force(false);
+    logRecords++;
+  }
+
+  private void compactIfNeeded() throws IOException {
+    if (logRecords >= COMPACT_MIN_RECORDS && logRecords > records.size() / 2)
+      compact();
+  }
+
+  private static ConcurrentHashMap<Long, FileRecord> loadSnapshot(Path path) throws IOException {
+    if (!Files.exists(path))
+      return new ConcurrentHashMap<>();
+
+    byte[] bytes = Files.readAllBytes(path);
+    ByteBuffer in = ByteBuffer.wrap(bytes);
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, Math.max(bytes.length - 4, 0));
+
+    if (bytes.length < 12 || in.getInt() != SNAPSHOT_MAGIC || in.getInt(bytes.length - 4) != (int) crc.getValue())
+      throw new IOException("Corrupt snapshot " + path);
+
+    int count = in.getInt();
+    ConcurrentHashMap<Long, FileRecord> records = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+    for (int i = 0; i < count; i++) {
+      long fileId = in.getLong();
+      records.put(fileId, FileRecord.read(in));
+    }
+    return records;
+  }
+
+  /**
+   * Apply the log's whole records, cut off a torn one at its end, and open it
+   * for appending.
+   */
+  private void replayLog() throws IOException {
+    byte[] bytes = Files.exists(logPath) ? Files.readAllBytes(logPath) : new byte[0];
+    ByteBuffer in = ByteBuffer.wrap(bytes);
+    CRC32 crc = new CRC32();
+    int valid = 0;
+
+    try {
+      while (in.hasRemaining()) {
+        byte op = in.get();
+        long fileId = in.getLong();
+        FileRecord record = op == PUT ? FileRecord.read(in) : null;
+        if (op != PUT && op != REMOVE)
+          break;
+
+        crc.reset();
+        crc.update(bytes, valid, in.position() - valid);
+        if (in.getInt() != (int) crc.getValue())
+          break;
+
+        if (op == PUT)
+          records.put(fileId, record);
+        else
+          records.remove(fileId);
+        valid = in.position();
+        logRecords++;
+      }
+    } catch (BufferUnderflowException | IOException e) {
+      // a torn record, cut below
+    }
+
+    log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (valid < bytes.length) {
+      log.truncate(valid);
+      log.force(true);
+    }
+    log.position(valid);
+  }
+}
@@ -0,0 +1,224 @@
+package dbs.filesystem;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(2^8), in pure Java.
+ *
+ * A stripe of k data fragments is extended with m parity fragments, all of the
+ * same length, such that any k of the k + m fragments are enough to rebuild the
+ * data fragments. The data fragments are stored as they are, and each parity
+ * fragment is a linear combination of the data fragments, given by a Cauchy
+ * matrix: every k x k submatrix of [identity; cauchy] is invertible, which is
+ * what makes any k fragments sufficient.
+ *
+ * Multiplication goes through a full 256 x 256 product table, so the inner
+ * loops are a table lookup and a xor per byte.
+ */
+public final class ReedSolomon {
+
+  /**
+   * The field has 256 elements, which bounds k + m.
+   */
+  public static final int MAX_FRAGMENTS = 256;
+
+  // x^8 + x^4 + x^3 + x^2 + 1
+  private static final int POLYNOMIAL = 0x11d;
+
+  private static final byte[] EXP = new byte[2 * 255];
+  private static final int[] LOG = new int[256];
+  private static final byte[] PRODUCTS = new byte[256 * 256];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < 255; i++) {
+      EXP[i] = EXP[i + 255] = (byte) x;
+      LOG[x] = i;
+      x <<= 1;
+      if (x >= 256)
+        x ^= POLYNOMIAL;
+    }
+    for (int a = 1; a < 256; a++)
+      for (int b = 1; b < 256; b++)
+        PRODUCTS[(a << 8) | b] = EXP[LOG[a] + LOG[b]];
+  }
+
+  private final int dataFragments;
+  private final int parityFragments;
+  // parity[i][j] is the coefficient of data fragment j in parity fragment i
+  private final int[][] parity;
+
+  public ReedSolomon(int dataFragments, int parityFragments) {
+    if (dataFragments < 1 || parityFragments < 0 || dataFragments + parityFragments > MAX_FRAGMENTS)
+      throw new IllegalArgumentException("Invalid erasure code " + dataFragments + "+" + parityFragments);
+
+    this.dataFragments = dataFragments;
+    this.parityFragments = parityFragments;
+    this.parity = new int[parityFragments][dataFragments];
+
+    // 1 / (x_i + y_j), with x_i = k + i and y_j = j all distinct
+    for (int i = 0; i < parityFragments; i++)
+      for (int j = 0; j < dataFragments; j++)
+        parity[i][j] = inverse((dataFragments + i) ^ j);
+  }
+
+  public int getDataFragments() {
+    return dataFragments;
+  }
+
+  public int getParityFragments() {
+    return parityFragments;
+  }
+
+  public int getTotalFragments() {
+    return dataFragments + parityFragments;
+  }
+
+  /**
+   * Compute the parity fragments of a stripe.
+   *
+   * @param fragments The k data fragments followed by the m parity fragments,
+   *                  all at least length bytes long. The parity fragments are
+   *                  overwritten.
+   * @param length    The number of bytes of each fragment to encode.
+   */
+  public void encode(byte[][] fragments, int length) {
+    assert fragments.length == getTotalFragments();
+
+    for (int i = 0; i < parityFragments; i++)
+      combine(parity[i], fragments, fragments[dataFragments + i], length);
+  }
+
+  /**
+   * Rebuild the missing data fragments of a stripe from the fragments present.
+   * Missing parity fragments are left missing.
+   *
+   * @param fragments The k + m fragments of the stripe, null where missing. The
+   *                  missing data fragments are filled in.
+   * @param length    The length of each fragment.
+   * @throws IllegalArgumentException if fewer than k fragments are present.
+   */
+  public void decode(byte[][] fragments, int length) {
+    assert fragments.length == getTotalFragments();
+
+    // Pick the first k fragments present, and the rows of the code they were made with.
+    int[] rows = new int[dataFragments];
+    int present = 0;
+    for (int i = 0; i < fragments.length && present < dataFragments; i++) {
+      if (fragments[i] != null)
+        rows[present++] = i;
+    }
+    if (present < dataFragments)
+      throw new IllegalArgumentException("Need " + dataFragments + " fragments, only " + present + " present");
+
+    boolean complete = true;
+    for (int j = 0; j < dataFragments; j++)
+      complete &= fragments[j] != null;
+    if (complete)
+      return;
+
+    int[][] matrix = new int[dataFragments][];
+    byte[][] inputs = new byte[dataFragments][];
+    for (int r = 0; r < dataFragments; r++) {
+      matrix[r] = row(rows[r]);
+      inputs[r] = fragments[rows[r]];
+    }
+    int[][] decoding = invert(matrix);
+
+    // data fragment j is row j of the inverse applied to the fragments picked
+    for (int j = 0; j < dataFragments; j++) {
+      if (fragments[j] != null)
+        continue;
+      fragments[j] = new byte[length];
+      combine(decoding[j], inputs, fragments[j], length);
+    }
+  }
+
+  /**
+   * output = sum of coefficients[j] * inputs[j], for the first length bytes.
+   */
+  private static void combine(int[] coefficients, byte[][] inputs, byte[] output, int length) {
+    boolean first = true;
+
+    for (int j = 0; j < coefficients.length; j++) {
+      int coefficient = coefficients[j];
+      if (coefficient == 0)
+        continue;
+
+      byte[] input = inputs[j];
+      int table = coefficient << 8;
+      if (first) {
+        for (int p = 0; p < length; p++)
+          output[p] = PRODUCTS[table | (input[p] & 0xff)];
+        first = false;
+      } else {
+        for (int p = 0; p < length; p++)
+          output[p] ^= PRODUCTS[table | (input[p] & 0xff)];
+      }
+    }
+
+    if (first) {
+      for (int p = 0; p < length; p++)
+        output[p] = 0;
+    }
+  }
+
+  /**
+   * @return Row i of the full (k + m) x k code matrix.
+   */
+  private int[] row(int i) {
+    if (i >= dataFragments)
+      return parity[i - dataFragments].clone();
+    int[] identity = new int[dataFragments];
+    identity[i] = 1;
+    return identity;
+  }
+
+  /**
+   * Gauss-Jordan inversion of a square matrix over GF(2^8).
+   */
+  private static int[][] invert(int[][] matrix) {
+    int n = matrix.length;
+    int[][] inverse = new int[n][n];
+    for (int i = 0; i < n; i++)
+      inverse[i][i] = 1;
+
+    for (int col = 0; col < n; col++) {
+      int pivot = col;
+      while (matrix[pivot][col] == 0)
+        pivot++; // the Cauchy construction guarantees a pivot
+
+      int[] swap = matrix[col];
+      matrix[col] = matrix[pivot];
+      matrix[pivot] = swap;
+      swap = inverse[col];
+      inverse[col] = inverse[pivot];
+      inverse[pivot] = swap;
+
+      int scale = inverse(matrix[col][col]);
+      for (int c = 0; c < n; c++) {
+        matrix[col][c] = multiply(matrix[col][c], scale);
+        inverse[col][c] = multiply(inverse[col][c], scale);
+      }
+
+      for (int r = 0; r < n; r++) {
+        int factor = matrix[r][col];
+        if (r == col || factor == 0)
+          continue;
+        for (int c = 0; c < n; c++) {
+          matrix[r][c] ^= multiply(factor, matrix[col][c]);
+          inverse[r][c] ^= multiply(factor, inverse[col][c]);
+        }
+      }
+    }
+
+    return inverse;
+  }
+
+  static int multiply(int a, int b) {
+    return PRODUCTS[(a << 8) | b] & 0xff;
+  }
+
+  static int inverse(int a) {
+    assert a != 0;
+    return EXP[255 - LOG[a]] & 0xff;
+  }
+}
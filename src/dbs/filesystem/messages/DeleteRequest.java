@@ -1,10 +1,8 @@
 package dbs.filesystem.messages;
 
-import java.io.PipedOutputStream;
+public class DeleteRequest extends Request<Void> {
 
-public class DeleteRequest extends Request {
-
-  public DeleteRequest(String filePath, PipedOutputStream pipe) {
-    super(filePath, pipe);
+  public DeleteRequest(String filePath) {
+    super(filePath);
   }
-}
\ No newline at end of file
+}
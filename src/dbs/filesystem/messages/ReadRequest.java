@@ -1,13 +1,15 @@
 package dbs.filesystem.messages;
 
-import java.io.PipedOutputStream;
+/**
+ * Reads one chunk of a file. Completes with the chunk's content, which is shorter
+ * than CHUNK_SIZE only for the last chunk of the file.
+ */
+public class ReadRequest extends Request<byte[]> {
 
-public class ReadRequest extends Request {
+  private long chunkNum;
 
-  private int chunkNum;
-
-  public ReadRequest(String filePath, int chunkNum, PipedOutputStream pipe) {
-    super(filePath, pipe);
+  public ReadRequest(String filePath, long chunkNum) {
+    super(filePath);
     this.chunkNum = chunkNum;
   }
 
@@ -1,22 +1,27 @@
 package dbs.filesystem.messages;
 
-import java.io.PipedOutputStream;
+import java.util.concurrent.CompletableFuture;
 
-public abstract class Request {
+/**
+ * A filesystem operation on a single file. The request's future is completed by
+ * the FileManager as soon as the operation finishes, directly from the I/O
+ * completion handler.
+ */
+public abstract class Request<T> {
 
   protected String filePath;
-  protected PipedOutputStream pipe;
+  protected CompletableFuture<T> future;
 
-  public Request(String filePath, PipedOutputStream pipe) {
+  public Request(String filePath) {
     this.filePath = filePath;
-    this.pipe = pipe;
+    this.future = new CompletableFuture<>();
   }
 
   public String getFilePath() {
     return this.filePath;
   }
 
-  public PipedOutputStream getPipe() {
-    return this.pipe;
+  public CompletableFuture<T> getFuture() {
+    return this.future;
   }
 }
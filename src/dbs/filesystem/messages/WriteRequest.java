@@ -1,20 +1,31 @@
 package dbs.filesystem.messages;
 
-import java.io.PipedOutputStream;
+import dbs.filesystem.Configuration;
 
-public class WriteRequest extends Request {
+/**
+ * Writes one chunk of a file. Completes with the number of bytes written.
+ */
+public class WriteRequest extends Request<Integer> {
 
-  private int chunkNum;
+  private long position;
   private byte[] content;
 
-  public WriteRequest(String filePath, int chunkNum, byte[] content, PipedOutputStream pipe) {
-    super(filePath,pipe);
-    this.chunkNum = chunkNum;
+  public WriteRequest(String filePath, int chunkNum, byte[] content) {
+    this(filePath, (long) chunkNum * Configuration.CHUNK_SIZE, content);
+  }
+
+  /**
+   * Write content at the given byte position instead, for chunks which are not
+   * CHUNK_SIZE long.
+   */
+  public WriteRequest(String filePath, long position, byte[] content) {
+    super(filePath);
+    this.position = position;
     this.content = content;
   }
 
-  public int getChunkNum() {
-    return this.chunkNum;
+  public long getPosition() {
+    return this.position;
   }
 
   public byte[] getContent() {
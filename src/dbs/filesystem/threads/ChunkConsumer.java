@@ -0,0 +1,14 @@
+package dbs.filesystem.threads;
+
+/**
+ * Receives, in order, the chunks of a file read by a Streamer.
+ */
+public interface ChunkConsumer {
+  /**
+   * @param chunkNum  The index of this chunk, starting at 0.
+   * @param numChunks The total number of chunks of the file (at least 1).
+   * @param chunk     The chunk's content, at most CHUNK_SIZE bytes long.
+   * @return false to stop reading the file, true to carry on.
+   */
+  boolean accept(int chunkNum, int numChunks, byte[] chunk);
+}
@@ -1,39 +1,57 @@
 package dbs.filesystem.threads;
 
+import dbs.filesystem.BackupIndex;
 import dbs.filesystem.FileManager;
 import dbs.filesystem.messages.DeleteRequest;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.CompletableFuture;
 
 public class Eraser extends RequestManager implements Runnable {
 
   private final String key;
+  private final CompletableFuture<Void> future;
 
-  public Eraser(String key) throws IOException {
+  public Eraser(String key) {
     super();
     this.key = key;
+    this.future = new CompletableFuture<>();
+  }
+
+  /**
+   * @return A future completed once the file has been deleted.
+   */
+  public CompletableFuture<Void> getFuture() {
+    return this.future;
   }
 
   private DeleteRequest createRequest() {
     String filepath = FileManager.BACKUP_FOLDER + this.key;
-    return new DeleteRequest(filepath, this.outputStream);
+    return new DeleteRequest(filepath);
   }
-  
+
   @Override
   public void run() {
-    FileManager.getInstance().addRequest(this.createRequest());
-    int response = 1;
     try {
-      response = this.inputStream.read();
+      await(FileManager.getInstance().submit(this.createRequest()));
+    } catch (NoSuchFileException e) {
+      // already gone, drop it from the index all the same
+      this.unindex();
+      this.future.completeExceptionally(e);
+      return;
     } catch (IOException e) {
-      response = 0;
+      //Logger.getGlobal().severe("Could not delete file with key " + this.key);
+      this.future.completeExceptionally(e);
+      return;
     }
 
-    /*if(response == 0)
-        Logger.getGlobal().severe("Could not delete " + this.ownership.name() + " file with key " + this.key);
-      else if (response == 1)
-        Logger.getGlobal().info("Successful deletion of " + this.ownership.name() + " file with key " + this.key);
-     */
+    this.unindex();
+    this.future.complete(null);
+  }
 
-    this.closeStreams();
+  private void unindex() {
+    Long fileId = BackupIndex.idOf(this.key);
+    if (fileId != null)
+      FileManager.getInstance().getBackupIndex().remove(fileId);
   }
 }
@@ -0,0 +1,109 @@
+package dbs.filesystem.threads;
+
+import dbs.filesystem.Configuration;
+import dbs.filesystem.ErasureLayout;
+import dbs.filesystem.FileManager;
+import dbs.filesystem.ReedSolomon;
+import dbs.filesystem.messages.ReadRequest;
+import dbs.filesystem.messages.WriteRequest;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * Rebuilds an erasure coded file into the restore folder from the fragments at
+ * hand, stripe by stripe, so only one stripe is held in memory at a time. See
+ * ErasureLayout for how the fragments were made.
+ */
+public class FragmentDecoder extends RequestManager implements Runnable {
+
+  private final String key;
+  private final String[] fragmentPaths;
+  private final ErasureLayout layout;
+  private final CompletableFuture<Void> future;
+
+  /**
+   * @param key           The name of the restored file.
+   * @param fragmentPaths The paths of the fragments, null for those missing. At
+   *                      least dataFragments of them must be present.
+   */
+  public FragmentDecoder(String key, String[] fragmentPaths, ErasureLayout layout) {
+    super();
+    assert fragmentPaths.length == layout.getTotalFragments();
+    this.key = key;
+    this.fragmentPaths = fragmentPaths;
+    this.layout = layout;
+    this.future = new CompletableFuture<>();
+  }
+
+  public CompletableFuture<Void> getFuture() {
+    return this.future;
+  }
+
+  @Override
+  public void run() {
+    try {
+      decode();
+    } catch (IOException | IllegalArgumentException e) {
+      Logger.getGlobal().severe("Could not decode file with key " + this.key + ": " + e.getMessage());
+      this.future.completeExceptionally(e);
+      return;
+    }
+    this.future.complete(null);
+  }
+
+  private void decode() throws IOException {
+    ReedSolomon coder = layout.newCoder();
+    int k = layout.getDataFragments();
+    long size = layout.getFileSize();
+    int numChunks = numChunks(size);
+    int numStripes = (numChunks + k - 1) / k;
+    String filePath = FileManager.RESTORE_FOLDER + this.key;
+
+    ArrayDeque<CompletableFuture<Integer>> inFlight = new ArrayDeque<>();
+
+    for (int stripe = 0; stripe < numStripes; stripe++) {
+      // Read this stripe's chunk of every fragment present. The reads of the
+      // next stripe only start once this one is decoded.
+      byte[][] fragments = new byte[coder.getTotalFragments()][];
+      ArrayList<CompletableFuture<byte[]>> reads = new ArrayList<>();
+      for (int i = 0; i < fragments.length; i++) {
+        if (fragmentPaths[i] == null)
+          reads.add(null);
+        else
+          reads.add(FileManager.getInstance().submit(new ReadRequest(fragmentPaths[i], stripe)));
+      }
+
+      int length = -1;
+      for (int i = 0; i < fragments.length; i++) {
+        if (reads.get(i) == null)
+          continue;
+        fragments[i] = await(reads.get(i));
+        if (length != -1 && fragments[i].length != length)
+          throw new IOException("Fragments of different lengths at stripe " + stripe);
+        length = fragments[i].length;
+      }
+
+      coder.decode(fragments, length);
+
+      for (int j = 0; j < k; j++) {
+        long offset = ((long) stripe * k + j) * Configuration.CHUNK_SIZE;
+        // an empty file still has its one empty chunk
+        if (offset > 0 && offset >= size)
+          break;
+        int chunkLength = (int) Math.min(Configuration.CHUNK_SIZE, size - offset);
+        byte[] chunk = chunkLength == fragments[j].length ? fragments[j] : Arrays.copyOf(fragments[j], chunkLength);
+
+        if (inFlight.size() == Configuration.MAX_CHUNKS_IN_FLIGHT)
+          await(inFlight.poll());
+        inFlight.add(FileManager.getInstance().submit(new WriteRequest(filePath, stripe * k + j, chunk)));
+      }
+    }
+
+    while (!inFlight.isEmpty())
+      await(inFlight.poll());
+  }
+}
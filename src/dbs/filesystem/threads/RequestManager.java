@@ -1,28 +1,72 @@
 package dbs.filesystem.threads;
 
 import dbs.filesystem.Configuration;
+import dbs.filesystem.FileManager;
+import dbs.filesystem.messages.ReadRequest;
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.util.logging.Logger;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public class RequestManager {
 
-  protected PipedOutputStream outputStream;
-  protected PipedInputStream inputStream;
-
-  protected RequestManager() throws IOException {
-    this.outputStream = new PipedOutputStream();
-    this.inputStream = new PipedInputStream(this.outputStream, Configuration.CHUNK_SIZE);
+  /**
+   * @param size A file size in bytes.
+   * @return The number of chunks the file is split into. Empty files have one empty chunk.
+   */
+  public static int numChunks(long size) {
+    if (size == 0)
+      return 1;
+    return (int) ((size + Configuration.CHUNK_SIZE - 1) / Configuration.CHUNK_SIZE);
   }
 
-  protected void closeStreams() {
+  /**
+   * Wait for a filesystem request to complete.
+   */
+  protected static <T> T await(CompletableFuture<T> future) throws IOException {
     try {
-      this.outputStream.close();
-      this.inputStream.close();
-    } catch (IOException e) {
-      Logger.getGlobal().severe("Could not close the pipe streams");
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a filesystem request");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException(e.getCause());
     }
   }
-}
 
+  /**
+   * Read the file chunk by chunk, handing the chunks to the consumer in order.
+   * Up to MAX_CHUNKS_IN_FLIGHT reads are kept in flight, so the next chunks are
+   * read from disk while the current one is being consumed.
+   *
+   * @return The number of chunks consumed, fewer than the file's if the consumer
+   *         stopped early.
+   */
+  protected static int streamChunks(String filePath, ChunkConsumer consumer) throws IOException {
+    long size = Files.size(Paths.get(filePath));
+    int numChunks = numChunks(size);
+
+    ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+    int nextChunk = 0;
+
+    for (int chunkNum = 0; chunkNum < numChunks; chunkNum++) {
+      for (; nextChunk < numChunks && nextChunk < chunkNum + Configuration.MAX_CHUNKS_IN_FLIGHT; nextChunk++) {
+        if (size == 0)
+          inFlight.add(CompletableFuture.completedFuture(new byte[0]));
+        else
+          inFlight.add(FileManager.getInstance().submit(new ReadRequest(filePath, nextChunk)));
+      }
+
+      byte[] chunk = await(inFlight.poll());
+      if (!consumer.accept(chunkNum, numChunks, chunk))
+        return chunkNum + 1;
+    }
+
+    return numChunks;
+  }
+}
@@ -0,0 +1,49 @@
+package dbs.filesystem.threads;
+
+import dbs.filesystem.Configuration;
+import dbs.filesystem.FileManager;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads a file chunk by chunk, handing each chunk to a ChunkConsumer as soon as
+ * it comes off the disk. Unlike the Reader, the file is never held in memory as
+ * a whole, so memory use is bounded by a few chunks regardless of the file size.
+ *
+ * The future completes with the number of chunks consumed, or exceptionally if
+ * the file could not be read.
+ */
+public class Streamer extends RequestManager implements Runnable {
+
+  private final String key;
+  private final ChunkConsumer consumer;
+  private final CompletableFuture<Integer> future;
+  private final Configuration.Operation operation;
+
+  public Streamer(String key, ChunkConsumer consumer, CompletableFuture<Integer> future,
+      Configuration.Operation operation) {
+    super();
+    this.key = key;
+    this.consumer = consumer;
+    this.future = future;
+    this.operation = operation;
+  }
+
+  private String getFilePath() {
+    if (this.operation == Configuration.Operation.BACKUP)
+      return this.key;
+    return FileManager.BACKUP_FOLDER + this.key;
+  }
+
+  @Override
+  public void run() {
+    int numChunks;
+    try {
+      numChunks = streamChunks(this.getFilePath(), this.consumer);
+    } catch (IOException e) {
+      this.future.completeExceptionally(e);
+      return;
+    }
+    this.future.complete(numChunks);
+  }
+}
@@ -1,21 +1,45 @@
 package dbs.filesystem.threads;
 
+import dbs.filesystem.BackupIndex;
 import dbs.filesystem.Configuration;
 import dbs.filesystem.FileManager;
 import dbs.filesystem.messages.WriteRequest;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
 
 public class Writer extends RequestManager implements Runnable {
 
   private final String key;
   private final byte[] content;
   private final Configuration.Operation operation;
+  private final int firstChunk;
+  private final CompletableFuture<Void> future;
 
-  public Writer(String key, byte[] content, Configuration.Operation operation) throws IOException {
+  public Writer(String key, byte[] content, Configuration.Operation operation) {
+    this(key, content, operation, 0);
+  }
+
+  /**
+   * Write content into the file starting at chunk firstChunk, leaving the
+   * remaining chunks of the file untouched. Used to store streamed chunks.
+   */
+  public Writer(String key, byte[] content, Configuration.Operation operation, int firstChunk) {
     super();
     this.key = key;
     this.content = content;
     this.operation = operation;
+    this.firstChunk = firstChunk;
+    this.future = new CompletableFuture<>();
+  }
+
+  /**
+   * @return A future completed once the whole content has been written.
+   */
+  public CompletableFuture<Void> getFuture() {
+    return this.future;
   }
 
   private WriteRequest createRequest(int chunkNum, byte[] content) {
@@ -26,38 +50,42 @@ public class Writer extends RequestManager implements Runnable {
       filePath = FileManager.RESTORE_FOLDER + this.key;
     }
     assert filePath != null;
-    return new WriteRequest(filePath, chunkNum, content, this.outputStream);
+    return new WriteRequest(filePath, chunkNum, content);
   }
 
   @Override
   public void run() {
+    ArrayDeque<CompletableFuture<Integer>> inFlight = new ArrayDeque<>();
+    int numChunks = numChunks(this.content.length);
 
-    for (int i = 0, j = 0; i < this.content.length; i+= Configuration.CHUNK_SIZE, j++)  {
-      int chunkSize = Configuration.CHUNK_SIZE;
-      if (this.content.length - i < Configuration.CHUNK_SIZE) {
-        chunkSize = this.content.length - i;
-      }
-      byte[] chunkBuf = new byte[chunkSize];
-      System.arraycopy(this.content,i,chunkBuf,0, chunkSize);
-
-      FileManager.getInstance().addRequest(this.createRequest(j,chunkBuf));
-      //Logger.getGlobal().info("Writing chunk " + j + " of size " + chunkSize);
+    try {
+      for (int j = 0; j < numChunks; j++) {
+        byte[] chunkBuf = this.content;
+        if (numChunks > 1) {
+          int from = j * Configuration.CHUNK_SIZE;
+          int to = Math.min(from + Configuration.CHUNK_SIZE, this.content.length);
+          chunkBuf = Arrays.copyOfRange(this.content, from, to);
+        }
 
-      int response;
-      try {
-        response = this.inputStream.read();
-      } catch (IOException e) {
-        response = 0;
-      }
-      if(response == 0) {
-        //Logger.getGlobal().severe("Could not write backed up file with key " + this.key);
-        this.closeStreams();
-        return;
+        // The chunks are written concurrently, up to MAX_CHUNKS_IN_FLIGHT at a time.
+        if (inFlight.size() == Configuration.MAX_CHUNKS_IN_FLIGHT)
+          await(inFlight.poll());
+        inFlight.add(FileManager.getInstance().submit(this.createRequest(this.firstChunk + j, chunkBuf)));
       }
-    }
 
-    //Logger.getGlobal().info("Successful writing of backed up file with key " + this.key);
-    this.closeStreams();
+      while (!inFlight.isEmpty())
+        await(inFlight.poll());
+    } catch (IOException e) {
+      Logger.getGlobal().severe("Could not write file with key " + this.key + ": " + e.getMessage());
+      this.future.completeExceptionally(e);
+      return;
+    }
 
+    Long fileId = BackupIndex.idOf(this.key);
+    if (this.operation == Configuration.Operation.BACKUP && fileId != null) {
+      long end = (long) this.firstChunk * Configuration.CHUNK_SIZE + this.content.length;
+      FileManager.getInstance().getBackupIndex().grow(fileId, end);
+    }
+    this.future.complete(null);
   }
 }
@@ -1,180 +1,555 @@
 package dbs.network;
 
-import java.io.BufferedOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-import java.net.SocketException;
-import javax.net.ssl.SSLSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import dbs.chord.Chord;
 import dbs.chord.ChordDispatcher;
 import dbs.chord.ChordLogger;
 import dbs.chord.Node;
 import dbs.chord.NodeInfo;
 import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.FrameReader;
+import dbs.chord.messages.MessageCodec;
 
 /**
- * A ChordListener is launched on an accepted socket connection OR on a created
- * socket connection. The concrete ChordListener implementation may vary as
- * handleMessage() is abstract.
+ * A ChordListener is the state of one TLS connection to another node, either
+ * accepted by our SocketManager OR opened by it to reach a given node. It owns
+ * no thread: its channel is registered on one of the SocketManager's
+ * EventLoops, which drives the TLS handshake, decrypts incoming bytes and
+ * reassembles them into MessageCodec frames, and encrypts and writes queued
+ * outgoing frames whenever the socket can take them.
  *
- * When a ChordListener is created, it will try (after opening the socket stream
- * if not already open) to open the input and output streams. If successful, it
- * is now ready for both input and output operations. It may be the case that
- * another ChordListener has already been registered in the SocketManager, for
- * the same socket address; in that case, the new ChordListener will replace the
- * old one, and inform the old one it should promptly close the connection
- * (todo). All requests for Listeners for the given socket address will then
- * point to the new ChordListener.
+ * Outgoing frames go in one of two lanes. Chord maintenance messages (see
+ * MessageCodec.isControl) go in the control lane, and are written before any
+ * protocol message queued in the data lane, so that stabilization, keep alives
+ * and lookups are never held up behind a peer's backlog of file data. Data
+ * frames larger than a TLS record are written in pieces of a record each (see
+ * MessageCodec.PIECE), and the control lane is polled before every piece, so
+ * at worst a control frame waits for the record of data being written.
+ *
+ * A listener that was accepted does not know its remote node until the first
+ * message arrives. Once it does, it registers itself in the SocketManager. It
+ * may be the case that another ChordListener has already been registered for
+ * the same node; in that case, the new ChordListener will replace the old one,
+ * and the old one is closed. All requests for Listeners for the given node
+ * will then point to the new ChordListener.
  */
-public class ChordListener implements Runnable {
+public class ChordListener implements EventLoop.Handler {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final EventLoop loop;
+    private SelectionKey key;
 
-    private final SSLSocket socket;
-    private ObjectInputStream input;
-    private ObjectOutputStream output;
+    // Only touched on the loop thread.
+    private ByteBuffer netIn, appIn, netOut;
+    private final ArrayDeque<ByteBuffer> wrapping;
+    private ByteBuffer[] sources;
+    private int wrappingBytes = 0;
+    // The data frame being written in pieces, and how much of it is written.
+    private byte[] splitting;
+    private int splitPos;
+    private final FrameReader frames;
+    private boolean started = false;
 
-    private boolean closed = false;
-    private NodeInfo remoteNode;
+    // Outgoing frames, encoded by the senders and written by the loop.
+    private final ConcurrentLinkedQueue<byte[]> control, data;
+    private final AtomicLong queuedBytes;
+    private final AtomicBoolean flushScheduled;
 
-    private Thread thread;
+    // Senders waiting for the queue to drain. Not a monitor, so that waiting
+    // virtual threads (see TaskPools) do not pin their carrier threads.
+    private final ReentrantLock drainLock;
+    private final Condition drained;
+
+    private final CompletableFuture<Boolean> ready;
+    private volatile boolean closed = false;
+    private volatile NodeInfo remoteNode;
 
     /**
-     * Open streams and setup communications on an already opened and connected
-     * Socket, which has been opened by our SocketManager for the given remoteNode.
+     * Setup communications on a channel which our SocketManager is connecting to
+     * the given remoteNode (the channel may still be connecting), or which it has
+     * accepted and has not yet been identified, if remoteNode is null.
      */
-    ChordListener(SSLSocket socket, NodeInfo remoteNode) {
-        this.socket = socket;
-        this.input = null;
-        this.output = null;
+    ChordListener(SocketChannel channel, SSLEngine engine, EventLoop loop, NodeInfo remoteNode) {
+        this.channel = channel;
+        this.engine = engine;
+        this.loop = loop;
+        this.control = new ConcurrentLinkedQueue<>();
+        this.data = new ConcurrentLinkedQueue<>();
+        this.frames = new FrameReader();
+        this.wrapping = new ArrayDeque<>();
+        this.sources = new ByteBuffer[8];
+        this.queuedBytes = new AtomicLong(0);
+        this.flushScheduled = new AtomicBoolean(false);
+        this.drainLock = new ReentrantLock();
+        this.drained = drainLock.newCondition();
+        this.ready = new CompletableFuture<>();
+
+        int packetSize = engine.getSession().getPacketBufferSize();
+        int appSize = engine.getSession().getApplicationBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.netOut = ByteBuffer.allocate(packetSize);
+        this.appIn = ByteBuffer.allocate(appSize);
+
+        this.remoteNode = remoteNode;
+        loop.execute(this::register);
+    }
+
+    boolean isConnected() {
+        return remoteNode != null;
+    }
+
+    NodeInfo getRemoteNode() {
+        return remoteNode;
+    }
 
+    /**
+     * Wait until the TLS handshake completes, at most the given time.
+     *
+     * @return true if the connection is ready to carry messages.
+     */
+    boolean awaitReady(long millis) {
         try {
-            this.output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-            this.output.flush();
-            this.input = new ObjectInputStream(socket.getInputStream());
+            return ready.get(millis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Queue the message to be written to this connection, and return at once:
+     * the loop writes it out later, packed in the same TLS record as whatever
+     * else is queued for this peer by then.
+     *
+     * The message is encoded on the caller's thread. Small messages and Chord
+     * maintenance messages never wait, and the latter skip ahead of the queued
+     * protocol messages. Larger ones (file chunks) wait while more than
+     * SEND_QUEUE_LIMIT bytes are queued, so a fast producer cannot buffer
+     * without bound, but no longer than SEND_WAIT. A peer which can't drain its
+     * queue in that time, or which lets it grow to twice the limit with protocol
+     * messages, is considered stuck and its connection closed. The loop thread
+     * itself never waits.
+     *
+     * @return false if the message could not be queued.
+     */
+    boolean sendMessage(ChordMessage message) {
+        assert remoteNode != null;
+        if (closed)
+            return false;
+
+        byte[] bytes;
+        try {
+            bytes = MessageCodec.encode(message);
         } catch (IOException e) {
-            ChordLogger.socketError(e);
-            finish();
-            return;
+            ChordLogger.ioError(e);
+            return false;
         }
 
-        this.remoteNode = remoteNode;
-        SocketManager.get().setListener(this);
-        this.thread = new Thread(this);
-        this.thread.start();
+        boolean controlLane = MessageCodec.isControl(bytes);
+        boolean small = controlLane || bytes.length <= Chord.SMALL_MESSAGE;
+        if (!small && !loop.inLoop() && queuedBytes.get() > Chord.SEND_QUEUE_LIMIT && !awaitDrained()) {
+            stuck();
+            return false;
+        }
+        if (!controlLane && queuedBytes.get() > 2L * Chord.SEND_QUEUE_LIMIT) {
+            stuck();
+            return false;
+        }
+
+        queuedBytes.addAndGet(bytes.length);
+        (controlLane ? control : data).add(bytes);
+        if (flushScheduled.compareAndSet(false, true))
+            loop.execute(this::scheduledFlush);
+
+        ChordLogger.logOut(message, remoteNode);
+        return true;
     }
 
     /**
-     * Open streams and setup communications on an already opened and connected
-     * Socket, which has been accepted by our SocketManager and has not yet been
-     * identified.
+     * Wait at most SEND_WAIT for the queue to drain below SEND_QUEUE_LIMIT.
+     *
+     * @return true if it did, false on timeout or if the connection was closed.
      */
-    ChordListener(SSLSocket socket) {
-        this.socket = socket;
-        this.input = null;
-        this.output = null;
+    private boolean awaitDrained() {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(Chord.SEND_WAIT);
+        drainLock.lock();
+        try {
+            while (!closed && queuedBytes.get() > Chord.SEND_QUEUE_LIMIT) {
+                if (nanos <= 0)
+                    return false;
+                nanos = drained.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            drainLock.unlock();
+        }
+        return !closed;
+    }
+
+    private void stuck() {
+        if (!closed) {
+            ChordLogger.logSocket("Send queue to " + remoteNode.shortStr() + " is stuck");
+            finish();
+        }
+    }
+
+    public synchronized void finish() {
+        if (remoteNode != null && !closed) {
+            ChordLogger.logSocket("Socket to " + remoteNode.shortStr() + " closed");
+            SocketManager.get().removeListener(this);
+        }
 
+        if (closed)
+            return;
+
+        closed = true;
+        ready.complete(false);
+        signalDrained();
+
+        if (loop.inLoop())
+            close();
+        else
+            loop.execute(this::close);
+    }
+
+    /**
+     * Called by the loop when the channel is ready for some operation.
+     */
+    @Override
+    public void ready(SelectionKey key) {
         try {
-            this.output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-            this.output.flush();
-            this.input = new ObjectInputStream(socket.getInputStream());
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                start();
+            }
+            if (key.isValid() && key.isReadable()) {
+                if (channel.read(netIn) < 0) {
+                    finish();
+                    return;
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                writeNet();
+            }
+            process();
+            flush();
         } catch (IOException e) {
             ChordLogger.socketError(e);
             finish();
-            return;
         }
+    }
 
-        this.thread = new Thread(this);
-        this.thread.start();
+    @Override
+    public void failed(RuntimeException exception) {
+        finish();
     }
 
-    boolean isConnected() {
-        return remoteNode != null;
+    @Override
+    public String toString() {
+        return "ChordListener(" + (remoteNode == null ? "?" : remoteNode.shortStr()) + ")";
     }
 
-    NodeInfo getRemoteNode() {
-        return remoteNode;
+    private void register() {
+        if (closed) {
+            close();
+            return;
+        }
+        try {
+            if (channel.isConnectionPending()) {
+                key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+            } else {
+                key = loop.register(channel, SelectionKey.OP_READ, this);
+                start();
+                process();
+            }
+        } catch (IOException e) {
+            ChordLogger.socketError(e);
+            finish();
+        }
     }
 
-    @Override
-    public void run() {
-        while (true) {
-            if (isClosed())
-                break;
-            try {
-                Object object = input.readObject();
-                if (object != null)
-                    handleMessage((Serializable) object);
-            } catch (EOFException e) {
-                finish();
-                return;
-            } catch (SocketException e) {
-                ChordLogger.socketError(e);
+    private void start() throws SSLException {
+        engine.beginHandshake();
+        started = true;
+    }
+
+    /**
+     * Drive the handshake and decrypt everything available in netIn, handing
+     * every complete frame to handleMessage().
+     */
+    private void process() throws IOException {
+        if (!started)
+            return;
+
+        while (!closed) {
+            HandshakeStatus status = engine.getHandshakeStatus();
+
+            if (status == HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null)
+                    task.run();
+                continue;
+            }
+
+            if (status == HandshakeStatus.NEED_WRAP) {
+                if (!writeNet())
+                    return;
+                SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    finish();
+                    return;
+                }
+                if (!writeNet())
+                    return;
+                continue;
+            }
+
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+
+            switch (result.getStatus()) {
+            case CLOSED:
                 finish();
                 return;
-            } catch (IOException e) {
-                ChordLogger.ioError(e);
-                finish();
+            case BUFFER_UNDERFLOW:
+                if (netIn.position() == netIn.capacity())
+                    netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                checkReady();
                 return;
-            } catch (ClassNotFoundException e) {
-                ChordLogger.external("Received message of unknown class, closing connection: " + e.getMessage());
-                finish();
+            case BUFFER_OVERFLOW:
+                readFrames();
+                if (appIn.position() == appIn.capacity())
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                continue;
+            default:
+                break;
+            }
+
+            readFrames();
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0
+                    && engine.getHandshakeStatus() == status) {
+                checkReady();
                 return;
             }
         }
+    }
 
+    /**
+     * Once the handshake is over, messages queued meanwhile can be written.
+     */
+    private void checkReady() {
+        if (!ready.isDone() && engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) {
+            ready.complete(true);
+        }
     }
 
-    synchronized boolean sendMessage(ChordMessage message) {
-        assert remoteNode != null && output != null;
+    /**
+     * Reassemble frames from the decrypted bytes in appIn.
+     */
+    private void readFrames() throws IOException {
+        appIn.flip();
+        try {
+            while (!closed) {
+                ChordMessage message = frames.next(appIn);
+                if (message == null)
+                    break;
+                handleMessage(message);
+            }
+        } finally {
+            // appIn is left ready for writing, even if a message could not be
+            // handled and the loop closes the connection (see failed()).
+            appIn.compact();
+        }
+    }
 
+    private void scheduledFlush() {
+        flushScheduled.set(false);
         try {
-            output.writeObject(message);
-            output.flush();
-            ChordLogger.logOut(message, remoteNode);
-            return true;
-        } catch (EOFException | SocketException e) {
-            e.printStackTrace();
-            finish();
-            return false;
+            flush();
         } catch (IOException e) {
-            System.err.println(e.getMessage());
-            e.printStackTrace();
-            return false;
+            ChordLogger.socketError(e);
+            finish();
         }
     }
 
-    public synchronized void finish() {
-        if (remoteNode != null && !closed) {
-            ChordLogger.logSocket("Socket to " + remoteNode.shortStr() + " closed");
-            SocketManager.get().removeListener(this);
+    /**
+     * Encrypt and write queued frames until the queue is empty or the socket
+     * would block, in which case we ask the loop to tell us when it's writable.
+     *
+     * Frames are wrapped together: each TLS record carries as many queued
+     * frames as fit in it, so a burst of small messages costs one record and
+     * one write instead of one each. The control lane is polled before every
+     * data frame or piece of one taken.
+     */
+    private void flush() throws IOException {
+        if (closed || key == null || !ready.isDone())
+            return;
+
+        int recordSize = engine.getSession().getApplicationBufferSize();
+
+        while (!closed) {
+            while (wrappingBytes < recordSize) {
+                int taken = takeNext(recordSize);
+                if (taken == 0)
+                    break;
+                wrappingBytes += taken;
+            }
+            if (wrapping.isEmpty())
+                break;
+
+            if (!writeNet())
+                return;
+
+            int count = wrapping.size();
+            sources = wrapping.toArray(sources);
+            SSLEngineResult result = engine.wrap(sources, 0, count, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                finish();
+                return;
+            }
+
+            wrappingBytes -= result.bytesConsumed();
+            while (!wrapping.isEmpty() && !wrapping.peekFirst().hasRemaining())
+                release(wrapping.pollFirst().capacity());
         }
 
-        if (isClosed())
+        if (!writeNet())
             return;
+        if (key.isValid())
+            key.interestOps(SelectionKey.OP_READ);
+    }
 
-        closed = true;
+    /**
+     * Add the next control frame to the frames being wrapped or, if there is
+     * none, the next data frame, or the next piece of one larger than a record.
+     *
+     * @return The bytes added, or 0 if the queue is empty.
+     */
+    private int takeNext(int recordSize) {
+        byte[] next = control.poll();
+        if (next == null && splitting == null) {
+            next = data.poll();
+            if (next == null)
+                return 0;
+            if (next.length > recordSize) {
+                splitting = next;
+                splitPos = 0;
+                next = null;
+            }
+        }
+        if (next != null) {
+            wrapping.add(ByteBuffer.wrap(next));
+            return next.length;
+        }
 
+        // The piece headers are queued as they are made, so that every buffer
+        // wrapped is released alike.
+        int length = Math.min(recordSize - 4, splitting.length - splitPos);
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(MessageCodec.PIECE | length);
+        header.flip();
+        queuedBytes.addAndGet(4);
+        wrapping.add(header);
+        wrapping.add(ByteBuffer.wrap(splitting, splitPos, length).slice());
+        splitPos += length;
+        if (splitPos == splitting.length)
+            splitting = null;
+        return 4 + length;
+    }
+
+    /**
+     * A frame, or a piece of one, of the given size was wrapped: wake up the
+     * senders waiting for room in the queue, if there is enough now.
+     */
+    private void release(int size) {
+        long before = queuedBytes.getAndAdd(-size);
+        if (before > Chord.SEND_QUEUE_LIMIT && before - size <= Chord.SEND_QUEUE_LIMIT)
+            signalDrained();
+    }
+
+    /**
+     * Write out whatever encrypted bytes are in netOut.
+     *
+     * @return true if netOut was emptied; otherwise the loop will call us again
+     *         when the socket is writable.
+     */
+    private boolean writeNet() throws IOException {
+        netOut.flip();
+        channel.write(netOut);
+        boolean empty = !netOut.hasRemaining();
+        netOut.compact();
+
+        if (!empty && key != null && key.isValid())
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return empty;
+    }
+
+    private void signalDrained() {
+        drainLock.lock();
         try {
-            if (input != null && !socket.isInputShutdown())
-                input.close();
-            else if (output != null && !socket.isOutputShutdown())
-                output.close();
-            else if (socket != null && !socket.isClosed())
-                socket.close();
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-            e.printStackTrace();
+            drained.signalAll();
+        } finally {
+            drainLock.unlock();
         }
     }
 
-    private void handleMessage(Serializable object) {
-        if (!(object instanceof ChordMessage)) {
-            ChordLogger.external("Received message not of class ChordMessage (dropped)");
-            return;
+    private static ByteBuffer grow(ByteBuffer buffer, int size) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(size, 2 * buffer.capacity()));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Close the channel, attempting to notify the peer. Runs on the loop.
+     */
+    private void close() {
+        if (key != null)
+            key.cancel();
+        try {
+            if (started) {
+                engine.closeOutbound();
+                netOut.clear();
+                engine.wrap(EMPTY, netOut);
+                netOut.flip();
+                channel.write(netOut);
+            }
+        } catch (IOException e) {
+            // The peer may be gone already, nothing to do about it.
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ChordLogger.socketError(e);
         }
+    }
 
-        ChordMessage message = (ChordMessage) object;
+    private void handleMessage(ChordMessage message) {
         NodeInfo senderNode = message.getSender();
 
         if (senderNode.equals(Node.get().getSelf())) {
@@ -196,11 +571,4 @@ public class ChordListener implements Runnable {
         ChordLogger.logIn(message);
         ChordDispatcher.get().dispatch(message);
     }
-
-    /**
-     * @return true if this listener's socket has already been closed.
-     */
-    private final boolean isClosed() {
-        return socket.isClosed() || closed;
-    }
 }
@@ -0,0 +1,126 @@
+package dbs.network;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import dbs.chord.ChordLogger;
+
+/**
+ * A single network thread multiplexing many channels over one Selector. The
+ * SocketManager keeps a small fixed number of these and spreads the connections
+ * over them, so the number of network threads does not grow with the number of
+ * peers.
+ *
+ * Everything that touches a channel registered here (reads, writes, interest
+ * ops, closing) must run on this loop's thread: other threads hand that work
+ * over with execute().
+ */
+final class EventLoop implements Runnable {
+
+    /**
+     * Whatever is attached to a SelectionKey registered on an EventLoop.
+     */
+    interface Handler {
+        void ready(SelectionKey key);
+
+        /**
+         * ready() threw: give up on the channel, which may be in any state.
+         */
+        void failed(RuntimeException exception);
+    }
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.thread = new Thread(this, name);
+        this.thread.start();
+    }
+
+    /**
+     * @return true if the caller is running on this loop's thread.
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run the task on this loop's thread, as soon as it is done with the current
+     * round of ready channels.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Register the channel with this loop's selector. Must be called on the loop.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        assert inLoop();
+        return channel.register(selector, ops, handler);
+    }
+
+    void shutdown() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                ChordLogger.socketError(e);
+                break;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    ChordLogger.logSevere("Network task failed: " + describe(e));
+                }
+            }
+
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                if (!key.isValid())
+                    continue;
+                Handler handler = (Handler) key.attachment();
+                try {
+                    handler.ready(key);
+                } catch (RuntimeException e) {
+                    ChordLogger.logSevere("Network handler " + handler + " failed: " + describe(e));
+                    handler.failed(e);
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            ChordLogger.socketError(e);
+        }
+    }
+
+    /**
+     * @return The exception and where it was thrown.
+     */
+    private static String describe(RuntimeException exception) {
+        StackTraceElement[] trace = exception.getStackTrace();
+        return exception + (trace.length > 0 ? " at " + trace[0] : "");
+    }
+}
@@ -1,28 +1,39 @@
 package dbs.network;
 
 import java.io.IOException;
-import java.math.BigInteger;
-import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ConcurrentHashMap;
-import javax.net.ssl.SSLServerSocket;
-import javax.net.ssl.SSLServerSocketFactory;
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import dbs.chord.Chord;
 import dbs.chord.ChordLogger;
 import dbs.chord.NodeInfo;
 import dbs.chord.messages.ChordMessage;
 
+/**
+ * Holds this node's connections to other nodes, at most one per node, and
+ * opens new ones on demand.
+ *
+ * All sockets are non-blocking and multiplexed over a fixed pool of
+ * Chord.NETWORK_LOOPS EventLoops, the first of which also accepts incoming
+ * connections, so the number of network threads stays the same no matter how
+ * many peers this node is connected to.
+ */
 public class SocketManager {
 
-    private final ConcurrentHashMap<BigInteger, ChordListener> listeners;
-    private final SSLServerSocket server;
-    private final SSLSocketFactory factory;
+    private final ConcurrentHashMap<Long, ChordListener> listeners;
+    private final ServerSocketChannel server;
+    private final SSLContext serverContext;
+    private final SSLContext clientContext;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop;
 
     private static SocketManager instance;
-    private Accepter accepterRunner;
-    private Thread accepterThread;
 
     private volatile boolean poisoned = false;
 
@@ -30,37 +41,36 @@ public class SocketManager {
         return instance;
     }
 
-    public static SocketManager create(InetSocketAddress serverAddress, SSLServerSocketFactory serverFactory,
-            SSLSocketFactory socketFactory) throws IOException {
-        return new SocketManager(serverAddress, serverFactory, socketFactory);
+    public static SocketManager create(InetSocketAddress serverAddress, SSLContext serverContext,
+            SSLContext clientContext) throws IOException {
+        return new SocketManager(serverAddress, serverContext, clientContext);
     }
 
-    private SocketManager(InetSocketAddress serverAddress, SSLServerSocketFactory serverFactory,
-            SSLSocketFactory socketFactory) throws IOException {
+    private SocketManager(InetSocketAddress serverAddress, SSLContext serverContext, SSLContext clientContext)
+            throws IOException {
         assert instance == null;
 
-        int port = serverAddress.getPort();
-        InetAddress address = serverAddress.getAddress();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(serverAddress, 15);
+        this.server.configureBlocking(false);
 
-        this.server = (SSLServerSocket) serverFactory.createServerSocket(port, 15, address);
-        this.server.setNeedClientAuth(true);
-        
         this.listeners = new ConcurrentHashMap<>();
-        this.factory = socketFactory;
+        this.serverContext = serverContext;
+        this.clientContext = clientContext;
+        this.nextLoop = new AtomicInteger(0);
+        this.loops = new EventLoop[Chord.NETWORK_LOOPS];
+        for (int i = 0; i < loops.length; ++i)
+            loops[i] = new EventLoop("network-" + i);
         instance = this;
 
         dumpServer();
-        //Runtime.getRuntime().addShutdownHook(new ShutdownSocket());
-        // ^ not working because of .interrupt()
 
-        accepterThread = new Thread(new Accepter());
-        accepterThread.start();
+        loops[0].execute(new Accepter());
     }
 
     /**
-     * Attempts to send a serializable message to the socket of this peer.
-     * Otherwise, attempts to create a new socket connected to the given node's
-     * server address.
+     * Attempts to send a message to the socket of this peer. Otherwise, attempts
+     * to create a new socket connected to the given node's server address.
      */
     public boolean sendMessage(NodeInfo remoteNode, ChordMessage message) {
         if (poisoned)
@@ -97,6 +107,14 @@ public class SocketManager {
         listeners.remove(listener.getRemoteNode().getChordId(), listener);
     }
 
+    /**
+     * @return true if a connection to the remote node is open (or opening), so
+     *         that it has not been found gone since.
+     */
+    public boolean isOpen(NodeInfo remoteNode) {
+        return listeners.containsKey(remoteNode.getChordId());
+    }
+
     public boolean tryOpen(NodeInfo remoteNode) {
         if (listeners.containsKey(remoteNode.getChordId()))
             return true;
@@ -104,22 +122,51 @@ public class SocketManager {
         return open(remoteNode) != null;
     }
 
-    private synchronized ChordListener open(NodeInfo remoteNode) {
+    /**
+     * Open a connection to the remote node, and wait for its handshake to
+     * complete unless we are on a network thread (which must never wait for
+     * itself); the messages sent meanwhile are written once it does.
+     */
+    private ChordListener open(NodeInfo remoteNode) {
         if (poisoned)
             throw new IllegalStateException();
 
+        ChordListener listener;
+        synchronized (this) {
+            listener = listeners.get(remoteNode.getChordId());
+            if (listener == null) {
+                listener = connect(remoteNode);
+                if (listener == null)
+                    return null;
+                listeners.put(remoteNode.getChordId(), listener);
+            }
+        }
+
+        for (EventLoop loop : loops)
+            if (loop.inLoop())
+                return listener;
+
+        if (!listener.awaitReady(Chord.CONNECT_WAIT)) {
+            ChordLogger.logSocket("Failed to connect to socket " + remoteNode.getServerAddress());
+            listener.finish();
+            return null;
+        }
+        return listener;
+    }
+
+    private ChordListener connect(NodeInfo remoteNode) {
         InetAddress address = remoteNode.getIp();
         int port = remoteNode.getPort();
 
         try {
-            SSLSocket socket = (SSLSocket) factory.createSocket(address, port);
-            String[] cipherSuites = socket.getSupportedCipherSuites();
-            socket.setEnabledCipherSuites(cipherSuites);
-            socket.startHandshake();
-            ChordListener listener = new ChordListener(socket, remoteNode);
-            return listener;
-        } catch (ConnectException e) {
-            ChordLogger.logSocket("Failed to connect to socket " + address + ":" + port);
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(address, port));
+
+            SSLEngine engine = clientContext.createSSLEngine(address.getHostAddress(), port);
+            engine.setUseClientMode(true);
+            engine.setEnabledCipherSuites(engine.getSupportedCipherSuites());
+            return new ChordListener(channel, engine, nextLoop(), remoteNode);
         } catch (IOException e) {
             ChordLogger.socketError(e);
         }
@@ -127,13 +174,17 @@ public class SocketManager {
         return null;
     }
 
+    private EventLoop nextLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
     public void dumpServer() {
         StringBuilder builder = new StringBuilder();
 
         builder.append("\nSocketManager's server bound to");
-        builder.append("\n  address: " + server.getInetAddress());
-        builder.append("\n  port:    " + server.getLocalPort());
-        for (BigInteger chordId : listeners.keySet()) {
+        builder.append("\n  address: " + server.socket().getInetAddress());
+        builder.append("\n  port:    " + server.socket().getLocalPort());
+        for (long chordId : listeners.keySet()) {
             ChordListener listener = listeners.get(chordId);
             builder.append("\nlistener on node " + chordId);
             builder.append("\nconnected:" + listener.isConnected() + ", " + listener.getRemoteNode());
@@ -148,53 +199,63 @@ public class SocketManager {
     }
 
     public void shutdown() {
+        poisoned = true;
         try {
-            poisoned = true;
-            accepterThread.interrupt();
-            accepterThread.join();
-            for (ChordListener listener : listeners.values()) {
-                listener.finish();
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            server.close();
+        } catch (IOException e) {
+            ChordLogger.socketError(e);
+        }
+        for (ChordListener listener : listeners.values()) {
+            listener.finish();
+        }
+        for (EventLoop loop : loops) {
+            loop.execute(loop::shutdown);
         }
     }
 
-    private class Accepter implements Runnable {
+    /**
+     * Accepts incoming connections on the first loop.
+     */
+    private class Accepter implements Runnable, EventLoop.Handler {
 
-        private Accepter() {
-            accepterRunner = this;
+        @Override
+        public void run() {
+            try {
+                loops[0].register(server, SelectionKey.OP_ACCEPT, this);
+            } catch (IOException e) {
+                ChordLogger.socketError(e);
+            }
         }
 
         @Override
-        public void run() {
+        public void ready(SelectionKey key) {
             while (!poisoned) {
-                if (server.isClosed())
-                    break;
                 try {
-                    SSLSocket socket = (SSLSocket) server.accept();
-                    String[] cipherSuites = socket.getSupportedCipherSuites();
-                    socket.setEnabledCipherSuites(cipherSuites);
-                    socket.startHandshake();
-                    if (socket == null)
-                        continue;
-                    new ChordListener(socket);
+                    SocketChannel channel = server.accept();
+                    if (channel == null)
+                        return;
+                    channel.configureBlocking(false);
+
+                    SSLEngine engine = serverContext.createSSLEngine();
+                    engine.setUseClientMode(false);
+                    engine.setNeedClientAuth(true);
+                    engine.setEnabledCipherSuites(engine.getSupportedCipherSuites());
+                    new ChordListener(channel, engine, nextLoop(), null);
                 } catch (IOException e) {
-                    e.printStackTrace();
-                    if (server.isClosed())
-                        break;
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    ChordLogger.socketError(e);
+                    return;
                 }
             }
         }
-    }
 
-    private class ShutdownSocket extends Thread {
+        @Override
+        public void failed(RuntimeException exception) {
+            // Only the connection being accepted is lost, keep accepting.
+        }
 
         @Override
-        public void run() {
-            shutdown();
+        public String toString() {
+            return "Accepter";
         }
     }
 }
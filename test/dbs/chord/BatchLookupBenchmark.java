@@ -0,0 +1,119 @@
+package dbs.chord;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import dbs.Dbs;
+
+/**
+ * Batch lookups against one lookup per key: launches a ring of node processes
+ * on this machine as ChurnBenchmark does, joins it as one more node, and looks
+ * up the R offsets of random file ids, as a backup would, both ways. Neither
+ * goes through the lookup cache. Reports how long it took until every key of a
+ * file was resolved, whether both ways agree, and how many lookup messages were
+ * sent in the ring, counted from the nodes' logs. Not a test: run it from the
+ * project's main directory (for the certificates) with
+ *
+ * java -cp out:test-out dbs.chord.BatchLookupBenchmark [nodes] [R] [files]
+ */
+public class BatchLookupBenchmark {
+
+  private static final String ADDRESS = "127.0.0.1";
+  private static final int FIRST_PORT = 29700;
+  private static final int STABILIZE_SECONDS = 30;
+
+  private static final Pattern SENT_LOOKUP = Pattern.compile("^\\[OUT\\]\\s+LOOKUP\\(([0-9.]+%), source node\\([0-9.]+%, (\\d+)\\)\\)");
+  private static final Pattern GOT_RESPONSIBLE = Pattern.compile("^\\[IN\\]\\s+RESPONSIBLE\\(([0-9.]+%)\\)");
+  private static final Pattern SENT_BATCH = Pattern.compile("^\\[OUT\\]\\s+BATCH(LOOKUP|RESPONSIBLE)\\(");
+
+  public static void main(String[] args) throws Exception {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+    int R = args.length > 1 ? Integer.parseInt(args[1]) : 78;
+    int files = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    Path logs = Files.createTempDirectory("dbs-batch");
+    PrintStream report = System.out;
+
+    List<Process> processes = new ArrayList<>();
+    long firstId = Chord.consistentHash(new InetSocketAddress(ADDRESS, FIRST_PORT));
+    for (int i = 0; i < nodes - 1; i++) {
+      int port = FIRST_PORT + i;
+      if (i == 0)
+        processes.add(ChurnBenchmark.launch(logs, "create", ADDRESS, "" + port));
+      else
+        processes.add(ChurnBenchmark.launch(logs, "join", ADDRESS, "" + port, "" + firstId, ADDRESS, "" + FIRST_PORT));
+      Thread.sleep(1000);
+    }
+
+    int selfPort = FIRST_PORT + nodes - 1;
+    System.setOut(new PrintStream(new FileOutputStream(logs.resolve("" + selfPort).toFile()), true));
+    Dbs.main(new String[] { "join", ADDRESS, "" + selfPort, "" + firstId, ADDRESS, "" + FIRST_PORT });
+
+    report.printf("%d nodes, logs in %s, stabilizing for %ds%n", nodes, logs, STABILIZE_SECONDS);
+    Thread.sleep(STABILIZE_SECONDS * 1000);
+
+    Set<String> singleKeys = new HashSet<>();
+    long singleNanos = 0, batchNanos = 0;
+    int singleFailed = 0, batchFailed = 0, disagree = 0;
+    for (int f = 0; f < files; f++) {
+      long[] ids = Chord.offsets(ThreadLocalRandom.current().nextLong() & Chord.mask, R);
+
+      long start = System.nanoTime();
+      List<CompletableFuture<NodeInfo>> singles = new ArrayList<>();
+      for (long chordId : ids)
+        singles.add(Node.get().lookupRecursive(chordId));
+      CompletableFuture.allOf(singles.toArray(new CompletableFuture<?>[0])).join();
+      singleNanos += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Map<Long, CompletableFuture<NodeInfo>> batch = Node.get().lookupBatch(ids);
+      CompletableFuture.allOf(batch.values().toArray(new CompletableFuture<?>[0])).join();
+      batchNanos += System.nanoTime() - start;
+
+      for (int i = 0; i < ids.length; i++) {
+        NodeInfo single = singles.get(i).join(), batched = batch.get(ids[i]).join();
+        singleFailed += single == null ? 1 : 0;
+        batchFailed += batched == null ? 1 : 0;
+        disagree += single != null && batched != null && !single.equals(batched) ? 1 : 0;
+        singleKeys.add(Chord.percentStr(ids[i]));
+      }
+      Thread.sleep(200);
+    }
+
+    Thread.sleep(1000);
+    for (Process process : processes)
+      process.destroyForcibly();
+
+    // Every LOOKUP hop, and every RESPONSIBLE, for the keys of this node's single lookups.
+    int singleMessages = 0, batchMessages = 0;
+    for (Path log : Files.newDirectoryStream(logs)) {
+      for (String line : Files.readAllLines(log)) {
+        Matcher lookup = SENT_LOOKUP.matcher(line), responsible = GOT_RESPONSIBLE.matcher(line);
+        if (lookup.find() && lookup.group(2).equals("" + selfPort) && singleKeys.contains(lookup.group(1)))
+          singleMessages++;
+        else if (responsible.find() && log.endsWith("" + selfPort) && singleKeys.contains(responsible.group(1)))
+          singleMessages++;
+        else if (SENT_BATCH.matcher(line).find())
+          batchMessages++;
+      }
+    }
+
+    report.printf("%d files of %d copies%n", files, R);
+    report.printf("one lookup per key: %5.1f messages, %6.1fms per file, %d keys failed%n",
+        (double) singleMessages / files, singleNanos / 1e6 / files, singleFailed);
+    report.printf("batch lookup:       %5.1f messages, %6.1fms per file, %d keys failed%n",
+        (double) batchMessages / files, batchNanos / 1e6 / files, batchFailed);
+    report.printf("%d keys resolved differently%n", disagree);
+    System.exit(0);
+  }
+}
@@ -0,0 +1,40 @@
+package dbs.chord;
+
+import java.math.BigInteger;
+
+/**
+ * The ring arithmetic of Chord as it was done with BigInteger chord ids, which
+ * the long arithmetic must agree with. Used as a reference by TestChord and
+ * ChordArithmeticBenchmark.
+ */
+final class BigChord {
+
+  static final BigInteger modulus = BigInteger.ONE.shiftLeft(Chord.m);
+
+  private BigChord() {}
+
+  static BigInteger fromDigest(byte[] digest) {
+    return new BigInteger(digest).mod(modulus);
+  }
+
+  static BigInteger relative(BigInteger a, BigInteger b) {
+    return b.subtract(a).mod(modulus);
+  }
+
+  static int compare(BigInteger a, BigInteger b, BigInteger c) {
+    return relative(a, b).compareTo(relative(a, c));
+  }
+
+  static boolean afterOrdered(BigInteger a, BigInteger b, BigInteger c) {
+    BigInteger ab = relative(a, b), ac = relative(a, c);
+    return ab.signum() > 0 && ac.signum() > 0 && ab.compareTo(ac) <= 0;
+  }
+
+  static BigInteger spacing(int i, int R) {
+    return modulus.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(R));
+  }
+
+  static BigInteger offset(BigInteger baseId, int i, int R) {
+    return baseId.add(spacing(i, R)).mod(modulus);
+  }
+}
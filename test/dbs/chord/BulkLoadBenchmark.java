@@ -0,0 +1,265 @@
+package dbs.chord;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import dbs.Dbs;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.KeepAliveMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.observers.TimeoutObserver;
+import dbs.network.SocketManager;
+
+/**
+ * Ring maintenance under bulk load: launches a ring of node processes on this
+ * machine, joins it as one more node, and pings every other node ten times a
+ * second, first while idle, then while this node backs up large files to the
+ * ring as fast as it can. Last, it backs up small files, and a new node joins
+ * right behind this one, which hands it nearly all of its range in TRANSFERBATCH
+ * frames; it pings the new node meanwhile, over the connection the batches go
+ * through. It reports how long the pings took, how many took longer than
+ * CHECK_PREDECESSOR_WAIT, which would have made a node drop us as its
+ * predecessor, and how many predecessors the nodes did drop, although no node
+ * failed. Not a test: run it from the project's main directory (for the
+ * certificates) with
+ *
+ * java -cp out:test-out dbs.chord.BulkLoadBenchmark [nodes] [backup threads] [file MB]
+ */
+public class BulkLoadBenchmark {
+
+  private static final String ADDRESS = "127.0.0.1";
+  private static final int FIRST_PORT = 29700;
+
+  private static final int PINGS_PER_SECOND = 10;
+  private static final int STABILIZE_SECONDS = 20;
+  private static final int IDLE_SECONDS = 10;
+  private static final int LOAD_SECONDS = 30;
+  private static final int HANDOVER_SECONDS = 15;
+  private static final int SMALL_FILES = 1500;
+  private static final int SMALL_FILE_SIZE = 60000;
+  // Ports tried for the new node, for one whose id falls right behind ours
+  private static final int JOIN_PORTS = 2000;
+  private static final int R = 3;
+
+  private static class Ping extends TimeoutObserver {
+    final long sentTime = System.nanoTime();
+    final Pings pings;
+
+    Ping(KeepAliveMessage ping, Pings pings) {
+      super(new RequestKey("ISALIVE", ping.getRequestId()), 3 * Chord.CHECK_PREDECESSOR_WAIT);
+      this.pings = pings;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+      pings.answered(System.nanoTime() - sentTime);
+    }
+
+    @Override
+    public boolean isInline() {
+      return true; // as AliveObserver
+    }
+
+    @Override
+    public void timeout() {
+      pings.lost.incrementAndGet();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    int fileSize = (args.length > 2 ? Integer.parseInt(args[2]) : 8) << 20;
+    Path logs = Files.createTempDirectory("dbs-bulk");
+    Path files = Files.createTempDirectory("dbs-bulk-files");
+
+    List<Process> processes = new ArrayList<>();
+    long firstId = ChurnBenchmark.id(FIRST_PORT);
+    for (int i = 0; i < nodes - 1; i++) {
+      int port = FIRST_PORT + i;
+      if (i == 0)
+        processes.add(ChurnBenchmark.launch(logs, "create", ADDRESS, "" + port));
+      else
+        processes.add(ChurnBenchmark.launch(logs, "join", ADDRESS, "" + port, "" + firstId, ADDRESS, "" + FIRST_PORT));
+      Thread.sleep(1000);
+    }
+
+    // this node's own log goes to a file too
+    PrintStream report = System.out;
+    int selfPort = FIRST_PORT + nodes - 1;
+    System.setOut(new PrintStream(new FileOutputStream(logs.resolve("" + selfPort).toFile()), true));
+    Dbs.main(new String[] { "join", ADDRESS, "" + selfPort, "" + firstId, ADDRESS, "" + FIRST_PORT });
+
+    report.printf("%d nodes, logs in %s, stabilizing for %ds%n", nodes, logs, STABILIZE_SECONDS);
+    Thread.sleep(STABILIZE_SECONDS * 1000);
+    NodeInfo[] peers = new NodeInfo[nodes - 1];
+    for (int i = 0; i < peers.length; i++)
+      peers[i] = new NodeInfo(ChurnBenchmark.id(FIRST_PORT + i), new InetSocketAddress(ADDRESS, FIRST_PORT + i));
+
+    Pings idle = ping(peers, IDLE_SECONDS, null);
+    int idleEvictions = evictions(logs);
+
+    AtomicLong backedUp = new AtomicLong();
+    Thread[] backups = new Thread[threads];
+    long end = System.nanoTime() + LOAD_SECONDS * 1_000_000_000L;
+    for (int t = 0; t < threads; t++) {
+      backups[t] = new Thread(() -> {
+        byte[] content = new byte[fileSize];
+        for (int n = 0; System.nanoTime() < end; n++) {
+          ThreadLocalRandom.current().nextBytes(content);
+          File file = files.resolve(Thread.currentThread().getName() + "-" + n).toFile();
+          try {
+            Files.write(file.toPath(), content);
+            Dbs.get().backup(file.getPath(), R);
+            backedUp.addAndGet((long) R * fileSize);
+          } catch (IOException e) {
+            e.printStackTrace(report);
+          } finally {
+            file.delete();
+          }
+        }
+      }, "backup" + t);
+    }
+    Pings loaded = ping(peers, LOAD_SECONDS, backups);
+    for (Thread backup : backups)
+      backup.join();
+    int loadEvictions = evictions(logs) - idleEvictions;
+
+    report.printf("backing up %d files of %d bytes%n", SMALL_FILES, SMALL_FILE_SIZE);
+    AtomicInteger nextSmall = new AtomicInteger();
+    for (int t = 0; t < threads; t++) {
+      backups[t] = new Thread(() -> {
+        byte[] content = new byte[SMALL_FILE_SIZE];
+        for (int n; (n = nextSmall.getAndIncrement()) < SMALL_FILES;) {
+          ThreadLocalRandom.current().nextBytes(content);
+          File file = files.resolve("small-" + n).toFile();
+          try {
+            Files.write(file.toPath(), content);
+            Dbs.get().backup(file.getPath(), R);
+          } catch (IOException e) {
+            e.printStackTrace(report);
+          } finally {
+            file.delete();
+          }
+        }
+      }, "small" + t);
+      backups[t].start();
+    }
+    for (Thread backup : backups)
+      backup.join();
+
+    NodeInfo joiner = joiner(nodes);
+    report.printf("node %d joins behind this one%n", joiner.getServerAddress().getPort());
+    processes.add(ChurnBenchmark.launch(logs, "join", ADDRESS, "" + joiner.getServerAddress().getPort(), "" + firstId,
+        ADDRESS, "" + FIRST_PORT));
+    Pings handover = ping(new NodeInfo[] { joiner }, HANDOVER_SECONDS, null);
+    int handoverEvictions = evictions(logs) - idleEvictions - loadEvictions;
+
+    for (Process process : processes)
+      process.destroyForcibly();
+
+    report.printf("idle:          %s, %d predecessors dropped%n", idle, idleEvictions);
+    report.printf("under backups: %s, %d predecessors dropped, %.1f MB/s backed up%n", loaded, loadEvictions,
+        backedUp.get() / 1048576.0 / LOAD_SECONDS);
+    report.printf("handover:      %s, %d predecessors dropped, %s%n", handover, handoverEvictions,
+        transferred(logs.resolve("" + selfPort)));
+    System.exit(0);
+  }
+
+  /**
+   * @return A node to launch, whose id falls between this node's predecessor
+   *         and this node, as close to this node as the ports tried allow.
+   */
+  private static NodeInfo joiner(int nodes) {
+    long selfId = Node.get().getSelf().getChordId();
+    long predecessorId = Node.get().getPredecessor().getChordId();
+    int best = -1;
+    for (int port = FIRST_PORT + nodes; port < FIRST_PORT + nodes + JOIN_PORTS; port++) {
+      long id = ChurnBenchmark.id(port);
+      if (Chord.afterOrdered(predecessorId, id, selfId) && id != selfId
+          && (best < 0 || Chord.relative(id, selfId) < Chord.relative(ChurnBenchmark.id(best), selfId)))
+        best = port;
+    }
+    return new NodeInfo(ChurnBenchmark.id(best), new InetSocketAddress(ADDRESS, best));
+  }
+
+  /**
+   * Ping the peers for the given time, after starting the given threads.
+   */
+  private static Pings ping(NodeInfo[] peers, int seconds, Thread[] load) throws InterruptedException {
+    Pings pings = new Pings();
+    if (load != null)
+      for (Thread thread : load)
+        thread.start();
+
+    for (int tick = 0; tick < seconds * PINGS_PER_SECOND; tick++) {
+      for (NodeInfo peer : peers) {
+        KeepAliveMessage message = new KeepAliveMessage();
+        Ping observer = new Ping(message, pings);
+        ChordDispatcher.get().addObserver(observer);
+        if (!SocketManager.get().sendMessage(peer, message))
+          ChordDispatcher.get().removeObserver(observer);
+      }
+      Thread.sleep(1000 / PINGS_PER_SECOND);
+    }
+
+    // the last pings' answers
+    Thread.sleep(3 * Chord.CHECK_PREDECESSOR_WAIT + 100);
+    return pings;
+  }
+
+  /**
+   * @return What this node's log says it handed over to its new predecessor.
+   */
+  private static String transferred(Path log) throws IOException {
+    String last = "no backups handed over";
+    for (String line : Files.readAllLines(log, StandardCharsets.ISO_8859_1))
+      if (line.contains("Transferred") && line.contains("backups"))
+        last = line.substring(line.indexOf("Transferred"));
+    return last;
+  }
+
+  /**
+   * @return How many times the nodes dropped their predecessor for not answering.
+   */
+  private static int evictions(Path logs) throws IOException {
+    int count = 0;
+    for (File log : logs.toFile().listFiles())
+      for (String line : Files.readAllLines(log.toPath(), StandardCharsets.ISO_8859_1))
+        if (line.contains("Lost connection to predecessor"))
+          count++;
+    return count;
+  }
+
+  private static class Pings {
+    final ConcurrentLinkedQueue<Long> nanos = new ConcurrentLinkedQueue<>();
+    final AtomicInteger lost = new AtomicInteger();
+
+    void answered(long rtt) {
+      nanos.add(rtt);
+    }
+
+    @Override
+    public String toString() {
+      long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+      long slow = Arrays.stream(sorted).filter(rtt -> rtt > Chord.CHECK_PREDECESSOR_WAIT * 1_000_000L).count();
+      if (sorted.length == 0)
+        return lost + " pings lost";
+      return String.format("%d pings, p50 %.1fms, p99 %.1fms, max %.1fms, %d over %dms or lost", sorted.length + lost.get(),
+          sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 99 / 100] / 1e6, sorted[sorted.length - 1] / 1e6,
+          slow + lost.get(), Chord.CHECK_PREDECESSOR_WAIT);
+    }
+  }
+}
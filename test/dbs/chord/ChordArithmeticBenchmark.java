@@ -0,0 +1,82 @@
+package dbs.chord;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Time of the finger scan with which a node picks the next hops of a lookup,
+ * Node.precedingNodes: the fingers and successors between the node and the
+ * key, for random keys, once with long chord ids and once with the BigInteger
+ * ids and arithmetic they replaced. Also checks both pick the same hops. Not a
+ * test: run it (without -ea) with
+ *
+ * java -cp out:test-out dbs.chord.ChordArithmeticBenchmark [lookups]
+ */
+public class ChordArithmeticBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+    Random random = new Random(0);
+
+    // a node of a ring of a thousand, with its fingers and successors
+    long selfId = random.nextLong() & Chord.mask;
+    long[] fingers = new long[Chord.m + Chord.SUCCESSOR_LIST_SIZE];
+    for (int i = 1; i <= Chord.m; i++)
+      fingers[i - 1] = Chord.normalize(Chord.ithFinger(selfId, i) + random.nextInt(1 << 22));
+    for (int s = 0; s < Chord.SUCCESSOR_LIST_SIZE; s++)
+      fingers[Chord.m + s] = Chord.normalize(selfId + (s + 1) * (1L << 22));
+
+    BigInteger bigSelfId = BigInteger.valueOf(selfId);
+    BigInteger[] bigFingers = new BigInteger[fingers.length];
+    for (int i = 0; i < fingers.length; i++)
+      bigFingers[i] = BigInteger.valueOf(fingers[i]);
+
+    long[] keys = new long[lookups];
+    BigInteger[] bigKeys = new BigInteger[lookups];
+    for (int k = 0; k < lookups; k++) {
+      keys[k] = random.nextLong() & Chord.mask;
+      bigKeys[k] = BigInteger.valueOf(keys[k]);
+    }
+
+    for (int round = 0; round < ROUNDS; round++) { // the first rounds warm up
+      long start = System.nanoTime();
+      long hops = 0;
+      for (long key : keys)
+        hops += scan(selfId, fingers, key);
+      long longNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long bigHops = 0;
+      for (BigInteger key : bigKeys)
+        bigHops += scan(bigSelfId, bigFingers, key);
+      long bigNanos = System.nanoTime() - start;
+
+      System.out.printf("round %d: long %.1f ns/lookup, BigInteger %.1f ns/lookup, %s hops%n", round,
+          (double) longNanos / lookups, (double) bigNanos / lookups, hops == bigHops ? "same" : "DIFFERENT");
+    }
+  }
+
+  /**
+   * @return A digest of the hops found, so that the scan is not optimized away
+   *         and both scans can be compared.
+   */
+  private static long scan(long selfId, long[] fingers, long key) {
+    long hops = 0;
+    for (int i = fingers.length - 1; i >= 0; i--) {
+      if (fingers[i] != selfId && Chord.afterOrdered(selfId, fingers[i], key))
+        hops = hops * 31 + i;
+    }
+    return hops;
+  }
+
+  private static long scan(BigInteger selfId, BigInteger[] fingers, BigInteger key) {
+    long hops = 0;
+    for (int i = fingers.length - 1; i >= 0; i--) {
+      if (!fingers[i].equals(selfId) && BigChord.afterOrdered(selfId, fingers[i], key))
+        hops = hops * 31 + i;
+    }
+    return hops;
+  }
+}
@@ -0,0 +1,242 @@
+package dbs.chord;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import dbs.Dbs;
+
+/**
+ * Lookups while nodes fail: launches a ring of node processes on this machine,
+ * joins it as one more node, and looks up random ids at a steady rate, each one
+ * both recursively and iteratively, checking every answer against the nodes
+ * alive. Once the ring is stable it fails some nodes at once: the ones right
+ * after this node, or random ones, which are on the way of other lookups.
+ * They are killed, which closes their connections, or frozen (SIGSTOP), which
+ * leaves them open but silent. It then reports for each kind of lookup how many
+ * failed or were answered wrong, how long until they all succeed again, and
+ * how long they took. Not a test: run it from the project's main directory
+ * (for the certificates) with
+ *
+ * java -cp out:test-out dbs.chord.ChurnBenchmark [nodes] [fails] [successors|random] [kill|freeze]
+ */
+public class ChurnBenchmark {
+
+  private static final String ADDRESS = "127.0.0.1";
+  private static final int FIRST_PORT = 29600;
+
+  private static final int LOOKUPS_PER_SECOND = 50;
+  private static final int STABILIZE_SECONDS = 30;
+  private static final int BEFORE_SECONDS = 10;
+  private static final int AFTER_SECONDS = 30;
+
+  private static final ConcurrentSkipListSet<Long> alive = new ConcurrentSkipListSet<>();
+
+  public static void main(String[] args) throws Exception {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+    int kills = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    boolean random = args.length > 2 && args[2].equals("random");
+    boolean freeze = args.length > 3 && args[3].equals("freeze");
+    Path logs = Files.createTempDirectory("dbs-churn");
+    PrintStream report = System.out;
+
+    // the other nodes, by chord id
+    TreeMap<Long, Process> processes = new TreeMap<>();
+    long firstId = Chord.consistentHash(new InetSocketAddress(ADDRESS, FIRST_PORT));
+    for (int i = 0; i < nodes - 1; i++) {
+      int port = FIRST_PORT + i;
+      if (i == 0)
+        processes.put(firstId, launch(logs, "create", ADDRESS, "" + port));
+      else
+        processes.put(id(port), launch(logs, "join", ADDRESS, "" + port, "" + firstId, ADDRESS, "" + FIRST_PORT));
+      Thread.sleep(1000);
+    }
+
+    // this node's own log goes to a file too
+    int selfPort = FIRST_PORT + nodes - 1;
+    System.setOut(new PrintStream(new FileOutputStream(logs.resolve("" + selfPort).toFile()), true));
+    Dbs.main(new String[] { "join", ADDRESS, "" + selfPort, "" + firstId, ADDRESS, "" + FIRST_PORT });
+    long selfId = Node.get().getSelf().getChordId();
+
+    report.printf("%d nodes, logs in %s, stabilizing for %ds%n", nodes, logs, STABILIZE_SECONDS);
+    Thread.sleep(STABILIZE_SECONDS * 1000);
+
+    // joins may fail, keep the nodes which are responsible for their own id
+    alive.add(selfId);
+    for (long nodeId : new ArrayList<>(processes.keySet())) {
+      NodeInfo node = Node.get().lookup(nodeId).completeOnTimeout(null, Chord.LOOKUP_WAIT, TimeUnit.MILLISECONDS).get();
+      if (node != null && node.getChordId() == nodeId) {
+        alive.add(nodeId);
+      } else {
+        processes.remove(nodeId).destroyForcibly();
+      }
+    }
+    report.printf("%d nodes in the ring%n", alive.size());
+    NavigableSet<Long> ring = new TreeSet<>(alive);
+
+    int seconds = BEFORE_SECONDS + AFTER_SECONDS;
+    Counts recursive = new Counts(seconds), iterative = new Counts(seconds);
+    long start = System.nanoTime();
+    ScheduledExecutorService lookups = new ScheduledThreadPoolExecutor(1);
+    lookups.scheduleAtFixedRate(() -> {
+      // frozen nodes are never replaced, so their keys have no right answer
+      long chordId = ThreadLocalRandom.current().nextLong() & Chord.mask;
+      while (freeze && !alive.contains(responsible(ring, chordId)))
+        chordId = ThreadLocalRandom.current().nextLong() & Chord.mask;
+      recursive.lookup(start, chordId, Node.get().lookupRecursive(chordId));
+      iterative.lookup(start, chordId, Node.get().lookupIterative(chordId));
+    }, 0, 1000 / LOOKUPS_PER_SECOND, TimeUnit.MILLISECONDS);
+
+    // fail the nodes right after this one, or random ones, as if they crashed
+    Thread.sleep(BEFORE_SECONDS * 1000);
+    List<Long> victims = new ArrayList<>();
+    for (Map.Entry<Long, Process> entry : processes.tailMap(selfId, false).entrySet())
+      victims.add(entry.getKey());
+    for (Map.Entry<Long, Process> entry : processes.headMap(selfId, false).entrySet())
+      victims.add(entry.getKey());
+    if (random)
+      Collections.shuffle(victims);
+    victims = victims.subList(0, Math.min(kills, victims.size()));
+    long killTime = System.nanoTime();
+    for (long victimId : victims) {
+      if (freeze)
+        new ProcessBuilder("kill", "-STOP", "" + processes.get(victimId).pid()).start();
+      else
+        processes.get(victimId).destroyForcibly();
+      alive.remove(victimId);
+    }
+    report.printf("%s %d %s of %s%n", freeze ? "froze" : "killed", victims.size(), random ? "random nodes" : "successors",
+        Chord.percentStr(selfId));
+
+    Thread.sleep(AFTER_SECONDS * 1000 + Chord.LOOKUP_WAIT);
+    lookups.shutdownNow();
+    for (Process process : processes.values())
+      process.destroyForcibly();
+
+    report.println("          recursive              iterative");
+    report.println("second    ok  failed  wrong      ok  failed  wrong");
+    for (int s = 0; s < seconds; s++)
+      report.printf("%6d %5d %7d %6d   %5d %7d %6d%n", s - BEFORE_SECONDS, recursive.ok.get(s), recursive.failed.get(s),
+          recursive.wrong.get(s), iterative.ok.get(s), iterative.failed.get(s), iterative.wrong.get(s));
+    report("recursive", recursive, killTime, report);
+    report("iterative", iterative, killTime, report);
+    System.exit(0);
+  }
+
+  private static void report(String name, Counts counts, long killTime, PrintStream report) {
+    int seconds = counts.ok.length();
+    report.printf("%s lookups%n", name);
+    report.printf("  before the failures: %s%n", counts.rate(0, BEFORE_SECONDS));
+    report.printf("  after the failures:  %s%n", counts.rate(BEFORE_SECONDS, seconds));
+    long lastBad = counts.lastBad.get();
+    if (lastBad > killTime)
+      report.printf("  healed %dms after the failures%n", TimeUnit.NANOSECONDS.toMillis(lastBad - killTime));
+    else
+      report.println("  no lookup failed after the failures");
+    report.printf("  answered in %s%n", counts.latencies());
+  }
+
+  static long id(int port) {
+    return Chord.consistentHash(new InetSocketAddress(ADDRESS, port));
+  }
+
+  static Process launch(Path logs, String... args) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add("java");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("dbs.Dbs");
+    for (String arg : args)
+      command.add(arg);
+
+    File log = logs.resolve(args[2]).toFile();
+    return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+  }
+
+  /**
+   * @return The chord id of the node of these responsible for this id.
+   */
+  private static long responsible(NavigableSet<Long> nodes, long chordId) {
+    Long nodeId = nodes.ceiling(chordId);
+    return nodeId != null ? nodeId : nodes.first();
+  }
+
+  /**
+   * Lookups by the second they were sent in, and by how they ended: answered
+   * by the live node responsible, not answered in time, or answered by another.
+   * And how long the good answers took.
+   */
+  private static class Counts {
+
+    final AtomicIntegerArray ok, failed, wrong;
+    final AtomicLong lastBad = new AtomicLong();
+    final ConcurrentLinkedQueue<Long> okNanos = new ConcurrentLinkedQueue<>();
+
+    Counts(int seconds) {
+      ok = new AtomicIntegerArray(seconds);
+      failed = new AtomicIntegerArray(seconds);
+      wrong = new AtomicIntegerArray(seconds);
+    }
+
+    void lookup(long start, long chordId, CompletableFuture<NodeInfo> lookup) {
+      long sentTime = System.nanoTime();
+      int second = (int) TimeUnit.NANOSECONDS.toSeconds(sentTime - start);
+      if (second >= ok.length())
+        return;
+
+      lookup.orTimeout(Chord.LOOKUP_WAIT, TimeUnit.MILLISECONDS).whenComplete((node, e) -> {
+        AtomicIntegerArray counter;
+        if (node == null)
+          counter = failed;
+        else if (node.getChordId() == responsible(alive, chordId))
+          counter = ok;
+        else
+          counter = wrong;
+
+        counter.incrementAndGet(second);
+        if (counter != ok)
+          lastBad.accumulateAndGet(sentTime, Math::max);
+        else
+          okNanos.add(System.nanoTime() - sentTime);
+      });
+    }
+
+    String latencies() {
+      long[] nanos = okNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+      if (nanos.length == 0)
+        return "-";
+      double mean = Arrays.stream(nanos).average().getAsDouble() / 1e6;
+      return String.format("mean %.1fms, p50 %.1fms, p99 %.1fms, max %.1fms", mean, nanos[nanos.length / 2] / 1e6,
+          nanos[nanos.length * 99 / 100] / 1e6, nanos[nanos.length - 1] / 1e6);
+    }
+
+    String rate(int from, int to) {
+      int total = 0, bad = 0;
+      for (int s = from; s < to; s++) {
+        total += ok.get(s) + failed.get(s) + wrong.get(s);
+        bad += failed.get(s) + wrong.get(s);
+      }
+      return String.format("%d lookups, %.1f%% failed or wrong", total, 100.0 * bad / Math.max(1, total));
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package dbs.chord;
+
+import dbs.chord.messages.AliveMessage;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.observers.TimeoutObserver;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of the ChordDispatcher with 10000 observers pending, from 4
+ * threads at once: each one subscribes an observer and then either dispatches
+ * its answer, as when a lookup is answered, or unsubscribes it, as when the
+ * request could not be sent. The pending observers wait either on keys of
+ * their own, or all on the one key the threads use. Then, the time from a
+ * dispatch to its observer's notify(), on the dispatcher's pool and inline.
+ * Not a test: run it with
+ *
+ * java -cp out:test-out dbs.chord.DispatchBenchmark [pending] [threads] [seconds]
+ */
+public class DispatchBenchmark {
+
+  private static final long ONE_KEY = 1L << 40;
+
+  private static class Pending extends TimeoutObserver {
+    Pending(long id) {
+      super(new RequestKey("ISALIVE", id), 600000);
+    }
+
+    @Override
+    public void notify(ChordMessage message) {}
+
+    @Override
+    public void timeout() {}
+  }
+
+  private static class Timed extends TimeoutObserver {
+    final CountDownLatch notified = new CountDownLatch(1);
+    final boolean inline;
+    volatile long notifyTime;
+
+    Timed(long id, boolean inline) {
+      super(new RequestKey("ISALIVE", id), 600000);
+      this.inline = inline;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+      notifyTime = System.nanoTime();
+      notified.countDown();
+    }
+
+    @Override
+    public boolean isInline() {
+      return inline;
+    }
+
+    @Override
+    public void timeout() {}
+  }
+
+  public static void main(String[] args) throws Exception {
+    int pending = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+    Node.create(new InetSocketAddress("localhost", 8094));
+    AtomicLong ids = new AtomicLong(2 * ONE_KEY);
+
+    System.out.printf("%d pending, %d threads%n", pending, threads);
+    for (boolean sameKey : new boolean[] { false, true }) {
+      for (int i = 0; i < pending; i++)
+        ChordDispatcher.get().addObserver(new Pending(sameKey ? ONE_KEY : ONE_KEY + 1 + i));
+
+      for (boolean answer : new boolean[] { true, false }) {
+        if (answer && sameKey)
+          continue; // an answer on the one key would notify every pending observer
+
+        run(ids, sameKey, answer, threads, 1); // warm up
+        double rate = run(ids, sameKey, answer, threads, seconds);
+        System.out.printf("%-32s %-22s %10.0f ops/s%n", sameKey ? "pending on the same key" : "pending on keys of their own",
+            answer ? "subscribe, dispatch" : "subscribe, unsubscribe", rate);
+      }
+    }
+
+    for (boolean inline : new boolean[] { false, true }) {
+      latency(ids, inline, 20000); // warm up
+      long[] nanos = latency(ids, inline, 100000);
+      System.out.printf("dispatch to notify, %-8s p50 %6.1fus, p99 %6.1fus%n", inline ? "inline" : "pooled",
+          nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3);
+    }
+    System.exit(0);
+  }
+
+  private static long[] latency(AtomicLong ids, boolean inline, int n) throws InterruptedException {
+    long[] nanos = new long[n];
+    for (int i = 0; i < n; i++) {
+      long id = ids.getAndIncrement();
+      Timed observer = new Timed(id, inline);
+      ChordDispatcher.get().addObserver(observer);
+      long start = System.nanoTime();
+      ChordDispatcher.get().dispatch(new AliveMessage(id));
+      observer.notified.await();
+      nanos[i] = observer.notifyTime - start;
+    }
+    Arrays.sort(nanos);
+    return nanos;
+  }
+
+  private static double run(AtomicLong ids, boolean sameKey, boolean answer, int threads, int seconds)
+      throws InterruptedException {
+    AtomicLong ops = new AtomicLong();
+    long end = System.nanoTime() + seconds * 1_000_000_000L;
+
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] = new Thread(() -> {
+        long done = 0;
+        while (System.nanoTime() < end) {
+          long id = sameKey ? ONE_KEY : ids.getAndIncrement();
+          Pending observer = new Pending(id);
+          ChordDispatcher.get().addObserver(observer);
+          if (answer)
+            ChordDispatcher.get().dispatch(new AliveMessage(id));
+          else
+            ChordDispatcher.get().removeObserver(observer);
+          done++;
+        }
+        ops.addAndGet(done);
+      });
+      workers[t].start();
+    }
+    for (Thread worker : workers)
+      worker.join();
+
+    return ops.get() / (double) seconds;
+  }
+}
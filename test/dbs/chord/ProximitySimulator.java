@@ -0,0 +1,174 @@
+package dbs.chord;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Lookup latency with and without proximity routing, on a simulated ring with
+ * a delay on every link: the nodes are spread over a 200ms wide plane, so the
+ * one way delay between two of them is half their distance, plus each one's
+ * own access delay of 1 to 20ms. Each node learns the round trip times to its
+ * finger candidates with 10% jitter, as the KEEPALIVEs would. Recursive
+ * lookups are then routed three ways: to the closest preceding finger, as Node
+ * used to; to the finger expected to answer soonest; and the same with fingers
+ * chosen by latency too, as Node does now. A lookup takes the delays of its
+ * hops, plus the answer's way back from the responsible node to the source.
+ * Not a test: run it with
+ *
+ * java -cp out:test-out dbs.chord.ProximitySimulator [nodes] [lookups]
+ */
+public class ProximitySimulator {
+
+  private static final int SAMPLES = 5;
+
+  private static final Random random = new Random(0);
+  private static final TreeMap<Long, Peer> ring = new TreeMap<>();
+
+  private static class Peer {
+    final NodeInfo node;
+    final double x = random.nextDouble() * 200, y = random.nextDouble() * 200;
+    final double access = 1 + random.nextDouble() * 19;
+    final List<Peer> fingers = new ArrayList<>();
+    final List<Peer> fastFingers = new ArrayList<>();
+    final PeerLatency latency = new PeerLatency();
+    NodeInfo[] successors;
+
+    Peer(long chordId, int port) {
+      node = new NodeInfo(chordId, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    long id() {
+      return node.getChordId();
+    }
+
+    double delayTo(Peer other) {
+      return Math.hypot(x - other.x, y - other.y) / 2 + access + other.access;
+    }
+  }
+
+  public static void main(String[] args) {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+    while (ring.size() < nodes) {
+      long chordId = random.nextLong() & Chord.mask;
+      ring.putIfAbsent(chordId, new Peer(chordId, 10000 + ring.size()));
+    }
+
+    for (Peer peer : ring.values()) {
+      List<NodeInfo> successors = new ArrayList<>();
+      for (Peer next = successor(peer.id() + 1); next != peer && successors.size() < Chord.SUCCESSOR_LIST_SIZE;
+          next = successor(next.id() + 1))
+        successors.add(next.node);
+      peer.successors = successors.toArray(new NodeInfo[0]);
+    }
+
+    // exact fingers, and the fastest of their candidates, as FixFingers finds them
+    for (Peer peer : ring.values()) {
+      for (int i = 1; i <= Chord.m; i++) {
+        Peer finger = successor(Chord.ithFinger(peer.id(), i));
+        if (finger == peer)
+          continue;
+
+        long start = Chord.ithFinger(peer.id(), i);
+        long end = i == Chord.m ? peer.id() : Chord.ithFinger(peer.id(), i + 1);
+        List<NodeInfo> candidates = PeerLatency.fingerCandidates(finger.node, finger.successors, start, end);
+        for (NodeInfo candidate : candidates) {
+          for (int s = 0; s < SAMPLES; s++) {
+            double rtt = 2 * peer.delayTo(ring.get(candidate.getChordId())) * (0.9 + 0.2 * random.nextDouble());
+            peer.latency.sample(candidate, (long) (rtt * 1e6));
+          }
+        }
+        Peer fastFinger = ring.get(peer.latency.fastest(candidates).getChordId());
+
+        if (!peer.fingers.contains(finger))
+          peer.fingers.add(finger);
+        if (!peer.fastFingers.contains(fastFinger))
+          peer.fastFingers.add(fastFinger);
+      }
+    }
+
+    String[] strategies = { "closest preceding finger", "hops by latency", "fingers and hops by latency" };
+    double[][] latencies = new double[strategies.length][lookups];
+    long[] hops = new long[strategies.length];
+    Peer[] peers = ring.values().toArray(new Peer[0]);
+    for (int l = 0; l < lookups; l++) {
+      Peer source = peers[random.nextInt(peers.length)];
+      long chordId = random.nextLong() & Chord.mask;
+      for (int strategy = 0; strategy < strategies.length; strategy++) {
+        Peer at = source;
+        double latency = 0;
+        while (true) {
+          Peer next = nextHop(at, chordId, strategy > 0, strategy == 2 ? at.fastFingers : at.fingers);
+          if (next == null)
+            break;
+          latency += at.delayTo(next);
+          hops[strategy]++;
+          at = next;
+        }
+        latencies[strategy][l] = latency + at.delayTo(source);
+      }
+    }
+
+    System.out.printf("%d nodes, %d lookups%n", nodes, lookups);
+    for (int strategy = 0; strategy < strategies.length; strategy++)
+      report(strategies[strategy], latencies[strategy], hops[strategy]);
+  }
+
+  private static Peer successor(long chordId) {
+    chordId = Chord.normalize(chordId);
+    Long peerId = ring.ceilingKey(chordId);
+    return ring.get(peerId != null ? peerId : ring.firstKey());
+  }
+
+  /**
+   * @return The peer a lookup for chordId at peer is forwarded to, as in
+   *         Node.handleLookup, or null if the peer is responsible for it.
+   */
+  private static Peer nextHop(Peer peer, long chordId, boolean proximity, List<Peer> fingers) {
+    if (successor(chordId) == peer)
+      return null;
+
+    Peer successor = ring.get(peer.successors[0].getChordId());
+    if (Chord.afterOrdered(peer.id(), chordId, successor.id()))
+      return successor;
+
+    List<NodeInfo> candidates = new ArrayList<>();
+    for (Peer finger : fingers) {
+      if (Chord.afterOrdered(peer.id(), finger.id(), chordId))
+        candidates.add(finger.node);
+    }
+    for (NodeInfo node : peer.successors) {
+      if (!candidates.contains(node) && Chord.afterOrdered(peer.id(), node.getChordId(), chordId))
+        candidates.add(node);
+    }
+
+    if (proximity) {
+      double ringSize = PeerLatency.estimateRingSize(peer.id(), peer.successors);
+      return ring.get(peer.latency.byExpectedLatency(chordId, candidates, ringSize).get(0).getChordId());
+    }
+
+    NodeInfo closest = candidates.get(0);
+    for (NodeInfo node : candidates) {
+      if (Chord.relative(peer.id(), node.getChordId()) > Chord.relative(peer.id(), closest.getChordId()))
+        closest = node;
+    }
+    return ring.get(closest.getChordId());
+  }
+
+  private static void report(String name, double[] latencies, long hops) {
+    Arrays.sort(latencies);
+    double sum = 0;
+    for (double latency : latencies)
+      sum += latency;
+
+    int n = latencies.length;
+    System.out.printf("%-28s mean %6.1fms  p50 %6.1fms  p90 %6.1fms  p99 %6.1fms  %.2f hops%n", name, sum / n,
+        latencies[n / 2], latencies[n * 9 / 10], latencies[n * 99 / 100], (double) hops / n);
+  }
+}
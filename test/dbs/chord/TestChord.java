@@ -0,0 +1,88 @@
+package dbs.chord;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import java.math.BigInteger;
+import java.util.Random;
+
+public class TestChord {
+
+  // Ids around both ends of the ring, and some in between
+  private static final long[] IDS = { 0, 1, 2, 1L << 31, (1L << 31) - 1, (1L << 31) + 1, Chord.mask - 1, Chord.mask,
+      0x12345678L, 0xdeadbeefL };
+
+  private static BigInteger big(long id) {
+    return BigInteger.valueOf(id);
+  }
+
+  @Test
+  public void testRelative() {
+
+    for (long a : IDS)
+      for (long b : IDS)
+        TestCase.assertEquals(BigChord.relative(big(a), big(b)).longValue(), Chord.relative(a, b));
+
+    // Wrapping around the end of the ring
+    TestCase.assertEquals(1L, Chord.relative(Chord.mask, 0));
+    TestCase.assertEquals(Chord.mask, Chord.relative(1, 0));
+  }
+
+  @Test
+  public void testCompare() {
+
+    for (long a : IDS)
+      for (long b : IDS)
+        for (long c : IDS) {
+          TestCase.assertEquals(BigChord.compare(big(a), big(b), big(c)), Chord.compare(a, b, c));
+          TestCase.assertEquals(BigChord.afterOrdered(big(a), big(b), big(c)), Chord.afterOrdered(a, b, c));
+        }
+
+    Random random = new Random(0);
+    for (int n = 0; n < 100000; n++) {
+      long a = random.nextLong() & Chord.mask, b = random.nextLong() & Chord.mask, c = random.nextLong() & Chord.mask;
+      TestCase.assertEquals(BigChord.compare(big(a), big(b), big(c)), Chord.compare(a, b, c));
+      TestCase.assertEquals(BigChord.afterOrdered(big(a), big(b), big(c)), Chord.afterOrdered(a, b, c));
+    }
+  }
+
+  @Test
+  public void testOffsets() {
+
+    // Every i * 2^m / R, including those R does not divide
+    for (int R = 1; R <= 1000; R++) {
+      for (int i = 0; i < R; i++)
+        TestCase.assertEquals(BigChord.spacing(i, R).longValue(), Chord.spacing(i, R));
+      for (long baseId : IDS) {
+        long[] offsets = Chord.offsets(baseId, R);
+        for (int i = 0; i < R; i++) {
+          TestCase.assertEquals(BigChord.offset(big(baseId), i, R).longValue(), offsets[i]);
+          TestCase.assertEquals(offsets[i], Chord.offset(baseId, i, R));
+        }
+      }
+    }
+
+    // The largest replication degrees, where i * 2^m overflows an int many times over
+    for (int R : new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE - 1, 1 << 30, 3 << 29 })
+      for (int i : new int[] { 1, R / 3, R / 2, R - 1 })
+        TestCase.assertEquals(BigChord.spacing(i, R).longValue(), Chord.spacing(i, R));
+  }
+
+  @Test
+  public void testFromDigest() {
+
+    Random random = new Random(0);
+    for (int n = 0; n < 10000; n++) {
+      byte[] digest = new byte[1 + random.nextInt(40)];
+      random.nextBytes(digest);
+      TestCase.assertEquals(BigChord.fromDigest(digest).longValue(), Chord.fromDigest(digest));
+    }
+
+    // Sign bits, which BigInteger reads as negative numbers
+    byte[] ones = { -1, -1, -1, -1, -1, -1, -1, -1, -1 };
+    TestCase.assertEquals(Chord.mask, Chord.fromDigest(ones));
+    TestCase.assertEquals(BigChord.fromDigest(ones).longValue(), Chord.fromDigest(ones));
+    byte[] high = { (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0 };
+    TestCase.assertEquals(0L, Chord.fromDigest(high));
+    TestCase.assertEquals(BigChord.fromDigest(high).longValue(), Chord.fromDigest(high));
+  }
+}
@@ -0,0 +1,158 @@
+package dbs.chord;
+
+import dbs.chord.messages.AliveMessage;
+import dbs.chord.messages.ChordMessage;
+import dbs.chord.messages.RequestKey;
+import dbs.chord.messages.LookupMessage;
+import dbs.chord.messages.ResponsibleMessage;
+import dbs.chord.observers.ResponsibleObserver;
+import dbs.chord.observers.TimeoutObserver;
+import junit.framework.TestCase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestChordDispatcher {
+
+  private static class Waiting extends TimeoutObserver {
+    final CompletableFuture<ChordMessage> notified = new CompletableFuture<>();
+    final AtomicInteger timeouts = new AtomicInteger();
+    final boolean inline;
+    volatile Thread thread;
+
+    Waiting(long id, int delay) {
+      this(id, delay, false);
+    }
+
+    Waiting(long id, int delay, boolean inline) {
+      super(new RequestKey("ISALIVE", id), delay);
+      this.inline = inline;
+    }
+
+    @Override
+    public void notify(ChordMessage message) {
+      thread = Thread.currentThread();
+      notified.complete(message);
+    }
+
+    @Override
+    public boolean isInline() {
+      return inline;
+    }
+
+    @Override
+    public void timeout() {
+      timeouts.incrementAndGet();
+    }
+  }
+
+  @BeforeClass
+  public static void createNode() {
+    // Messages take their sender from the local node
+    if (Node.get() == null)
+      Node.create(new InetSocketAddress("localhost", 8091));
+  }
+
+  @Test
+  public void testDispatch() throws Exception {
+
+    ChordDispatcher dispatcher = ChordDispatcher.get();
+    int keys = dispatcher.numKeys(), timeouts = dispatcher.numTimeouts();
+    Waiting a = new Waiting(101, 200), b = new Waiting(101, 200);
+    dispatcher.addObserver(a);
+    dispatcher.addObserver(b);
+    TestCase.assertEquals(keys + 1, dispatcher.numKeys());
+
+    // Both are notified once, and their key and timeouts are forgotten
+    dispatcher.dispatch(new AliveMessage(101));
+    TestCase.assertNotNull(a.notified.get(1, TimeUnit.SECONDS));
+    TestCase.assertNotNull(b.notified.get(1, TimeUnit.SECONDS));
+    TestCase.assertEquals(keys, dispatcher.numKeys());
+    TestCase.assertFalse(dispatcher.removeObserver(a));
+    Thread.sleep(50);
+    TestCase.assertEquals(timeouts, dispatcher.numTimeouts());
+
+    Thread.sleep(400);
+    TestCase.assertEquals(0, a.timeouts.get());
+  }
+
+  @Test
+  public void testInline() throws Exception {
+
+    ChordDispatcher dispatcher = ChordDispatcher.get();
+    Waiting a = new Waiting(103, 200, true), b = new Waiting(103, 200);
+    dispatcher.addObserver(a);
+    dispatcher.addObserver(b);
+
+    // Only the inline observer is notified before dispatch returns
+    dispatcher.dispatch(new AliveMessage(103));
+    TestCase.assertTrue(a.notified.isDone());
+    TestCase.assertEquals(Thread.currentThread(), a.thread);
+    TestCase.assertNotNull(b.notified.get(1, TimeUnit.SECONDS));
+    TestCase.assertFalse(Thread.currentThread() == b.thread);
+  }
+
+  @Test
+  public void testInlineFailure() throws Exception {
+
+    ChordDispatcher dispatcher = ChordDispatcher.get();
+    Waiting failing = new Waiting(105, 200, true) {
+      @Override
+      public void notify(ChordMessage message) {
+        throw new IllegalStateException("failing on purpose");
+      }
+    };
+    Waiting b = new Waiting(105, 200, true);
+    dispatcher.addObserver(failing);
+    dispatcher.addObserver(b);
+
+    // What an inline observer throws stays in the dispatcher
+    dispatcher.dispatch(new AliveMessage(105));
+    TestCase.assertTrue(b.notified.isDone());
+    TestCase.assertFalse(dispatcher.removeObserver(failing));
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+
+    ChordDispatcher dispatcher = ChordDispatcher.get();
+    int keys = dispatcher.numKeys();
+    Waiting a = new Waiting(102, 50), b = new Waiting(102, 50);
+    dispatcher.addObserver(a);
+    dispatcher.addObserver(b);
+    TestCase.assertTrue(dispatcher.removeObserver(b));
+
+    Thread.sleep(300);
+    TestCase.assertEquals(1, a.timeouts.get());
+    TestCase.assertEquals(0, b.timeouts.get());
+    TestCase.assertEquals(keys, dispatcher.numKeys());
+  }
+
+  @Test
+  public void testRequestIds() throws Exception {
+
+    ChordDispatcher dispatcher = ChordDispatcher.get();
+    int keys = dispatcher.numKeys();
+    NodeInfo self = Node.get().getSelf();
+    LookupMessage first = new LookupMessage(104L, self), second = new LookupMessage(104L, self);
+    CompletableFuture<NodeInfo> a = new CompletableFuture<>(), b = new CompletableFuture<>();
+    ResponsibleObserver observerA = new ResponsibleObserver(first, a);
+    dispatcher.addObserver(observerA);
+    dispatcher.addObserver(new ResponsibleObserver(second, b));
+    TestCase.assertEquals(keys + 2, dispatcher.numKeys());
+
+    // Lookups of the same key only take their own answers
+    dispatcher.dispatch(new ResponsibleMessage(second, new NodeInfo[] { self }));
+    TestCase.assertEquals(self, b.get(1, TimeUnit.SECONDS));
+    TestCase.assertFalse(a.isDone());
+    TestCase.assertEquals(keys + 1, dispatcher.numKeys());
+
+    dispatcher.dispatch(new ResponsibleMessage(first, new NodeInfo[] { self }));
+    TestCase.assertEquals(self, a.get(1, TimeUnit.SECONDS));
+    TestCase.assertFalse(dispatcher.removeObserver(observerA));
+    TestCase.assertEquals(keys, dispatcher.numKeys());
+  }
+}
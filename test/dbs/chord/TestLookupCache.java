@@ -0,0 +1,71 @@
+package dbs.chord;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import java.net.InetSocketAddress;
+
+public class TestLookupCache {
+
+  private static NodeInfo node(long chordId) {
+    return new NodeInfo(chordId, new InetSocketAddress("127.0.0.1", 9000 + (int) (chordId % 1000)));
+  }
+
+  @Test
+  public void testLearn() {
+
+    LookupCache cache = new LookupCache(16, 60000);
+    NodeInfo a = node(100), b = node(200), c = node(300);
+    cache.learn(50, a, new NodeInfo[] { b, c });
+
+    TestCase.assertEquals(a, cache.get(50));
+    TestCase.assertEquals(a, cache.get(100));
+    TestCase.assertNull(cache.get(49));
+    TestCase.assertEquals(b, cache.get(101));
+    TestCase.assertEquals(c, cache.get(300));
+    TestCase.assertNull(cache.get(301));
+
+    // A range wrapping around the end of the ring
+    NodeInfo d = node(10);
+    cache.put(Chord.mask - 5, d);
+    TestCase.assertEquals(d, cache.get(Chord.mask));
+    TestCase.assertEquals(d, cache.get(0));
+    TestCase.assertEquals(d, cache.get(10));
+  }
+
+  @Test
+  public void testInvalidate() {
+
+    LookupCache cache = new LookupCache(16, 60000);
+    NodeInfo a = node(100), b = node(200), c = node(300);
+    cache.learnSuccessors(0, new NodeInfo[] { a, b, c });
+
+    // A node joined before b: b keeps the ids after it
+    cache.cut(node(150));
+    TestCase.assertNull(cache.get(120));
+    TestCase.assertEquals(b, cache.get(151));
+
+    cache.remove(c);
+    TestCase.assertNull(cache.get(250));
+
+    // Newer news of a node drops the nodes it covers
+    cache.put(0, b);
+    TestCase.assertEquals(b, cache.get(50));
+    TestCase.assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+
+    LookupCache cache = new LookupCache(2, 0);
+    cache.put(0, node(100));
+    Thread.sleep(1);
+    TestCase.assertNull(cache.get(50));
+
+    cache = new LookupCache(2, 60000);
+    cache.put(0, node(100));
+    cache.put(100, node(200));
+    cache.put(200, node(300));
+    TestCase.assertEquals(2, cache.size());
+    TestCase.assertNull(cache.get(50));
+  }
+}
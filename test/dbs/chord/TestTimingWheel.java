@@ -0,0 +1,89 @@
+package dbs.chord;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTimingWheel {
+
+  // Runs the timeouts on the wheel's own thread
+  private static TimingWheel wheel(int size) {
+    return new TimingWheel(Chord.TIMEOUT_TICK, size, Runnable::run);
+  }
+
+  /**
+   * @return How many milliseconds after scheduling the timeout ran.
+   */
+  private static long fire(TimingWheel wheel, long delayMillis) throws Exception {
+    CompletableFuture<Long> ran = new CompletableFuture<>();
+    long start = System.nanoTime();
+    wheel.schedule(new TimingWheel.Timeout(() -> ran.complete(System.nanoTime())), delayMillis);
+    return (ran.get(delayMillis + 10000, TimeUnit.MILLISECONDS) - start) / 1_000_000;
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+
+    TimingWheel wheel = wheel(16);
+    AtomicInteger runs = new AtomicInteger();
+    TimingWheel.Timeout timeout = new TimingWheel.Timeout(runs::incrementAndGet);
+    wheel.schedule(timeout, 100);
+    TestCase.assertEquals(1, wheel.pending());
+
+    // Cancelled before it is due: it never runs, and leaves the wheel
+    TestCase.assertTrue(timeout.cancel());
+    TestCase.assertFalse(timeout.cancel());
+    Thread.sleep(300);
+    TestCase.assertEquals(0, runs.get());
+    TestCase.assertEquals(0, wheel.pending());
+  }
+
+  @Test
+  public void testLaps() throws Exception {
+
+    // Several times around a small wheel, neither early nor a lap late
+    TimingWheel small = wheel(16);
+    long wheelMillis = 16 * Chord.TIMEOUT_TICK;
+    long delay = 3 * wheelMillis + 50;
+    long fired = fire(small, delay);
+    TestCase.assertTrue(fired >= delay);
+    TestCase.assertTrue(fired < delay + wheelMillis);
+
+    // Once around the dispatcher's wheel
+    TimingWheel full = wheel(Chord.TIMEOUT_WHEEL_SIZE);
+    wheelMillis = Chord.TIMEOUT_WHEEL_SIZE * Chord.TIMEOUT_TICK;
+    delay = wheelMillis + 250;
+    fired = fire(full, delay);
+    TestCase.assertTrue(fired >= delay);
+    TestCase.assertTrue(fired < delay + wheelMillis);
+    TestCase.assertEquals(0, full.pending());
+  }
+
+  @Test
+  public void testScheduleOnce() throws Exception {
+
+    TimingWheel wheel = wheel(16);
+    AtomicInteger runs = new AtomicInteger();
+
+    // Scheduling a cancelled timeout does nothing
+    TimingWheel.Timeout cancelled = new TimingWheel.Timeout(runs::incrementAndGet);
+    TestCase.assertTrue(cancelled.cancel());
+    wheel.schedule(cancelled, 10);
+    TestCase.assertEquals(0, wheel.pending());
+
+    // Nor does scheduling a timeout again, even sooner
+    TimingWheel.Timeout once = new TimingWheel.Timeout(runs::incrementAndGet);
+    wheel.schedule(once, 200);
+    wheel.schedule(once, 10);
+    TestCase.assertEquals(1, wheel.pending());
+    Thread.sleep(100);
+    TestCase.assertEquals(0, runs.get());
+
+    Thread.sleep(300);
+    TestCase.assertEquals(1, runs.get());
+    TestCase.assertEquals(0, wheel.pending());
+    TestCase.assertTrue(cancelled.isCancelled());
+  }
+}
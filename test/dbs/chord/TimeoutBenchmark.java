@@ -0,0 +1,77 @@
+package dbs.chord;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the observers' timeouts: a million requests, each scheduling a 5s
+ * timeout which its answer cancels, as when every lookup is answered. Compares
+ * the ScheduledThreadPoolExecutor the dispatcher used, where the timeouts
+ * stayed queued until they were due, with the TimingWheel, and reports the
+ * throughput, the timeouts still queued, and the heap they take. Not a test:
+ * run it with
+ *
+ * java -cp out:test-out dbs.chord.TimeoutBenchmark [timeouts]
+ */
+public class TimeoutBenchmark {
+
+  private static final int DELAY = 5000;
+
+  public static void main(String[] args) throws Exception {
+    int timeouts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    ExecutorService tasks = Executors.newFixedThreadPool(2);
+    Runnable noop = () -> {};
+
+    for (int round = 0; round < 2; round++) { // the first round warms up
+      ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(2);
+      long heap = usedHeap();
+      long start = System.nanoTime();
+      for (int i = 0; i < timeouts; i++)
+        pool.schedule(noop, DELAY, TimeUnit.MILLISECONDS);
+      report(round, "ScheduledThreadPoolExecutor", timeouts, start, pool.getQueue().size(), usedHeap() - heap);
+      pool.shutdownNow();
+
+      ScheduledThreadPoolExecutor cancelling = new ScheduledThreadPoolExecutor(2);
+      heap = usedHeap();
+      start = System.nanoTime();
+      for (int i = 0; i < timeouts; i++) {
+        ScheduledFuture<?> future = cancelling.schedule(noop, DELAY, TimeUnit.MILLISECONDS);
+        future.cancel(false);
+      }
+      report(round, "ScheduledThreadPoolExecutor, cancel", timeouts, start, cancelling.getQueue().size(),
+          usedHeap() - heap);
+      cancelling.shutdownNow();
+
+      TimingWheel wheel = new TimingWheel(Chord.TIMEOUT_TICK, Chord.TIMEOUT_WHEEL_SIZE, tasks);
+      heap = usedHeap();
+      start = System.nanoTime();
+      for (int i = 0; i < timeouts; i++) {
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(noop);
+        wheel.schedule(timeout, DELAY);
+        timeout.cancel();
+      }
+      Thread.sleep(2 * Chord.TIMEOUT_TICK); // a tick drops the cancelled timeouts
+      report(round, "TimingWheel, cancel", timeouts, start, wheel.pending(), usedHeap() - heap);
+    }
+    System.exit(0);
+  }
+
+  private static void report(int round, String name, int timeouts, long start, int queued, long heap) {
+    double seconds = (System.nanoTime() - start) / 1e9;
+    if (round > 0)
+      System.out.printf("%-38s %10.0f ops/s %9d queued %8.1f MB%n", name, timeouts / seconds, queued,
+          heap / 1048576.0);
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,95 @@
+package dbs.chord.messages;
+
+import dbs.chord.Node;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.protocol.BackupChunkMessage;
+import dbs.chord.messages.protocol.BackupResponseMessage;
+import dbs.filesystem.threads.ResultCode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Bytes per message and encode plus decode time of MessageCodec, against the
+ * Java object serialization it replaced, for the most frequent messages of the
+ * ring and of a backup. Serialized messages go through one object stream, as
+ * they did through a connection's, so class descriptors are only written with
+ * the first one. Not a test: run it (without -ea) with
+ *
+ * java -cp out:test-out dbs.chord.messages.CodecBenchmark [rounds]
+ */
+public class CodecBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+    Node.create(new InetSocketAddress("localhost", 8094));
+    NodeInfo self = Node.get().getSelf();
+    NodeInfo other = new NodeInfo(1000L, new InetSocketAddress("127.0.0.1", 10000));
+    byte[] chunk = new byte[64000];
+
+    // every round sends a new message, as the nodes do
+    List<Supplier<ChordMessage>> messages = List.of(
+        () -> new KeepAliveMessage(),
+        () -> new LookupMessage(4000000000L, self),
+        () -> new ResponsibleMessage(new LookupMessage(4000000000L, self), new NodeInfo[] { self, other }),
+        () -> new BackupResponseMessage(99L, 12345L, ResultCode.OK),
+        () -> new BackupChunkMessage(99L, 12345L, 0, 1, chunk.clone()));
+
+    System.out.printf("%-24s %12s %12s %12s %12s%n", "message", "codec bytes", "java bytes", "codec ns", "java ns");
+    for (Supplier<ChordMessage> message : messages) {
+      int n = message.get() instanceof BackupChunkMessage ? rounds / 100 : rounds;
+
+      // warm up, then measure
+      codec(message, n / 4);
+      long start = System.nanoTime();
+      long codecBytes = codec(message, n);
+      long codecNanos = System.nanoTime() - start;
+
+      java(message, n / 4);
+      start = System.nanoTime();
+      long javaBytes = java(message, n);
+      long javaNanos = System.nanoTime() - start;
+
+      System.out.printf("%-24s %12d %12d %12.0f %12.0f%n", message.get().getClass().getSimpleName(),
+          codecBytes / n, javaBytes / n, (double) codecNanos / n, (double) javaNanos / n);
+    }
+  }
+
+  /**
+   * @return The bytes of all the frames.
+   */
+  private static long codec(Supplier<ChordMessage> message, int rounds) throws IOException {
+    long bytes = 0;
+    for (int r = 0; r < rounds; r++) {
+      byte[] frame = MessageCodec.encode(message.get());
+      new FrameReader().next(ByteBuffer.wrap(frame));
+      bytes += frame.length;
+    }
+    return bytes;
+  }
+
+  /**
+   * @return The bytes of the stream, less its header.
+   */
+  private static long java(Supplier<ChordMessage> message, int rounds) throws IOException, ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.flush();
+    int header = bytes.size();
+    for (int r = 0; r < rounds; r++)
+      out.writeObject(message.get());
+    out.flush();
+
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    for (int r = 0; r < rounds; r++)
+      in.readObject();
+    return bytes.size() - header;
+  }
+}
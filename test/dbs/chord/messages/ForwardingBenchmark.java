@@ -0,0 +1,68 @@
+package dbs.chord.messages;
+
+import dbs.chord.Chord;
+import dbs.chord.Node;
+import dbs.chord.NodeInfo;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Encoded size of a LOOKUP after a number of hops, and the time each hop
+ * spends on it in Node.handleLookup besides routing: decode it, check it has
+ * not been through here, copy it for the next hop and encode the copy. Also
+ * the share of other nodes it wrongly claims to have been through. Not a test:
+ * run it (without -ea) with
+ *
+ * java -cp out:test-out dbs.chord.messages.ForwardingBenchmark [rounds]
+ */
+public class ForwardingBenchmark {
+
+  private static final int[] HOPS = { 1, 4, 8, 16, 32, 48 };
+
+  public static void main(String[] args) throws Exception {
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+    Node.create(new InetSocketAddress("localhost", 8093));
+    NodeInfo self = Node.get().getSelf();
+
+    System.out.printf("%6s %10s %12s %12s%n", "hops", "bytes", "ns per hop", "wrong drops");
+    for (int hops : HOPS) {
+      LookupMessage lookup = new LookupMessage(4000000000L, self);
+      for (int i = 1; i < hops; i++)
+        lookup.visit(new NodeInfo(1000L * i, new InetSocketAddress("127.0.0.1", 10000 + i)));
+      byte[] frame = MessageCodec.encode(lookup);
+      byte[] body = Arrays.copyOfRange(frame, 4, frame.length);
+
+      // warm up, then measure
+      hop(body, rounds / 4);
+      long start = System.nanoTime();
+      int dropped = hop(body, rounds);
+      long elapsed = System.nanoTime() - start;
+
+      int wrong = 0;
+      Random random = new Random(hops);
+      for (int r = 0; r < rounds; r++) {
+        if (lookup.visited(new NodeInfo(random.nextLong() & Chord.mask, new InetSocketAddress("127.0.0.1", 9999))))
+          wrong++;
+      }
+
+      System.out.printf("%6d %10d %12.0f %11.3f%%%s%n", hops, frame.length, (double) elapsed / rounds,
+          100.0 * wrong / rounds, dropped > 0 ? "  (next hop dropped as visited)" : "");
+    }
+  }
+
+  private static int hop(byte[] body, int rounds) throws Exception {
+    NodeInfo next = new NodeInfo(7L, new InetSocketAddress("127.0.0.1", 9999));
+    int dropped = 0;
+    for (int r = 0; r < rounds; r++) {
+      LookupMessage lookup = (LookupMessage) MessageCodec.decode(body);
+      if (lookup.visited(next)) {
+        dropped++;
+        continue;
+      }
+      MessageCodec.encode(new LookupMessage(lookup));
+    }
+    return dropped;
+  }
+}
@@ -0,0 +1,315 @@
+package dbs.chord.messages;
+
+import dbs.chord.Node;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.protocol.BackupChunkMessage;
+import dbs.chord.messages.protocol.ChunkQueryMessage;
+import dbs.chord.messages.protocol.ChunkQueryResponseMessage;
+import dbs.chord.messages.protocol.RestoreMessage;
+import dbs.chord.messages.protocol.RestoreResponseMessage;
+import dbs.chord.messages.protocol.TransferAckMessage;
+import dbs.chord.messages.protocol.TransferBatchMessage;
+import dbs.filesystem.ChunkKey;
+import dbs.filesystem.ContentChunker;
+import dbs.filesystem.threads.ResultCode;
+import junit.framework.TestCase;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestMessageCodec {
+
+  @BeforeClass
+  public static void createNode() {
+    // Messages take their sender from the local node
+    if (Node.get() == null)
+      Node.create(new InetSocketAddress("localhost", 8091));
+  }
+
+  private static ChordMessage roundtrip(ChordMessage message) throws IOException {
+    byte[] frame = MessageCodec.encode(message);
+    return read(frame);
+  }
+
+  // Decoded as a connection does, from its bytes
+  private static ChordMessage read(byte[] frame) throws IOException {
+    ChordMessage message = new FrameReader().next(ByteBuffer.wrap(frame));
+    TestCase.assertNotNull(message);
+    return message;
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+
+    NodeInfo self = Node.get().getSelf();
+    LookupMessage message = new LookupMessage(4000000000L, self);
+
+    // Check every field survives the trip
+    LookupMessage decoded = (LookupMessage) roundtrip(message);
+    TestCase.assertEquals(message.getKey(), decoded.getKey());
+    TestCase.assertEquals(self, decoded.getSender());
+    TestCase.assertEquals(self, decoded.getSourceNode());
+    TestCase.assertEquals(message.getChordId(), decoded.getChordId());
+    TestCase.assertTrue(decoded.visited(self));
+    TestCase.assertEquals(message.getRequestId(), decoded.getRequestId());
+  }
+
+  @Test
+  public void testRequestIds() throws Exception {
+
+    // Lookups for the same key are answered apart
+    NodeInfo self = Node.get().getSelf();
+    LookupMessage a = new LookupMessage(77L, self), b = new LookupMessage(77L, self);
+    TestCase.assertFalse(a.getRequestId() == b.getRequestId());
+    TestCase.assertEquals(a.getRequestId(), new LookupMessage(a).getRequestId());
+
+    ResponsibleMessage answer = (ResponsibleMessage) roundtrip(new ResponsibleMessage(b, new NodeInfo[] { self }));
+    TestCase.assertEquals(new RequestKey("RESPONSIBLE", b.getRequestId()), answer.getKey());
+    TestCase.assertEquals(77L, answer.getChordId());
+    Assert.assertArrayEquals(new NodeInfo[] { self }, answer.getSuccessors());
+  }
+
+  @Test
+  public void testPredecessor() throws Exception {
+
+    NodeInfo self = Node.get().getSelf();
+    NodeInfo other = new NodeInfo(5L, new InetSocketAddress("127.0.0.1", 8092));
+    PredecessorMessage message = new PredecessorMessage(other, new NodeInfo[] { self, other });
+
+    PredecessorMessage decoded = (PredecessorMessage) roundtrip(message);
+    TestCase.assertEquals(other, decoded.getPredecessorNode());
+    Assert.assertArrayEquals(new NodeInfo[] { self, other }, decoded.getSuccessors());
+  }
+
+  @Test
+  public void testKeepAlive() throws Exception {
+
+    KeepAliveMessage message = new KeepAliveMessage();
+    KeepAliveMessage ping = (KeepAliveMessage) roundtrip(message);
+    TestCase.assertEquals(message.getRequestId(), ping.getRequestId());
+
+    AliveMessage pong = (AliveMessage) roundtrip(new AliveMessage(ping.getRequestId()));
+    TestCase.assertEquals(new RequestKey("ISALIVE", message.getRequestId()), pong.getKey());
+  }
+
+  @Test
+  public void testFindNext() throws Exception {
+
+    FindNextMessage message = new FindNextMessage(4000000000L);
+    FindNextMessage query = (FindNextMessage) roundtrip(message);
+    TestCase.assertEquals(message.getRequestId(), query.getRequestId());
+    TestCase.assertEquals(4000000000L, query.getChordId());
+
+    NodeInfo self = Node.get().getSelf();
+    NextHopsMessage hops = (NextHopsMessage) roundtrip(
+        new NextHopsMessage(query.getRequestId(), true, new NodeInfo[] { self }));
+    TestCase.assertEquals(new RequestKey("NEXTHOPS", message.getRequestId()), hops.getKey());
+    TestCase.assertTrue(hops.isResponsible());
+    Assert.assertArrayEquals(new NodeInfo[] { self }, hops.getNodes());
+  }
+
+  @Test
+  public void testBatchLookup() throws Exception {
+
+    NodeInfo self = Node.get().getSelf();
+    long[] chordIds = { 0L, 77L, 4000000000L };
+    BatchLookupMessage lookup = (BatchLookupMessage) roundtrip(new BatchLookupMessage(9L, chordIds, self));
+    TestCase.assertEquals(9L, lookup.getBatchId());
+    TestCase.assertEquals(self, lookup.getSourceNode());
+    Assert.assertArrayEquals(chordIds, lookup.getChordIds());
+
+    BatchResponsibleMessage answer = (BatchResponsibleMessage) roundtrip(
+        new BatchResponsibleMessage(9L, new long[] { 77L }, new NodeInfo[] { self }));
+    TestCase.assertEquals(9L, answer.getBatchId());
+    Assert.assertArrayEquals(new long[] { 77L }, answer.getChordIds());
+    Assert.assertArrayEquals(new NodeInfo[] { self }, answer.getSuccessors());
+  }
+
+  @Test
+  public void testChunks() throws Exception {
+
+    byte[] chunk = new byte[1000];
+    Arrays.fill(chunk, (byte) 7);
+    BackupChunkMessage message = new BackupChunkMessage(99L, 12345L, 2, 3, chunk);
+
+    BackupChunkMessage decoded = (BackupChunkMessage) roundtrip(message);
+    TestCase.assertEquals(99L, decoded.getRequestId());
+    TestCase.assertEquals(message.getFileId(), decoded.getFileId());
+    TestCase.assertEquals(2, decoded.getChunkNum());
+    TestCase.assertEquals(3, decoded.getNumChunks());
+    TestCase.assertTrue(decoded.isLast());
+    Assert.assertArrayEquals(chunk, decoded.getChunkContent());
+  }
+
+  @Test
+  public void testResultCode() throws Exception {
+
+    RestoreResponseMessage message = new RestoreResponseMessage(99L, 1L, ResultCode.NOT_FOUND);
+
+    RestoreResponseMessage decoded = (RestoreResponseMessage) roundtrip(message);
+    TestCase.assertEquals(new RequestKey("RESTORERESPONSE", 99L), decoded.getKey());
+    TestCase.assertEquals(1L, decoded.getFileId());
+    TestCase.assertEquals(ResultCode.NOT_FOUND, decoded.getResultCode());
+  }
+
+  @Test
+  public void testRestoreProbe() throws Exception {
+
+    RestoreMessage probe = (RestoreMessage) roundtrip(new RestoreMessage(42L, true));
+    TestCase.assertEquals(42L, probe.getFileId());
+    TestCase.assertTrue(probe.isProbe());
+
+    RestoreMessage request = (RestoreMessage) roundtrip(new RestoreMessage(42L));
+    TestCase.assertFalse(request.isProbe());
+  }
+
+  @Test
+  public void testChunkQuery() throws Exception {
+
+    ChunkKey a = ChunkKey.of(ContentChunker.hash(new byte[] { 1 }), 0, 2);
+    ChunkKey b = ChunkKey.of(ContentChunker.hash(new byte[] { 1 }), 1, 2);
+    ChunkQueryMessage message = new ChunkQueryMessage(Arrays.asList(a, b));
+    ChunkQueryMessage query = (ChunkQueryMessage) roundtrip(message);
+    TestCase.assertEquals(message.getRequestId(), query.getRequestId());
+    TestCase.assertEquals(Arrays.asList(a, b), query.getChunkKeys());
+
+    boolean[] stored = new boolean[11];
+    stored[0] = stored[9] = true;
+    ChunkQueryResponseMessage response = (ChunkQueryResponseMessage) roundtrip(
+        new ChunkQueryResponseMessage(query.getRequestId(), stored));
+    TestCase.assertEquals(new RequestKey("CHUNKQUERYRESPONSE", message.getRequestId()), response.getKey());
+    Assert.assertArrayEquals(stored, response.getStored());
+  }
+
+  @Test
+  public void testTransferBatch() throws Exception {
+
+    byte[] a = { 1, 2, 3 }, b = {};
+    TransferBatchMessage message = new TransferBatchMessage(Arrays.asList(100L, 200L), Arrays.asList(a, b));
+    TransferBatchMessage batch = (TransferBatchMessage) roundtrip(message);
+    TestCase.assertEquals(message.getRequestId(), batch.getRequestId());
+    TestCase.assertEquals(2, batch.size());
+    TestCase.assertEquals(200L, batch.getFileId(1));
+    Assert.assertArrayEquals(a, batch.getFileContent(0));
+    Assert.assertArrayEquals(b, batch.getFileContent(1));
+
+    boolean[] stored = { true, false };
+    TransferAckMessage ack = (TransferAckMessage) roundtrip(new TransferAckMessage(batch.getRequestId(), stored));
+    TestCase.assertEquals(new RequestKey("TRANSFERACK", message.getRequestId()), ack.getKey());
+    Assert.assertArrayEquals(stored, ack.getStored());
+  }
+
+  @Test
+  public void testLanes() throws Exception {
+
+    // Ring maintenance goes ahead, whatever its size; file data does not
+    NodeInfo self = Node.get().getSelf();
+    TestCase.assertTrue(MessageCodec.isControl(MessageCodec.encode(new KeepAliveMessage())));
+    TestCase.assertTrue(MessageCodec.isControl(MessageCodec.encode(new BatchLookupMessage(9L, new long[300], self))));
+    TestCase.assertFalse(MessageCodec.isControl(MessageCodec.encode(new BackupChunkMessage(99L, 12345L, 0, 1, new byte[10]))));
+    TestCase.assertFalse(MessageCodec.isControl(MessageCodec.encode(new RestoreResponseMessage(99L, 12345L, ResultCode.OK))));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownType() throws Exception {
+
+    byte[] frame = MessageCodec.encode(new KeepAliveMessage());
+    frame[4] = (byte) 0xff;
+    read(frame);
+  }
+
+  @Test
+  public void testPieces() throws Exception {
+
+    // Two frames arriving a few bytes at a time, as TLS records cut them
+    byte[] first = MessageCodec.encode(new KeepAliveMessage());
+    byte[] second = MessageCodec.encode(new BackupChunkMessage(99L, 12345L, 0, 1, new byte[100]));
+    ByteBuffer bytes = ByteBuffer.allocate(first.length + second.length).put(first).put(second);
+    bytes.flip();
+
+    FrameReader reader = new FrameReader();
+    List<ChordMessage> messages = new ArrayList<>();
+    ByteBuffer piece = ByteBuffer.allocate(7);
+    while (bytes.hasRemaining()) {
+      while (bytes.hasRemaining() && piece.hasRemaining())
+        piece.put(bytes.get());
+      piece.flip();
+      for (ChordMessage message; (message = reader.next(piece)) != null;)
+        messages.add(message);
+      piece.compact();
+    }
+    TestCase.assertEquals(2, messages.size());
+    TestCase.assertTrue(messages.get(0) instanceof KeepAliveMessage);
+    TestCase.assertEquals(100, ((BackupChunkMessage) messages.get(1)).getChunkContent().length);
+  }
+
+  @Test
+  public void testSplitFrame() throws Exception {
+
+    // A chunk cut in three pieces, with keep alives before, between and after them
+    byte[] ping = MessageCodec.encode(new KeepAliveMessage());
+    byte[] chunk = MessageCodec.encode(new BackupChunkMessage(99L, 12345L, 0, 1, new byte[10000]));
+    ByteBuffer bytes = ByteBuffer.allocate(4 * ping.length + chunk.length + 12);
+    bytes.put(ping);
+    for (int from = 0; from < chunk.length; from += 4000) {
+      int length = Math.min(4000, chunk.length - from);
+      bytes.putInt(MessageCodec.PIECE | length).put(chunk, from, length).put(ping);
+    }
+    bytes.flip();
+
+    FrameReader reader = new FrameReader();
+    List<ChordMessage> messages = new ArrayList<>();
+    for (ChordMessage message; (message = reader.next(bytes)) != null;)
+      messages.add(message);
+    TestCase.assertEquals(5, messages.size());
+    TestCase.assertFalse(bytes.hasRemaining());
+    for (int i : new int[] { 0, 1, 2, 4 })
+      TestCase.assertTrue(messages.get(i) instanceof KeepAliveMessage);
+    TestCase.assertEquals(10000, ((BackupChunkMessage) messages.get(3)).getChunkContent().length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testPieceTooLong() throws Exception {
+
+    byte[] chunk = MessageCodec.encode(new BackupChunkMessage(99L, 12345L, 0, 1, new byte[100]));
+    ByteBuffer bytes = ByteBuffer.allocate(chunk.length + 8);
+    bytes.putInt(MessageCodec.PIECE | 50).put(chunk, 0, 50);
+    bytes.putInt(MessageCodec.PIECE | chunk.length).put(chunk, 50, 2);
+    bytes.flip();
+    new FrameReader().next(bytes);
+  }
+
+  @Test
+  public void testFrameSize() throws Exception {
+
+    // The largest transfer batch fits in a frame
+    byte[] file = new byte[64000];
+    TransferBatchMessage batch = new TransferBatchMessage(Collections.nCopies(64, 100L), Collections.nCopies(64, file));
+    TestCase.assertTrue(MessageCodec.encode(batch).length <= MessageCodec.MAX_FRAME_SIZE);
+  }
+
+  @Test(expected = IOException.class)
+  public void testFrameTooLargeToSend() throws Exception {
+
+    MessageCodec.encode(new BackupChunkMessage(99L, 12345L, 0, 1, new byte[MessageCodec.MAX_FRAME_SIZE]));
+  }
+
+  @Test(expected = IOException.class)
+  public void testFrameTooLargeToRead() throws Exception {
+
+    byte[] frame = MessageCodec.encode(new KeepAliveMessage());
+    int length = MessageCodec.MAX_FRAME_SIZE + 1;
+    frame[0] = (byte) (length >>> 24);
+    frame[1] = (byte) (length >>> 16);
+    frame[2] = (byte) (length >>> 8);
+    frame[3] = (byte) length;
+    read(frame);
+  }
+}
@@ -0,0 +1,123 @@
+package dbs.filesystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dbs.chord.Node;
+
+/**
+ * Backup files written and read back through the FileManager's asynchronous
+ * channels, against the same chunks written and read with blocking streams on
+ * one thread per file. Each is measured with one file, then with several files
+ * at once. Not a test: run it with
+ *
+ * java -cp out:test-out dbs.filesystem.FileIOBenchmark [file MB] [files at once]
+ */
+public class FileIOBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final long FIRST_FILE_ID = 4_000_000_000L;
+
+  public static void main(String[] args) throws Exception {
+    int fileSize = (args.length > 0 ? Integer.parseInt(args[0]) : 64) << 20;
+    int files = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+    Node.create(new InetSocketAddress("localhost", 29800));
+    FileManager manager = FileManager.getInstance();
+    ExecutorService blocking = Executors.newFixedThreadPool(files);
+
+    byte[][] contents = new byte[files][fileSize];
+    Random random = new Random(0);
+    for (byte[] content : contents)
+      random.nextBytes(content);
+
+    System.out.printf("%d MB files, %d byte chunks%n", fileSize >> 20, Configuration.CHUNK_SIZE);
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int n : new int[] { 1, files }) {
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+          writes.add(manager.launchBackupWriter(FIRST_FILE_ID + i, contents[i]));
+        for (CompletableFuture<Void> write : writes)
+          write.get();
+        long asyncWrite = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+          reads.add(manager.launchRestoreReader(FIRST_FILE_ID + i));
+        for (CompletableFuture<byte[]> read : reads)
+          read.get();
+        long asyncRead = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+          int file = i;
+          tasks.add(blocking.submit(() -> write(path(file), contents[file])));
+        }
+        for (Future<?> task : tasks)
+          task.get();
+        long blockingWrite = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        tasks.clear();
+        for (int i = 0; i < n; i++) {
+          int file = i;
+          tasks.add(blocking.submit(() -> read(path(file), fileSize)));
+        }
+        for (Future<?> task : tasks)
+          task.get();
+        long blockingRead = System.nanoTime() - start;
+
+        double mb = (double) n * fileSize / (1 << 20);
+        System.out.printf("round %d, %d files: async write %.0f MB/s read %.0f MB/s, blocking write %.0f MB/s read %.0f MB/s%n",
+            round, n, mb / (asyncWrite / 1e9), mb / (asyncRead / 1e9), mb / (blockingWrite / 1e9),
+            mb / (blockingRead / 1e9));
+      }
+    }
+
+    for (int i = 0; i < files; i++) {
+      manager.launchEraser(FIRST_FILE_ID + i).get();
+      new File(path(i)).delete();
+    }
+    blocking.shutdown();
+    System.exit(0);
+  }
+
+  private static String path(int file) {
+    return FileManager.BACKUP_FOLDER + "blocking-" + file;
+  }
+
+  private static Void write(String path, byte[] content) throws IOException {
+    try (OutputStream out = new FileOutputStream(path)) {
+      for (int from = 0; from < content.length; from += Configuration.CHUNK_SIZE)
+        out.write(content, from, Math.min(Configuration.CHUNK_SIZE, content.length - from));
+    }
+    return null;
+  }
+
+  private static byte[] read(String path, int size) throws IOException {
+    byte[] content = new byte[size];
+    try (InputStream in = new FileInputStream(path)) {
+      for (int from = 0, read; from < size; from += read) {
+        read = in.read(content, from, Math.min(Configuration.CHUNK_SIZE, size - from));
+        if (read < 0)
+          throw new IOException("Short file " + path);
+      }
+    }
+    return content;
+  }
+}
@@ -0,0 +1,70 @@
+package dbs.filesystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Startup time of a MetadataStore: loading a snapshot of a million records,
+ * then the same with the longest log of changes to replay on top of it. Not a
+ * test: run it with
+ *
+ * java -cp out:test-out dbs.filesystem.MetadataStoreBenchmark [records]
+ */
+public class MetadataStoreBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    Path folder = Files.createTempDirectory("dbs-metadata");
+    Random random = new Random(0);
+
+    // fill the store without forcing each append, it is not being measured
+    MetadataStore store = MetadataStore.open(folder, false);
+    for (int i = 0; i < records; i++)
+      store.put(random.nextLong() & 0xffffffffL, record(random));
+    store.close();
+    System.out.printf("snapshot of %d records, %d bytes%n", store.size(), Files.size(folder.resolve("files.snapshot")));
+
+    // warm up the loading path before measuring
+    store = null;
+    for (int i = 0; i < 3; i++)
+      MetadataStore.open(folder, false).close();
+    measure("snapshot only", folder);
+
+    // the log is compacted once it holds more than half as many records as the
+    // store, so this is the most it may ever have to replay
+    store = MetadataStore.open(folder, false);
+    random = new Random(0);
+    for (int i = 0, changes = store.size() / 2; i < changes; i++)
+      store.put(random.nextLong() & 0xffffffffL, record(random));
+    store = null;
+    System.out.printf("log of %d bytes%n", Files.size(folder.resolve("files.log")));
+    measure("snapshot and log", folder);
+  }
+
+  private static FileRecord record(Random random) {
+    switch (random.nextInt(3)) {
+    case 0:
+      return FileRecord.erasure(new ErasureLayout(4, 2, random.nextInt(1 << 30)));
+    case 1:
+      return FileRecord.dedup(1 + random.nextInt(5));
+    default:
+      return FileRecord.full(1 + random.nextInt(5));
+    }
+  }
+
+  /**
+   * Open the store a few times, from a collected heap, without closing it so
+   * the log is replayed every time.
+   */
+  private static void measure(String name, Path folder) throws IOException {
+    for (int run = 0; run < 3; run++) {
+      System.gc();
+      long start = System.nanoTime();
+      MetadataStore store = MetadataStore.open(folder, false);
+      long elapsed = System.nanoTime() - start;
+      System.out.printf("%-18s %d records in %d ms%n", name, store.size(), elapsed / 1_000_000);
+    }
+  }
+}
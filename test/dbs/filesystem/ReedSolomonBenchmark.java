@@ -0,0 +1,65 @@
+package dbs.filesystem;
+
+import java.util.Random;
+
+/**
+ * Encoder and decoder throughput of ReedSolomon, on stripes of CHUNK_SIZE
+ * fragments. Not a test: run it with
+ *
+ * java -cp out:test-out dbs.filesystem.ReedSolomonBenchmark [seconds]
+ *
+ * Throughput is counted in bytes of file data, i.e. k fragments per stripe.
+ * Decoding is measured with all m parity fragments standing in for the first m
+ * data fragments, the most expensive case.
+ */
+public class ReedSolomonBenchmark {
+
+  private static final int[][] CODES = { { 4, 2 }, { 6, 3 }, { 10, 4 } };
+
+  public static void main(String[] args) {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+    int length = Configuration.CHUNK_SIZE;
+
+    for (int[] code : CODES) {
+      ReedSolomon coder = new ReedSolomon(code[0], code[1]);
+      byte[][] fragments = new byte[coder.getTotalFragments()][length];
+      Random random = new Random(0);
+      for (int j = 0; j < coder.getDataFragments(); j++)
+        random.nextBytes(fragments[j]);
+
+      // warm up both paths before measuring
+      run(coder, fragments, length, true, seconds / 2);
+      run(coder, fragments, length, false, seconds / 2);
+
+      double encode = run(coder, fragments, length, true, seconds);
+      double decode = run(coder, fragments, length, false, seconds);
+      System.out.printf("%2d+%d  encode %7.1f MB/s  decode %7.1f MB/s%n", code[0], code[1], encode, decode);
+    }
+  }
+
+  /**
+   * @return The throughput in MB/s of file data.
+   */
+  private static double run(ReedSolomon coder, byte[][] fragments, int length, boolean encode, double seconds) {
+    int k = coder.getDataFragments();
+    int m = coder.getParityFragments();
+    long deadline = System.nanoTime() + (long) (seconds * 1e9);
+    long start = System.nanoTime();
+    long stripes = 0;
+
+    while (System.nanoTime() < deadline) {
+      if (encode) {
+        coder.encode(fragments, length);
+      } else {
+        byte[][] lost = fragments.clone();
+        for (int j = 0; j < m; j++)
+          lost[j] = null;
+        coder.decode(lost, length);
+      }
+      stripes++;
+    }
+
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    return stripes * k * (double) length / elapsed / 1e6;
+  }
+}
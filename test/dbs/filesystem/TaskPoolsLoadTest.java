@@ -0,0 +1,60 @@
+package dbs.filesystem;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dbs.chord.Node;
+import dbs.chord.TaskPools;
+
+/**
+ * Many restores streamed at once to slow peers: restore streams of a small
+ * backup, all launched together, each with a consumer that takes a while per
+ * chunk as when sending to a slow peer. Reports how many streams ran at once
+ * and how long they all took, in the execution mode of -Ddbs.threads (see
+ * TaskPools). Not a test: run it with each mode, e.g.
+ *
+ * java -Ddbs.threads=elastic -cp out:test-out dbs.filesystem.TaskPoolsLoadTest [streams] [ms per chunk]
+ */
+public class TaskPoolsLoadTest {
+
+  private static final int CHUNKS = 4;
+  private static final long FILE_ID = 4_100_000_000L;
+
+  public static void main(String[] args) throws Exception {
+    int streams = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int chunkMillis = args.length > 1 ? Integer.parseInt(args[1]) : 25;
+
+    Node.create(new InetSocketAddress("localhost", 29801));
+    FileManager manager = FileManager.getInstance();
+    manager.launchBackupWriter(FILE_ID, new byte[CHUNKS * Configuration.CHUNK_SIZE]).get();
+
+    AtomicInteger running = new AtomicInteger(), mostRunning = new AtomicInteger();
+    long start = System.nanoTime();
+    List<CompletableFuture<Integer>> restores = new ArrayList<>();
+    for (int s = 0; s < streams; s++) {
+      restores.add(manager.launchRestoreStreamer(FILE_ID, (chunkNum, numChunks, chunk) -> {
+        if (chunkNum == 0)
+          mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(chunkMillis);
+        } catch (InterruptedException e) {
+          return false;
+        }
+        if (chunkNum == numChunks - 1)
+          running.decrementAndGet();
+        return true;
+      }));
+    }
+    for (CompletableFuture<Integer> restore : restores)
+      restore.get();
+    long elapsed = System.nanoTime() - start;
+
+    System.out.printf("%s: %d streams of %d chunks, at most %d at once, %d ms total%n", TaskPools.MODE, streams,
+        CHUNKS, mostRunning.get(), elapsed / 1_000_000);
+    manager.launchEraser(FILE_ID).get();
+    System.exit(0);
+  }
+}
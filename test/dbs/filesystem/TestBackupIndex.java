@@ -0,0 +1,38 @@
+package dbs.filesystem;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import java.util.Arrays;
+
+public class TestBackupIndex {
+
+  @Test
+  public void testSizes() {
+
+    BackupIndex index = new BackupIndex();
+    index.grow(10L, 100);
+    index.grow(20L, 300);
+    index.grow(10L, 50); // chunks written out of order never shrink a backup
+    TestCase.assertEquals(400L, index.getTotalSize());
+
+    index.grow(10L, 200);
+    index.remove(20L);
+    index.remove(30L);
+    TestCase.assertEquals(200L, index.getTotalSize());
+    TestCase.assertEquals(-1L, index.getSize(20L));
+  }
+
+  @Test
+  public void testRange() {
+
+    BackupIndex index = new BackupIndex();
+    for (long id : new long[] { 5, 10, 20, 40 })
+      index.grow(id, id);
+
+    TestCase.assertEquals(Arrays.asList(10L, 20L), index.inRange(5, 20));
+    // The interval wraps around the end of the ring
+    TestCase.assertEquals(Arrays.asList(40L, 5L), index.inRange(20, 5));
+    TestCase.assertEquals(4, index.inRange(10, 10).size());
+    TestCase.assertEquals(Arrays.asList(40L, 20L, 10L, 5L), index.largestFirst());
+  }
+}
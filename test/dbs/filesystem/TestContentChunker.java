@@ -0,0 +1,90 @@
+package dbs.filesystem;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class TestContentChunker {
+
+  private static List<byte[]> split(byte[] data) throws IOException {
+    List<byte[]> chunks = new ArrayList<>();
+    try (ContentChunker chunker = new ContentChunker(new ByteArrayInputStream(data))) {
+      byte[] chunk;
+      while ((chunk = chunker.next()) != null)
+        chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  private static HashSet<String> ids(List<byte[]> chunks) {
+    HashSet<String> ids = new HashSet<>();
+    for (byte[] chunk : chunks)
+      ids.add(Arrays.toString(ContentChunker.hash(chunk)));
+    return ids;
+  }
+
+  @Test
+  public void testSplit() throws IOException {
+
+    byte[] data = new byte[3_000_000];
+    new Random(1).nextBytes(data);
+    List<byte[]> chunks = split(data);
+
+    // Chunks cover the whole stream, in order, within bounds
+    int position = 0;
+    for (int i = 0; i < chunks.size(); i++) {
+      byte[] chunk = chunks.get(i);
+      TestCase.assertTrue(chunk.length <= ContentChunker.MAX_CHUNK);
+      TestCase.assertTrue(i == chunks.size() - 1 || chunk.length >= ContentChunker.MIN_CHUNK);
+      Assert.assertArrayEquals(Arrays.copyOfRange(data, position, position + chunk.length), chunk);
+      position += chunk.length;
+    }
+    TestCase.assertEquals(data.length, position);
+    TestCase.assertEquals(0, split(new byte[0]).size());
+  }
+
+  @Test
+  public void testInsertion() throws IOException {
+
+    byte[] data = new byte[3_000_000];
+    new Random(2).nextBytes(data);
+
+    // Insert a few bytes in the middle of the stream
+    byte[] edited = new byte[data.length + 5];
+    System.arraycopy(data, 0, edited, 0, 1_500_000);
+    System.arraycopy(data, 1_500_000, edited, 1_500_005, data.length - 1_500_000);
+
+    HashSet<String> before = ids(split(data));
+    HashSet<String> after = ids(split(edited));
+    after.removeAll(before);
+
+    // Only the chunks around the edit change
+    TestCase.assertTrue("changed chunks: " + after.size(), after.size() <= 2);
+  }
+
+  @Test
+  public void testManifest() throws IOException {
+
+    ChunkManifest manifest = new ChunkManifest();
+    manifest.add(ContentChunker.hash(new byte[] { 1 }), 1);
+    manifest.add(ContentChunker.hash(new byte[] { 2, 3 }), 2);
+
+    ChunkManifest decoded = ChunkManifest.decode(manifest.encode());
+    TestCase.assertEquals(2, decoded.size());
+    TestCase.assertEquals(3, decoded.getFileSize());
+    Assert.assertArrayEquals(manifest.getHash(1), decoded.getHash(1));
+    TestCase.assertEquals(2, decoded.getLength(1));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotAManifest() throws IOException {
+    ChunkManifest.decode(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+  }
+}
@@ -0,0 +1,77 @@
+package dbs.filesystem;
+
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class TestMetadataStore {
+
+  private Path folder;
+
+  @Before
+  public void createFolder() throws IOException {
+    folder = Files.createTempDirectory("dbs-metadata");
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+
+    MetadataStore store = MetadataStore.open(folder, true);
+    store.put(1L, FileRecord.full(3));
+    store.put(2L, FileRecord.erasure(new ErasureLayout(4, 2, 12345L)));
+    store.put(3L, FileRecord.dedup(2));
+    store.remove(1L);
+    store.put(3L, FileRecord.full(5));
+
+    // Reopen without closing, as after a crash: the log is replayed
+    MetadataStore reopened = MetadataStore.open(folder, true);
+    TestCase.assertEquals(2, reopened.size());
+    TestCase.assertEquals(null, reopened.get(1L));
+    TestCase.assertEquals(12345L, reopened.get(2L).getErasureLayout().getFileSize());
+    TestCase.assertTrue(reopened.get(3L).isFull());
+    TestCase.assertEquals(5, reopened.get(3L).getReplicationDegree());
+  }
+
+  @Test
+  public void testCompact() throws IOException {
+
+    MetadataStore store = MetadataStore.open(folder, true);
+    store.put(1L, FileRecord.dedup(2));
+    store.compact();
+    store.put(2L, FileRecord.full(1));
+    store.close();
+
+    MetadataStore reopened = MetadataStore.open(folder, true);
+    TestCase.assertEquals(2, reopened.size());
+    TestCase.assertTrue(reopened.get(1L).isDedup());
+    TestCase.assertEquals(0L, Files.size(folder.resolve("files.log")));
+  }
+
+  @Test
+  public void testTornRecord() throws IOException {
+
+    MetadataStore store = MetadataStore.open(folder, true);
+    store.put(1L, FileRecord.full(3));
+    store.put(2L, FileRecord.full(3));
+
+    // Cut the last record short, as a crash in the middle of an append would
+    Path log = folder.resolve("files.log");
+    long whole = Files.size(log);
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+      channel.truncate(whole - 3);
+    }
+
+    MetadataStore reopened = MetadataStore.open(folder, true);
+    TestCase.assertEquals(1, reopened.size());
+    TestCase.assertEquals(3, reopened.get(1L).getReplicationDegree());
+
+    // The torn record was cut off, and appending goes on from there
+    reopened.put(3L, FileRecord.full(1));
+    TestCase.assertEquals(2, MetadataStore.open(folder, true).size());
+  }
+}
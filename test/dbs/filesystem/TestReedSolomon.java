@@ -0,0 +1,76 @@
+package dbs.filesystem;
+
+import junit.framework.TestCase;
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Random;
+
+public class TestReedSolomon {
+
+  private static byte[][] stripe(ReedSolomon coder, int length, long seed) {
+    Random random = new Random(seed);
+    byte[][] fragments = new byte[coder.getTotalFragments()][length];
+    for (int j = 0; j < coder.getDataFragments(); j++)
+      random.nextBytes(fragments[j]);
+    coder.encode(fragments, length);
+    return fragments;
+  }
+
+  @Test
+  public void testField() {
+
+    // Every non zero element has an inverse
+    for (int a = 1; a < 256; a++)
+      TestCase.assertEquals(1, ReedSolomon.multiply(a, ReedSolomon.inverse(a)));
+  }
+
+  @Test
+  public void testAnyErasures() {
+
+    ReedSolomon coder = new ReedSolomon(4, 2);
+    byte[][] original = stripe(coder, 1000, 1);
+
+    // Lose every possible pair of fragments
+    for (int a = 0; a < 6; a++) {
+      for (int b = a + 1; b < 6; b++) {
+        byte[][] fragments = original.clone();
+        fragments[a] = null;
+        fragments[b] = null;
+        coder.decode(fragments, 1000);
+
+        for (int j = 0; j < 4; j++)
+          Assert.assertArrayEquals("lost " + a + " and " + b, original[j], fragments[j]);
+      }
+    }
+  }
+
+  @Test
+  public void testWideCode() {
+
+    ReedSolomon coder = new ReedSolomon(10, 4);
+    byte[][] original = stripe(coder, 333, 2);
+
+    // Keep the parity and the last data fragments only
+    byte[][] fragments = original.clone();
+    for (int j = 0; j < 4; j++)
+      fragments[j] = null;
+    coder.decode(fragments, 333);
+
+    for (int j = 0; j < 10; j++)
+      Assert.assertArrayEquals(original[j], fragments[j]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooFewFragments() {
+
+    ReedSolomon coder = new ReedSolomon(3, 2);
+    byte[][] fragments = stripe(coder, 10, 3);
+    fragments[0] = fragments[1] = fragments[4] = null;
+    coder.decode(fragments, 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooManyFragments() {
+    new ReedSolomon(200, 57);
+  }
+}
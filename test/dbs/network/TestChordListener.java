@@ -0,0 +1,108 @@
+package dbs.network;
+
+import dbs.chord.Chord;
+import dbs.chord.Node;
+import dbs.chord.NodeInfo;
+import dbs.chord.messages.KeepAliveMessage;
+import dbs.chord.messages.protocol.BackupChunkMessage;
+import dbs.chord.messages.protocol.TransferBatchMessage;
+import dbs.filesystem.Configuration;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+public class TestChordListener {
+
+  private ServerSocketChannel peer;
+  private SocketChannel channel;
+  private EventLoop loop;
+
+  @BeforeClass
+  public static void createNode() {
+    // Messages take their sender from the local node
+    if (Node.get() == null)
+      Node.create(new InetSocketAddress("localhost", 8095));
+  }
+
+  @Before
+  public void connect() throws Exception {
+    peer = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+    channel = SocketChannel.open(peer.getLocalAddress());
+    channel.configureBlocking(false);
+    loop = new EventLoop("test-loop");
+  }
+
+  @After
+  public void close() throws Exception {
+    loop.shutdown();
+    channel.close();
+    peer.close();
+  }
+
+  /**
+   * A listener to a peer which accepts the connection but never reads from
+   * it, so that whatever is sent to it stays queued.
+   */
+  private ChordListener listener() throws Exception {
+    SSLEngine engine = SSLContext.getDefault().createSSLEngine();
+    engine.setUseClientMode(true);
+    NodeInfo remote = new NodeInfo(1000L, (InetSocketAddress) peer.getLocalAddress());
+    return new ChordListener(channel, engine, loop, remote);
+  }
+
+  @Test
+  public void testTransferWindow() throws Exception {
+
+    ChordListener listener = listener();
+
+    // The largest batches a range transfer sends: files of a chunk each, up to
+    // the file or the byte limit, whichever comes first
+    int files = Math.min(Chord.TRANSFER_BATCH_FILES,
+        (Chord.TRANSFER_BATCH_BYTES + Configuration.CHUNK_SIZE - 1) / Configuration.CHUNK_SIZE);
+    byte[] file = new byte[Configuration.CHUNK_SIZE];
+    for (int b = 0; b < Chord.TRANSFER_WINDOW; b++) {
+      TestCase.assertTrue(listener.sendMessage(
+          new TransferBatchMessage(Collections.nCopies(files, 100L), Collections.nCopies(files, file))));
+    }
+
+    // A full window still leaves room for the ring's messages and file chunks
+    TestCase.assertTrue(listener.sendMessage(new KeepAliveMessage()));
+    TestCase.assertTrue(listener.sendMessage(new BackupChunkMessage(99L, 12345L, 0, 1, file)));
+    TestCase.assertTrue(listener.sendMessage(new KeepAliveMessage()));
+  }
+
+  @Test
+  public void testControlNeverStuck() throws Exception {
+
+    ChordListener listener = listener();
+
+    // Nearly three times the queue limit of file data, queued by the loop,
+    // which never waits: each just fits under twice the limit when queued
+    byte[] chunk = new byte[Chord.SEND_QUEUE_LIMIT - 1024];
+    CompletableFuture<Boolean> queued = new CompletableFuture<>();
+    loop.execute(() -> {
+      try {
+        boolean all = true;
+        for (int i = 0; i < 3; i++)
+          all &= listener.sendMessage(new BackupChunkMessage(99L, 12345L, i, 3, chunk));
+        queued.complete(all);
+      } catch (RuntimeException e) {
+        queued.completeExceptionally(e);
+      }
+    });
+    TestCase.assertTrue(queued.get());
+
+    // The ring's messages still go in
+    TestCase.assertTrue(listener.sendMessage(new KeepAliveMessage()));
+    TestCase.assertTrue(listener.sendMessage(new KeepAliveMessage()));
+  }
+}